@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Provides the XML inputs of the benchmarks. An input is either the name of
+ * one of the bundled <code>exi-*.xml</code> resources or
+ * <code>generated-</code><i>n</i>, which stands for a generated feed of
+ * <i>n</i> entries. Generated feeds use a fixed seed, so every run measures
+ * the same document. <code>corpus-</code><i>n</i> stands for a document of
+ * about <i>n</i> bytes produced by the {@link CorpusGenerator} with its
+ * default settings.
+ */
+public final class BenchmarkInputs {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The prefix of generated inputs.
+     */
+    public static final String GENERATED = "generated-";
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The prefix of inputs produced by the corpus generator.
+     */
+    public static final String CORPUS = "corpus-";
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The categories used in generated feeds.
+     */
+    private static final String[] CATEGORIES = {
+        "sensor", "actuator", "gateway", "relay", "controller", "display",
+    };
+
+    // ------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------
+
+    /**
+     * No instances.
+     */
+    private BenchmarkInputs( ) {
+        super( );
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the XML document for the specified input name.
+     *
+     * @param name The input name.
+     * @return The XML document.
+     * @throws IOException If a resource can't be read.
+     */
+    public static byte[] load(String name) throws IOException {
+        if (name.startsWith(GENERATED)) {
+            return generate(Integer.parseInt(name.substring(GENERATED.length( ))));
+        }
+        if (name.startsWith(CORPUS)) {
+            CorpusGenerator generator = new CorpusGenerator( );
+            generator.setSize(Long.parseLong(name.substring(CORPUS.length( ))));
+            ByteArrayOutputStream os = new ByteArrayOutputStream( );
+            generator.generate(os);
+            return os.toByteArray( );
+        }
+        InputStream is = BenchmarkInputs.class.getClassLoader( ).getResourceAsStream(name);
+        if (is == null) {
+            throw new IOException("No such resource: " + name);
+        }
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream( );
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = is.read(buffer)) > 0) {
+                os.write(buffer, 0, n);
+            }
+            return os.toByteArray( );
+        } finally {
+            is.close( );
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Generates a feed document with the specified number of entries. The
+     * entries mix recurring and unique names and values, attributes and
+     * nested elements, so that all string table partitions and grammar
+     * extensions are exercised. All elements live in a single namespace.
+     *
+     * @param entries The number of entries.
+     * @return The XML document.
+     */
+    public static byte[] generate(int entries) {
+        Random random = new Random(entries);
+        StringBuilder sb = new StringBuilder( );
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<feed xmlns=\"urn:example:feed\">\n");
+        for (int i = 0; i < entries; ++i) {
+            String category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+            sb.append("  <entry id=\"").append(i).append("\" category=\"").append(category).append("\">\n");
+            sb.append("    <name>").append(category).append('-').append(random.nextInt(100)).append("</name>\n");
+            sb.append("    <value unit=\"").append(random.nextBoolean( ) ? "C" : "%").append("\">");
+            sb.append(random.nextInt(1000) / 10.0).append("</value>\n");
+            sb.append("    <timestamp>").append(1262304000L + 60L * i).append("</timestamp>\n");
+            if (random.nextInt(4) == 0) {
+                sb.append("    <note>Entry ").append(i).append(" has been checked by operator ");
+                sb.append(random.nextInt(10)).append(".</note>\n");
+            }
+            sb.append("  </entry>\n");
+        }
+        sb.append("</feed>\n");
+        try {
+            return sb.toString( ).getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
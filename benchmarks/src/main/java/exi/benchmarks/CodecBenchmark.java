@@ -0,0 +1,291 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import exi.ExiCodec;
+import exi.ExiDocument;
+import exi.ExiEventSink;
+import exi.ExiOptions;
+import exi.ExiOptions.Alignment;
+import exi.ExiOptions.FidelityOption;
+import exi.events.ExiAttribute;
+import exi.events.ExiCharacters;
+import exi.events.ExiComment;
+import exi.events.ExiEndDocument;
+import exi.events.ExiEndElement;
+import exi.events.ExiNamespaceDeclaration;
+import exi.events.ExiStartDocument;
+import exi.events.ExiStartElement;
+
+/**
+ * Measures encoding and decoding throughput across all alignments, with and
+ * without fidelity options, for the bundled resources and for generated
+ * feeds. Run with <code>-prof gc</code> to see the allocation rate as well.
+ * <p>
+ * The <code>encode</code> and <code>decode</code> benchmarks reuse an
+ * {@link ExiCodec} as a server would. The <code>encodeDocument</code>
+ * benchmark uses the static methods of {@link ExiDocument}, which set
+ * everything up for every document.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CodecBenchmark {
+
+    // ------------------------------------------------------------------------
+    // Nested types
+    // ------------------------------------------------------------------------
+
+    /**
+     * The EXI modes, i.e. the alignments plus compression.
+     */
+    public enum ExiMode {
+        /**
+         * Bit-packed.
+         */
+        BIT_PACKED,
+        /**
+         * Byte-aligned.
+         */
+        BYTE_ALIGNED,
+        /**
+         * Pre-compressed.
+         */
+        PRE_COMPRESSED,
+        /**
+         * Compressed.
+         */
+        COMPRESSED;
+
+        /**
+         * Sets the alignment and compression of this mode in the specified
+         * options.
+         *
+         * @param options The options.
+         */
+        public void apply(ExiOptions options) {
+            options.setAlign(this == BYTE_ALIGNED ? Alignment.BYTE_ALIGNED
+                    : this == PRE_COMPRESSED ? Alignment.PRE_COMPRESSED : Alignment.BIT_PACKED);
+            options.setCompression(this == COMPRESSED);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Parameters
+    // ------------------------------------------------------------------------
+
+    /**
+     * The EXI mode.
+     */
+    @Param
+    public ExiMode mode;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * <code>true</code> if all fidelity options are set.
+     */
+    @Param({ "false", "true" })
+    public boolean fidelity;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The input, see {@link BenchmarkInputs}.
+     */
+    @Param({ "exi-minimal01.xml", "exi-notebook.xml", "exi-example.xml", "exi-questionnaire.xml",
+        "generated-1000", "generated-20000", "corpus-1048576" })
+    public String input;
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The options.
+     */
+    private ExiOptions options;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The XML document.
+     */
+    private byte[] xml;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The encoded document.
+     */
+    private byte[] exi;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The reused codec.
+     */
+    private ExiCodec codec;
+
+    // ------------------------------------------------------------------------
+    // Setup
+    // ------------------------------------------------------------------------
+
+    /**
+     * Loads the input and encodes it once for the decoding benchmark.
+     *
+     * @throws Exception If the input can't be loaded or encoded.
+     */
+    @Setup
+    public void setup( ) throws Exception {
+        this.options = new ExiOptions( );
+        this.mode.apply(this.options);
+        for (FidelityOption o : FidelityOption.values( )) {
+            this.options.set(o, this.fidelity);
+        }
+        this.xml = BenchmarkInputs.load(this.input);
+        this.codec = new ExiCodec( );
+        this.exi = this.codec.encode(new ByteArrayInputStream(this.xml), this.options);
+    }
+
+    // ------------------------------------------------------------------------
+    // Benchmarks
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the document with the reused codec.
+     *
+     * @return The encoded document.
+     * @throws Exception If encoding fails.
+     */
+    @Benchmark
+    public byte[] encode( ) throws Exception {
+        return this.codec.encode(new ByteArrayInputStream(this.xml), this.options);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Decodes the document with the reused codec. The events are consumed
+     * by a black hole.
+     *
+     * @param bh The black hole.
+     * @throws Exception If decoding fails.
+     */
+    @Benchmark
+    public void decode(Blackhole bh) throws Exception {
+        this.codec.decode(this.exi, new BlackholeSink(bh));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the document with the static methods of {@link ExiDocument}.
+     *
+     * @return The encoded document.
+     * @throws Exception If encoding fails.
+     */
+    @Benchmark
+    public byte[] encodeDocument( ) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream(this.exi.length);
+        ExiDocument.encode(new ByteArrayInputStream(this.xml), os, this.options);
+        return os.toByteArray( );
+    }
+
+    // ------------------------------------------------------------------------
+    // Nested types
+    // ------------------------------------------------------------------------
+
+    /**
+     * An event sink which hands all events to a black hole.
+     */
+    private static class BlackholeSink implements ExiEventSink {
+
+        /**
+         * The black hole.
+         */
+        private final Blackhole bh;
+
+        /**
+         * Creates a new sink.
+         *
+         * @param bh The black hole.
+         */
+        BlackholeSink(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        public void handle(ExiStartDocument event) {
+            this.bh.consume(event);
+        }
+
+        public void handle(ExiStartElement event) {
+            this.bh.consume(event.getQualifiedName( ));
+        }
+
+        public void handle(ExiAttribute event) {
+            this.bh.consume(event.getValue( ));
+        }
+
+        public void handle(ExiNamespaceDeclaration event) {
+            this.bh.consume(event);
+        }
+
+        public void handle(ExiCharacters event) {
+            this.bh.consume(event.getData( ));
+        }
+
+        public void handle(ExiEndElement event) {
+            this.bh.consume(event);
+        }
+
+        public void handle(ExiEndDocument event) {
+            this.bh.consume(event);
+        }
+
+        public void handle(ExiComment event) {
+            this.bh.consume(event.getText( ));
+        }
+    }
+}
@@ -0,0 +1,745 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Generates synthetic XML documents for scale and compression testing. The
+ * document is a <code>corpus</code> root element with a sequence of records.
+ * Each record is a random element tree whose shape is controlled by the
+ * maximum depth and fan-out. Element and attribute names are drawn from
+ * vocabularies of configurable size, and values either repeat from a fixed
+ * set of recurring values or are unique. Text lengths follow an exponential
+ * distribution around the configured mean.
+ * <p>
+ * Output is written record by record, so documents of several gigabytes can
+ * be produced in constant memory. Records are added until the document
+ * reaches the target size. The same settings and seed always produce the same
+ * bytes.
+ * </p>
+ */
+public class CorpusGenerator {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The characters used in text and values. A few non-ASCII letters make
+     * sure that multi-byte characters are exercised as well.
+     */
+    private static final char[] ALPHABET = (
+            "abcdefghijklmnopqrstuvwxyz" +
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZ" +
+            "0123456789      " +
+            "\u00e4\u00f6\u00fc\u00df\u00e9"
+    ).toCharArray( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The namespace URI prefix. Namespace <i>n</i> is this prefix followed by
+     * <i>n</i>.
+     */
+    private static final String NAMESPACE = "urn:example:corpus:";
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The seed of the random generator.
+     */
+    private long seed = 0;
+
+    /**
+     * The maximum depth of a record, the record element itself being at
+     * depth 1.
+     */
+    private int depth = 4;
+
+    /**
+     * The maximum number of child elements of an element.
+     */
+    private int fanOut = 4;
+
+    /**
+     * The number of distinct element names.
+     */
+    private int elements = 32;
+
+    /**
+     * The number of distinct attribute names.
+     */
+    private int attributes = 16;
+
+    /**
+     * The maximum number of attributes of an element.
+     */
+    private int maxAttributes = 2;
+
+    /**
+     * The number of distinct recurring values.
+     */
+    private int cardinality = 256;
+
+    /**
+     * The probability that a value is one of the recurring values rather
+     * than a unique one.
+     */
+    private double repetition = 0.8;
+
+    /**
+     * The number of namespaces.
+     */
+    private int namespaces = 1;
+
+    /**
+     * The mean text length in characters.
+     */
+    private int textLength = 12;
+
+    /**
+     * The maximum text length in characters.
+     */
+    private int maxTextLength = 256;
+
+    /**
+     * The target size of the document in bytes.
+     */
+    private long size = 1 << 20;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The random generator of the document currently being generated.
+     */
+    private Random random;
+
+    /**
+     * The recurring values of the document currently being generated.
+     */
+    private String[] values;
+
+    /**
+     * The number of unique values generated so far.
+     */
+    private long uniqueValues;
+
+    /**
+     * Marks the attribute names already chosen for the current element.
+     */
+    private boolean[] chosen;
+
+    /**
+     * The buffer the current record is written to.
+     */
+    private final StringBuilder buffer = new StringBuilder( );
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Generates a document with the current settings.
+     *
+     * @param os The output stream the document is written to.
+     * @return The number of bytes written.
+     * @throws IOException If writing to the stream fails.
+     */
+    public long generate(OutputStream os) throws IOException {
+        this.random = new Random(this.seed);
+        this.values = new String[this.cardinality];
+        for (int i = 0; i < this.cardinality; ++i) {
+            this.values[i] = text(i + "-");
+        }
+        this.uniqueValues = 0;
+        this.chosen = new boolean[this.attributes];
+
+        StringBuilder sb = this.buffer;
+        sb.setLength(0);
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<corpus xmlns=\"").append(NAMESPACE).append('0').append('"');
+        for (int i = 1; i < this.namespaces; ++i) {
+            sb.append(" xmlns:n").append(i).append("=\"").append(NAMESPACE).append(i).append('"');
+        }
+        sb.append(">\n");
+        long written = flush(os);
+
+        String end = "</corpus>\n";
+        long limit = this.size - end.length( );
+        while (written < limit) {
+            element("record", 1);
+            sb.append('\n');
+            written += flush(os);
+        }
+
+        sb.append(end);
+        written += flush(os);
+        os.flush( );
+        return written;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the seed of the random generator.
+     *
+     * @return The seed.
+     */
+    public long getSeed( ) {
+        return this.seed;
+    }
+
+    /**
+     * Sets the seed of the random generator.
+     *
+     * @param seed The seed.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the maximum depth of a record.
+     *
+     * @return The maximum depth.
+     */
+    public int getDepth( ) {
+        return this.depth;
+    }
+
+    /**
+     * Sets the maximum depth of a record. A depth of 1 produces records
+     * without child elements.
+     *
+     * @param depth The maximum depth.
+     */
+    public void setDepth(int depth) {
+        this.depth = checkPositive(depth, "depth");
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the maximum number of child elements of an element.
+     *
+     * @return The maximum fan-out.
+     */
+    public int getFanOut( ) {
+        return this.fanOut;
+    }
+
+    /**
+     * Sets the maximum number of child elements of an element.
+     *
+     * @param fanOut The maximum fan-out.
+     */
+    public void setFanOut(int fanOut) {
+        this.fanOut = checkPositive(fanOut, "fan-out");
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of distinct element names.
+     *
+     * @return The element vocabulary size.
+     */
+    public int getElements( ) {
+        return this.elements;
+    }
+
+    /**
+     * Sets the number of distinct element names. The size of the element
+     * vocabulary determines how many grammars are created and learned.
+     *
+     * @param elements The element vocabulary size.
+     */
+    public void setElements(int elements) {
+        this.elements = checkPositive(elements, "element vocabulary");
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of distinct attribute names.
+     *
+     * @return The attribute vocabulary size.
+     */
+    public int getAttributes( ) {
+        return this.attributes;
+    }
+
+    /**
+     * Sets the number of distinct attribute names.
+     *
+     * @param attributes The attribute vocabulary size.
+     */
+    public void setAttributes(int attributes) {
+        this.attributes = checkPositive(attributes, "attribute vocabulary");
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the maximum number of attributes of an element.
+     *
+     * @return The maximum number of attributes.
+     */
+    public int getMaxAttributes( ) {
+        return this.maxAttributes;
+    }
+
+    /**
+     * Sets the maximum number of attributes of an element. It is limited by
+     * the attribute vocabulary size when the document is generated.
+     *
+     * @param maxAttributes The maximum number of attributes.
+     */
+    public void setMaxAttributes(int maxAttributes) {
+        if (maxAttributes < 0) {
+            throw new IllegalArgumentException("Negative number of attributes: " + maxAttributes);
+        }
+        this.maxAttributes = maxAttributes;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of distinct recurring values.
+     *
+     * @return The value cardinality.
+     */
+    public int getCardinality( ) {
+        return this.cardinality;
+    }
+
+    /**
+     * Sets the number of distinct recurring values. These are kept in memory
+     * while the document is generated.
+     *
+     * @param cardinality The value cardinality.
+     */
+    public void setCardinality(int cardinality) {
+        this.cardinality = checkPositive(cardinality, "cardinality");
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the probability that a value is one of the recurring values.
+     *
+     * @return The repetition probability.
+     */
+    public double getRepetition( ) {
+        return this.repetition;
+    }
+
+    /**
+     * Sets the probability that a value is one of the recurring values rather
+     * than a unique one. With 0 all values are unique and the string table
+     * grows with the document, with 1 all values are string table hits once
+     * they have been seen.
+     *
+     * @param repetition The repetition probability.
+     */
+    public void setRepetition(double repetition) {
+        if (!(repetition >= 0 && repetition <= 1)) {
+            throw new IllegalArgumentException("Repetition not in [0, 1]: " + repetition);
+        }
+        this.repetition = repetition;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of namespaces.
+     *
+     * @return The number of namespaces.
+     */
+    public int getNamespaces( ) {
+        return this.namespaces;
+    }
+
+    /**
+     * Sets the number of namespaces the element names are spread over. The
+     * first one is the default namespace, the others are bound to prefixes.
+     * <p>
+     * Learned element rules of the built-in grammars only record the local
+     * name and are decoded in the namespace of the parent element. Documents
+     * with more than one namespace are therefore meant for measuring the
+     * encoder and the string table, not for round trips.
+     * </p>
+     *
+     * @param namespaces The number of namespaces.
+     */
+    public void setNamespaces(int namespaces) {
+        this.namespaces = checkPositive(namespaces, "number of namespaces");
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the mean text length in characters.
+     *
+     * @return The mean text length.
+     */
+    public int getTextLength( ) {
+        return this.textLength;
+    }
+
+    /**
+     * Sets the mean text length in characters. Lengths are exponentially
+     * distributed, so most texts are short and few are long.
+     *
+     * @param textLength The mean text length.
+     */
+    public void setTextLength(int textLength) {
+        this.textLength = checkPositive(textLength, "text length");
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the maximum text length in characters.
+     *
+     * @return The maximum text length.
+     */
+    public int getMaxTextLength( ) {
+        return this.maxTextLength;
+    }
+
+    /**
+     * Sets the maximum text length in characters. The distinguishing prefix
+     * of a value is never cut, so a value may be longer than this.
+     *
+     * @param maxTextLength The maximum text length.
+     */
+    public void setMaxTextLength(int maxTextLength) {
+        this.maxTextLength = checkPositive(maxTextLength, "maximum text length");
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the target size of the document in bytes.
+     *
+     * @return The target size.
+     */
+    public long getSize( ) {
+        return this.size;
+    }
+
+    /**
+     * Sets the target size of the document in bytes. Generation stops with
+     * the first record that reaches it, so the document is at most one
+     * record larger.
+     *
+     * @param size The target size.
+     */
+    public void setSize(long size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Size not positive: " + size);
+        }
+        this.size = size;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Generates a document from the command line.
+     *
+     * @param args The command-line arguments.
+     * @throws IOException If writing the document fails.
+     */
+    @SuppressWarnings("static-access")
+    public static void main(String[] args) throws IOException {
+        Options options = new Options( );
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Random seed").create("seed"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Maximum depth of a record").create("depth"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Maximum number of child elements").create("fanout"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Number of element names").create("elements"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Number of attribute names").create("attributes"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Maximum number of attributes per element").create("max_attributes"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Number of recurring values").create("cardinality"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Probability of a recurring value").create("repetition"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Number of namespaces").create("namespaces"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Mean text length").create("text_length"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Maximum text length").create("max_text_length"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Target size in bytes (suffixes k, m and g)").create("size"));
+        options.addOption(OptionBuilder.withLongOpt("help").withDescription("Show this help screen").create('h'));
+
+        String usage = "java exi.benchmarks.CorpusGenerator [options] [file]";
+        CommandLine cl = null;
+        try {
+            cl = new GnuParser( ).parse(options, args);
+        } catch (ParseException e) {
+            new HelpFormatter( ).printHelp(String.format("%s\n\n%s", e.getMessage( ), usage), options);
+            System.exit(-1);
+        }
+        if (cl.hasOption('h')) {
+            new HelpFormatter( ).printHelp(usage, options);
+            System.exit(-1);
+        }
+
+        CorpusGenerator generator = new CorpusGenerator( );
+        try {
+            if (cl.hasOption("seed")) {
+                generator.setSeed(Long.parseLong(cl.getOptionValue("seed")));
+            }
+            if (cl.hasOption("depth")) {
+                generator.setDepth(Integer.parseInt(cl.getOptionValue("depth")));
+            }
+            if (cl.hasOption("fanout")) {
+                generator.setFanOut(Integer.parseInt(cl.getOptionValue("fanout")));
+            }
+            if (cl.hasOption("elements")) {
+                generator.setElements(Integer.parseInt(cl.getOptionValue("elements")));
+            }
+            if (cl.hasOption("attributes")) {
+                generator.setAttributes(Integer.parseInt(cl.getOptionValue("attributes")));
+            }
+            if (cl.hasOption("max_attributes")) {
+                generator.setMaxAttributes(Integer.parseInt(cl.getOptionValue("max_attributes")));
+            }
+            if (cl.hasOption("cardinality")) {
+                generator.setCardinality(Integer.parseInt(cl.getOptionValue("cardinality")));
+            }
+            if (cl.hasOption("repetition")) {
+                generator.setRepetition(Double.parseDouble(cl.getOptionValue("repetition")));
+            }
+            if (cl.hasOption("namespaces")) {
+                generator.setNamespaces(Integer.parseInt(cl.getOptionValue("namespaces")));
+            }
+            if (cl.hasOption("text_length")) {
+                generator.setTextLength(Integer.parseInt(cl.getOptionValue("text_length")));
+            }
+            if (cl.hasOption("max_text_length")) {
+                generator.setMaxTextLength(Integer.parseInt(cl.getOptionValue("max_text_length")));
+            }
+            if (cl.hasOption("size")) {
+                generator.setSize(parseSize(cl.getOptionValue("size")));
+            }
+        } catch (IllegalArgumentException e) {
+            new HelpFormatter( ).printHelp(String.format("%s\n\n%s", e.getMessage( ), usage), options);
+            System.exit(-1);
+        }
+
+        String[] files = cl.getArgs( );
+        OutputStream os = files.length > 0
+                ? new BufferedOutputStream(new FileOutputStream(files[0]), 1 << 16)
+                : new BufferedOutputStream(System.out, 1 << 16);
+        try {
+            long written = generator.generate(os);
+            System.err.println(String.format("%d bytes written", written));
+        } finally {
+            if (files.length > 0) {
+                os.close( );
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Appends an element including its attributes and content to the buffer.
+     *
+     * @param name The local name of the element.
+     * @param level The depth of the element within the record.
+     */
+    private void element(String name, int level) {
+        StringBuilder sb = this.buffer;
+        sb.append('<').append(name);
+        attributes( );
+        sb.append('>');
+
+        // the record always has children unless the depth is 1, deeper
+        // elements become leaves early every now and then
+        boolean leaf = level >= this.depth || (level > 1 && this.random.nextInt(3) == 0);
+        if (leaf) {
+            sb.append(value( ));
+        } else {
+            int children = 1 + this.random.nextInt(this.fanOut);
+            for (int i = 0; i < children; ++i) {
+                element(elementName(this.random.nextInt(this.elements)), level + 1);
+            }
+        }
+
+        sb.append("</").append(name).append('>');
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Appends the attributes of an element to the buffer. The attribute names
+     * are distinct and appended in vocabulary order.
+     */
+    private void attributes( ) {
+        int count = this.random.nextInt(Math.min(this.maxAttributes, this.attributes) + 1);
+        if (count == 0) {
+            return;
+        }
+        boolean[] c = this.chosen;
+        for (int i = 0; i < count; ++i) {
+            int index;
+            do {
+                index = this.random.nextInt(this.attributes);
+            } while (c[index]);
+            c[index] = true;
+        }
+        StringBuilder sb = this.buffer;
+        for (int i = 0; i < c.length; ++i) {
+            if (c[i]) {
+                c[i] = false;
+                sb.append(" a").append(i).append("=\"").append(value( )).append('"');
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the qualified name of the element with the specified index in
+     * the element vocabulary. Names are spread over the namespaces round
+     * robin.
+     *
+     * @param index The index in the element vocabulary.
+     * @return The qualified element name.
+     */
+    private String elementName(int index) {
+        int ns = index % this.namespaces;
+        return ns == 0 ? "e" + index : "n" + ns + ":e" + index;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns a value, either one of the recurring values or a unique one.
+     *
+     * @return The value.
+     */
+    private String value( ) {
+        if (this.random.nextDouble( ) < this.repetition) {
+            return this.values[this.random.nextInt(this.values.length)];
+        }
+        return text("u" + this.uniqueValues++ + "-");
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns a random text with the specified prefix. The length of the text
+     * follows an exponential distribution around the mean text length. The
+     * prefix is always kept in full and only the random suffix is cut to the
+     * sampled length, so texts with a long prefix may be longer.
+     *
+     * @param prefix The prefix of the text, which makes it distinct.
+     * @return The text.
+     */
+    private String text(String prefix) {
+        double u = this.random.nextDouble( );
+        long length = 1 + Math.round(-Math.log(1 - u) * (this.textLength - 1));
+        int n = (int) Math.min(length, this.maxTextLength);
+
+        StringBuilder sb = new StringBuilder(Math.max(n, prefix.length( )));
+        sb.append(prefix);
+        while (sb.length( ) < n) {
+            sb.append(ALPHABET[this.random.nextInt(ALPHABET.length)]);
+        }
+        return sb.toString( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes the buffer to the output stream and clears it.
+     *
+     * @param os The output stream.
+     * @return The number of bytes written.
+     * @throws IOException If writing to the stream fails.
+     */
+    private long flush(OutputStream os) throws IOException {
+        byte[] bytes = this.buffer.toString( ).getBytes("UTF-8");
+        os.write(bytes);
+        this.buffer.setLength(0);
+        return bytes.length;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Checks that a setting is positive.
+     *
+     * @param value The value of the setting.
+     * @param setting The name of the setting.
+     * @return The value.
+     */
+    private static int checkPositive(int value, String setting) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(String.format("The %s must be positive: %d", setting, value));
+        }
+        return value;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Parses a size with an optional suffix <code>k</code>, <code>m</code>
+     * or <code>g</code>.
+     *
+     * @param s The size string.
+     * @return The size in bytes.
+     */
+    private static long parseSize(String s) {
+        String t = s.trim( ).toLowerCase( );
+        int shift = 0;
+        if (t.endsWith("k")) {
+            shift = 10;
+        } else if (t.endsWith("m")) {
+            shift = 20;
+        } else if (t.endsWith("g")) {
+            shift = 30;
+        }
+        if (shift > 0) {
+            t = t.substring(0, t.length( ) - 1);
+        }
+        return Long.parseLong(t) << shift;
+    }
+}
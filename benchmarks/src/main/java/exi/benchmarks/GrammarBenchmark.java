@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import exi.ExiException;
+import exi.ExiOptions;
+import exi.events.ExiAttribute;
+import exi.events.ExiEventCode;
+import exi.grammar.ExiBuiltInGrammarFactory;
+import exi.grammar.ExiExtensibleGrammar;
+import exi.grammar.ExiGrammar;
+import exi.grammar.ExiGrammarGroup;
+import exi.grammar.ExiGrammarRule;
+
+/**
+ * Measures rule matching in an {@link ExiGrammarGroup} which has learned a
+ * number of attributes, both by event (as the encoder does) and by event
+ * code (as the decoder does).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class GrammarBenchmark {
+
+    // ------------------------------------------------------------------------
+    // Parameters
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of learned attributes.
+     */
+    @Param({ "4", "16", "64" })
+    public int rules;
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The start tag group of the element grammar.
+     */
+    private ExiGrammarGroup group;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The attribute events, one per learned attribute.
+     */
+    private ExiAttribute[] events;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The event codes of the attribute events.
+     */
+    private ExiEventCode[] codes;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The index of the next event.
+     */
+    private int next = 0;
+
+    // ------------------------------------------------------------------------
+    // Setup
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates an element grammar and lets it learn the attributes.
+     *
+     * @throws ExiException If the grammar can't be created or extended.
+     */
+    @Setup
+    public void setup( ) throws ExiException {
+        ExiGrammar g = new ExiBuiltInGrammarFactory(new ExiOptions( )).createElementGrammar(new QName("item"));
+        this.events = new ExiAttribute[this.rules];
+        for (int i = 0; i < this.rules; ++i) {
+            this.events[i] = new ExiAttribute(new QName("attribute" + i), "value");
+            ((ExiExtensibleGrammar)g).extend("StartTag", this.events[i].getEventTypeString( ));
+        }
+        this.group = g.getActiveGroup( );
+        this.codes = new ExiEventCode[this.rules];
+        for (int i = 0; i < this.rules; ++i) {
+            this.codes[i] = this.group.getMatchingRule(this.events[i]).getEventCode( );
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Benchmarks
+    // ------------------------------------------------------------------------
+
+    /**
+     * Matches an attribute event.
+     *
+     * @return The matching rule.
+     * @throws ExiException If there is no matching rule.
+     */
+    @Benchmark
+    public ExiGrammarRule matchEvent( ) throws ExiException {
+        return this.group.getMatchingRule(this.events[nextIndex( )]);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Matches the event code of an attribute event.
+     *
+     * @return The matching rule.
+     */
+    @Benchmark
+    public ExiGrammarRule matchCode( ) {
+        ExiEventCode code = this.codes[nextIndex( )];
+        int length = code.getLength( );
+        return this.group.getMatchingRule(length,
+                code.getPart(0),
+                length > 1 ? code.getPart(1) : 0,
+                length > 2 ? code.getPart(2) : 0);
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the next event, cycling through all events.
+     *
+     * @return The index.
+     */
+    private int nextIndex( ) {
+        int i = this.next;
+        this.next = i + 1 == this.rules ? 0 : i + 1;
+        return i;
+    }
+}
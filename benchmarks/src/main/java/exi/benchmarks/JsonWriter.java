@@ -0,0 +1,238 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.benchmarks;
+
+import java.util.Locale;
+
+/**
+ * A minimal writer for the JSON reports of the benchmark tools. Commas are
+ * inserted automatically. The writer does not check that the calls form a
+ * valid document.
+ */
+class JsonWriter {
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The document written so far.
+     */
+    private final StringBuilder sb = new StringBuilder( );
+
+    /**
+     * Whether the next value is the first one of its object or array, or
+     * follows a name.
+     */
+    private boolean first = true;
+
+    /**
+     * The current nesting depth, used for indentation.
+     */
+    private int depth;
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Begins an object.
+     *
+     * @return This writer.
+     */
+    JsonWriter beginObject( ) {
+        separate( );
+        this.sb.append('{');
+        ++this.depth;
+        this.first = true;
+        return this;
+    }
+
+    /**
+     * Ends an object.
+     *
+     * @return This writer.
+     */
+    JsonWriter endObject( ) {
+        --this.depth;
+        if (!this.first) {
+            newLine( );
+        }
+        this.sb.append('}');
+        this.first = false;
+        return this;
+    }
+
+    /**
+     * Begins an array.
+     *
+     * @return This writer.
+     */
+    JsonWriter beginArray( ) {
+        separate( );
+        this.sb.append('[');
+        ++this.depth;
+        this.first = true;
+        return this;
+    }
+
+    /**
+     * Ends an array.
+     *
+     * @return This writer.
+     */
+    JsonWriter endArray( ) {
+        --this.depth;
+        this.sb.append(']');
+        this.first = false;
+        return this;
+    }
+
+    /**
+     * Writes the name of the next member of an object.
+     *
+     * @param name The name.
+     * @return This writer.
+     */
+    JsonWriter name(String name) {
+        if (!this.first) {
+            this.sb.append(',');
+        }
+        newLine( );
+        string(name);
+        this.sb.append(": ");
+        // the value follows the name without a comma
+        this.first = true;
+        return this;
+    }
+
+    /**
+     * Writes a string value.
+     *
+     * @param value The value.
+     * @return This writer.
+     */
+    JsonWriter value(String value) {
+        separate( );
+        string(value);
+        this.first = false;
+        return this;
+    }
+
+    /**
+     * Writes an integral value.
+     *
+     * @param value The value.
+     * @return This writer.
+     */
+    JsonWriter value(long value) {
+        separate( );
+        this.sb.append(value);
+        this.first = false;
+        return this;
+    }
+
+    /**
+     * Writes a floating point value. Values that JSON can't represent are
+     * written as <code>null</code>.
+     *
+     * @param value The value.
+     * @return This writer.
+     */
+    JsonWriter value(double value) {
+        separate( );
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            this.sb.append("null");
+        } else {
+            this.sb.append(String.format(Locale.ROOT, "%.3f", value));
+        }
+        this.first = false;
+        return this;
+    }
+
+    /**
+     * Writes a boolean value.
+     *
+     * @param value The value.
+     * @return This writer.
+     */
+    JsonWriter value(boolean value) {
+        separate( );
+        this.sb.append(value);
+        this.first = false;
+        return this;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString( ) {
+        return this.sb.toString( );
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes the comma before a value unless it is the first one.
+     */
+    private void separate( ) {
+        if (!this.first) {
+            this.sb.append(", ");
+        }
+    }
+
+    /**
+     * Starts a new, indented line.
+     */
+    private void newLine( ) {
+        this.sb.append('\n');
+        for (int i = 0; i < this.depth; ++i) {
+            this.sb.append("  ");
+        }
+    }
+
+    /**
+     * Writes a quoted and escaped string.
+     *
+     * @param s The string.
+     */
+    private void string(String s) {
+        this.sb.append('"');
+        for (int i = 0; i < s.length( ); ++i) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                this.sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                this.sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                this.sb.append(c);
+            }
+        }
+        this.sb.append('"');
+    }
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.benchmarks;
+
+import java.util.Arrays;
+
+/**
+ * A latency histogram with a bounded relative error. Values below 128 are
+ * counted exactly. Larger values are counted in buckets of 64 per power of
+ * two, so a bucket is at most 1/64 of its values wide. This is fine enough
+ * for tail percentiles, which the power-of-two buckets of
+ * {@link exi.metrics.ExiHistogram} are not.
+ * <p>
+ * The histogram is not thread-safe. Every thread records into its own
+ * histogram, and the histograms are merged once recording is over.
+ * </p>
+ */
+public class LatencyHistogram {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of bits that determine the bucket within a power of two.
+     */
+    private static final int SUB_BITS = 7;
+
+    /**
+     * Half the number of buckets per power of two, i.e. the number of
+     * buckets added by every further power of two.
+     */
+    private static final int HALF = 1 << (SUB_BITS - 1);
+
+    /**
+     * The number of buckets, enough for all non-negative long values.
+     */
+    private static final int BUCKETS = (63 - SUB_BITS) * HALF + 2 * HALF;
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The bucket counts.
+     */
+    private final long[] counts = new long[BUCKETS];
+
+    /**
+     * The number of recorded values.
+     */
+    private long count;
+
+    /**
+     * The sum of the recorded values.
+     */
+    private long sum;
+
+    /**
+     * The smallest recorded value.
+     */
+    private long min = Long.MAX_VALUE;
+
+    /**
+     * The largest recorded value.
+     */
+    private long max;
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value The value.
+     */
+    public void record(long value) {
+        long v = value < 0 ? 0 : value;
+        ++this.counts[index(v)];
+        ++this.count;
+        this.sum += v;
+        if (v < this.min) {
+            this.min = v;
+        }
+        if (v > this.max) {
+            this.max = v;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds all values of another histogram to this one.
+     *
+     * @param other The other histogram.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; ++i) {
+            this.counts[i] += other.counts[i];
+        }
+        this.count += other.count;
+        this.sum += other.sum;
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Removes all recorded values.
+     */
+    public void reset( ) {
+        Arrays.fill(this.counts, 0);
+        this.count = 0;
+        this.sum = 0;
+        this.min = Long.MAX_VALUE;
+        this.max = 0;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return The number of values.
+     */
+    public long getCount( ) {
+        return this.count;
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     *
+     * @return The mean, or 0 if no values have been recorded.
+     */
+    public double getMean( ) {
+        return this.count == 0 ? 0 : (double) this.sum / this.count;
+    }
+
+    /**
+     * Returns the smallest recorded value.
+     *
+     * @return The minimum, or 0 if no values have been recorded.
+     */
+    public long getMin( ) {
+        return this.count == 0 ? 0 : this.min;
+    }
+
+    /**
+     * Returns the largest recorded value.
+     *
+     * @return The maximum.
+     */
+    public long getMax( ) {
+        return this.max;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the value below or at which the specified fraction of the
+     * recorded values lies. This is the upper bound of the bucket that
+     * contains the percentile, but never more than the maximum.
+     *
+     * @param fraction The fraction, e.g. 0.999 for the 99.9th percentile.
+     * @return The percentile, or 0 if no values have been recorded.
+     */
+    public long getPercentile(double fraction) {
+        if (this.count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * this.count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += this.counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), this.max);
+            }
+        }
+        return this.max;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of buckets. Bucket <i>i</i> holds the values from
+     * {@link #lowerBound(int)} to {@link #upperBound(int)}.
+     *
+     * @return The number of buckets.
+     */
+    public int getBucketCount( ) {
+        return BUCKETS;
+    }
+
+    /**
+     * Returns the number of values in a bucket.
+     *
+     * @param bucket The bucket index.
+     * @return The number of values.
+     */
+    public long getBucket(int bucket) {
+        return this.counts[bucket];
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the smallest value of a bucket.
+     *
+     * @param bucket The bucket index.
+     * @return The smallest value.
+     */
+    public static long lowerBound(int bucket) {
+        if (bucket < 2 * HALF) {
+            return bucket;
+        }
+        int shift = bucket / HALF - 1;
+        long sub = bucket % HALF + HALF;
+        return sub << shift;
+    }
+
+    /**
+     * Returns the largest value of a bucket.
+     *
+     * @param bucket The bucket index.
+     * @return The largest value.
+     */
+    public static long upperBound(int bucket) {
+        if (bucket == BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        return lowerBound(bucket + 1) - 1;
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the bucket index of a value.
+     *
+     * @param value The non-negative value.
+     * @return The bucket index.
+     */
+    private static int index(long value) {
+        if (value < 2 * HALF) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS + 1;
+        return shift * HALF + (int) (value >>> shift);
+    }
+}
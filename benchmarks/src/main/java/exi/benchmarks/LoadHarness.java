@@ -0,0 +1,965 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+
+import exi.ExiCodec;
+import exi.ExiDocument;
+import exi.ExiEventSink;
+import exi.ExiOptions;
+import exi.ExiOptions.FidelityOption;
+import exi.benchmarks.CodecBenchmark.ExiMode;
+import exi.events.ExiAttribute;
+import exi.events.ExiCharacters;
+import exi.events.ExiComment;
+import exi.events.ExiEndDocument;
+import exi.events.ExiEndElement;
+import exi.events.ExiNamespaceDeclaration;
+import exi.events.ExiStartDocument;
+import exi.events.ExiStartElement;
+
+/**
+ * Drives the encoder and the decoder with a stream of small messages and
+ * records the full latency distribution of both operations. Every request
+ * encodes one message and then decodes its encoded form. The harness runs
+ * the requests on a number of threads, either in a closed loop or at a fixed
+ * overall rate, once for every selected mode.
+ * <p>
+ * At a fixed rate every request has an intended start time. The encoding
+ * latency is measured from that time, so a request that had to wait for an
+ * earlier one is not reported as fast (coordinated omission). The decoding
+ * latency is measured from the end of the encoding.
+ * </p>
+ * <p>
+ * Garbage collections are observed through the JMX notifications of the
+ * collectors. Operations slower than a threshold are matched against the
+ * stop-the-world pauses, which shows how much of the tail is caused by the
+ * collector. The results are written as JSON.
+ * </p>
+ */
+public class LoadHarness {
+
+    // ------------------------------------------------------------------------
+    // Nested types
+    // ------------------------------------------------------------------------
+
+    /**
+     * The entry points used for encoding and decoding.
+     */
+    public enum Api {
+        /**
+         * The static methods of {@link ExiDocument}, which set up a new
+         * encoder or decoder for every message.
+         */
+        DOCUMENT,
+        /**
+         * A reused {@link ExiCodec} per thread.
+         */
+        CODEC
+    }
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The phase in which the workers warm up.
+     */
+    private static final int WARMUP = 0;
+
+    /**
+     * The phase in which the workers are measured.
+     */
+    private static final int MEASURE = 1;
+
+    /**
+     * The phase in which the workers stop.
+     */
+    private static final int STOP = 2;
+
+    /**
+     * The maximum number of slow operations a worker keeps for matching them
+     * against garbage collections. Further slow operations are still counted.
+     */
+    private static final int MAX_SLOW_OPERATIONS = 1 << 18;
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The messages.
+     */
+    private final List<byte[]> messages = new ArrayList<byte[]>( );
+
+    /**
+     * The message names used in the report.
+     */
+    private final List<String> names = new ArrayList<String>( );
+
+    /**
+     * The modes to measure.
+     */
+    private final List<ExiMode> modes = new ArrayList<ExiMode>(Arrays.asList(ExiMode.values( )));
+
+    /**
+     * The entry points.
+     */
+    private Api api = Api.CODEC;
+
+    /**
+     * Whether all fidelity options are set.
+     */
+    private boolean fidelity;
+
+    /**
+     * The number of threads.
+     */
+    private int threads = 1;
+
+    /**
+     * The overall rate in requests per second, or 0 for a closed loop.
+     */
+    private double rate;
+
+    /**
+     * The warm-up time per mode in seconds.
+     */
+    private int warmup = 5;
+
+    /**
+     * The measurement time per mode in seconds.
+     */
+    private int duration = 20;
+
+    /**
+     * The latency in nanoseconds from which on an operation is slow.
+     */
+    private long slowThreshold = 1000000;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The phase of the workers.
+     */
+    private volatile int phase;
+
+    /**
+     * <code>System.nanoTime( )</code> when the harness was created.
+     */
+    private final long baseNanos;
+
+    /**
+     * The JVM uptime in milliseconds when the harness was created.
+     */
+    private final long baseUptime;
+
+    // ------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new harness without messages.
+     */
+    public LoadHarness( ) {
+        super( );
+        this.baseNanos = System.nanoTime( );
+        this.baseUptime = ManagementFactory.getRuntimeMXBean( ).getUptime( );
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds a message.
+     *
+     * @param name The name of the message in the report.
+     * @param xml The XML message.
+     */
+    public void addMessage(String name, byte[] xml) {
+        this.names.add(name);
+        this.messages.add(xml);
+    }
+
+    /**
+     * Sets the modes to measure.
+     *
+     * @param modes The modes.
+     */
+    public void setModes(List<ExiMode> modes) {
+        this.modes.clear( );
+        this.modes.addAll(modes);
+    }
+
+    /**
+     * Sets the entry points used for encoding and decoding.
+     *
+     * @param api The entry points.
+     */
+    public void setApi(Api api) {
+        this.api = api;
+    }
+
+    /**
+     * Sets whether all fidelity options are set.
+     *
+     * @param fidelity <code>true</code> to preserve everything.
+     */
+    public void setFidelity(boolean fidelity) {
+        this.fidelity = fidelity;
+    }
+
+    /**
+     * Sets the number of threads.
+     *
+     * @param threads The number of threads.
+     */
+    public void setThreads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Number of threads not positive: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the overall request rate. It is divided evenly between the
+     * threads.
+     *
+     * @param rate The rate in requests per second, or 0 for a closed loop.
+     */
+    public void setRate(double rate) {
+        if (!(rate >= 0)) {
+            throw new IllegalArgumentException("Negative rate: " + rate);
+        }
+        this.rate = rate;
+    }
+
+    /**
+     * Sets the warm-up time per mode.
+     *
+     * @param seconds The warm-up time in seconds.
+     */
+    public void setWarmup(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Negative warm-up time: " + seconds);
+        }
+        this.warmup = seconds;
+    }
+
+    /**
+     * Sets the measurement time per mode.
+     *
+     * @param seconds The measurement time in seconds.
+     */
+    public void setDuration(int seconds) {
+        if (seconds <= 0) {
+            throw new IllegalArgumentException("Duration not positive: " + seconds);
+        }
+        this.duration = seconds;
+    }
+
+    /**
+     * Sets the latency from which on an operation counts as slow and is
+     * matched against garbage collections.
+     *
+     * @param nanos The threshold in nanoseconds.
+     */
+    public void setSlowThreshold(long nanos) {
+        this.slowThreshold = nanos;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Runs the harness for all selected modes and writes the results.
+     *
+     * @param os The stream the JSON report is written to.
+     * @throws Exception If a message can't be encoded or decoded.
+     */
+    public void run(OutputStream os) throws Exception {
+        if (this.messages.isEmpty( )) {
+            throw new IllegalStateException("No messages");
+        }
+        JsonWriter json = new JsonWriter( );
+        json.beginObject( );
+        json.name("timestamp").value(System.currentTimeMillis( ));
+        json.name("java").value(System.getProperty("java.version"));
+        json.name("api").value(this.api.name( ));
+        json.name("fidelity").value(this.fidelity);
+        json.name("threads").value(this.threads);
+        json.name("rate").value(this.rate);
+        json.name("warmup_s").value(this.warmup);
+        json.name("duration_s").value(this.duration);
+        json.name("slow_threshold_us").value(this.slowThreshold / 1000.0);
+        json.name("messages").beginArray( );
+        for (int i = 0; i < this.messages.size( ); ++i) {
+            json.beginObject( );
+            json.name("name").value(this.names.get(i));
+            json.name("bytes").value(this.messages.get(i).length);
+            json.endObject( );
+        }
+        json.endArray( );
+
+        json.name("results").beginArray( );
+        for (ExiMode mode : this.modes) {
+            System.err.println("Running " + mode);
+            runMode(mode, json);
+        }
+        json.endArray( );
+        json.endObject( );
+
+        os.write(json.toString( ).getBytes("UTF-8"));
+        os.write('\n');
+        os.flush( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Runs the harness from the command line.
+     *
+     * @param args The command-line arguments.
+     * @throws Exception If a message can't be encoded or decoded.
+     */
+    @SuppressWarnings("static-access")
+    public static void main(String[] args) throws Exception {
+        Options options = new Options( );
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Number of threads (default 1)").create("threads"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Requests per second, 0 for a closed loop (default)").create("rate"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Warm-up time per mode in seconds (default 5)").create("warmup"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Measurement time per mode in seconds (default 20)").create("duration"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Comma-separated modes (default all): " + Arrays.toString(ExiMode.values( ))).create("modes"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Entry points, document or codec (default)").create("api"));
+        options.addOption(OptionBuilder.withDescription("Set all fidelity options").create("fidelity"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Comma-separated benchmark inputs used as messages").create("inputs"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Number of generated messages (default 64)").create("messages"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Size of generated messages in bytes (default 1024)").create("message_size"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Slow operation threshold in microseconds (default 1000)").create("slow"));
+        options.addOption(OptionBuilder.hasArg( ).withDescription("Output file (default standard output)").create("output"));
+        options.addOption(OptionBuilder.withLongOpt("help").withDescription("Show this help screen").create('h'));
+
+        String usage = "java exi.benchmarks.LoadHarness [options]";
+        CommandLine cl = null;
+        try {
+            cl = new GnuParser( ).parse(options, args);
+        } catch (ParseException e) {
+            new HelpFormatter( ).printHelp(String.format("%s\n\n%s", e.getMessage( ), usage), options);
+            System.exit(-1);
+        }
+        if (cl.hasOption('h')) {
+            new HelpFormatter( ).printHelp(usage, options);
+            System.exit(-1);
+        }
+
+        LoadHarness harness = new LoadHarness( );
+        try {
+            if (cl.hasOption("threads")) {
+                harness.setThreads(Integer.parseInt(cl.getOptionValue("threads")));
+            }
+            if (cl.hasOption("rate")) {
+                harness.setRate(Double.parseDouble(cl.getOptionValue("rate")));
+            }
+            if (cl.hasOption("warmup")) {
+                harness.setWarmup(Integer.parseInt(cl.getOptionValue("warmup")));
+            }
+            if (cl.hasOption("duration")) {
+                harness.setDuration(Integer.parseInt(cl.getOptionValue("duration")));
+            }
+            if (cl.hasOption("modes")) {
+                List<ExiMode> modes = new ArrayList<ExiMode>( );
+                for (String m : cl.getOptionValue("modes").split(",")) {
+                    modes.add(ExiMode.valueOf(m.trim( ).toUpperCase( )));
+                }
+                harness.setModes(modes);
+            }
+            if (cl.hasOption("api")) {
+                harness.setApi(Api.valueOf(cl.getOptionValue("api").trim( ).toUpperCase( )));
+            }
+            if (cl.hasOption("slow")) {
+                harness.setSlowThreshold(Long.parseLong(cl.getOptionValue("slow")) * 1000);
+            }
+        } catch (IllegalArgumentException e) {
+            new HelpFormatter( ).printHelp(String.format("%s\n\n%s", e.getMessage( ), usage), options);
+            System.exit(-1);
+        }
+        harness.setFidelity(cl.hasOption("fidelity"));
+
+        if (cl.hasOption("inputs")) {
+            for (String input : cl.getOptionValue("inputs").split(",")) {
+                harness.addMessage(input.trim( ), BenchmarkInputs.load(input.trim( )));
+            }
+        } else {
+            int count = Integer.parseInt(cl.getOptionValue("messages", "64"));
+            long size = Long.parseLong(cl.getOptionValue("message_size", "1024"));
+            CorpusGenerator generator = new CorpusGenerator( );
+            generator.setSize(size);
+            for (int i = 0; i < count; ++i) {
+                generator.setSeed(i);
+                ByteArrayOutputStream os = new ByteArrayOutputStream( );
+                generator.generate(os);
+                harness.addMessage("corpus-" + size + "-" + i, os.toByteArray( ));
+            }
+        }
+
+        if (cl.hasOption("output")) {
+            OutputStream os = new FileOutputStream(cl.getOptionValue("output"));
+            try {
+                harness.run(os);
+            } finally {
+                os.close( );
+            }
+        } else {
+            harness.run(System.out);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Runs the harness for a single mode and adds its results to the report.
+     *
+     * @param mode The mode.
+     * @param json The report.
+     * @throws Exception If a message can't be encoded or decoded.
+     */
+    private void runMode(ExiMode mode, JsonWriter json) throws Exception {
+        ExiOptions options = new ExiOptions( );
+        mode.apply(options);
+        for (FidelityOption o : FidelityOption.values( )) {
+            options.set(o, this.fidelity);
+        }
+
+        // encode every message once, both to fail early and for decoding
+        ExiCodec codec = new ExiCodec( );
+        List<byte[]> encoded = new ArrayList<byte[]>( );
+        long exiBytes = 0;
+        for (byte[] xml : this.messages) {
+            byte[] exi = codec.encode(new ByteArrayInputStream(xml), new ExiOptions(options));
+            encoded.add(exi);
+            exiBytes += exi.length;
+        }
+
+        Worker[] workers = new Worker[this.threads];
+        for (int i = 0; i < workers.length; ++i) {
+            workers[i] = new Worker(i, options, encoded);
+        }
+
+        GcMonitor monitor = new GcMonitor( );
+        this.phase = WARMUP;
+        for (Worker w : workers) {
+            w.start( );
+        }
+        try {
+            Thread.sleep(this.warmup * 1000L);
+            monitor.start( );
+            long start = System.nanoTime( );
+            this.phase = MEASURE;
+            Thread.sleep(this.duration * 1000L);
+            this.phase = STOP;
+            long end = System.nanoTime( );
+            for (Worker w : workers) {
+                w.join( );
+            }
+            monitor.stop( );
+
+            for (Worker w : workers) {
+                if (w.failure != null) {
+                    throw w.failure;
+                }
+            }
+
+            LatencyHistogram encoding = new LatencyHistogram( );
+            LatencyHistogram decoding = new LatencyHistogram( );
+            long slow = 0;
+            List<long[]> slowOperations = new ArrayList<long[]>( );
+            for (Worker w : workers) {
+                encoding.add(w.encoding);
+                decoding.add(w.decoding);
+                slow += w.slow;
+                for (int i = 0; i < w.slowCount; ++i) {
+                    slowOperations.add(new long[] { w.slowStarts[i], w.slowEnds[i] });
+                }
+            }
+            double seconds = (end - start) / 1e9;
+
+            json.beginObject( );
+            json.name("mode").value(mode.name( ));
+            json.name("exi_bytes_mean").value((double) exiBytes / encoded.size( ));
+            json.name("operations").beginObject( );
+            json.name("encode");
+            writeLatencies(json, encoding, seconds);
+            json.name("decode");
+            writeLatencies(json, decoding, seconds);
+            json.endObject( );
+            json.name("gc");
+            writeGarbageCollections(json, monitor.getPauses( ), slow, slowOperations);
+            json.endObject( );
+        } finally {
+            this.phase = STOP;
+            monitor.stop( );
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds the latencies of an operation to the report.
+     *
+     * @param json The report.
+     * @param h The latency histogram.
+     * @param seconds The measurement time in seconds.
+     */
+    private static void writeLatencies(JsonWriter json, LatencyHistogram h, double seconds) {
+        json.beginObject( );
+        json.name("count").value(h.getCount( ));
+        json.name("throughput").value(h.getCount( ) / seconds);
+        json.name("mean_us").value(h.getMean( ) / 1000);
+        json.name("min_us").value(h.getMin( ) / 1000.0);
+        json.name("p50_us").value(h.getPercentile(0.5) / 1000.0);
+        json.name("p90_us").value(h.getPercentile(0.9) / 1000.0);
+        json.name("p99_us").value(h.getPercentile(0.99) / 1000.0);
+        json.name("p999_us").value(h.getPercentile(0.999) / 1000.0);
+        json.name("p9999_us").value(h.getPercentile(0.9999) / 1000.0);
+        json.name("max_us").value(h.getMax( ) / 1000.0);
+
+        // the non-empty buckets as [lower bound, upper bound, count] in ns
+        json.name("histogram").beginArray( );
+        for (int i = 0; i < h.getBucketCount( ); ++i) {
+            long count = h.getBucket(i);
+            if (count > 0) {
+                json.beginArray( );
+                json.value(LatencyHistogram.lowerBound(i));
+                json.value(LatencyHistogram.upperBound(i));
+                json.value(count);
+                json.endArray( );
+            }
+        }
+        json.endArray( );
+        json.endObject( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds the garbage collections and their correlation with slow operations
+     * to the report.
+     *
+     * @param json The report.
+     * @param pauses The pauses as [start, end] in milliseconds of JVM uptime.
+     * @param slow The number of slow operations.
+     * @param operations The recorded slow operations as [start, end] in
+     *        milliseconds of JVM uptime.
+     */
+    private static void writeGarbageCollections(JsonWriter json, List<long[]> pauses, long slow,
+            List<long[]> operations) {
+        long total = 0;
+        long max = 0;
+        for (long[] p : pauses) {
+            long d = p[1] - p[0];
+            total += d;
+            max = Math.max(max, d);
+        }
+
+        // an operation overlaps a pause if it starts before the pause ends
+        // and ends after the pause starts; pause times only have millisecond
+        // resolution, so both ends are inclusive
+        Collections.sort(pauses, new Comparator<long[]>( ) {
+            public int compare(long[] a, long[] b) {
+                return a[0] < b[0] ? -1 : a[0] > b[0] ? 1 : 0;
+            }
+        });
+        long overlapping = 0;
+        for (long[] op : operations) {
+            for (long[] p : pauses) {
+                if (p[0] > op[1]) {
+                    break;
+                }
+                if (p[1] >= op[0]) {
+                    ++overlapping;
+                    break;
+                }
+            }
+        }
+
+        json.beginObject( );
+        json.name("pauses").value(pauses.size( ));
+        json.name("pause_total_ms").value(total);
+        json.name("pause_max_ms").value(max);
+        json.name("slow_operations").value(slow);
+        json.name("slow_operations_checked").value(operations.size( ));
+        json.name("slow_operations_during_pauses").value(overlapping);
+        json.endObject( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Converts a <code>System.nanoTime( )</code> value to milliseconds of JVM
+     * uptime, the time base of the garbage collection notifications.
+     *
+     * @param nanos The nano time.
+     * @return The uptime in milliseconds.
+     */
+    private long toUptime(long nanos) {
+        return this.baseUptime + (nanos - this.baseNanos) / 1000000;
+    }
+
+    // ------------------------------------------------------------------------
+    // Nested types
+    // ------------------------------------------------------------------------
+
+    /**
+     * A thread sending requests.
+     */
+    private class Worker extends Thread {
+
+        /**
+         * The histogram of encoding latencies.
+         */
+        final LatencyHistogram encoding = new LatencyHistogram( );
+
+        /**
+         * The histogram of decoding latencies.
+         */
+        final LatencyHistogram decoding = new LatencyHistogram( );
+
+        /**
+         * The number of slow operations.
+         */
+        long slow;
+
+        /**
+         * The start times of the recorded slow operations.
+         */
+        long[] slowStarts = new long[64];
+
+        /**
+         * The end times of the recorded slow operations.
+         */
+        long[] slowEnds = new long[64];
+
+        /**
+         * The number of recorded slow operations.
+         */
+        int slowCount;
+
+        /**
+         * The failure that stopped the worker, if any.
+         */
+        volatile Exception failure;
+
+        /**
+         * The index of the worker.
+         */
+        private final int index;
+
+        /**
+         * The options, a copy of which is used for every message.
+         */
+        private final ExiOptions options;
+
+        /**
+         * The encoded messages.
+         */
+        private final List<byte[]> encoded;
+
+        /**
+         * Creates a new worker.
+         *
+         * @param index The index of the worker.
+         * @param options The options.
+         * @param encoded The encoded messages.
+         */
+        Worker(int index, ExiOptions options, List<byte[]> encoded) {
+            super("load-" + index);
+            this.index = index;
+            this.options = options;
+            this.encoded = encoded;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Thread#run()
+         */
+        @Override
+        public void run( ) {
+            try {
+                send( );
+            } catch (Exception e) {
+                this.failure = e;
+            }
+        }
+
+        /**
+         * Sends requests until the harness stops.
+         *
+         * @throws Exception If a message can't be encoded or decoded.
+         */
+        private void send( ) throws Exception {
+            List<byte[]> xml = LoadHarness.this.messages;
+            int n = xml.size( );
+            ExiCodec codec = LoadHarness.this.api == Api.CODEC ? new ExiCodec( ) : null;
+            CountingSink sink = new CountingSink( );
+            ByteArrayOutputStream os = new ByteArrayOutputStream( );
+            ExiOptions opts = new ExiOptions(this.options);
+
+            double r = LoadHarness.this.rate;
+            long interval = r > 0 ? (long) (1e9 * LoadHarness.this.threads / r) : 0;
+            int currentPhase = WARMUP;
+            long next = System.nanoTime( ) + interval * this.index / LoadHarness.this.threads;
+            int m = this.index % n;
+
+            while (true) {
+                int p = LoadHarness.this.phase;
+                if (p == STOP) {
+                    break;
+                }
+                if (p != currentPhase) {
+                    // measurement starts, forget the warm-up
+                    currentPhase = p;
+                    this.encoding.reset( );
+                    this.decoding.reset( );
+                    this.slow = 0;
+                    this.slowCount = 0;
+                    next = System.nanoTime( );
+                }
+
+                long start;
+                if (interval > 0) {
+                    start = next;
+                    next += interval;
+                    long wait = start - System.nanoTime( );
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                        while (System.nanoTime( ) < start) {
+                            // spin for the remaining part
+                        }
+                    }
+                } else {
+                    start = System.nanoTime( );
+                }
+
+                ByteArrayInputStream is = new ByteArrayInputStream(xml.get(m));
+                os.reset( );
+                if (codec != null) {
+                    codec.encode(is, os, opts);
+                } else {
+                    ExiDocument.encode(is, os, opts);
+                }
+                long encoded = System.nanoTime( );
+
+                if (codec != null) {
+                    codec.decode(this.encoded.get(m), sink);
+                } else {
+                    ExiDocument.decode(this.encoded.get(m), sink);
+                }
+                long decoded = System.nanoTime( );
+
+                record(this.encoding, start, encoded);
+                record(this.decoding, encoded, decoded);
+                m = m + 1 < n ? m + 1 : 0;
+            }
+        }
+
+        /**
+         * Records the latency of an operation.
+         *
+         * @param h The histogram of the operation.
+         * @param start The start time in nanoseconds.
+         * @param end The end time in nanoseconds.
+         */
+        private void record(LatencyHistogram h, long start, long end) {
+            long latency = end - start;
+            h.record(latency);
+            if (latency < LoadHarness.this.slowThreshold) {
+                return;
+            }
+            ++this.slow;
+            if (this.slowCount == MAX_SLOW_OPERATIONS) {
+                return;
+            }
+            if (this.slowCount == this.slowStarts.length) {
+                this.slowStarts = Arrays.copyOf(this.slowStarts, 2 * this.slowCount);
+                this.slowEnds = Arrays.copyOf(this.slowEnds, 2 * this.slowCount);
+            }
+            this.slowStarts[this.slowCount] = toUptime(start);
+            this.slowEnds[this.slowCount] = toUptime(end);
+            ++this.slowCount;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Collects the stop-the-world pauses of the garbage collectors from their
+     * JMX notifications. Concurrent collection cycles are not pauses and are
+     * ignored.
+     */
+    private static class GcMonitor implements NotificationListener {
+
+        /**
+         * The pauses as [start, end] in milliseconds of JVM uptime.
+         */
+        private final List<long[]> pauses = new ArrayList<long[]>( );
+
+        /**
+         * The collectors the monitor listens to.
+         */
+        private final List<NotificationEmitter> emitters = new ArrayList<NotificationEmitter>( );
+
+        /**
+         * Starts listening to all collectors.
+         */
+        void start( ) {
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans( )) {
+                if (gc instanceof NotificationEmitter) {
+                    NotificationEmitter emitter = (NotificationEmitter) gc;
+                    emitter.addNotificationListener(this, null, null);
+                    this.emitters.add(emitter);
+                }
+            }
+        }
+
+        /**
+         * Stops listening. Calling it again has no effect.
+         */
+        void stop( ) {
+            for (NotificationEmitter emitter : this.emitters) {
+                try {
+                    emitter.removeNotificationListener(this);
+                } catch (ListenerNotFoundException e) {
+                    // already removed
+                }
+            }
+            this.emitters.clear( );
+        }
+
+        /**
+         * Returns the pauses recorded so far.
+         *
+         * @return A copy of the pauses.
+         */
+        synchronized List<long[]> getPauses( ) {
+            return new ArrayList<long[]>(this.pauses);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javax.management.NotificationListener#handleNotification(javax.management.Notification, java.lang.Object)
+         */
+        public void handleNotification(Notification notification, Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType( ))) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from(
+                    (CompositeData) notification.getUserData( ));
+            if (info.getGcName( ).contains("Concurrent") || info.getGcAction( ).contains("concurrent")) {
+                return;
+            }
+            GcInfo gc = info.getGcInfo( );
+            synchronized (this) {
+                this.pauses.add(new long[] { gc.getStartTime( ), gc.getEndTime( ) });
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * An event sink which only counts events and characters so that decoding
+     * can't be optimized away.
+     */
+    private static class CountingSink implements ExiEventSink {
+
+        /**
+         * The number of events and characters.
+         */
+        long count;
+
+        public void handle(ExiStartDocument event) {
+            ++this.count;
+        }
+
+        public void handle(ExiStartElement event) {
+            ++this.count;
+        }
+
+        public void handle(ExiAttribute event) {
+            this.count += event.getValue( ).length( );
+        }
+
+        public void handle(ExiNamespaceDeclaration event) {
+            ++this.count;
+        }
+
+        public void handle(ExiCharacters event) {
+            this.count += event.getLength( );
+        }
+
+        public void handle(ExiEndElement event) {
+            ++this.count;
+        }
+
+        public void handle(ExiEndDocument event) {
+            ++this.count;
+        }
+
+        public void handle(ExiComment event) {
+            ++this.count;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.benchmarks;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import exi.io.ExiInputStream;
+import exi.io.ExiOutputStream;
+
+/**
+ * Measures the primitives of {@link ExiOutputStream} and
+ * {@link ExiInputStream}. Every invocation writes or reads {@link #COUNT}
+ * items, and the scores are per item.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class StreamBenchmark {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of items written or read per invocation.
+     */
+    private static final int COUNT = 1024;
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The small integers written as n-bit unsigned integers.
+     */
+    private final int[] small = new int[COUNT];
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The integers written as unsigned integers, mostly but not only small.
+     */
+    private final int[] unsigned = new int[COUNT];
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The strings, ASCII and non-ASCII.
+     */
+    private final String[] strings = new String[COUNT];
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The output stream, which is reset for every invocation.
+     */
+    private final ExiOutputStream os = new ExiOutputStream( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The encoded n-bit unsigned integers.
+     */
+    private byte[] smallData;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The encoded unsigned integers.
+     */
+    private byte[] unsignedData;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The encoded strings.
+     */
+    private byte[] stringData;
+
+    // ------------------------------------------------------------------------
+    // Setup
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates the items and encodes them for the reading benchmarks.
+     *
+     * @throws IOException Never.
+     */
+    @Setup
+    public void setup( ) throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < COUNT; ++i) {
+            this.small[i] = random.nextInt(32);
+            this.unsigned[i] = random.nextInt(8) == 0 ? random.nextInt(1 << 20) : random.nextInt(128);
+            this.strings[i] = (i % 4 == 0 ? "\u00e4\u00f6\u00fc-" : "value-") + random.nextInt(100000);
+        }
+        this.smallData = writeSmall( );
+        this.unsignedData = writeUnsigned( );
+        this.stringData = writeStrings( );
+    }
+
+    // ------------------------------------------------------------------------
+    // Benchmarks
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes 5-bit unsigned integers.
+     *
+     * @return The written data.
+     * @throws IOException Never.
+     */
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public byte[] writeNBitUnsignedInteger( ) throws IOException {
+        return writeSmall( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes unsigned integers.
+     *
+     * @return The written data.
+     * @throws IOException Never.
+     */
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public byte[] writeUnsignedInteger( ) throws IOException {
+        return writeUnsigned( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes strings.
+     *
+     * @return The written data.
+     * @throws IOException Never.
+     */
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public byte[] writeString( ) throws IOException {
+        return writeStrings( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reads 5-bit unsigned integers.
+     *
+     * @return The sum of the read integers.
+     */
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int readNBitUnsignedInt( ) {
+        ExiInputStream is = new ExiInputStream(this.smallData);
+        int sum = 0;
+        for (int i = 0; i < COUNT; ++i) {
+            sum += is.readNBitUnsignedInt(5);
+        }
+        return sum;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reads unsigned integers.
+     *
+     * @return The sum of the read integers.
+     */
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int readUnsignedInt( ) {
+        ExiInputStream is = new ExiInputStream(this.unsignedData);
+        int sum = 0;
+        for (int i = 0; i < COUNT; ++i) {
+            sum += is.readUnsignedInt( );
+        }
+        return sum;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reads strings.
+     *
+     * @param bh The black hole.
+     */
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void readString(Blackhole bh) {
+        ExiInputStream is = new ExiInputStream(this.stringData);
+        for (int i = 0; i < COUNT; ++i) {
+            bh.consume(is.readString( ));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes the small integers as 5-bit unsigned integers.
+     *
+     * @return The written data.
+     * @throws IOException Never.
+     */
+    private byte[] writeSmall( ) throws IOException {
+        this.os.reset( );
+        for (int i = 0; i < COUNT; ++i) {
+            this.os.writeNBitUnsignedInteger(this.small[i], 5);
+        }
+        this.os.flush( );
+        return this.os.toByteArray( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes the unsigned integers.
+     *
+     * @return The written data.
+     * @throws IOException Never.
+     */
+    private byte[] writeUnsigned( ) throws IOException {
+        this.os.reset( );
+        for (int i = 0; i < COUNT; ++i) {
+            this.os.writeUnsignedInteger(this.unsigned[i]);
+        }
+        this.os.flush( );
+        return this.os.toByteArray( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes the strings.
+     *
+     * @return The written data.
+     * @throws IOException Never.
+     */
+    private byte[] writeStrings( ) throws IOException {
+        this.os.reset( );
+        for (int i = 0; i < COUNT; ++i) {
+            this.os.writeString(this.strings[i]);
+        }
+        this.os.flush( );
+        return this.os.toByteArray( );
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import exi.utils.StringTablePartition;
+import exi.utils.ValuePartition;
+
+/**
+ * Measures lookups in a {@link StringTablePartition} of various sizes, both
+ * for strings which are in the partition (hits) and strings which are not
+ * (misses). This is what the encoder does for every URI, prefix, local name
+ * and value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class StringTableBenchmark {
+
+    // ------------------------------------------------------------------------
+    // Parameters
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of strings in the partition.
+     */
+    @Param({ "16", "1024", "65536" })
+    public int size;
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The partition.
+     */
+    private final ValuePartition partition = new ValuePartition( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Strings which are in the partition. These are distinct instances from
+     * the ones in the partition, as they would be when parsed from XML.
+     */
+    private String[] hits;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Strings which are not in the partition.
+     */
+    private String[] misses;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The index of the next string to look up.
+     */
+    private int next = 0;
+
+    // ------------------------------------------------------------------------
+    // Setup
+    // ------------------------------------------------------------------------
+
+    /**
+     * Fills the partition.
+     */
+    @Setup
+    public void setup( ) {
+        this.hits = new String[this.size];
+        this.misses = new String[this.size];
+        for (int i = 0; i < this.size; ++i) {
+            this.partition.add("value-" + i);
+            this.hits[i] = new String("value-" + i);
+            this.misses[i] = "other-" + i;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Benchmarks
+    // ------------------------------------------------------------------------
+
+    /**
+     * Looks up a string which is in the partition and gets its ID, as the
+     * encoder does on a hit.
+     *
+     * @return The string's ID.
+     */
+    @Benchmark
+    public int lookupHit( ) {
+        String s = this.hits[nextIndex( )];
+        return this.partition.lookup(s) ? this.partition.getID(s) : -1;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Looks up a string which is not in the partition.
+     *
+     * @return <code>false</code>.
+     */
+    @Benchmark
+    public boolean lookupMiss( ) {
+        return this.partition.lookup(this.misses[nextIndex( )]);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Gets a string by its ID, as the decoder does on a hit.
+     *
+     * @return The string.
+     */
+    @Benchmark
+    public String getValue( ) {
+        return this.partition.getValue(nextIndex( ));
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the next string, cycling through all strings.
+     *
+     * @return The index.
+     */
+    private int nextIndex( ) {
+        int i = this.next;
+        this.next = i + 1 == this.size ? 0 : i + 1;
+        return i;
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.InputSource;
+
+import exi.io.ExiHeaderReader;
+import exi.io.ExiInputStream;
+import exi.io.ExiReader;
+import exi.io.ExiWriter;
+import exi.metrics.ExiMetrics;
+
+/**
+ * A reusable EXI encoder and decoder. Unlike the static methods of
+ * {@link ExiDocument}, which set everything up from scratch for every
+ * document, a codec keeps its SAX parser, its encoder and decoder (including
+ * their grammar factories and string tables) and its input stream, and just
+ * resets them for the next document. This makes a difference when encoding
+ * or decoding lots of small documents.
+ * <p>
+ * A codec is not thread-safe. It is meant to be used by one thread at a time,
+ * e.g. one codec per worker thread, or borrowed from an {@link ExiCodecPool}.
+ * </p>
+ */
+public class ExiCodec {
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The SAX parser used for encoding.
+     */
+    private final SAXParser parser;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The encoder, or <code>null</code> if nothing has been encoded yet.
+     */
+    private ExiEncoder encoder = null;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The SAX handler passing the parsed document on to the encoder.
+     */
+    private ExiDocumentHandler handler = null;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The decoder, or <code>null</code> if nothing has been decoded yet.
+     */
+    private ExiDecoder decoder = null;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The input stream used for decoding.
+     */
+    private final ExiInputStream input = new ExiInputStream(new byte[0]);
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The metrics decoded documents are counted in or <code>null</code>.
+     */
+    private ExiMetrics metrics = null;
+
+    // ------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new codec using the default SAX parser factory.
+     *
+     * @throws Exception If the SAX parser can't be created.
+     */
+    public ExiCodec( ) throws Exception {
+        this(SAXParserFactory.newInstance( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new codec using a parser from the specified factory. The
+     * factory is not used any more after this constructor returns.
+     *
+     * @param factory The SAX parser factory.
+     * @throws Exception If the SAX parser can't be created.
+     */
+    public ExiCodec(SAXParserFactory factory) throws Exception {
+        this.parser = factory.newSAXParser( );
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Sets the metrics which decoded documents are counted in. The options
+     * of a decoded document come from its header and therefore can't carry
+     * metrics. Encoded documents are counted in the metrics of the options
+     * they are encoded with.
+     *
+     * @param metrics The metrics or <code>null</code> if decoded documents
+     *        are not to be counted.
+     */
+    public void setMetrics(ExiMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the XML document read from the specified byte stream using the
+     * specified EXI options. The options are encoded to the stream.
+     *
+     * @param is The input stream from which the XML document is read.
+     * @param options The EXI options to use.
+     * @return The byte array of encoded data.
+     * @throws Exception If something goes wrong during encoding.
+     */
+    public byte[] encode(InputStream is, ExiOptions options) throws Exception {
+        return encode(new InputSource(is), options);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the XML document read from the specified byte stream using the
+     * specified EXI options and writes the result to the output stream. The
+     * options are encoded to the stream. Neither stream is closed.
+     *
+     * @param is The input stream from which the XML document is read.
+     * @param os The output stream to which the EXI stream is written.
+     * @param options The EXI options to use.
+     * @throws Exception If something goes wrong during encoding.
+     */
+    public void encode(InputStream is, OutputStream os, ExiOptions options) throws Exception {
+        os.write(encode(new InputSource(is), options));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the XML document read from the specified character stream using
+     * the specified EXI options and writes the result to the output stream.
+     * The options are encoded to the stream. Neither stream is closed.
+     *
+     * @param r The reader from which the XML document is read.
+     * @param os The output stream to which the EXI stream is written.
+     * @param options The EXI options to use.
+     * @throws Exception If something goes wrong during encoding.
+     */
+    public void encode(Reader r, OutputStream os, ExiOptions options) throws Exception {
+        os.write(encode(new InputSource(r), options));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the XML document read from the specified input source using the
+     * specified EXI options. The options are encoded to the stream.
+     *
+     * @param in The input source.
+     * @param options The EXI options to use.
+     * @return The byte array of encoded data.
+     * @throws Exception If something goes wrong during encoding.
+     */
+    public byte[] encode(InputSource in, ExiOptions options) throws Exception {
+        try {
+            ExiWriter ew = ExiDocument.createWriter(options, true);
+            if (this.encoder == null) {
+                this.encoder = new ExiEncoder(ew, options);
+                this.handler = new ExiDocumentHandler(this.encoder);
+            } else {
+                this.encoder.reset(ew, options);
+                this.handler.reset( );
+            }
+            ExiDocument.parse(this.parser, in, this.handler);
+            return ew.toByteArray( );
+        } catch (Exception e) {
+            // the parser may have been left in the middle of a document
+            this.parser.reset( );
+            throw e;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Decodes an EXI document stream stored in a byte array and delivers the
+     * decoded events to the specified sink.
+     *
+     * @param array The byte array.
+     * @param sink The event sink.
+     * @throws Exception If something goes wrong during decoding.
+     */
+    public void decode(byte[] array, ExiEventSink sink) throws Exception {
+        this.input.setBuffer(array);
+        ExiHeaderReader hr = new ExiHeaderReader(this.input);
+        ExiOptions options = ExiOptionsCodec.decodeHeader(hr);
+        options.setMetrics(this.metrics);
+        ExiReader er = ExiDocument.createBodyReader(hr, options);
+        if (this.decoder == null) {
+            this.decoder = new ExiDecoder(sink, er, options);
+        } else {
+            this.decoder.reset(sink, er, options);
+        }
+        this.decoder.decode( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Decodes an EXI document stream stored in a byte array and writes the
+     * XML document to the specified output stream using UTF-8. The output
+     * stream is flushed but not closed.
+     *
+     * @param array The byte array.
+     * @param os The output stream.
+     * @throws Exception If something goes wrong during decoding.
+     * @see ExiXmlWriterSink
+     */
+    public void decode(byte[] array, OutputStream os) throws Exception {
+        decode(array, new ExiXmlWriterSink(os));
+    }
+}
@@ -0,0 +1,613 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * A bounded pool of {@link ExiCodec} instances sharing one set of EXI options.
+ * <p>
+ * This class is thread-safe. The pool keeps a private copy of the options it
+ * is created with and gives every encoding its own copy of them, so the
+ * options passed in may be changed afterwards without affecting the pool.
+ * Codecs are created lazily, at most <code>maxSize</code> of them, and are
+ * kept once they have been created. If all codecs are in use, then threads
+ * wait for one to be released, but no longer than the borrow timeout.
+ * </p>
+ * <p>
+ * If the options carry metrics (see {@link ExiOptions#setMetrics}), then
+ * both the encoded and the decoded documents are counted in them.
+ * </p>
+ * <p>
+ * The simplest way of using a pool is through its <code>encode</code> and
+ * <code>decode</code> methods, which borrow a codec, use it and release it
+ * again. A codec can also be borrowed explicitly, in which case it must be
+ * released exactly once and must not be used by any other thread until then:
+ * </p>
+ *
+ * <pre>
+ * ExiCodec codec = pool.borrow( );
+ * try {
+ *     ...
+ * } finally {
+ *     pool.release(codec);
+ * }
+ * </pre>
+ */
+public class ExiCodecPool {
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The options used for encoding. These are never handed out.
+     */
+    private final ExiOptions options;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The factory from which the codecs' SAX parsers are created.
+     */
+    private final SAXParserFactory factory;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The maximum number of codecs.
+     */
+    private final int maxSize;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The borrow timeout in milliseconds, or a negative value if threads wait
+     * until a codec becomes available.
+     */
+    private final long timeout;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * One permit for every codec which is not in use.
+     */
+    private final Semaphore permits;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The codecs which have been created and are not in use.
+     */
+    private final ConcurrentLinkedQueue<ExiCodec> idle = new ConcurrentLinkedQueue<ExiCodec>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The codecs which are in use. Codecs don't override
+     * <code>equals</code>, so these are compared by identity.
+     */
+    private final ConcurrentHashMap<ExiCodec, Boolean> inUse = new ConcurrentHashMap<ExiCodec, Boolean>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of codecs borrowed so far.
+     */
+    private final AtomicLong borrowed = new AtomicLong( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of codecs created so far.
+     */
+    private final AtomicLong created = new AtomicLong( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of borrowings which had to wait for a codec.
+     */
+    private final AtomicLong waits = new AtomicLong( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The total time spent waiting for codecs in nanoseconds.
+     */
+    private final AtomicLong waitNanos = new AtomicLong( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of borrowings which timed out.
+     */
+    private final AtomicLong timeouts = new AtomicLong( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of documents encoded or decoded by the pool's own methods.
+     */
+    private final AtomicLong documents = new AtomicLong( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of documents which failed to be encoded or decoded by the
+     * pool's own methods.
+     */
+    private final AtomicLong failures = new AtomicLong( );
+
+    // ------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new pool whose borrowers wait until a codec becomes available.
+     *
+     * @param options The EXI options used for encoding.
+     * @param maxSize The maximum number of codecs.
+     */
+    public ExiCodecPool(ExiOptions options, int maxSize) {
+        this(options, maxSize, -1);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new pool using the default SAX parser factory.
+     *
+     * @param options The EXI options used for encoding.
+     * @param maxSize The maximum number of codecs.
+     * @param timeout The borrow timeout in milliseconds, or a negative value
+     *        if borrowers wait until a codec becomes available.
+     */
+    public ExiCodecPool(ExiOptions options, int maxSize, long timeout) {
+        this(options, maxSize, timeout, SAXParserFactory.newInstance( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new pool. The SAX parser factory must not be used by anyone
+     * else afterwards, since SAX parser factories are not thread-safe.
+     *
+     * @param options The EXI options used for encoding.
+     * @param maxSize The maximum number of codecs.
+     * @param timeout The borrow timeout in milliseconds, or a negative value
+     *        if borrowers wait until a codec becomes available.
+     * @param factory The SAX parser factory.
+     */
+    public ExiCodecPool(ExiOptions options, int maxSize, long timeout, SAXParserFactory factory) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("pool size must be positive: " + maxSize);
+        }
+        this.options = new ExiOptions(options);
+        this.maxSize = maxSize;
+        this.timeout = timeout;
+        this.factory = factory;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns a copy of the options used for encoding.
+     *
+     * @return The options.
+     */
+    public ExiOptions getOptions( ) {
+        return new ExiOptions(this.options);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the maximum number of codecs.
+     *
+     * @return The maximum pool size.
+     */
+    public int getMaxSize( ) {
+        return this.maxSize;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Borrows a codec from this pool, waiting no longer than the pool's borrow
+     * timeout. The codec must be given back using {@link #release(ExiCodec)}.
+     *
+     * @return The codec.
+     * @throws ExiPoolTimeoutException If no codec became available in time.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     * @throws Exception If a new codec can't be created.
+     */
+    public ExiCodec borrow( ) throws Exception {
+        if (!this.permits.tryAcquire( )) {
+            this.waits.incrementAndGet( );
+            long start = System.nanoTime( );
+            try {
+                if (this.timeout < 0) {
+                    this.permits.acquire( );
+                } else if (!this.permits.tryAcquire(this.timeout, TimeUnit.MILLISECONDS)) {
+                    this.timeouts.incrementAndGet( );
+                    throw new ExiPoolTimeoutException("no codec available within " + this.timeout + " ms");
+                }
+            } finally {
+                this.waitNanos.addAndGet(System.nanoTime( ) - start);
+            }
+        }
+
+        ExiCodec codec = this.idle.poll( );
+        if (codec == null) {
+            try {
+                codec = createCodec( );
+            } catch (Exception e) {
+                this.permits.release( );
+                throw e;
+            }
+        }
+        this.inUse.put(codec, Boolean.TRUE);
+        this.borrowed.incrementAndGet( );
+        return codec;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Gives a borrowed codec back to this pool. Every borrowed codec must be
+     * released exactly once and must not be used afterwards.
+     *
+     * @param codec The codec.
+     * @throws IllegalArgumentException If the codec has not been borrowed
+     *         from this pool or has already been released.
+     */
+    public void release(ExiCodec codec) {
+        if (codec == null || this.inUse.remove(codec) == null) {
+            throw new IllegalArgumentException("codec is not borrowed from this pool: " + codec);
+        }
+        this.idle.offer(codec);
+        this.permits.release( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the XML document read from the specified byte stream using the
+     * pool's options.
+     *
+     * @param is The input stream from which the XML document is read.
+     * @return The byte array of encoded data.
+     * @throws Exception If something goes wrong during encoding.
+     * @see ExiCodec#encode(InputStream, ExiOptions)
+     */
+    public byte[] encode(InputStream is) throws Exception {
+        ExiCodec codec = borrow( );
+        try {
+            byte[] result = codec.encode(is, new ExiOptions(this.options));
+            this.documents.incrementAndGet( );
+            return result;
+        } catch (Exception e) {
+            this.failures.incrementAndGet( );
+            throw e;
+        } finally {
+            release(codec);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the XML document read from the specified byte stream using the
+     * pool's options and writes the result to the output stream. Neither
+     * stream is closed.
+     *
+     * @param is The input stream from which the XML document is read.
+     * @param os The output stream to which the EXI stream is written.
+     * @throws Exception If something goes wrong during encoding.
+     * @see ExiCodec#encode(InputStream, OutputStream, ExiOptions)
+     */
+    public void encode(InputStream is, OutputStream os) throws Exception {
+        os.write(encode(is));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the XML document read from the specified character stream using
+     * the pool's options and writes the result to the output stream. Neither
+     * stream is closed.
+     *
+     * @param r The reader from which the XML document is read.
+     * @param os The output stream to which the EXI stream is written.
+     * @throws Exception If something goes wrong during encoding.
+     * @see ExiCodec#encode(Reader, OutputStream, ExiOptions)
+     */
+    public void encode(Reader r, OutputStream os) throws Exception {
+        ExiCodec codec = borrow( );
+        try {
+            codec.encode(r, os, new ExiOptions(this.options));
+            this.documents.incrementAndGet( );
+        } catch (Exception e) {
+            this.failures.incrementAndGet( );
+            throw e;
+        } finally {
+            release(codec);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Decodes an EXI document stream stored in a byte array and delivers the
+     * decoded events to the specified sink. The options are read from the
+     * stream's header, not taken from the pool.
+     *
+     * @param array The byte array.
+     * @param sink The event sink.
+     * @throws Exception If something goes wrong during decoding.
+     * @see ExiCodec#decode(byte[], ExiEventSink)
+     */
+    public void decode(byte[] array, ExiEventSink sink) throws Exception {
+        ExiCodec codec = borrow( );
+        try {
+            codec.decode(array, sink);
+            this.documents.incrementAndGet( );
+        } catch (Exception e) {
+            this.failures.incrementAndGet( );
+            throw e;
+        } finally {
+            release(codec);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Decodes an EXI document stream stored in a byte array and writes the
+     * XML document to the specified output stream using UTF-8. The output
+     * stream is flushed but not closed.
+     *
+     * @param array The byte array.
+     * @param os The output stream.
+     * @throws Exception If something goes wrong during decoding.
+     * @see ExiCodec#decode(byte[], OutputStream)
+     */
+    public void decode(byte[] array, OutputStream os) throws Exception {
+        decode(array, new ExiXmlWriterSink(os));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns a snapshot of this pool's usage statistics.
+     *
+     * @return The statistics.
+     */
+    public Statistics getStatistics( ) {
+        return new Statistics(this);
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new codec. Parsers are created one at a time since the SAX
+     * parser factory is not thread-safe.
+     *
+     * @return The codec.
+     * @throws Exception If the SAX parser can't be created.
+     */
+    private ExiCodec createCodec( ) throws Exception {
+        ExiCodec codec;
+        synchronized (this.factory) {
+            codec = new ExiCodec(this.factory);
+        }
+        codec.setMetrics(this.options.getMetrics( ));
+        this.created.incrementAndGet( );
+        return codec;
+    }
+
+    // ------------------------------------------------------------------------
+    // Nested types
+    // ------------------------------------------------------------------------
+
+    /**
+     * A snapshot of a pool's usage statistics. The values are read one after
+     * the other while the pool may be in use, so they need not be exactly
+     * consistent with each other.
+     */
+    public static final class Statistics {
+
+        /**
+         * The maximum number of codecs.
+         */
+        private final int maxSize;
+
+        /**
+         * The number of codecs in use.
+         */
+        private final int active;
+
+        /**
+         * The number of codecs created so far.
+         */
+        private final long created;
+
+        /**
+         * The number of codecs borrowed so far.
+         */
+        private final long borrowed;
+
+        /**
+         * The number of borrowings which had to wait.
+         */
+        private final long waits;
+
+        /**
+         * The total waiting time in nanoseconds.
+         */
+        private final long waitNanos;
+
+        /**
+         * The number of borrowings which timed out.
+         */
+        private final long timeouts;
+
+        /**
+         * The number of documents processed by the pool's own methods.
+         */
+        private final long documents;
+
+        /**
+         * The number of documents which failed.
+         */
+        private final long failures;
+
+        /**
+         * Takes a snapshot of the specified pool's statistics.
+         *
+         * @param pool The pool.
+         */
+        Statistics(ExiCodecPool pool) {
+            this.maxSize = pool.maxSize;
+            this.active = pool.maxSize - pool.permits.availablePermits( );
+            this.created = pool.created.get( );
+            this.borrowed = pool.borrowed.get( );
+            this.waits = pool.waits.get( );
+            this.waitNanos = pool.waitNanos.get( );
+            this.timeouts = pool.timeouts.get( );
+            this.documents = pool.documents.get( );
+            this.failures = pool.failures.get( );
+        }
+
+        /**
+         * Returns the maximum number of codecs.
+         *
+         * @return The maximum pool size.
+         */
+        public int getMaxSize( ) {
+            return this.maxSize;
+        }
+
+        /**
+         * Returns the number of codecs which are borrowed or about to be
+         * borrowed at the moment.
+         *
+         * @return The number of codecs in use.
+         */
+        public int getActive( ) {
+            return this.active;
+        }
+
+        /**
+         * Returns the number of codecs created so far.
+         *
+         * @return The number of codecs created.
+         */
+        public long getCreated( ) {
+            return this.created;
+        }
+
+        /**
+         * Returns the number of codecs borrowed so far, including the ones
+         * borrowed by the pool's own methods.
+         *
+         * @return The number of borrowings.
+         */
+        public long getBorrowed( ) {
+            return this.borrowed;
+        }
+
+        /**
+         * Returns the number of borrowings which had to wait for a codec,
+         * including the ones which timed out.
+         *
+         * @return The number of waits.
+         */
+        public long getWaits( ) {
+            return this.waits;
+        }
+
+        /**
+         * Returns the total time spent waiting for codecs.
+         *
+         * @return The waiting time in nanoseconds.
+         */
+        public long getWaitNanos( ) {
+            return this.waitNanos;
+        }
+
+        /**
+         * Returns the number of borrowings which timed out.
+         *
+         * @return The number of timeouts.
+         */
+        public long getTimeouts( ) {
+            return this.timeouts;
+        }
+
+        /**
+         * Returns the number of documents successfully encoded or decoded by
+         * the pool's own methods.
+         *
+         * @return The number of documents.
+         */
+        public long getDocuments( ) {
+            return this.documents;
+        }
+
+        /**
+         * Returns the number of documents which failed to be encoded or
+         * decoded by the pool's own methods.
+         *
+         * @return The number of failures.
+         */
+        public long getFailures( ) {
+            return this.failures;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString( ) {
+            return "active=" + this.active + "/" + this.maxSize + " created=" + this.created + " borrowed="
+                + this.borrowed + " waits=" + this.waits + " waitMillis=" + this.waitNanos / 1000000 + " timeouts="
+                + this.timeouts + " documents=" + this.documents + " failures=" + this.failures;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi;
+
+import javax.xml.namespace.QName;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Event sink which passes the decoded events on to a SAX
+ * {@link ContentHandler}. Comments are passed on to a {@link LexicalHandler}
+ * if there is one.
+ */
+public class ExiContentHandlerSink extends ExiStreamingSink {
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The SAX content handler.
+     */
+    private final ContentHandler handler;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The SAX lexical handler or <code>null</code> if comments are dropped.
+     */
+    private final LexicalHandler lexicalHandler;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The attributes passed to the content handler, reused for every element.
+     */
+    private final AttributesImpl attributes = new AttributesImpl( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The buffer for passing character data, reused for every event.
+     */
+    private char[] buffer = new char[256];
+
+    // ------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new sink for a SAX content handler. If the handler is a
+     * lexical handler as well, then it also gets the comments.
+     *
+     * @param handler The content handler.
+     */
+    public ExiContentHandlerSink(ContentHandler handler) {
+        this(handler, handler instanceof LexicalHandler ? (LexicalHandler)handler : null);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new sink for a SAX content handler and lexical handler.
+     *
+     * @param handler The content handler.
+     * @param lexicalHandler The lexical handler or <code>null</code> if
+     *        comments are to be dropped.
+     */
+    public ExiContentHandlerSink(ContentHandler handler, LexicalHandler lexicalHandler) {
+        this.handler = handler;
+        this.lexicalHandler = lexicalHandler;
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiStreamingSink#startDocument()
+     */
+    @Override
+    protected void startDocument( ) throws ExiException {
+        try {
+            this.handler.startDocument( );
+        } catch (SAXException e) {
+            throw new ExiSinkException("SAX handler failed", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiStreamingSink#startElement(javax.xml.namespace.QName)
+     */
+    @Override
+    protected void startElement(QName element) throws ExiException {
+        try {
+            for (int i = 0; i < getNamespaceCount( ); ++i) {
+                this.handler.startPrefixMapping(getNamespacePrefix(i), getNamespaceURI(i));
+            }
+            this.attributes.clear( );
+            for (int i = 0; i < getAttributeCount( ); ++i) {
+                QName a = getAttributeName(i);
+                this.attributes.addAttribute(a.getNamespaceURI( ), a.getLocalPart( ),
+                        toQualifiedName(a), "CDATA", getAttributeValue(i));
+            }
+            this.handler.startElement(element.getNamespaceURI( ), element.getLocalPart( ),
+                    toQualifiedName(element), this.attributes);
+        } catch (SAXException e) {
+            throw new ExiSinkException("SAX handler failed", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiStreamingSink#endElement(javax.xml.namespace.QName)
+     */
+    @Override
+    protected void endElement(QName element) throws ExiException {
+        try {
+            this.handler.endElement(element.getNamespaceURI( ), element.getLocalPart( ),
+                    toQualifiedName(element));
+            for (int i = 0; i < getNamespaceCount( ); ++i) {
+                this.handler.endPrefixMapping(getNamespacePrefix(i));
+            }
+        } catch (SAXException e) {
+            throw new ExiSinkException("SAX handler failed", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiStreamingSink#characters(java.lang.String)
+     */
+    @Override
+    protected void characters(String data) throws ExiException {
+        try {
+            int length = data.length( );
+            if (length > this.buffer.length) {
+                this.buffer = new char[Math.max(length, 2 * this.buffer.length)];
+            }
+            data.getChars(0, length, this.buffer, 0);
+            this.handler.characters(this.buffer, 0, length);
+        } catch (SAXException e) {
+            throw new ExiSinkException("SAX handler failed", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiStreamingSink#comment(java.lang.String)
+     */
+    @Override
+    protected void comment(String text) throws ExiException {
+        if (this.lexicalHandler == null) {
+            return;
+        }
+        try {
+            char[] ch = text.toCharArray( );
+            this.lexicalHandler.comment(ch, 0, ch.length);
+        } catch (SAXException e) {
+            throw new ExiSinkException("SAX handler failed", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiStreamingSink#endDocument()
+     */
+    @Override
+    protected void endDocument( ) throws ExiException {
+        try {
+            this.handler.endDocument( );
+        } catch (SAXException e) {
+            throw new ExiSinkException("SAX handler failed", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the prefixed name of the specified QName.
+     *
+     * @param qname The QName.
+     * @return The name including the prefix, if any.
+     */
+    private static String toQualifiedName(QName qname) {
+        String prefix = qname.getPrefix( );
+        if (prefix.length( ) == 0) {
+            return qname.getLocalPart( );
+        }
+        return prefix + ":" + qname.getLocalPart( );
+    }
+}
@@ -32,25 +32,30 @@ import exi.ExiOptions.FidelityOption;
 import exi.events.ExiAttribute;
 import exi.events.ExiCharacters;
 import exi.events.ExiComment;
+import exi.events.ExiEndDocument;
 import exi.events.ExiEndElement;
-import exi.events.ExiEventCode;
 import exi.events.ExiEventHandler;
+import exi.events.ExiEventType;
 import exi.events.ExiNamespaceDeclaration;
+import exi.events.ExiStartDocument;
 import exi.events.ExiStartElement;
-import exi.grammar.ExiBuiltInGrammarFactory;
 import exi.grammar.ExiExtensibleGrammar;
 import exi.grammar.ExiGrammar;
 import exi.grammar.ExiGrammarGroup;
 import exi.grammar.ExiGrammarRule;
 import exi.grammar.ExiGrammarGroup.Size;
 import exi.io.ExiReader;
+import exi.metrics.ExiMetrics.Partition;
 import exi.utils.ExiNamespaceTable;
-import exi.utils.ExiStringTable;
+import exi.utils.ExiQNamePool;
 import exi.utils.StringTablePartition;
-import exi.utils.ValuePartition;
 
 /**
  * This class represents a decoder for EXI streams.
+ * <p>
+ * A decoder is not thread-safe (see {@link ExiCodecPool} for sharing
+ * decoders between threads).
+ * </p>
  *
  * @author Marco Wegner
  */
@@ -63,24 +68,23 @@ public class ExiDecoder extends ExiEventHandler {
     /**
      * The EXI logger user for logging stuff.
      */
-    private static Logger log = ExiLogger.getLogger(ExiDecoder.class);
+    private static final Logger log = ExiLogger.getLogger(ExiDecoder.class);
 
     // ------------------------------------------------------------------------
     // Member variables
     // ------------------------------------------------------------------------
 
     /**
-     * The EXI document builder which generates a DOM tree from a series of EXI
-     * events.
+     * The sink the decoded events are delivered to.
      */
-    private final ExiDocumentBuilder builder;
+    private ExiEventSink sink;
 
     // ------------------------------------------------------------------------
 
     /**
      * The stream reader for EXI streams.
      */
-    private final ExiReader reader;
+    private ExiReader reader;
 
     // ------------------------------------------------------------------------
 
@@ -89,6 +93,48 @@ public class ExiDecoder extends ExiEventHandler {
      */
     private final ExiNamespaceTable table = new ExiNamespaceTable( );
 
+    // ------------------------------------------------------------------------
+
+    /**
+     * The pool of qualified names for decoded elements and attributes.
+     */
+    private final ExiQNamePool names = new ExiQNamePool( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The Start Element (SE) event which is reused for all elements.
+     */
+    private final ExiStartElement startElement = new ExiStartElement( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The Attribute (AT) event which is reused for all attributes.
+     */
+    private final ExiAttribute attribute = new ExiAttribute( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The Characters (CH) event which is reused for all character data.
+     */
+    private final ExiCharacters characters = new ExiCharacters( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The End Element (EE) event which is reused for all elements.
+     */
+    private final ExiEndElement endElement = new ExiEndElement( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * <code>true</code> if the EndDocument (ED) event has been decoded.
+     */
+    private boolean finished = false;
+
     // ------------------------------------------------------------------------
     // Constructor
     // ------------------------------------------------------------------------
@@ -96,18 +142,66 @@ public class ExiDecoder extends ExiEventHandler {
     /**
      * Constructs a new decoder for EXI streams.
      *
-     * @param builder The EXI document builder which generates a DOM tree from a
-     *        series of EXI events.
+     * @param sink The sink the decoded events are delivered to, e.g. an
+     *        {@link ExiDocumentBuilder} which generates a DOM tree from them.
      * @param r The stream reader for EXI streams.
      * @param options The EXI options to use.
      * @throws Exception If something goes wrong during initialization.
      */
-    public ExiDecoder(ExiDocumentBuilder builder, ExiReader r, ExiOptions options) throws Exception {
+    public ExiDecoder(ExiEventSink sink, ExiReader r, ExiOptions options) throws Exception {
         super(options);
-        this.builder = builder;
+        initializeMetrics(false);
+        this.sink = sink;
         this.reader = r;
 
-        log.debug("--- EXI Decoder started");
+        if (ExiLogger.TRACE) {
+            log.debug("--- EXI Decoder started");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Prepares this decoder for another document, which is read using the
+     * specified reader. This spares setting up the grammar factory and the
+     * string table again.
+     *
+     * @param sink The sink the decoded events are delivered to.
+     * @param r The stream reader for EXI streams.
+     * @param options The EXI options to use.
+     * @throws ExiException If something goes wrong during initialization.
+     */
+    public void reset(ExiEventSink sink, ExiReader r, ExiOptions options) throws ExiException {
+        reset(options);
+        initializeMetrics(false);
+        this.sink = sink;
+        this.reader = r;
+        this.table.clear( );
+        this.names.clear( );
+        this.finished = false;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Prepares this decoder for the next message of a session, which is read
+     * using the specified reader. The string table and the learned grammar
+     * productions are kept.
+     *
+     * @param sink The sink the decoded events are delivered to.
+     * @param r The stream reader for EXI streams.
+     * @param options The EXI options to use, the same as for the previous
+     *        message.
+     * @throws ExiException If something goes wrong during initialization.
+     * @see ExiSession
+     */
+    public void resume(ExiEventSink sink, ExiReader r, ExiOptions options) throws ExiException {
+        resume(options);
+        initializeMetrics(false);
+        this.sink = sink;
+        this.reader = r;
+        this.table.clear( );
+        this.finished = false;
     }
 
     // ------------------------------------------------------------------------
@@ -124,16 +218,44 @@ public class ExiDecoder extends ExiEventHandler {
      *         grammar.
      */
     public void decode( ) throws ExiException {
-        // at least for now...
-        setFactory(new ExiBuiltInGrammarFactory(getOptions( )));
+        while (step( )) {
+            // keep decoding
+        }
+    }
 
-        pushDocumentGrammar( );
+    // ------------------------------------------------------------------------
 
-        ExiGrammarRule rule;
-        do {
-            rule = decodeEventCode( );
-            handleGrammarRule(rule);
-        } while (!rule.getEventType( ).equals("ED"));
+    /**
+     * Decodes a single event and delivers it to the sink. This allows the
+     * decoding process to be driven event by event and to be abandoned before
+     * the end of the stream.
+     *
+     * @return <code>false</code> if the EndDocument (ED) event has been
+     *         decoded, else <code>true</code>.
+     * @throws ExiException If an error occurs while manipulating an EXI
+     *         grammar.
+     */
+    public boolean step( ) throws ExiException {
+        if (this.finished) {
+            return false;
+        }
+
+        ExiGrammarRule rule = decodeEventCode( );
+        handleGrammarRule(rule);
+        this.finished = rule.getEventType( ).equals("ED");
+        return !this.finished;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of elements which have been started but not ended
+     * yet.
+     *
+     * @return The element depth, 0 between top-level elements.
+     */
+    public int getDepth( ) {
+        return getQNameStack( ).size( );
     }
 
     // ------------------------------------------------------------------------
@@ -182,10 +304,13 @@ public class ExiDecoder extends ExiEventHandler {
             return;
         }
 
-        log.debug(rule.getEventType( ));
+        if (ExiLogger.TRACE) {
+            log.debug(rule.getEventType( ));
+        }
+        recordEvent(ExiEventType.Comment);
 
         ExiComment event = new ExiComment(this.reader.readComment( ));
-        this.builder.handle(event);
+        this.sink.handle(event);
 
         getCurrentGrammar( ).moveToGroup(rule.getRightHandSide( ));
     }
@@ -200,7 +325,12 @@ public class ExiDecoder extends ExiEventHandler {
      *         grammar.
      */
     private void handleStartDocument(ExiGrammarRule rule) throws ExiException {
-        log.debug(rule.getEventType( ));
+        if (ExiLogger.TRACE) {
+            log.debug(rule.getEventType( ));
+        }
+        recordEvent(ExiEventType.StartDocument);
+
+        this.sink.handle(new ExiStartDocument( ));
 
         getCurrentGrammar( ).moveToGroup(rule.getRightHandSide( ));
     }
@@ -215,8 +345,10 @@ public class ExiDecoder extends ExiEventHandler {
      *         grammar.
      */
     private void handleStartElement(ExiGrammarRule rule) throws ExiException {
-        String eventType = rule.getEventType( );
-        log.debug(eventType);
+        if (ExiLogger.TRACE) {
+            log.debug(rule.getEventType( ));
+        }
+        recordEvent(ExiEventType.StartElement);
 
         boolean general = rule.isGeneral( );
         String uri, localPart, prefix;
@@ -224,15 +356,19 @@ public class ExiDecoder extends ExiEventHandler {
             uri = decodeURI( );
             localPart = decodeLocalName(uri);
         } else {
-            uri = getCurrentQName( ).getNamespaceURI( );
-            localPart = eventType.substring(3, eventType.length( ) - 1);
+            uri = rule.getEventNamespaceURI( );
+            if (uri == null) {
+                uri = getCurrentQName( ).getNamespaceURI( );
+            }
+            localPart = rule.getEventName( );
         }
-        prefix = this.table.getNamespacePrefix(URI.create(uri));
-        QName qname = new QName(uri, localPart, prefix);
+        prefix = this.table.getNamespacePrefix(uri);
+        QName qname = this.names.get(uri, localPart, prefix);
 
         pushQName(qname);
-        ExiStartElement event = new ExiStartElement(qname);
-        this.builder.handle(event);
+        ExiStartElement event = this.startElement;
+        event.setQualifiedName(qname);
+        this.sink.handle(event);
 
         ExiGrammar g = getCurrentGrammar( );
         if ((g instanceof ExiExtensibleGrammar) && general) {
@@ -240,7 +376,7 @@ public class ExiDecoder extends ExiEventHandler {
         }
 
         g.moveToGroup(rule.getRightHandSide( ));
-        pushElementGrammar(qname);
+        pushElementGrammar(qname, rule);
     }
 
     /**
@@ -251,8 +387,10 @@ public class ExiDecoder extends ExiEventHandler {
      *         grammar.
      */
     private void handleAttribute(ExiGrammarRule rule) throws ExiException {
-        String eventType = rule.getEventType( );
-        log.debug(eventType);
+        if (ExiLogger.TRACE) {
+            log.debug(rule.getEventType( ));
+        }
+        recordEvent(ExiEventType.Attribute);
 
         boolean general = rule.isGeneral( );
 
@@ -261,16 +399,20 @@ public class ExiDecoder extends ExiEventHandler {
             uri = decodeURI( );
             localPart = decodeLocalName(uri);
         } else {
-            uri = "";
-            localPart = eventType.substring(3, eventType.length( ) - 1);
+            uri = rule.getEventNamespaceURI( );
+            if (uri == null) {
+                uri = "";
+            }
+            localPart = rule.getEventName( );
         }
-        QName qname = new QName(uri, localPart);
+        QName qname = this.names.get(uri, localPart);
 
         String value = decodeValue(qname);
 
-        ExiAttribute event = new ExiAttribute(qname, value);
+        ExiAttribute event = this.attribute;
+        event.set(qname, value);
 
-        this.builder.handle(event);
+        this.sink.handle(event);
 
         ExiGrammar g = getCurrentGrammar( );
         if ((g instanceof ExiExtensibleGrammar) && general) {
@@ -294,13 +436,16 @@ public class ExiDecoder extends ExiEventHandler {
             return;
         }
 
-        log.debug(rule.getEventType( ));
+        if (ExiLogger.TRACE) {
+            log.debug(rule.getEventType( ));
+        }
+        recordEvent(ExiEventType.NamespaceDeclaration);
 
         String uri = decodeURI( );
-        String prefix = decodeOptimizedForHits(getStringTable( ).getPrefixPartition( ), "prefix");
+        String prefix = decodeOptimizedForHits(getStringTable( ).getPrefixPartition( ), Partition.PREFIX);
 
         ExiNamespaceDeclaration event = new ExiNamespaceDeclaration(prefix, URI.create(uri));
-        this.builder.handle(event);
+        this.sink.handle(event);
 
         getCurrentGrammar( ).moveToGroup(rule.getRightHandSide( ));
     }
@@ -315,12 +460,15 @@ public class ExiDecoder extends ExiEventHandler {
      *         grammar.
      */
     private void handleCharacters(ExiGrammarRule rule) throws ExiException {
-        String eventType = rule.getEventType( );
-        log.debug(eventType);
+        if (ExiLogger.TRACE) {
+            log.debug(rule.getEventType( ));
+        }
+        recordEvent(ExiEventType.Characters);
 
         String value = decodeValue(getCurrentQName( ));
-        ExiCharacters event = new ExiCharacters(value);
-        this.builder.handle(event);
+        ExiCharacters event = this.characters;
+        event.setData(value);
+        this.sink.handle(event);
 
         ExiGrammar g = getCurrentGrammar( );
         if ((g instanceof ExiExtensibleGrammar) && rule.getEventCode( ).getLength( ) > 1) {
@@ -340,9 +488,12 @@ public class ExiDecoder extends ExiEventHandler {
      *         grammar.
      */
     private void handleEndElement(ExiGrammarRule rule) throws ExiException {
-        log.debug(rule.getEventType( ));
+        if (ExiLogger.TRACE) {
+            log.debug(rule.getEventType( ));
+        }
+        recordEvent(ExiEventType.EndElement);
 
-        this.builder.handle(new ExiEndElement( ));
+        this.sink.handle(this.endElement);
 
         popQName( );
         popGrammar( );
@@ -358,7 +509,12 @@ public class ExiDecoder extends ExiEventHandler {
      *         grammar.
      */
     private void handleEndDocument(ExiGrammarRule rule) throws ExiException {
-        log.debug(rule.getEventType( ));
+        if (ExiLogger.TRACE) {
+            log.debug(rule.getEventType( ));
+        }
+        recordEvent(ExiEventType.EndDocument);
+
+        this.sink.handle(new ExiEndDocument( ));
     }
 
     // ------------------------------------------------------------------------
@@ -380,13 +536,13 @@ public class ExiDecoder extends ExiEventHandler {
         ExiGrammarRule rule;
 
         int p1 = this.reader.readEventCodePart(groupSize.getPartSize(0));
-        rule = activeGroup.getMatchingRule(new ExiEventCode(p1));
+        rule = activeGroup.getMatchingRule(1, p1, 0, 0);
         if (rule == null) {
             int p2 = this.reader.readEventCodePart(groupSize.getPartSize(1));
-            rule = activeGroup.getMatchingRule(new ExiEventCode(p1, p2));
+            rule = activeGroup.getMatchingRule(2, p1, p2, 0);
             if (rule == null) {
                 int p3 = this.reader.readEventCodePart(groupSize.getPartSize(2));
-                rule = activeGroup.getMatchingRule(new ExiEventCode(p1, p2, p3));
+                rule = activeGroup.getMatchingRule(3, p1, p2, p3);
             }
         }
 
@@ -402,7 +558,7 @@ public class ExiDecoder extends ExiEventHandler {
      * @return The decoded URI.
      */
     private String decodeURI( ) {
-        return decodeOptimizedForHits(getStringTable( ).getUriPartition( ), "uri");
+        return decodeOptimizedForHits(getStringTable( ).getUriPartition( ), Partition.URI);
     }
 
     // ------------------------------------------------------------------------
@@ -412,19 +568,25 @@ public class ExiDecoder extends ExiEventHandler {
      * optimized for frequent use of compact identifiers).
      *
      * @param part The string table partition to be queried.
-     * @param msg An additional log message.
+     * @param kind The partition kind. This is used for metrics and log
+     *        messages.
      * @return The decoded string.
      */
-    private String decodeOptimizedForHits(StringTablePartition part, String msg) {
+    private String decodeOptimizedForHits(StringTablePartition part, Partition kind) {
         int code = this.reader.readCompactStringCode(part.getSize( ));
+        recordLookup(kind, code != 0);
         if (code == 0) {
-            log.debug(String.format("%s miss", msg));
+            if (ExiLogger.TRACE) {
+                log.debug(String.format("%s miss", kind));
+            }
             String s = this.reader.readCompactString( );
             part.add(s);
             return s;
         }
 
-        log.debug(String.format("%s hit", msg));
+        if (ExiLogger.TRACE) {
+            log.debug(String.format("%s hit", kind));
+        }
         return part.getValue(code - 1);
     }
 
@@ -441,12 +603,17 @@ public class ExiDecoder extends ExiEventHandler {
     private String decodeLocalName(String namespaceURI) {
         StringTablePartition part = getStringTable( ).getLocalNamesPartition(namespaceURI);
         int code = this.reader.readLocalNameCode( );
+        recordLookup(Partition.LOCAL_NAME, code == 0);
         if (code == 0) {
-            log.debug("local name hit");
+            if (ExiLogger.TRACE) {
+                log.debug("local name hit");
+            }
             return part.getValue(this.reader.readLocalNameIndex(part.getSize( )));
         }
 
-        log.debug("local name miss");
+        if (ExiLogger.TRACE) {
+            log.debug("local name miss");
+        }
         String s = this.reader.readLocalName(code);
         part.add(s);
         return s;
@@ -462,27 +629,10 @@ public class ExiDecoder extends ExiEventHandler {
      * @return The decoded value string.
      */
     private String decodeValue(QName qname) {
-        int code = this.reader.readValueStringCode(qname);
-        ExiStringTable table = getStringTable( );
-        ValuePartition local = table.getValuePartition(qname);
-        ValuePartition global = table.getValuePartition( );
-
-        if (code == 0) {
-            // value is found in the local table
-            log.debug("value hit");
-            return local.getValue(this.reader.readValueStringIndex(qname, local.getSize( )));
+        String s = this.reader.readValue(qname, getStringTable( ));
+        if (ExiLogger.TRACE) {
+            log.debug(String.format("\"%s\" (value)", s));
         }
-
-        if (code == 1) {
-            // value is found in the global table
-            log.debug("global-value hit");
-            return global.getValue(this.reader.readValueStringIndex(qname, global.getSize( )));
-        }
-
-        log.debug("(value miss)");
-        String s = this.reader.readValueString(qname, code);
-        local.add(s);
-        global.add(s);
         return s;
     }
 }
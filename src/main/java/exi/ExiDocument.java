@@ -25,22 +25,33 @@
  */
 package exi;
 
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringReader;
-import java.io.Writer;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.transform.stream.StreamResult;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
-
-import com.sun.org.apache.xml.internal.serialize.OutputFormat;
-import com.sun.org.apache.xml.internal.serialize.XMLSerializer;
+import org.xml.sax.SAXException;
 
 import exi.ExiOptions.Alignment;
 import exi.io.ExiCompressedReader;
@@ -57,6 +68,13 @@ import exi.io.ExiWriter;
 /**
  * This class represents an EXI document and provided methods for encoding and
  * decoding.
+ * <p>
+ * All methods may be called from several threads at the same time, as every
+ * call sets up its own parser, encoder or decoder. The options passed in must
+ * not be shared between concurrent calls, though (see {@link ExiOptions}).
+ * Threads encoding or decoding lots of documents are better off with an
+ * {@link ExiCodecPool}.
+ * </p>
  *
  * @author Marco Wegner
  */
@@ -116,14 +134,157 @@ public final class ExiDocument {
 
         File file = new File(xmlFile);
         if (!file.canRead( )) {
-            System.err.println("ERROR: No such file: " + xmlFile);
-            System.exit(-1);
+            throw new FileNotFoundException("No such file: " + xmlFile);
+        }
+
+        SAXParser parser = newParser( );
+        ExiWriter ew = createWriter(options, encodeOptions);
+        parse(parser, new InputSource(file.toURI( ).toString( )), new ExiDocumentHandler(new ExiEncoder(ew, options)));
+        return ew.toByteArray( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the XML document read from the specified byte stream using the
+     * specified EXI options and writes the result to the output stream. The
+     * options are encoded to the stream. Neither stream is closed.
+     *
+     * @param is The input stream from which the XML document is read.
+     * @param os The output stream to which the EXI stream is written.
+     * @param options The EXI options to use.
+     * @throws Exception If something goes wrong during encoding.
+     */
+    public static void encode(InputStream is, OutputStream os, ExiOptions options) throws Exception {
+        encode(new InputSource(is), os, options);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the XML document read from the specified character stream using
+     * the specified EXI options and writes the result to the output stream.
+     * The options are encoded to the stream. Neither stream is closed.
+     *
+     * @param r The reader from which the XML document is read.
+     * @param os The output stream to which the EXI stream is written.
+     * @param options The EXI options to use.
+     * @throws Exception If something goes wrong during encoding.
+     */
+    public static void encode(Reader r, OutputStream os, ExiOptions options) throws Exception {
+        encode(new InputSource(r), os, options);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the XML document provided by the specified source using the
+     * specified EXI options and writes the result to the output stream. The
+     * options are encoded to the stream.
+     * <p>
+     * Stream and SAX sources are parsed directly and StAX sources are pulled
+     * from, while any other source (e.g. a DOM source) is passed through an
+     * identity transformation.
+     * </p>
+     *
+     * @param source The source of the XML document.
+     * @param os The output stream to which the EXI stream is written.
+     * @param options The EXI options to use.
+     * @throws Exception If something goes wrong during encoding.
+     */
+    public static void encode(Source source, OutputStream os, ExiOptions options) throws Exception {
+        if (source instanceof StAXSource) {
+            XMLStreamReader reader = ((StAXSource)source).getXMLStreamReader( );
+            if (reader != null) {
+                os.write(encode(reader, options));
+                return;
+            }
+        }
+
+        InputSource in = SAXSource.sourceToInputSource(source);
+        if (in != null) {
+            encode(in, os, options);
+            return;
+        }
+
+        ExiWriter ew = createWriter(options, true);
+        ExiDocumentHandler edh = new ExiDocumentHandler(new ExiEncoder(ew, options));
+        SAXResult result = new SAXResult(edh);
+        result.setLexicalHandler(edh);
+        try {
+            TransformerFactory.newInstance( ).newTransformer( ).transform(source, result);
+        } catch (TransformerException e) {
+            Throwable cause = e.getException( );
+            if (cause instanceof SAXException) {
+                throw unwrap((SAXException)cause);
+            }
+            throw e;
+        }
+        os.write(ew.toByteArray( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the XML document read from the specified input source using the
+     * specified EXI options and writes the result to the output stream. The
+     * options are encoded to the stream.
+     *
+     * @param in The input source.
+     * @param os The output stream to which the EXI stream is written.
+     * @param options The EXI options to use.
+     * @throws Exception If something goes wrong during encoding.
+     */
+    private static void encode(InputSource in, OutputStream os, ExiOptions options) throws Exception {
+        SAXParser parser = newParser( );
+        ExiWriter ew = createWriter(options, true);
+        parse(parser, in, new ExiDocumentHandler(new ExiEncoder(ew, options)));
+        os.write(ew.toByteArray( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the XML document read from the specified StAX reader using the
+     * specified EXI options. These options are encoded to the stream. The
+     * events are pulled from the reader directly, i.e. without a SAX parser.
+     *
+     * @param reader The StAX reader positioned at the start of the document.
+     * @param options The EXI options to use.
+     * @return The byte array of encoded data.
+     * @throws Exception If something goes wrong during encoding.
+     * @see ExiStreamReaderAdapter
+     */
+    public static byte[] encode(XMLStreamReader reader, ExiOptions options) throws Exception {
+        ExiWriter ew = createWriter(options, true);
+        new ExiStreamReaderAdapter(reader, new ExiEncoder(ew, options)).encode( );
+        return ew.toByteArray( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates the writer for the document body and encodes the header.
+     *
+     * @param options The EXI options to use.
+     * @param encodeOptions <code>true</code> if the EXI options should be
+     *        encoded to the stream, else <code>false</code>.
+     * @return The writer for the document body.
+     * @throws Exception If something goes wrong during header encoding.
+     */
+    static ExiWriter createWriter(ExiOptions options, boolean encodeOptions) throws Exception {
+        if (options.getBlockSizer( ) != null
+                && (options.useCompression( ) || options.getAlign( ) == Alignment.PRE_COMPRESSED)) {
+            // the chosen block size goes into the header like any other option,
+            // but the caller's options may be shared, so it is set on a copy
+            options = new ExiOptions(options);
+            options.setBlockSize(options.getBlockSizer( ).nextBlockSize( ));
         }
 
         // header is always encoded without compression and using bit-packed alignment
         ExiWriter ew = new ExiHeaderWriter( );
-        encodeHeader((ExiHeaderWriter)ew, options, encodeOptions);
-        
+        ExiOptionsCodec.encodeHeader((ExiHeaderWriter)ew, options, encodeOptions);
+
         if (options.useCompression( ) || options.getAlign( ) != Alignment.BIT_PACKED) {
             ExiOutputStream outputStream = ew.getOutputStream( );
             outputStream.setByteAligned( );
@@ -133,149 +294,261 @@ public final class ExiDocument {
                 ew = new ExiCompressedWriter(outputStream, options);
             }
         }
+        return ew;
+    }
 
-        ExiDocumentHandler edh = new ExiDocumentHandler(new ExiEncoder(ew, options));
-        SAXParser parser = SAXParserFactory.newInstance( ).newSAXParser( );
-        parser.getXMLReader( ).setProperty("http://xml.org/sax/properties/lexical-handler", edh);
-        parser.parse(file, edh);
+    // ------------------------------------------------------------------------
 
-        return ew.toByteArray( );
+    /**
+     * Creates a new SAX parser.
+     *
+     * @return The SAX parser.
+     * @throws Exception If the parser can't be created.
+     */
+    static SAXParser newParser( ) throws Exception {
+        return SAXParserFactory.newInstance( ).newSAXParser( );
     }
 
     // ------------------------------------------------------------------------
 
     /**
-     * Encodes the EXI header to the stream.
+     * Parses the XML document read from the specified input source and passes
+     * the SAX events on to the document handler. If encoding fails, then the
+     * EXI exception is thrown rather than the SAX exception wrapping it.
      *
-     * @param w The EXI stream writer.
-     * @param options The EXI options to use.
-     * @param encodeOptions <code>true</code> if the EXI options should be
-     *        encoded to the stream, else <code>false</code>.
-     * @throws Exception If something goes wrong during header encoding.
+     * @param parser The SAX parser.
+     * @param in The input source.
+     * @param edh The document handler.
+     * @throws Exception If something goes wrong during parsing or encoding.
      */
-    private static void encodeHeader(ExiHeaderWriter w, ExiOptions options, boolean encodeOptions) throws Exception {
-        w.writeDistinguishingBits( );
-        w.writeOptionsBit(encodeOptions);
-        w.writeFormatVersion( );
-        if (encodeOptions) {
-            encodeOptions(w, options);
+    static void parse(SAXParser parser, InputSource in, ExiDocumentHandler edh) throws Exception {
+        parser.getXMLReader( ).setProperty("http://xml.org/sax/properties/lexical-handler", edh);
+        try {
+            parser.parse(in, edh);
+        } catch (SAXException e) {
+            throw unwrap(e);
         }
     }
 
     // ------------------------------------------------------------------------
 
     /**
-     * Encodes EXI options to the stream.
+     * Returns the EXI exception wrapped by the specified SAX exception, or
+     * the SAX exception itself if it doesn't wrap one.
      *
-     * @param w The EXI stream writer.
-     * @param options The EXI options to use.
-     * @throws Exception If something goes wrong during header encoding.
+     * @param e The SAX exception.
+     * @return The exception to be thrown.
      */
-    private static void encodeOptions(ExiHeaderWriter w, ExiOptions options) throws Exception {
-        ExiEncoder encoder = new ExiEncoder(w, new ExiOptions( ));
-        ExiDocumentHandler edh = new ExiDocumentHandler(encoder);
-        SAXParser parser = SAXParserFactory.newInstance( ).newSAXParser( );
-        parser.getXMLReader( ).setProperty("http://xml.org/sax/properties/lexical-handler", edh);
-        parser.parse(new InputSource(new StringReader(options.toXML( ))), edh);
+    private static Exception unwrap(SAXException e) {
+        if (e.getException( ) instanceof ExiException) {
+            return e.getException( );
+        }
+        return e;
     }
 
     // ------------------------------------------------------------------------
 
     /**
-     * Decodes an EXI document stream stored in an byte array.
+     * Decodes an EXI document stream stored in an byte array into a DOM
+     * document.
      *
      * @param array The byte array.
+     * @return The decoded DOM document.
      * @throws Exception If something goes wrong during decoding.
      */
-    public static void decode(byte[] array) throws Exception {
+    public static Document decode(byte[] array) throws Exception {
+        ExiDocumentBuilder builder = new ExiDocumentBuilder( );
+        decode(array, builder);
+        return builder.getDocument( );
+    }
 
-        // header is always encoded without compression and using bit-packed alignment
-        ExiReader er = new ExiHeaderReader(array);
-        ExiOptions options = decodeHeader((ExiHeaderReader)er);
+    // ------------------------------------------------------------------------
 
-        if (options.useCompression( ) || options.getAlign( ) != Alignment.BIT_PACKED) {
-            ExiInputStream inputStream = er.getInputStream( );
-            inputStream.setByteAligned( );
-            if (options.getAlign( ) == Alignment.BYTE_ALIGNED) {
-                er = new ExiSimpleReader(inputStream);
+    /**
+     * Decodes an EXI document stream stored in an byte array and writes the
+     * XML document to the specified output stream using UTF-8. The output
+     * stream is flushed but not closed.
+     *
+     * @param array The byte array.
+     * @param os The output stream.
+     * @throws Exception If something goes wrong during decoding.
+     */
+    public static void decode(byte[] array, OutputStream os) throws Exception {
+        decode(array, new ExiXmlWriterSink(os));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Decodes an EXI document stream read from the specified input stream and
+     * writes the XML document to the specified output stream using UTF-8.
+     * Neither stream is closed.
+     *
+     * @param is The input stream.
+     * @param os The output stream.
+     * @throws Exception If something goes wrong during decoding.
+     */
+    public static void decode(InputStream is, OutputStream os) throws Exception {
+        decode(readFully(is), new ExiXmlWriterSink(os));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Decodes an EXI document stream read from the specified input stream and
+     * delivers the XML document to the specified result.
+     *
+     * @param is The input stream.
+     * @param result The result.
+     * @throws Exception If something goes wrong during decoding.
+     * @see #decode(byte[], Result)
+     */
+    public static void decode(InputStream is, Result result) throws Exception {
+        decode(readFully(is), result);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Decodes an EXI document stream stored in an byte array and delivers the
+     * XML document to the specified result. SAX results receive the events
+     * directly, DOM results receive the decoded document (appended to the
+     * result's node if there is one), byte streams are written to by an
+     * {@link ExiXmlWriterSink}, and any other result is written to by a StAX
+     * writer.
+     *
+     * @param array The byte array.
+     * @param result The result.
+     * @throws Exception If something goes wrong during decoding.
+     */
+    public static void decode(byte[] array, Result result) throws Exception {
+        if (result instanceof SAXResult) {
+            SAXResult sr = (SAXResult)result;
+            decode(array, new ExiContentHandlerSink(sr.getHandler( ), sr.getLexicalHandler( )));
+        } else if (result instanceof DOMResult) {
+            DOMResult dr = (DOMResult)result;
+            Document document = decode(array);
+            Node node = dr.getNode( );
+            if (node == null) {
+                dr.setNode(document);
             } else {
-                er = new ExiCompressedReader(inputStream, options);
+                Document owner = node instanceof Document ? (Document)node : node.getOwnerDocument( );
+                node.appendChild(owner.importNode(document.getDocumentElement( ), true));
             }
+        } else if (result instanceof StreamResult && ((StreamResult)result).getOutputStream( ) != null) {
+            decode(array, new ExiXmlWriterSink(((StreamResult)result).getOutputStream( )));
+        } else {
+            XMLStreamWriter writer = createStreamWriter(result);
+            decode(array, new ExiStreamWriterSink(writer));
+            writer.close( );
         }
+    }
 
-        ExiDocumentBuilder builder = new ExiDocumentBuilder( );
-        ExiDecoder decoder = new ExiDecoder(builder, er, options);
-        decoder.decode( );
-        Document document = builder.getDocument( );
-
-        BufferedWriter bw = new BufferedWriter(new FileWriter("/home/marco/temp/exi/decoded.xml"));
-        printDOMDocument(document, bw);
-        bw.flush( );
-        bw.close( );
+    // ------------------------------------------------------------------------
+
+    /**
+     * Decodes an EXI document stream stored in an byte array and delivers the
+     * decoded events to the specified sink.
+     *
+     * @param array The byte array.
+     * @param sink The event sink, e.g. an {@link ExiContentHandlerSink} or an
+     *        {@link ExiStreamWriterSink} for streaming output.
+     * @throws Exception If something goes wrong during decoding.
+     */
+    public static void decode(byte[] array, ExiEventSink sink) throws Exception {
+        createDecoder(array, sink).decode( );
     }
 
     // ------------------------------------------------------------------------
 
     /**
-     * Decodes an EXI header.
+     * Creates a pull parser for an EXI document stream stored in a byte
+     * array. The events are decoded as the application asks for them, so
+     * decoding can be stopped at any point.
      *
-     * @param r The stream reader to be used for reading from the EXI stream.
-     * @return The options to be used for decoding the EXI body.
+     * @param array The byte array.
+     * @return The pull parser positioned at the start of the document.
      * @throws Exception If something goes wrong during decoding the header.
      */
-    private static ExiOptions decodeHeader(ExiHeaderReader r) throws Exception {
-        r.readDistinguishingBits( );
-        boolean hasOptions = r.readOptionBit( );
-        r.readFormatVersion( );
-        ExiOptions options = getOptions(r, hasOptions);
-        return options;
+    public static XMLStreamReader createStreamReader(byte[] array) throws Exception {
+        return new ExiStreamReader(array);
     }
 
     // ------------------------------------------------------------------------
 
     /**
-     * Returns EXI options. to be used for decoding the EXI body. If the EXI
-     * header contains EXI options itself then these options are decoded and
-     * returned. Else standard options are used.
+     * Decodes the header of an EXI document stream and creates the decoder
+     * for the document body.
      *
-     * @param esr The EXI stream reader.
-     * @param hasOptions Specifies whether the header contains options itself.
-     * @return The options.
-     * @throws Exception If something goes wrong during stream or XML
-     *         operations.
+     * @param array The byte array.
+     * @param sink The event sink.
+     * @return The decoder which has not decoded any event yet.
+     * @throws Exception If something goes wrong during decoding the header.
      */
-    private static ExiOptions getOptions(ExiHeaderReader esr, boolean hasOptions) throws Exception {
-        ExiOptions options;
-        if (hasOptions) {
-            ExiDocumentBuilder builder = new ExiDocumentBuilder( );
-            // use standard options for decoding the options themselves
-            ExiDecoder decoder = new ExiDecoder(builder, esr, new ExiOptions( ));
-            decoder.decode( );
-            Document document = builder.getDocument( );
-            printDOMDocument(document, new PrintWriter(System.out));
-            options = new ExiOptions(document);
-        } else {
-            options = new ExiOptions( );
+    static ExiDecoder createDecoder(byte[] array, ExiEventSink sink) throws Exception {
+        ExiHeaderReader hr = new ExiHeaderReader(array);
+        ExiOptions options = ExiOptionsCodec.decodeHeader(hr);
+        return new ExiDecoder(sink, createBodyReader(hr, options), options);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates the reader for the document body following the header which
+     * has just been read.
+     *
+     * @param hr The reader which has been used for the header.
+     * @param options The options decoded from the header.
+     * @return The reader for the document body.
+     * @throws Exception If something goes wrong during reading the stream.
+     */
+    static ExiReader createBodyReader(ExiHeaderReader hr, ExiOptions options) throws Exception {
+        // header is always encoded without compression and using bit-packed alignment
+        if (options.useCompression( ) || options.getAlign( ) != Alignment.BIT_PACKED) {
+            ExiInputStream inputStream = hr.getInputStream( );
+            inputStream.setByteAligned( );
+            if (options.getAlign( ) == Alignment.BYTE_ALIGNED) {
+                return new ExiSimpleReader(inputStream);
+            }
+            return new ExiCompressedReader(inputStream, options);
+        }
+        return hr;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a StAX writer for the specified result.
+     *
+     * @param result The result.
+     * @return The StAX writer.
+     * @throws Exception If the writer can't be created for the result.
+     */
+    private static XMLStreamWriter createStreamWriter(Result result) throws Exception {
+        XMLOutputFactory factory = XMLOutputFactory.newInstance( );
+        if (result instanceof StreamResult && ((StreamResult)result).getWriter( ) != null) {
+            return factory.createXMLStreamWriter(((StreamResult)result).getWriter( ));
         }
-        return options;
+        return factory.createXMLStreamWriter(result);
     }
 
     // ------------------------------------------------------------------------
 
     /**
-     * Print the DOM document using the specified writer.
+     * Reads the remaining bytes of the specified stream. The stream is not
+     * closed.
      *
-     * @param document The DOM document to be printed.
-     * @param w The writer to used.
-     * @throws IOException If {@link XMLSerializer#serialize(Document)} throws
-     *         an exception.
+     * @param is The input stream.
+     * @return The bytes read.
+     * @throws IOException If reading from the stream fails.
      */
-    private static void printDOMDocument(Document document, Writer w) throws IOException {
-        OutputFormat format = new OutputFormat(document);
-        format.setIndenting(true);
-        format.setIndent(2);
-        XMLSerializer printer = new XMLSerializer(w, format);
-        printer.setNamespaces(true);
-        printer.serialize(document);
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = is.read(buffer)) != -1) {
+            bos.write(buffer, 0, n);
+        }
+        return bos.toByteArray( );
     }
 }
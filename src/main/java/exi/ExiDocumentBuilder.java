@@ -45,11 +45,16 @@ import exi.events.ExiStartDocument;
 import exi.events.ExiStartElement;
 
 /**
- * This class generates a DOM document from a series of EXI events.
+ * This class generates a DOM document from a series of EXI events. Since the
+ * whole document is kept in memory, one of the streaming sinks should be used
+ * for large documents instead.
+ *
+ * @see ExiContentHandlerSink
+ * @see ExiStreamWriterSink
  *
  * @author Marco Wegner
  */
-public class ExiDocumentBuilder {
+public class ExiDocumentBuilder implements ExiEventSink {
 
     // ------------------------------------------------------------------------
     // Member variables
@@ -23,6 +23,7 @@
 package exi;
 
 import java.net.URI;
+import java.util.HashMap;
 
 import javax.xml.namespace.QName;
 
@@ -47,7 +48,8 @@ import exi.utils.ExiNamespaceTable;
 /**
  * This class behaves as an adapter between SAX and EXI. The SAX events
  * generated here are translated into corresponding EXI events which are then
- * handled in an EXI event handler.
+ * handled in an EXI event handler. Encoding errors are passed on to the
+ * parser as {@link SAXException}s wrapping the {@link ExiException}.
  *
  * @author Marco Wegner
  */
@@ -60,7 +62,7 @@ public class ExiDocumentHandler extends DefaultHandler implements LexicalHandler
     /**
      * The EXI logger user for logging stuff.
      */
-    private static Logger log = ExiLogger.getLogger(ExiDocumentHandler.class);
+    private static final Logger log = ExiLogger.getLogger(ExiDocumentHandler.class);
 
     // ------------------------------------------------------------------------
     // Member variables
@@ -78,6 +80,66 @@ public class ExiDocumentHandler extends DefaultHandler implements LexicalHandler
 	 */
 	private final ExiNamespaceTable table;
 
+    // ------------------------------------------------------------------------
+
+    /**
+     * The QNames generated for raw element and prefixed attribute names.
+     * Since the namespace URI depends on the prefix bindings, this is cleared
+     * whenever a binding changes.
+     */
+    private final HashMap<String, QName> names = new HashMap<String, QName>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The QNames generated for unprefixed attribute names. These are in no
+     * namespace regardless of the default namespace.
+     */
+    private final HashMap<String, QName> attributeNames = new HashMap<String, QName>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The Start Element (SE) event which is reused for all elements.
+     */
+    private final ExiStartElement startElement = new ExiStartElement( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The Attribute (AT) event which is reused for all attributes.
+     */
+    private final ExiAttribute attribute = new ExiAttribute( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The Characters (CH) event which is reused for all character data.
+     */
+    private final ExiCharacters characters = new ExiCharacters( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The End Element (EE) event which is reused for all elements.
+     */
+    private final ExiEndElement endElement = new ExiEndElement( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The buffer in which adjacent character data callbacks are collected so
+     * that they are encoded as a single Characters (CH) event.
+     */
+    private char[] text = new char[256];
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of characters in the text buffer.
+     */
+    private int textLength = 0;
+
     // ------------------------------------------------------------------------
     // Constructor
     // ------------------------------------------------------------------------
@@ -99,6 +161,19 @@ public class ExiDocumentHandler extends DefaultHandler implements LexicalHandler
     // Methods
     // ------------------------------------------------------------------------
 
+    /**
+     * Resets this handler's namespace bindings and buffered text so that it
+     * can be used for another document. The encoder must be reset separately.
+     */
+    public void reset( ) {
+        this.table.clear( );
+        this.names.clear( );
+        this.attributeNames.clear( );
+        this.textLength = 0;
+    }
+
+    // ------------------------------------------------------------------------
+
     /* (non-Javadoc)
      * @see org.xml.sax.helpers.DefaultHandler#setDocumentLocator(org.xml.sax.Locator)
      */
@@ -116,10 +191,10 @@ public class ExiDocumentHandler extends DefaultHandler implements LexicalHandler
     public void processingInstruction(String target, String data) throws SAXException {
         ExiProcessingInstruction event = new ExiProcessingInstruction(target, data);
         try {
+            flushText( );
             this.encoder.handle(event);
         } catch (ExiException e) {
-            e.printStackTrace();
-            System.exit(-1);
+            throw new SAXException(e);
         }
     }
 
@@ -130,13 +205,20 @@ public class ExiDocumentHandler extends DefaultHandler implements LexicalHandler
      */
     @Override
     public void characters(char[] ch, int start, int length) throws SAXException {
-        ExiCharacters event = new ExiCharacters(extractString(ch, start, length));
-        try {
-            this.encoder.handle(event);
-        } catch (ExiException e) {
-            e.printStackTrace();
-            System.exit(-1);
+        /*
+         * The parser may split a single text node into several callbacks, e.g.
+         * around entity references or at the end of its buffer. The chunks
+         * are collected here and encoded as one value once the text node is
+         * complete.
+         */
+        int required = this.textLength + length;
+        if (required > this.text.length) {
+            char[] larger = new char[Math.max(required, 2 * this.text.length)];
+            System.arraycopy(this.text, 0, larger, 0, this.textLength);
+            this.text = larger;
         }
+        System.arraycopy(ch, start, this.text, this.textLength, length);
+        this.textLength = required;
     }
 
     // ------------------------------------------------------------------------
@@ -146,10 +228,10 @@ public class ExiDocumentHandler extends DefaultHandler implements LexicalHandler
      */
     public void comment(char[] ch, int start, int length) throws SAXException {
         try {
+            flushText( );
             this.encoder.handle(new ExiComment(extractString(ch, start, length)));
         } catch (ExiException e) {
-            e.printStackTrace();
-            System.exit(-1);
+            throw new SAXException(e);
         }
     }
 
@@ -160,7 +242,9 @@ public class ExiDocumentHandler extends DefaultHandler implements LexicalHandler
      */
     @Override
     public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
-        log.debug(String.format("whitespace: \"%s\"", extractString(ch, start, length)));
+        if (ExiLogger.TRACE) {
+            log.debug(String.format("whitespace: \"%s\"", extractString(ch, start, length)));
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -190,9 +274,8 @@ public class ExiDocumentHandler extends DefaultHandler implements LexicalHandler
     public void startDocument( ) throws SAXException {
         try {
             this.encoder.handle(new ExiStartDocument( ));
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(-1);
+        } catch (ExiException e) {
+            throw new SAXException(e);
         }
     }
 
@@ -204,10 +287,10 @@ public class ExiDocumentHandler extends DefaultHandler implements LexicalHandler
     @Override
     public void endDocument( ) throws SAXException {
         try {
+            flushText( );
             this.encoder.handle(new ExiEndDocument( ));
         } catch (ExiException e) {
-            e.printStackTrace( );
-            System.exit(-1);
+            throw new SAXException(e);
         }
     }
 
@@ -241,37 +324,42 @@ public class ExiDocumentHandler extends DefaultHandler implements LexicalHandler
          * It's necessary that the namespace URI is known before the element's
          * start tag is handled.
          */
-        for (int i = 0; i < atts.getLength( ); ++i) {
+        int count = atts.getLength( );
+        for (int i = 0; i < count; ++i) {
 
             String attQName = atts.getQName(i);
             String attValue = atts.getValue(i);
 
-            if (attQName.toLowerCase( ).equals("xmlns")) {
+            if (attQName.equalsIgnoreCase("xmlns")) {
                 this.table.put("", URI.create(attValue));
-            } else if (attQName.toLowerCase( ).startsWith("xmlns")) {
+                this.names.clear( );
+            } else if (attQName.regionMatches(true, 0, "xmlns", 0, 5)) {
                 this.table.put(attQName.substring(6), URI.create(attValue));
+                this.names.clear( );
             }
         }
 
         try {
-            this.encoder.handle(new ExiStartElement(generateQName(name)));
+            flushText( );
+            this.startElement.setQualifiedName(generateQName(name));
+            this.encoder.handle(this.startElement);
 
-            for (int i = 0; i < atts.getLength( ); ++i) {
+            for (int i = 0; i < count; ++i) {
 
                 String attQName = atts.getQName(i);
                 String attValue = atts.getValue(i);
 
-                if (attQName.toLowerCase( ).equals("xmlns")) {
+                if (attQName.equalsIgnoreCase("xmlns")) {
                     this.encoder.handle(new ExiNamespaceDeclaration("", URI.create(attValue)));
-                } else if (attQName.toLowerCase( ).startsWith("xmlns:")) {
+                } else if (attQName.regionMatches(true, 0, "xmlns:", 0, 6)) {
                     this.encoder.handle(new ExiNamespaceDeclaration(attQName.substring(6), URI.create(attValue)));
                 } else {
-                    this.encoder.handle(new ExiAttribute(generateQName(attQName), attValue));
+                    this.attribute.set(generateAttributeQName(attQName), attValue);
+                    this.encoder.handle(this.attribute);
                 }
             }
         } catch (ExiException e) {
-            e.printStackTrace( );
-            System.exit(-1);
+            throw new SAXException(e);
         }
     }
 
@@ -283,10 +371,10 @@ public class ExiDocumentHandler extends DefaultHandler implements LexicalHandler
     @Override
     public void endElement(String uri, String localName, String name) throws SAXException {
         try {
-            this.encoder.handle(new ExiEndElement( ));
+            flushText( );
+            this.encoder.handle(this.endElement);
         } catch (ExiException e) {
-            e.printStackTrace( );
-            System.exit(-1);
+            throw new SAXException(e);
         }
     }
 
@@ -312,9 +400,28 @@ public class ExiDocumentHandler extends DefaultHandler implements LexicalHandler
     // Private helpers
     // ------------------------------------------------------------------------
 
+    /**
+     * Hands the collected character data to the encoder as a single
+     * Characters (CH) event and empties the text buffer. The event refers to
+     * the buffer directly, so a string is only created if the encoder does
+     * not drop the data as whitespace.
+     *
+     * @throws ExiException If something goes wrong during encoding.
+     */
+    private void flushText( ) throws ExiException {
+        if (this.textLength == 0) {
+            return;
+        }
+        this.characters.setCharacters(this.text, 0, this.textLength);
+        this.textLength = 0;
+        this.encoder.handle(this.characters);
+    }
+
+    // ------------------------------------------------------------------------
+
     /**
      * Extracts a string from a character array with defined start position and
-     * length.
+     * length. Only the specified range is copied.
      *
      * @param ch The character array.
      * @param start The string's start position in the array.
@@ -322,7 +429,7 @@ public class ExiDocumentHandler extends DefaultHandler implements LexicalHandler
      * @return The extracted string.
      */
     private String extractString(char[] ch, int start, int length) {
-        return String.valueOf(ch).substring(start, start+length);
+        return new String(ch, start, length);
     }
 
     // ------------------------------------------------------------------------
@@ -340,6 +447,47 @@ public class ExiDocumentHandler extends DefaultHandler implements LexicalHandler
      * @return The generated QName.
      */
     private QName generateQName(String name) {
+        QName qname = this.names.get(name);
+        if (qname == null) {
+            qname = createQName(name);
+            this.names.put(name, qname);
+        }
+        return qname;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Generates a QName from the specified attribute name. Unlike element
+     * names, unprefixed attribute names are not in the default namespace but
+     * in no namespace at all. This is also what the decoder assumes for
+     * attributes matched by a learned grammar rule.
+     *
+     * @param name The attribute name.
+     * @return The generated QName.
+     */
+    private QName generateAttributeQName(String name) {
+        if (name.indexOf(':') > -1) {
+            return generateQName(name);
+        }
+        QName qname = this.attributeNames.get(name);
+        if (qname == null) {
+            qname = new QName(name);
+            this.attributeNames.put(name, qname);
+        }
+        return qname;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new QName from the specified string.
+     *
+     * @param name The string.
+     * @return The new QName.
+     * @see #generateQName(String)
+     */
+    private QName createQName(String name) {
         String prefix = "";
 
         int index = name.indexOf(":");
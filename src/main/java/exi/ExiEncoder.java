@@ -22,13 +22,13 @@
  */
 package exi;
 
-import java.math.BigInteger;
 
 import javax.xml.namespace.QName;
 
 import org.apache.log4j.Logger;
 
 import exi.ExiOptions.FidelityOption;
+import exi.ExiOptions.WhitespacePolicy;
 import exi.events.ExiAttribute;
 import exi.events.ExiCharacters;
 import exi.events.ExiComment;
@@ -37,6 +37,7 @@ import exi.events.ExiEndElement;
 import exi.events.ExiEvent;
 import exi.events.ExiEventCode;
 import exi.events.ExiEventHandler;
+import exi.events.ExiEventType;
 import exi.events.ExiNamespaceDeclaration;
 import exi.events.ExiProcessingInstruction;
 import exi.events.ExiStartDocument;
@@ -46,17 +47,22 @@ import exi.grammar.ExiGrammar;
 import exi.grammar.ExiGrammarGroup;
 import exi.grammar.ExiGrammarRule;
 import exi.grammar.ExiGrammarGroup.Size;
+import exi.grammar.ExiNoMatchingRuleException;
+import exi.io.ExiBits;
 import exi.io.ExiWriter;
-import exi.utils.ExiStringTable;
+import exi.metrics.ExiMetrics.Partition;
 import exi.utils.StringTablePartition;
-import exi.utils.ValuePartition;
 
 /**
  * This class represents an encoder for EXI events.
+ * <p>
+ * An encoder is not thread-safe (see {@link ExiCodecPool} for sharing
+ * encoders between threads).
+ * </p>
  *
  * @author Marco Wegner
  */
-public class ExiEncoder extends ExiEventHandler {
+public class ExiEncoder extends ExiEventHandler implements ExiEventSink {
 
     // ------------------------------------------------------------------------
     // Static stuff
@@ -65,7 +71,7 @@ public class ExiEncoder extends ExiEventHandler {
     /**
      * The EXI logger user for logging stuff.
      */
-    public static Logger log = ExiLogger.getLogger(ExiEncoder.class);
+    private static final Logger log = ExiLogger.getLogger(ExiEncoder.class);
 
     // ------------------------------------------------------------------------
     // Member variables
@@ -74,7 +80,7 @@ public class ExiEncoder extends ExiEventHandler {
     /**
      * The EXI stream writer.
      */
-    private final ExiWriter writer;
+    private ExiWriter writer;
 
     // ------------------------------------------------------------------------
     // Constructor
@@ -89,12 +95,54 @@ public class ExiEncoder extends ExiEventHandler {
      */
     public ExiEncoder(ExiWriter w, ExiOptions options) throws Exception {
         super(options);
+        initializeMetrics(true);
         this.writer = w;
+        this.writer.setStringTable(getStringTable( ));
 
-        log.debug("---");
-        log.debug("--- EXI Encoder started");
-        log.debug("--- Bytes written to stream so far: " + w.getOutputStream( ).size( ));
-        log.debug("---");
+        if (ExiLogger.TRACE) {
+            log.debug("---");
+            log.debug("--- EXI Encoder started");
+            log.debug("--- Bytes written to stream so far: " + w.getOutputStream( ).size( ));
+            log.debug("---");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Prepares this encoder for another document, which is written using
+     * the specified writer. This spares setting up the grammar factory and
+     * the string table again.
+     *
+     * @param w The EXI stream writer.
+     * @param options The EXI options to use.
+     * @throws ExiException If something goes wrong during initialization.
+     */
+    public void reset(ExiWriter w, ExiOptions options) throws ExiException {
+        reset(options);
+        initializeMetrics(true);
+        this.writer = w;
+        this.writer.setStringTable(getStringTable( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Prepares this encoder for the next message of a session, which is
+     * written using the specified writer. The string table and the learned
+     * grammar productions are kept.
+     *
+     * @param w The EXI stream writer.
+     * @param options The EXI options to use, the same as for the previous
+     *        message.
+     * @throws ExiException If something goes wrong during initialization.
+     * @see ExiSession
+     */
+    public void resume(ExiWriter w, ExiOptions options) throws ExiException {
+        resume(options);
+        initializeMetrics(true);
+        this.writer = w;
+        this.writer.setStringTable(getStringTable( ));
     }
 
     // ------------------------------------------------------------------------
@@ -149,9 +197,11 @@ public class ExiEncoder extends ExiEventHandler {
         if (!getOptions( ).isSet(FidelityOption.PRESERVE_PROCESSING_INSTRUCTIONS)) {
             return;
         }
-        String target = event.getTarget( );
-        String data = event.getData( );
-        log.debug(String.format("PI (target = %s; data = %s)", target, data));
+        if (ExiLogger.TRACE) {
+            log.debug(String.format("PI (target = %s; data = %s)", event.getTarget( ), event.getData( )));
+        }
+
+        recordEvent(ExiEventType.ProcessingInstruction);
 
         ExiGrammar g = getCurrentGrammar( );
         ExiGrammarRule rule = g.getMatchingRule(event);
@@ -170,7 +220,11 @@ public class ExiEncoder extends ExiEventHandler {
      * @throws ExiException If something goes wrong during grammar handling.
      */
     public void handle(ExiStartDocument event) throws ExiException {
-        log.debug("SD");
+        if (ExiLogger.TRACE) {
+            log.debug("SD");
+        }
+
+        recordEvent(ExiEventType.StartDocument);
 
         ExiGrammar g = getCurrentGrammar( );
         ExiGrammarRule rule = g.getMatchingRule(event);
@@ -190,11 +244,15 @@ public class ExiEncoder extends ExiEventHandler {
      */
     public void handle(ExiStartElement event) throws ExiException {
 
-        log.debug(event.getEventTypeString( ));
+        if (ExiLogger.TRACE) {
+            log.debug(event.getEventTypeString( ));
+        }
 
         QName qname = event.getQualifiedName( );
         pushQName(qname);
 
+        recordEvent(ExiEventType.StartElement);
+
         ExiGrammar g = getCurrentGrammar( );
         ExiGrammarRule rule = g.getMatchingRule(event);
 
@@ -202,7 +260,7 @@ public class ExiEncoder extends ExiEventHandler {
 
         if (rule.isGeneral( )) {
 
-            encodeOptimizedForHits(getStringTable( ).getUriPartition( ), qname.getNamespaceURI( ), "uri");
+            encodeOptimizedForHits(getStringTable( ).getUriPartition( ), qname.getNamespaceURI( ), Partition.URI);
             encodeLocalName(qname);
 
             if ((g instanceof ExiExtensibleGrammar)) {
@@ -211,7 +269,7 @@ public class ExiEncoder extends ExiEventHandler {
         }
 
         g.moveToGroup(rule.getRightHandSide( ));
-        pushElementGrammar(qname);
+        pushElementGrammar(qname, rule);
     }
 
     // ------------------------------------------------------------------------
@@ -227,11 +285,15 @@ public class ExiEncoder extends ExiEventHandler {
         QName qname = event.getQualifiedName( );
         String value = event.getValue( );
 
-        log.debug(String.format(
-                "AT (name = %s, value = %s)",
-                qname.getLocalPart( ),
-                value
-        ));
+        if (ExiLogger.TRACE) {
+            log.debug(String.format(
+                    "AT (name = %s, value = %s)",
+                    qname.getLocalPart( ),
+                    value
+            ));
+        }
+
+        recordEvent(ExiEventType.Attribute);
 
         ExiGrammar g = getCurrentGrammar( );
         ExiGrammarRule rule = g.getMatchingRule(event);
@@ -240,7 +302,7 @@ public class ExiEncoder extends ExiEventHandler {
 
         boolean general = rule.isGeneral( );
         if (general) {
-            encodeOptimizedForHits(getStringTable( ).getUriPartition( ), qname.getNamespaceURI( ), "uri");
+            encodeOptimizedForHits(getStringTable( ).getUriPartition( ), qname.getNamespaceURI( ), Partition.URI);
             encodeLocalName(qname);
         }
 
@@ -268,18 +330,22 @@ public class ExiEncoder extends ExiEventHandler {
 
         String prefix = event.getNamespacePrefix( );
 
-        log.debug(String.format(
-                "NS (prefix = %s, uri = %s)",
-                prefix, event.getNamespaceURI( )
-        ));
+        if (ExiLogger.TRACE) {
+            log.debug(String.format(
+                    "NS (prefix = %s, uri = %s)",
+                    prefix, event.getNamespaceURI( )
+            ));
+        }
+
+        recordEvent(ExiEventType.NamespaceDeclaration);
 
         ExiGrammar g = getCurrentGrammar( );
         ExiGrammarRule rule = g.getMatchingRule(event);
 
         encodeEventCode(rule.getEventCode( ));
 
-        encodeOptimizedForHits(getStringTable( ).getUriPartition( ), event.getNamespaceURI( ).toString( ), "uri");
-        encodeOptimizedForHits(getStringTable( ).getPrefixPartition( ), prefix, "prefix");
+        encodeOptimizedForHits(getStringTable( ).getUriPartition( ), event.getNamespaceURI( ).toString( ), Partition.URI);
+        encodeOptimizedForHits(getStringTable( ).getPrefixPartition( ), prefix, Partition.PREFIX);
 
         g.moveToGroup(rule.getRightHandSide( ));
     }
@@ -294,21 +360,33 @@ public class ExiEncoder extends ExiEventHandler {
      */
     public void handle(ExiCharacters event) throws ExiException {
 
-        String characters = event.getData( );
-
         /*
          * Not so sure whether this is actually such a good thing to do. But we
          * need to get rid of character data which just consists of a line
-         * break character and a few indentation whitespace characters.
+         * break character and a few indentation whitespace characters. Which
+         * whitespace is dropped depends on the options' whitespace policy.
          */
-        if (characters.matches("\n[\\s]*")) {
+        if (getOptions( ).getWhitespacePolicy( ).drops(event)) {
             return;
         }
 
-        log.debug(String.format("CH: \"%s\"", characters));
-
         ExiGrammar g = getCurrentGrammar( );
-        ExiGrammarRule rule = g.getMatchingRule(event);
+        ExiGrammarRule rule = g.findMatchingRule(event);
+        if (rule == null) {
+            // element-only content of schema-informed grammars has no CH
+            if (WhitespacePolicy.DROP_WHITESPACE.drops(event)) {
+                return;
+            }
+            throw new ExiNoMatchingRuleException(event.toString( ));
+        }
+
+        String characters = event.getData( );
+
+        if (ExiLogger.TRACE) {
+            log.debug(String.format("CH: \"%s\"", characters));
+        }
+
+        recordEvent(ExiEventType.Characters);
 
         encodeEventCode(rule.getEventCode( ));
 
@@ -330,7 +408,11 @@ public class ExiEncoder extends ExiEventHandler {
      * @throws ExiException If something goes wrong during grammar handling.
      */
     public void handle(ExiEndElement event) throws ExiException {
-        log.debug("EE");
+        if (ExiLogger.TRACE) {
+            log.debug("EE");
+        }
+
+        recordEvent(ExiEventType.EndElement);
 
         ExiGrammar g = getCurrentGrammar( );
         ExiGrammarRule rule = g.getMatchingRule(event);
@@ -350,7 +432,11 @@ public class ExiEncoder extends ExiEventHandler {
      * @throws ExiException If something goes wrong during grammar handling.
      */
     public void handle(ExiEndDocument event) throws ExiException {
-        log.debug("ED");
+        if (ExiLogger.TRACE) {
+            log.debug("ED");
+        }
+
+        recordEvent(ExiEventType.EndDocument);
 
         ExiGrammar g = getCurrentGrammar( );
         ExiGrammarRule rule = g.getMatchingRule(event);
@@ -373,7 +459,11 @@ public class ExiEncoder extends ExiEventHandler {
             return;
         }
         String comment = event.getText( );
-        log.debug(String.format("CM: \"%s\"", comment));
+        if (ExiLogger.TRACE) {
+            log.debug(String.format("CM: \"%s\"", comment));
+        }
+
+        recordEvent(ExiEventType.Comment);
 
         ExiGrammar g = getCurrentGrammar( );
         ExiGrammarRule rule = g.getMatchingRule(event);
@@ -427,18 +517,24 @@ public class ExiEncoder extends ExiEventHandler {
      *
      * @param part The string table partition
      * @param s The string.
-     * @param msg The partition identifier. This string is merely used for log
+     * @param kind The partition kind. This is used for metrics and log
      *        messages.
      */
-    private void encodeOptimizedForHits(StringTablePartition part, String s, String msg) {
+    private void encodeOptimizedForHits(StringTablePartition part, String s, Partition kind) {
         int size = part.getSize( );
         if (part.lookup(s)) {
             int id = part.getID(s);
             this.writer.writeCompactStringHit(id, size);
-            log.debug(String.format("%s hit -- writing %d(%d)", msg, BigInteger.valueOf(id + 1), (int)Math.ceil(Math.log(size+1)/Math.log(2))));
+            recordLookup(kind, true);
+            if (ExiLogger.TRACE) {
+                log.debug(String.format("%s hit -- writing %d(%d)", kind, id + 1, ExiBits.getWidth(size+1)));
+            }
         } else {
             this.writer.writeCompactStringMiss(s, size);
-            log.debug(String.format("\"%s\" (%s miss)", s, msg));
+            recordLookup(kind, false);
+            if (ExiLogger.TRACE) {
+                log.debug(String.format("\"%s\" (%s miss)", s, kind));
+            }
             part.add(s);
         }
     }
@@ -454,13 +550,19 @@ public class ExiEncoder extends ExiEventHandler {
         String s = qname.getLocalPart( );
         StringTablePartition part = getStringTable( ).getLocalNamesPartition(qname.getNamespaceURI( ));
         if (part.lookup(s)) {
-            log.debug("local-name hit");
+            if (ExiLogger.TRACE) {
+                log.debug("local-name hit");
+            }
             int id = part.getID(s);
             int size = part.getSize( );
             this.writer.writeLocalNameHit(id, size);
+            recordLookup(Partition.LOCAL_NAME, true);
         } else {
-            log.debug(String.format("\"%s\" (local-name miss)", s));
+            if (ExiLogger.TRACE) {
+                log.debug(String.format("\"%s\" (local-name miss)", s));
+            }
             this.writer.writeLocalNameMiss(s);
+            recordLookup(Partition.LOCAL_NAME, false);
             part.add(s);
         }
     }
@@ -474,7 +576,9 @@ public class ExiEncoder extends ExiEventHandler {
      * <p>
      * The string is looked up in both the local and the global value partition
      * if necessary. If these look-ups have not been successful, then actual
-     * string is written to the stream.
+     * string is written to the stream. The look-ups are left to the writer
+     * because compressed streams resolve values in channel order rather than
+     * in document order.
      * </p>
      *
      * @param qname The QName associated to this value. This can either be the
@@ -483,22 +587,9 @@ public class ExiEncoder extends ExiEventHandler {
      * @param s The string.
      */
     private void encodeValue(QName qname, String s) {
-        ExiStringTable table = getStringTable( );
-        ValuePartition local = table.getValuePartition(qname);
-        if (local.lookup(s)) {
-            log.debug("value hit");
-            this.writer.writeValueHitLocal(qname, local.getID(s), local.getSize( ));
-        } else {
-            ValuePartition global = table.getValuePartition( );
-            if (global.lookup(s)) {
-                log.debug("global-value hit");
-                this.writer.writeValueHitGlobal(qname, global.getID(s), global.getSize( ));
-            } else {
-                log.debug(String.format("\"%s\" (value miss)", s));
-                this.writer.writeValueMiss(qname, s);
-                local.add(s);
-                global.add(s);
-            }
+        if (ExiLogger.TRACE) {
+            log.debug(String.format("\"%s\" (value)", s));
         }
+        this.writer.writeValue(qname, s, getStringTable( ));
     }
 }
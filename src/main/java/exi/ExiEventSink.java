@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi;
+
+import exi.events.ExiAttribute;
+import exi.events.ExiCharacters;
+import exi.events.ExiComment;
+import exi.events.ExiEndDocument;
+import exi.events.ExiEndElement;
+import exi.events.ExiNamespaceDeclaration;
+import exi.events.ExiStartDocument;
+import exi.events.ExiStartElement;
+
+/**
+ * A sink for the events generated by the {@link ExiDecoder}. The events are
+ * delivered in stream order, i.e. Namespace Declaration (NS) and Attribute
+ * (AT) events follow the Start Element (SE) event of the element they belong
+ * to.
+ * <p>
+ * The decoder reuses a single instance per event type, so an event is only
+ * valid until the handler method returns. Sinks which need the data later
+ * on have to copy it, e.g. by keeping the event's QName and value.
+ * </p>
+ */
+public interface ExiEventSink {
+
+    /**
+     * Handles an EXI StartDocument (SD) event.
+     *
+     * @param event The StartDocument (SD) event.
+     * @throws ExiException If the event cannot be handled.
+     */
+    void handle(ExiStartDocument event) throws ExiException;
+
+    /**
+     * Handles an EXI StartElement (SE) event.
+     *
+     * @param event The StartElement (SE) event.
+     * @throws ExiException If the event cannot be handled.
+     */
+    void handle(ExiStartElement event) throws ExiException;
+
+    /**
+     * Handles an EXI Attribute (AT) event.
+     *
+     * @param event The Attribute (AT) event.
+     * @throws ExiException If the event cannot be handled.
+     */
+    void handle(ExiAttribute event) throws ExiException;
+
+    /**
+     * Handles an EXI Namespace Declaration (NS) event.
+     *
+     * @param event The Namespace Declaration (NS) event.
+     * @throws ExiException If the event cannot be handled.
+     */
+    void handle(ExiNamespaceDeclaration event) throws ExiException;
+
+    /**
+     * Handles an EXI Characters (CH) event.
+     *
+     * @param event The Characters (CH) event.
+     * @throws ExiException If the event cannot be handled.
+     */
+    void handle(ExiCharacters event) throws ExiException;
+
+    /**
+     * Handles an EXI EndElement (EE) event.
+     *
+     * @param event The EndElement (EE) event.
+     * @throws ExiException If the event cannot be handled.
+     */
+    void handle(ExiEndElement event) throws ExiException;
+
+    /**
+     * Handles an EXI EndDocument (ED) event.
+     *
+     * @param event The EndDocument (ED) event.
+     * @throws ExiException If the event cannot be handled.
+     */
+    void handle(ExiEndDocument event) throws ExiException;
+
+    /**
+     * Handles an EXI Comment (CM) event.
+     *
+     * @param event The Comment (CM) event.
+     * @throws ExiException If the event cannot be handled.
+     */
+    void handle(ExiComment event) throws ExiException;
+}
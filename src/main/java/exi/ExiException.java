@@ -59,4 +59,17 @@ public abstract class ExiException extends Exception {
     protected ExiException(String message) {
         super(message);
     }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new exception with an accompanying message and the exception
+     * which caused it.
+     *
+     * @param message The message.
+     * @param cause The cause.
+     */
+    protected ExiException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import exi.ExiOptions.Alignment;
+import exi.io.ExiHeaderReader;
+import exi.io.ExiInputStream;
+
+/**
+ * Reads the records written by an {@link ExiFragmentWriter} from a
+ * long-lived stream, e.g. a socket. The EXI stream is read in chunks as
+ * decoding proceeds, so each record is delivered as soon as its bytes have
+ * arrived rather than at the end of the stream.
+ * <p>
+ * A fragment reader is not thread-safe.
+ * </p>
+ */
+public class ExiFragmentReader {
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The EXI input stream.
+     */
+    private final ExiInputStream input;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The decoder, which is kept for the whole stream.
+     */
+    private final ExiDecoder decoder;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The XML writer the records are written to or <code>null</code> if the
+     * events are delivered to another sink.
+     */
+    private final ExiXmlWriterSink xml;
+
+    // ------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new fragment reader which delivers the records' events to
+     * the specified sink. This blocks until the header has been read.
+     *
+     * @param is The input stream containing the EXI stream.
+     * @param sink The event sink.
+     * @throws IllegalArgumentException If the stream is not a fragment or
+     *         is compressed.
+     * @throws Exception If the header can't be read.
+     */
+    public ExiFragmentReader(InputStream is, ExiEventSink sink) throws Exception {
+        this.input = new ExiInputStream(is);
+        ExiHeaderReader hr = new ExiHeaderReader(this.input);
+        ExiOptions options = ExiOptionsCodec.decodeHeader(hr);
+        if (!options.useFragments( ) || options.useCompression( )
+                || options.getAlign( ) == Alignment.PRE_COMPRESSED) {
+            throw new IllegalArgumentException("Not an uncompressed fragment stream");
+        }
+        this.decoder = new ExiDecoder(sink, ExiDocument.createBodyReader(hr, options), options);
+        this.xml = sink instanceof ExiXmlWriterSink ? (ExiXmlWriterSink)sink : null;
+
+        // the writer pads the stream after the Start Document (SD) event
+        this.decoder.step( );
+        this.input.align( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new fragment reader which writes the records as XML text to
+     * the specified output stream using UTF-8. The output stream is flushed
+     * after each record. This blocks until the header has been read.
+     *
+     * @param is The input stream containing the EXI stream.
+     * @param os The output stream.
+     * @throws IllegalArgumentException If the stream is not a fragment or
+     *         is compressed.
+     * @throws Exception If the header can't be read.
+     */
+    public ExiFragmentReader(InputStream is, OutputStream os) throws Exception {
+        this(is, new ExiXmlWriterSink(os));
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Decodes the next record, i.e. everything up to and including the next
+     * top-level element, and delivers its events to the sink. This blocks
+     * until the record has arrived.
+     *
+     * @return <code>false</code> if the fragment has ended instead, else
+     *         <code>true</code>.
+     * @throws Exception If something goes wrong during decoding.
+     */
+    public boolean read( ) throws Exception {
+        boolean open = false;
+        while (this.decoder.step( )) {
+            if (this.decoder.getDepth( ) > 0) {
+                open = true;
+            } else if (open) {
+                // the writer pads the stream after each top-level element
+                this.input.align( );
+                if (this.xml != null) {
+                    this.xml.flush( );
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+}
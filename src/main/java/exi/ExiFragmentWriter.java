@@ -0,0 +1,274 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import exi.ExiOptions.Alignment;
+import exi.events.ExiEndDocument;
+import exi.events.ExiStartDocument;
+import exi.io.ExiSimpleWriter;
+
+/**
+ * Writes a long-lived sequence of records, e.g. log entries or sensor
+ * readings, as a single EXI fragment. The header and the string table are
+ * set up only once, and the strings and grammar productions learned from one
+ * record benefit all following ones.
+ * <p>
+ * After each top-level element the stream is padded to the next byte
+ * boundary and everything encoded so far is written to the output stream,
+ * which is flushed, so each record reaches an {@link ExiFragmentReader} on
+ * the other end immediately. The padding is what distinguishes such a
+ * stream from a plain EXI fragment. Compression and pre-compression are not
+ * supported since they reorder the events of whole blocks.
+ * </p>
+ * <p>
+ * A fragment writer is not thread-safe. After an exception the state of the
+ * stream is unknown and a new writer must be used.
+ * </p>
+ */
+public class ExiFragmentWriter {
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The output stream the encoded records are written to.
+     */
+    private final OutputStream os;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The parser for the records.
+     */
+    private final SAXParser parser;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The writer for the EXI stream.
+     */
+    private final ExiSimpleWriter writer;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The encoder, which is kept for the whole stream.
+     */
+    private final ExiEncoder encoder;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The SAX handler which feeds the records into the encoder.
+     */
+    private final FragmentHandler handler;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * <code>true</code> if the stream has been closed.
+     */
+    private boolean closed = false;
+
+    // ------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new fragment writer and writes the header to the specified
+     * output stream.
+     *
+     * @param os The output stream.
+     * @param options The EXI options. The fragment option is set on a copy.
+     * @throws IllegalArgumentException If the options use compression or
+     *         pre-compression.
+     * @throws Exception If the SAX parser can't be created or the header
+     *         can't be written.
+     */
+    public ExiFragmentWriter(OutputStream os, ExiOptions options) throws Exception {
+        this(os, options, SAXParserFactory.newInstance( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new fragment writer which parses the records with a parser
+     * from the specified factory and writes the header to the specified
+     * output stream.
+     *
+     * @param os The output stream.
+     * @param options The EXI options. The fragment option is set on a copy.
+     * @param factory The SAX parser factory.
+     * @throws IllegalArgumentException If the options use compression or
+     *         pre-compression.
+     * @throws Exception If the SAX parser can't be created or the header
+     *         can't be written.
+     */
+    public ExiFragmentWriter(OutputStream os, ExiOptions options, SAXParserFactory factory) throws Exception {
+        if (options.useCompression( ) || options.getAlign( ) == Alignment.PRE_COMPRESSED) {
+            throw new IllegalArgumentException("Fragment streams can't be compressed");
+        }
+        ExiOptions fragmentOptions = new ExiOptions(options);
+        fragmentOptions.setFragments(true);
+
+        this.os = os;
+        this.parser = factory.newSAXParser( );
+        // without compression the body is written by a simple writer
+        this.writer = (ExiSimpleWriter)ExiDocument.createWriter(fragmentOptions, true);
+        this.encoder = new ExiEncoder(this.writer, fragmentOptions);
+        this.handler = new FragmentHandler(this.encoder);
+
+        this.encoder.handle(new ExiStartDocument( ));
+        this.writer.flush(this.os);
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the next record read from the specified byte stream.
+     *
+     * @param is The input stream from which the XML record is read.
+     * @throws Exception If something goes wrong during encoding.
+     */
+    public void write(InputStream is) throws Exception {
+        write(new InputSource(is));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the next record read from the specified input source. The
+     * record is an XML document whose root element becomes a top-level
+     * element of the fragment.
+     *
+     * @param in The input source.
+     * @throws IllegalStateException If the stream has been closed.
+     * @throws Exception If something goes wrong during encoding.
+     */
+    public void write(InputSource in) throws Exception {
+        if (this.closed) {
+            throw new IllegalStateException("Fragment stream closed");
+        }
+        this.handler.reset( );
+        ExiDocument.parse(this.parser, in, this.handler);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Ends the fragment and closes the output stream. Closing a closed
+     * stream has no effect.
+     *
+     * @throws Exception If something goes wrong during encoding or writing.
+     */
+    public void close( ) throws Exception {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.encoder.handle(new ExiEndDocument( ));
+        this.writer.flush(this.os);
+        this.os.close( );
+    }
+
+    // ------------------------------------------------------------------------
+    // Nested types
+    // ------------------------------------------------------------------------
+
+    /**
+     * The SAX handler which leaves out the records' document events and
+     * flushes the stream after each top-level element.
+     */
+    private final class FragmentHandler extends ExiDocumentHandler {
+
+        /**
+         * The number of open elements.
+         */
+        private int depth = 0;
+
+        /**
+         * Creates a new handler.
+         *
+         * @param encoder The encoder.
+         * @throws Exception If the handler can't be initialized.
+         */
+        FragmentHandler(ExiEncoder encoder) throws Exception {
+            super(encoder);
+        }
+
+        /* (non-Javadoc)
+         * @see exi.ExiDocumentHandler#startDocument()
+         */
+        @Override
+        public void startDocument( ) {
+            // the fragment has been started by the writer
+        }
+
+        /* (non-Javadoc)
+         * @see exi.ExiDocumentHandler#endDocument()
+         */
+        @Override
+        public void endDocument( ) {
+            // the fragment is ended by the writer
+        }
+
+        /* (non-Javadoc)
+         * @see exi.ExiDocumentHandler#startElement(java.lang.String, java.lang.String, java.lang.String, org.xml.sax.Attributes)
+         */
+        @Override
+        public void startElement(String uri, String localName, String name, Attributes atts)
+                throws SAXException {
+            super.startElement(uri, localName, name, atts);
+            this.depth++;
+        }
+
+        /* (non-Javadoc)
+         * @see exi.ExiDocumentHandler#endElement(java.lang.String, java.lang.String, java.lang.String)
+         */
+        @Override
+        public void endElement(String uri, String localName, String name) throws SAXException {
+            super.endElement(uri, localName, name);
+            if (--this.depth == 0) {
+                try {
+                    ExiFragmentWriter.this.writer.flush(ExiFragmentWriter.this.os);
+                } catch (IOException e) {
+                    throw new SAXException(e);
+                }
+            }
+        }
+    }
+}
@@ -33,6 +33,13 @@ import org.apache.log4j.PropertyConfigurator;
 
 /**
  * This is the logger class for the Connexion project.
+ * <p>
+ * The logging properties are read once when this class is initialized, which
+ * the JVM does exactly once no matter how many threads get a logger at the
+ * same time. Loggers may be used from any thread. Setting new properties
+ * reconfigures logging for the whole JVM; this is serialized, but meant to be
+ * done at startup and not while documents are being encoded or decoded.
+ * </p>
  *
  * @author Marco Wegner
  */
@@ -49,6 +56,18 @@ public final class ExiLogger {
 
     // ------------------------------------------------------------------------
 
+    /**
+     * Specifies whether every single event, string table access and grammar
+     * change is logged while encoding and decoding. These messages are logged
+     * at DEBUG level, but only if the system property <code>exi.trace</code>
+     * is set to <code>true</code> when this class is initialized. Since the
+     * flag is constant, the JIT compiler removes the trace statements
+     * completely otherwise.
+     */
+    public static final boolean TRACE = Boolean.getBoolean("exi.trace");
+
+    // ------------------------------------------------------------------------
+
     static {
         // BasicConfigurator.configure( );
         setProperties(LOGGING_PROPERTIES);
@@ -74,7 +93,7 @@ public final class ExiLogger {
      *
      * @param url The logging properties' URL.
      */
-    public static void setProperties(URL url) {
+    public static synchronized void setProperties(URL url) {
         if (url != null) {
             PropertyConfigurator.configure(url);
         } else {
@@ -89,7 +108,7 @@ public final class ExiLogger {
      *
      * @param props The logging properties.
      */
-    public static void setProperties(Properties props) {
+    public static synchronized void setProperties(Properties props) {
         PropertyConfigurator.configure(props);
     }
 
@@ -33,6 +33,7 @@ import org.apache.log4j.Logger;
 
 import exi.ExiOptions.Alignment;
 import exi.ExiOptions.FidelityOption;
+import exi.grammar.ExiGrammarRegistry;
 
 /**
  * The main EXI execution class.
@@ -48,7 +49,7 @@ public class ExiMain {
     /**
      * The EXI logger.
      */
-    private static Logger log = ExiLogger.getLogger(ExiMain.class);
+    private static final Logger log = ExiLogger.getLogger(ExiMain.class);
 
     // ------------------------------------------------------------------------
     // Methods
@@ -71,17 +72,21 @@ public class ExiMain {
         }
 
         ExiOptions exiopt = generateExiOptions(cl);
+        if (cl.hasOption("schema_file")) {
+            ExiGrammarRegistry.registerLocation(exiopt.getSchemaId( ));
+        }
 
 
         for (String xmlFile : cl.getArgs( )) {
 
             byte[] byteArray = ExiDocument.encode(xmlFile, exiopt);
 
-            log.debug("+ ----------------------------------------- +");
-            log.debug(String.format("| Length of transmitted data [byte]: %6d |", byteArray.length));
-            log.debug("+ ----------------------------------------- +");
+            log.info("+ ----------------------------------------- +");
+            log.info(String.format("| Length of transmitted data [byte]: %6d |", byteArray.length));
+            log.info("+ ----------------------------------------- +");
 
-            ExiDocument.decode(byteArray);
+            ExiDocument.decode(byteArray, System.out);
+            System.out.println( );
         }
     }
 
@@ -119,6 +124,19 @@ public class ExiMain {
         OptionBuilder.withDescription("Use compression on the output");
         options.addOption(OptionBuilder.create("compress"));
 
+        OptionBuilder.withDescription("Encode the document as an EXI fragment");
+        options.addOption(OptionBuilder.create("fragment"));
+
+        OptionBuilder.hasArg( );
+        OptionBuilder.withArgName("id");
+        OptionBuilder.withDescription("Use schema-informed grammars for the schema with this ID (resource or artifact)");
+        options.addOption(OptionBuilder.create("schema"));
+
+        OptionBuilder.hasArg( );
+        OptionBuilder.withArgName("location");
+        OptionBuilder.withDescription("Use schema-informed grammars for the schema at this file or URL");
+        options.addOption(OptionBuilder.create("schema_file"));
+
         OptionBuilder.withLongOpt("help");
         OptionBuilder.withDescription("Show this help screen");
         options.addOption(OptionBuilder.create('h'));
@@ -174,6 +192,8 @@ public class ExiMain {
         }
 
         options.setCompression(cl.hasOption("compress"));
+        options.setFragments(cl.hasOption("fragment"));
+        options.setSchemaId(cl.getOptionValue("schema", cl.getOptionValue("schema_file")));
 
         return options;
     }
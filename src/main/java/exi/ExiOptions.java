@@ -22,12 +22,7 @@
  */
 package exi;
 
-import java.io.StringWriter;
-import java.util.ArrayList;
-import java.util.List;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayOutputStream;
 
 import org.apache.log4j.Logger;
 import org.w3c.dom.Document;
@@ -35,12 +30,19 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
-import com.sun.org.apache.xml.internal.serialize.OutputFormat;
-import com.sun.org.apache.xml.internal.serialize.XMLSerializer;
+import exi.events.ExiCharacters;
+import exi.io.compress.ExiAdaptiveBlockSizer;
+import exi.metrics.ExiMetrics;
 
 /**
  * This class represents the options (including the fidelity options) used in
  * EXI.
+ * <p>
+ * Options are not thread-safe, and encoding may change them (the block size
+ * chosen by a block sizer is stored in the options so that it ends up in the
+ * header). Threads should therefore not share an options instance but use
+ * their own copy (see {@link #ExiOptions(ExiOptions)}).
+ * </p>
  *
  * @author Marco Wegner
  */
@@ -101,6 +103,57 @@ public class ExiOptions implements ExiConstants {
         PRESERVE_LEXICAL_VALUES
     }
 
+    // ------------------------------------------------------------------------
+
+    /**
+     * Policies for whitespace-only character data. This is not an EXI option
+     * but decides which character data the encoder drops before it is
+     * encoded.
+     */
+    public enum WhitespacePolicy {
+        /**
+         * All character data is encoded.
+         */
+        PRESERVE,
+        /**
+         * Character data consisting of a line break followed by whitespace
+         * only, i.e. indentation, is dropped.
+         */
+        DROP_INDENTATION,
+        /**
+         * Character data consisting of whitespace only is dropped.
+         */
+        DROP_WHITESPACE;
+
+        /**
+         * Specifies whether character data is dropped under this policy.
+         * The characters are scanned once without creating a string.
+         *
+         * @param text The character data.
+         * @return <code>true</code> if the character data is to be dropped.
+         */
+        public boolean drops(ExiCharacters text) {
+            if (this == PRESERVE) {
+                return false;
+            }
+            int length = text.getLength( );
+            int i = 0;
+            if (this == DROP_INDENTATION) {
+                if (length == 0 || text.charAt(0) != '\n') {
+                    return false;
+                }
+                i = 1;
+            }
+            for (; i < length; ++i) {
+                char c = text.charAt(i);
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r' && c != '\f' && c != '\u000B') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
     // ------------------------------------------------------------------------
     // Static stuff
     // ------------------------------------------------------------------------
@@ -108,7 +161,7 @@ public class ExiOptions implements ExiConstants {
     /**
      * The EXI logger user for logging stuff.
      */
-    private static Logger log = ExiLogger.getLogger(ExiOptions.class);
+    private static final Logger log = ExiLogger.getLogger(ExiOptions.class);
 
     // ------------------------------------------------------------------------
     // Member variables
@@ -156,6 +209,38 @@ public class ExiOptions implements ExiConstants {
 
     // ------------------------------------------------------------------------
 
+    /**
+     * The block sizer choosing the block size and store/deflate decisions.
+     * This is not an EXI option and is therefore not encoded.
+     */
+    private ExiAdaptiveBlockSizer blockSizer = null;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * A block index trailer is appended to compressed and pre-compressed
+     * streams. This is not an EXI option and is therefore not encoded.
+     */
+    private boolean blockIndex = false;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The metrics of the documents handled with these options. This is not an
+     * EXI option and is therefore not encoded.
+     */
+    private ExiMetrics metrics = null;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The policy for whitespace-only character data. This is not an EXI
+     * option and is therefore not encoded.
+     */
+    private WhitespacePolicy whitespacePolicy = WhitespacePolicy.DROP_INDENTATION;
+
+    // ------------------------------------------------------------------------
+
     /**
      * CM events are preserved.
      */
@@ -207,6 +292,33 @@ public class ExiOptions implements ExiConstants {
 
     // ------------------------------------------------------------------------
 
+    /**
+     * Creates a copy of the specified options. The block sizer and the
+     * metrics are not copied but shared, as they are meant to be shared by all
+     * documents of one feed.
+     *
+     * @param other The options to be copied.
+     */
+    public ExiOptions(ExiOptions other) {
+        this.align = other.align;
+        this.useCompression = other.useCompression;
+        this.useFragments = other.useFragments;
+        this.schemaId = other.schemaId;
+        this.codecMap = other.codecMap;
+        this.blockSize = other.blockSize;
+        this.blockSizer = other.blockSizer;
+        this.blockIndex = other.blockIndex;
+        this.metrics = other.metrics;
+        this.whitespacePolicy = other.whitespacePolicy;
+        this.preserveComments = other.preserveComments;
+        this.preservePIs = other.preservePIs;
+        this.preserveDTDs = other.preserveDTDs;
+        this.preservePrefixes = other.preservePrefixes;
+        this.preserveLexicalValues = other.preserveLexicalValues;
+    }
+
+    // ------------------------------------------------------------------------
+
     /**
      * Constructs an EXI options instance from a DOM document. This document
      * results from reading an EXI stream's header.
@@ -444,175 +556,126 @@ public class ExiOptions implements ExiConstants {
     // ------------------------------------------------------------------------
 
     /**
-     * Creates an XML string from this options object to be used for EXI
-     * encoding. The resulting XML conforms to the XML Schema as specified in
-     * the
-     * {@link <a href="http://www.w3.org/TR/exi/#optionsSchema">EXI documentation</a>}.
+     * Sets the block sizer to be used for compressed and pre-compressed
+     * streams. If a block sizer is set, then the block size it chooses is
+     * stored as EXI option blockSize when encoding a document, and it decides
+     * which streams are deflated. Block sizers are usually shared by all
+     * documents of a feed.
      *
-     * @return The EXI options XML string.
-     * @throws Exception If something goes wrong during document creation.
+     * @param blockSizer The block sizer or <code>null</code> to use the fixed
+     *        block size.
      */
-    public String toXML( ) throws Exception {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance( );
-        factory.setNamespaceAware(true);
-        DocumentBuilder builder = factory.newDocumentBuilder( );
-        Document document = builder.newDocument( );
-
-        Element header = document.createElement("header");
-        header.setAttribute("xmlns", "http://www.w3.org/2007/07/exi");
-        document.appendChild(header);
-
-        Element lesscommon = buildLessCommon(document);
-        if (lesscommon != null) {
-            header.appendChild(lesscommon);
-        }
-        Element common = buildCommon(document);
-        if (common != null) {
-            header.appendChild(common);
-        }
-        Element strict = buildStrict(document);
-        if (strict != null) {
-            header.appendChild(strict);
-        }
+    public void setBlockSizer(ExiAdaptiveBlockSizer blockSizer) {
+        this.blockSizer = blockSizer;
+    }
 
-        OutputFormat format = new OutputFormat(document);
-        StringWriter sw = new StringWriter( );
-        XMLSerializer printer = new XMLSerializer(sw, format);
-        printer.setNamespaces(true);
-        printer.serialize(document);
+    // ------------------------------------------------------------------------
 
-        return sw.toString( );
+    /**
+     * Returns the block sizer to be used for compressed and pre-compressed
+     * streams.
+     *
+     * @return The block sizer or <code>null</code> if there is none.
+     */
+    public ExiAdaptiveBlockSizer getBlockSizer( ) {
+        return this.blockSizer;
     }
 
     // ------------------------------------------------------------------------
 
     /**
-     * Creates the EXI option's <code>lesscommon</code> XML element.
+     * Sets the metrics which the documents encoded or decoded with these
+     * options are counted in. Metrics are usually shared by all documents of
+     * a feed. The options of decoded documents are taken from the stream, so
+     * decoding is counted by codecs which have been given metrics (see
+     * {@link ExiCodec#setMetrics(ExiMetrics)}).
      *
-     * @param document The DOM document.
-     * @return The newly created element.
+     * @param metrics The metrics or <code>null</code> if nothing is to be
+     *        counted.
      */
-    private Element buildLessCommon(Document document) {
-        Element lesscommon = null;
-        List<Element> elems = new ArrayList<Element>( );
+    public void setMetrics(ExiMetrics metrics) {
+        this.metrics = metrics;
+    }
 
-        Element uncommon = buildUncommon(document);
-        if (uncommon != null) {
-            elems.add(uncommon);
-        }
-        Element preserve = buildPreserve(document);
-        if (preserve != null) {
-            elems.add(preserve);
-        }
-        if (this.blockSize != BLOCK_SIZE_DEFAULT) {
-            Element bsize = document.createElement("blockSize");
-            bsize.appendChild(document.createTextNode(String.valueOf(this.blockSize)));
-            elems.add(bsize);
-        }
+    // ------------------------------------------------------------------------
 
-        if (elems.size( ) > 0) {
-            lesscommon = document.createElement("lesscommon");
-            for (Element e : elems) {
-                lesscommon.appendChild(e);
-            }
-        }
+    /**
+     * Returns the metrics which the documents are counted in.
+     *
+     * @return The metrics or <code>null</code> if there are none.
+     */
+    public ExiMetrics getMetrics( ) {
+        return this.metrics;
+    }
+
+    // ------------------------------------------------------------------------
 
-        return lesscommon;
+    /**
+     * Sets whether a block index is appended to compressed and pre-compressed
+     * streams as a trailer. The header announces the trailer, so decoders
+     * only strip it from streams which have one.
+     *
+     * @param blockIndex <code>true</code> if the trailer is to be written.
+     * @see exi.io.compress.ExiBlockIndex
+     */
+    public void setBlockIndex(boolean blockIndex) {
+        this.blockIndex = blockIndex;
     }
 
     // ------------------------------------------------------------------------
 
     /**
-     * Creates the EXI option's <code>uncommon</code> XML element.
+     * Returns whether a block index is appended to compressed and
+     * pre-compressed streams as a trailer.
      *
-     * @param document The DOM document.
-     * @return The newly created element.
-     */
-    private Element buildUncommon(Document document) {
-        Element uncommon = null;
-        if (this.align != Alignment.BIT_PACKED) {
-            uncommon = document.createElement("uncommon");
-            Element alignment = document.createElement("alignment");
-            if (this.align == Alignment.BYTE_ALIGNED) {
-                alignment.appendChild(document.createElement("byte"));
-            } else if (this.align == Alignment.PRE_COMPRESSED) {
-                alignment.appendChild(document.createElement("pre-compress"));
-            }
-            uncommon.appendChild(alignment);
-        }
-        return uncommon;
+     * @return <code>true</code> if the trailer is written.
+     */
+    public boolean useBlockIndex( ) {
+        return this.blockIndex;
     }
 
     // ------------------------------------------------------------------------
 
     /**
-     * Creates the EXI option's <code>preserve</code> XML element. This
-     * element contains the fidelity options.
+     * Sets the policy for whitespace-only character data. By default
+     * indentation, i.e. a line break followed by whitespace only, is dropped.
      *
-     * @param document The DOM document.
-     * @return The newly created element.
+     * @param whitespacePolicy The whitespace policy.
      */
-    private Element buildPreserve(Document document) {
-        Element preserve = null;
-        List<Element> elems = new ArrayList<Element>( );
-        if (this.preserveDTDs != PRESERVE_DTD_DEFAULT) {
-            elems.add(document.createElement("dtd"));
-        }
-        if (this.preservePrefixes != PRESERVE_PREFIX_DEFAULT) {
-            elems.add(document.createElement("prefixes"));
+    public void setWhitespacePolicy(WhitespacePolicy whitespacePolicy) {
+        if (whitespacePolicy == null) {
+            throw new IllegalArgumentException("Whitespace policy must not be null!");
         }
-        if (this.preserveLexicalValues != PRESERVE_LEXICAL_DEFAULT) {
-            elems.add(document.createElement("lexicalValues"));
-        }
-        if (this.preserveComments != PRESERVE_COMMENTS_DEFAULT) {
-            elems.add(document.createElement("comments"));
-        }
-        if (this.preservePIs != PRESERVE_PI_DEFAULT) {
-            elems.add(document.createElement("pis"));
-        }
-        if (elems.size( ) > 0) {
-            preserve = document.createElement("preserve");
-            for (Element e : elems) {
-                preserve.appendChild(e);
-            }
-        }
-        return preserve;
+        this.whitespacePolicy = whitespacePolicy;
     }
 
     // ------------------------------------------------------------------------
 
     /**
-     * Creates the EXI option's <code>common</code> XML element.
+     * Returns the policy for whitespace-only character data.
      *
-     * @param document The DOM document.
-     * @return The newly created element.
+     * @return The whitespace policy.
      */
-    private Element buildCommon(Document document) {
-        Element common = null;
-        List<Element> elems = new ArrayList<Element>( );
-        if (this.useCompression != USE_COMPRESSION_DEFAULT) {
-            elems.add(document.createElement("compression"));
-        }
-        if (elems.size( ) > 0) {
-            common = document.createElement("common");
-            for (Element e : elems) {
-                common.appendChild(e);
-            }
-        }
-        return common;
+    public WhitespacePolicy getWhitespacePolicy( ) {
+        return this.whitespacePolicy;
     }
 
     // ------------------------------------------------------------------------
 
     /**
-     * Creates the EXI option's <code>strict</code> XML element. Does
-     * currently nothing.
+     * Creates an XML string from this options object to be used for EXI
+     * encoding. The resulting XML conforms to the XML Schema as specified in
+     * the
+     * {@link <a href="http://www.w3.org/TR/exi/#optionsSchema">EXI documentation</a>}.
      *
-     * @param document The DOM document.
-     * @return The newly created element.
+     * @return The EXI options XML string.
+     * @throws Exception If something goes wrong during document creation.
+     * @see ExiOptionsCodec#writeOptions(ExiOptions, ExiEventSink)
      */
-    private Element buildStrict(Document document) {
-        return null;
+    public String toXML( ) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream( );
+        ExiOptionsCodec.writeOptions(this, new ExiXmlWriterSink(os));
+        return os.toString("UTF-8");
     }
 
     // ------------------------------------------------------------------------
@@ -665,7 +728,11 @@ public class ExiOptions implements ExiConstants {
 
             Element e = (Element)n;
             String name = e.getTagName( );
-            if (name.equals("alignment")) {
+            if (ExiOptionsCodec.EXTENSION_NAMESPACE.equals(e.getNamespaceURI( ))) {
+                if ("blockIndex".equals(e.getLocalName( ))) {
+                    this.blockIndex = true;
+                }
+            } else if (name.equals("alignment")) {
                 parseAlignment(e);
             }
         }
@@ -757,6 +824,10 @@ public class ExiOptions implements ExiConstants {
             String name = e.getTagName( );
             if (name.equals("compression")) {
                 this.useCompression = true;
+            } else if (name.equals("fragment")) {
+                this.useFragments = true;
+            } else if (name.equals("schemaId")) {
+                this.schemaId = e.getTextContent( );
             }
         }
     }
@@ -784,6 +855,8 @@ public class ExiOptions implements ExiConstants {
      * @param value The new value.
      */
     private void showFidelityLogMessage(String type, boolean value) {
-        log.debug(String.format("Fidelity option %s set to %s", type, value));
+        if (log.isDebugEnabled( )) {
+            log.debug(String.format("Fidelity option %s set to %s", type, value));
+        }
     }
 }
@@ -0,0 +1,590 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.namespace.QName;
+
+import exi.ExiOptions.Alignment;
+import exi.ExiOptions.FidelityOption;
+import exi.events.ExiAttribute;
+import exi.events.ExiCharacters;
+import exi.events.ExiComment;
+import exi.events.ExiEndDocument;
+import exi.events.ExiEndElement;
+import exi.events.ExiNamespaceDeclaration;
+import exi.events.ExiStartDocument;
+import exi.events.ExiStartElement;
+import exi.io.ExiHeaderReader;
+import exi.io.ExiHeaderWriter;
+import exi.io.ExiInputStream;
+import exi.io.ExiOutputStream;
+
+/**
+ * Encodes and decodes the EXI header including the EXI options.
+ * <p>
+ * The options are an EXI document of their own. They are turned into the
+ * events of that document directly, and these are encoded with an
+ * {@link ExiEncoder} without going through XML. Decoding delivers the events
+ * straight into a new options instance instead of building a DOM tree.
+ * </p>
+ * <p>
+ * The encoded header only depends on the options' values, so it is cached:
+ * Encoding looks up the header bits by the options' values and just copies
+ * them to the stream. Decoding remembers the bits of recently decoded headers
+ * and compares a new stream's first bits with them. A header is a complete
+ * EXI document, so a stream which starts with the bits of a known header has
+ * the same options.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class ExiOptionsCodec {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The namespace of the EXI options document.
+     */
+    private static final String NAMESPACE = "http://www.w3.org/2007/07/exi";
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The namespace of the user-defined options of this implementation. These
+     * are written as meta-data at the start of the <code>uncommon</code>
+     * element, which other EXI processors ignore.
+     */
+    public static final String EXTENSION_NAMESPACE = "urn:itm:connexion";
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The prefix bound to {@link #EXTENSION_NAMESPACE} in the options
+     * document.
+     */
+    private static final String EXTENSION_PREFIX = "cx";
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The maximum number of cached encoded headers. The cache is cleared if
+     * it grows any larger, e.g. because of lots of different block sizes.
+     */
+    private static final int ENCODED_CACHE_SIZE = 256;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The maximum number of remembered decoded headers.
+     */
+    private static final int DECODED_CACHE_SIZE = 16;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * All fidelity options.
+     */
+    private static final FidelityOption[] FIDELITY_OPTIONS = FidelityOption.values( );
+
+    // ------------------------------------------------------------------------
+    // Static stuff
+    // ------------------------------------------------------------------------
+
+    /**
+     * The encoded headers mapped to the key of their options.
+     */
+    private static final ConcurrentHashMap<String, Header> encoded = new ConcurrentHashMap<String, Header>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The recently decoded headers, the latest one first. The array is
+     * replaced rather than modified.
+     */
+    private static volatile Header[] decoded = new Header[0];
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    /**
+     * Instantiation not permitted.
+     */
+    private ExiOptionsCodec( ) {
+        // nothing to do
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the EXI header to the stream. The writer must not have written
+     * anything yet.
+     *
+     * @param w The header writer.
+     * @param options The EXI options to use.
+     * @param encodeOptions <code>true</code> if the EXI options should be
+     *        encoded to the stream, else <code>false</code>.
+     * @throws Exception If something goes wrong during header encoding.
+     */
+    public static void encodeHeader(ExiHeaderWriter w, ExiOptions options, boolean encodeOptions) throws Exception {
+        if (!encodeOptions) {
+            w.writeDistinguishingBits( );
+            w.writeOptionsBit(false);
+            w.writeFormatVersion( );
+            return;
+        }
+
+        String key = getKey(options);
+        Header header = encoded.get(key);
+        if (header == null) {
+            ExiHeaderWriter hw = new ExiHeaderWriter( );
+            hw.writeDistinguishingBits( );
+            hw.writeOptionsBit(true);
+            hw.writeFormatVersion( );
+            // use standard options for encoding the options themselves
+            writeOptions(options, new ExiEncoder(hw, new ExiOptions( )));
+
+            ExiOutputStream os = hw.getOutputStream( );
+            header = new Header(os.toBitArray( ), os.getBitLength( ), null);
+            if (encoded.size( ) >= ENCODED_CACHE_SIZE) {
+                encoded.clear( );
+            }
+            encoded.put(key, header);
+        }
+        w.getOutputStream( ).writeBits(header.bits, header.length);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Decodes the EXI header. The reader must not have read anything yet.
+     *
+     * @param r The header reader.
+     * @return The options to be used for decoding the EXI body. These are the
+     *         default options if the header does not contain any options.
+     * @throws Exception If something goes wrong during header decoding.
+     */
+    public static ExiOptions decodeHeader(ExiHeaderReader r) throws Exception {
+        ExiInputStream is = r.getInputStream( );
+        for (Header header : decoded) {
+            if (is.startsWith(header.bits, header.length)) {
+                is.setBitPosition(header.length);
+                return new ExiOptions(header.options);
+            }
+        }
+
+        r.readDistinguishingBits( );
+        boolean hasOptions = r.readOptionBit( );
+        r.readFormatVersion( );
+        if (!hasOptions) {
+            return new ExiOptions( );
+        }
+
+        OptionsBuilder builder = new OptionsBuilder( );
+        // use standard options for decoding the options themselves
+        new ExiDecoder(builder, r, new ExiOptions( )).decode( );
+        ExiOptions options = builder.getOptions( );
+
+        int length = is.getBitPosition( );
+        remember(new Header(is.getBits(length), length, new ExiOptions(options)));
+        return options;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Delivers the events of the specified options' XML document to the sink,
+     * starting with the Start Document (SD) event and ending with the End
+     * Document (ED) event. Options with default values are omitted.
+     *
+     * @param options The EXI options.
+     * @param sink The event sink.
+     * @throws ExiException If the sink fails to handle an event.
+     */
+    public static void writeOptions(ExiOptions options, ExiEventSink sink) throws ExiException {
+        sink.handle(new ExiStartDocument( ));
+        startElement(sink, "header");
+        sink.handle(new ExiNamespaceDeclaration("", URI.create(NAMESPACE)));
+
+        boolean blockIndex = hasBlockIndex(options);
+        boolean uncommon = options.getAlign( ) != Alignment.BIT_PACKED || blockIndex;
+        boolean preserve = false;
+        for (FidelityOption o : FIDELITY_OPTIONS) {
+            preserve |= options.isSet(o);
+        }
+        boolean blockSize = options.getBlockSize( ) != ExiConstants.BLOCK_SIZE_DEFAULT;
+
+        if (uncommon || preserve || blockSize) {
+            startElement(sink, "lesscommon");
+            if (uncommon) {
+                startElement(sink, "uncommon");
+                if (blockIndex) {
+                    // announces the trailer so that decoders know to strip it
+                    sink.handle(new ExiStartElement(new QName(EXTENSION_NAMESPACE, "blockIndex", EXTENSION_PREFIX)));
+                    sink.handle(new ExiNamespaceDeclaration(EXTENSION_PREFIX, URI.create(EXTENSION_NAMESPACE)));
+                    endElement(sink);
+                }
+                if (options.getAlign( ) != Alignment.BIT_PACKED) {
+                    startElement(sink, "alignment");
+                    emptyElement(sink, options.getAlign( ) == Alignment.BYTE_ALIGNED ? "byte" : "pre-compress");
+                    endElement(sink);
+                }
+                endElement(sink);
+            }
+            if (preserve) {
+                startElement(sink, "preserve");
+                if (options.isSet(FidelityOption.PRESERVE_DTDS)) {
+                    emptyElement(sink, "dtd");
+                }
+                if (options.isSet(FidelityOption.PRESERVE_PREFIXES)) {
+                    emptyElement(sink, "prefixes");
+                }
+                if (options.isSet(FidelityOption.PRESERVE_LEXICAL_VALUES)) {
+                    emptyElement(sink, "lexicalValues");
+                }
+                if (options.isSet(FidelityOption.PRESERVE_COMMENTS)) {
+                    emptyElement(sink, "comments");
+                }
+                if (options.isSet(FidelityOption.PRESERVE_PROCESSING_INSTRUCTIONS)) {
+                    emptyElement(sink, "pis");
+                }
+                endElement(sink);
+            }
+            if (blockSize) {
+                textElement(sink, "blockSize", String.valueOf(options.getBlockSize( )));
+            }
+            endElement(sink);
+        }
+
+        if (options.useCompression( ) || options.useFragments( ) || options.getSchemaId( ) != null) {
+            startElement(sink, "common");
+            if (options.useCompression( )) {
+                emptyElement(sink, "compression");
+            }
+            if (options.useFragments( )) {
+                emptyElement(sink, "fragment");
+            }
+            if (options.getSchemaId( ) != null) {
+                textElement(sink, "schemaId", options.getSchemaId( ));
+            }
+            endElement(sink);
+        }
+
+        endElement(sink);
+        sink.handle(new ExiEndDocument( ));
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the key under which the specified options' header is cached.
+     * The key contains all values which are encoded to the header.
+     *
+     * @param options The EXI options.
+     * @return The key.
+     */
+    private static String getKey(ExiOptions options) {
+        StringBuilder sb = new StringBuilder(32);
+        sb.append(options.getAlign( ).ordinal( ));
+        sb.append(options.useCompression( ) ? 'c' : '-');
+        sb.append(options.useFragments( ) ? 'f' : '-');
+        for (FidelityOption o : FIDELITY_OPTIONS) {
+            sb.append(options.isSet(o) ? '1' : '0');
+        }
+        sb.append(options.getBlockSize( ));
+        sb.append(hasBlockIndex(options) ? 'x' : '-');
+        if (options.getSchemaId( ) != null) {
+            sb.append(':').append(options.getSchemaId( ));
+        }
+        return sb.toString( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns whether streams encoded with the specified options carry a
+     * block index trailer, which is only written for compressed and
+     * pre-compressed streams.
+     *
+     * @param options The EXI options.
+     * @return <code>true</code> if the header announces a trailer.
+     */
+    private static boolean hasBlockIndex(ExiOptions options) {
+        return options.useBlockIndex( )
+            && (options.useCompression( ) || options.getAlign( ) == Alignment.PRE_COMPRESSED);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Remembers a decoded header, dropping the oldest one if there are too
+     * many.
+     *
+     * @param header The header.
+     */
+    private static synchronized void remember(Header header) {
+        Header[] old = decoded;
+        Header[] headers = new Header[Math.min(old.length + 1, DECODED_CACHE_SIZE)];
+        headers[0] = header;
+        System.arraycopy(old, 0, headers, 1, headers.length - 1);
+        decoded = headers;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Delivers a Start Element (SE) event for an options element.
+     *
+     * @param sink The event sink.
+     * @param name The element's local name.
+     * @throws ExiException If the sink fails to handle the event.
+     */
+    private static void startElement(ExiEventSink sink, String name) throws ExiException {
+        sink.handle(new ExiStartElement(new QName(NAMESPACE, name)));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Delivers an End Element (EE) event.
+     *
+     * @param sink The event sink.
+     * @throws ExiException If the sink fails to handle the event.
+     */
+    private static void endElement(ExiEventSink sink) throws ExiException {
+        sink.handle(new ExiEndElement( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Delivers the events for an empty options element.
+     *
+     * @param sink The event sink.
+     * @param name The element's local name.
+     * @throws ExiException If the sink fails to handle an event.
+     */
+    private static void emptyElement(ExiEventSink sink, String name) throws ExiException {
+        startElement(sink, name);
+        endElement(sink);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Delivers the events for an options element containing text only.
+     *
+     * @param sink The event sink.
+     * @param name The element's local name.
+     * @param text The element's text.
+     * @throws ExiException If the sink fails to handle an event.
+     */
+    private static void textElement(ExiEventSink sink, String name, String text) throws ExiException {
+        startElement(sink, name);
+        sink.handle(new ExiCharacters(text));
+        endElement(sink);
+    }
+
+    // ------------------------------------------------------------------------
+    // Nested types
+    // ------------------------------------------------------------------------
+
+    /**
+     * An encoded header.
+     */
+    private static final class Header {
+
+        /**
+         * The header's bits, starting with the distinguishing bits.
+         */
+        final byte[] bits;
+
+        /**
+         * The number of bits.
+         */
+        final int length;
+
+        /**
+         * The decoded options, or <code>null</code> for encoded headers. These
+         * are never handed out but copied.
+         */
+        final ExiOptions options;
+
+        /**
+         * Creates a new header.
+         *
+         * @param bits The header's bits.
+         * @param length The number of bits.
+         * @param options The decoded options or <code>null</code>.
+         */
+        Header(byte[] bits, int length, ExiOptions options) {
+            this.bits = bits;
+            this.length = length;
+            this.options = options;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Sets up EXI options from the events of the options document.
+     */
+    private static final class OptionsBuilder implements ExiEventSink {
+
+        /**
+         * The options being set up.
+         */
+        private final ExiOptions options = new ExiOptions( );
+
+        /**
+         * The local names of the currently open elements.
+         */
+        private final ArrayList<String> path = new ArrayList<String>( );
+
+        /**
+         * The text of the current element.
+         */
+        private final StringBuilder text = new StringBuilder( );
+
+        /**
+         * Returns the options which have been set up.
+         *
+         * @return The options.
+         */
+        ExiOptions getOptions( ) {
+            return this.options;
+        }
+
+        /* (non-Javadoc)
+         * @see exi.ExiEventSink#handle(exi.events.ExiStartDocument)
+         */
+        public void handle(ExiStartDocument event) throws ExiException {
+            // nothing to do
+        }
+
+        /* (non-Javadoc)
+         * @see exi.ExiEventSink#handle(exi.events.ExiStartElement)
+         */
+        public void handle(ExiStartElement event) throws ExiException {
+            QName qname = event.getQualifiedName( );
+            String name = qname.getLocalPart( );
+            String parent = this.path.isEmpty( ) ? "" : this.path.get(this.path.size( ) - 1);
+            this.path.add(name);
+            this.text.setLength(0);
+
+            if (!NAMESPACE.equals(qname.getNamespaceURI( ))) {
+                // user-defined meta-data, unknown elements are ignored
+                if (parent.equals("uncommon") && EXTENSION_NAMESPACE.equals(qname.getNamespaceURI( ))
+                    && name.equals("blockIndex")) {
+                    this.options.setBlockIndex(true);
+                }
+            } else if (parent.equals("alignment")) {
+                if (name.equals("byte")) {
+                    this.options.setAlign(Alignment.BYTE_ALIGNED);
+                } else if (name.equals("pre-compress")) {
+                    this.options.setAlign(Alignment.PRE_COMPRESSED);
+                }
+            } else if (parent.equals("preserve")) {
+                if (name.equals("dtd")) {
+                    this.options.set(FidelityOption.PRESERVE_DTDS, true);
+                } else if (name.equals("prefixes")) {
+                    this.options.set(FidelityOption.PRESERVE_PREFIXES, true);
+                } else if (name.equals("lexicalValues")) {
+                    this.options.set(FidelityOption.PRESERVE_LEXICAL_VALUES, true);
+                } else if (name.equals("comments")) {
+                    this.options.set(FidelityOption.PRESERVE_COMMENTS, true);
+                } else if (name.equals("pis")) {
+                    this.options.set(FidelityOption.PRESERVE_PROCESSING_INSTRUCTIONS, true);
+                } else {
+                    throw new ExiFidelityOptionException("Unknown fidelity option element: " + name);
+                }
+            } else if (parent.equals("common")) {
+                if (name.equals("compression")) {
+                    this.options.setCompression(true);
+                } else if (name.equals("fragment")) {
+                    this.options.setFragments(true);
+                }
+            }
+        }
+
+        /* (non-Javadoc)
+         * @see exi.ExiEventSink#handle(exi.events.ExiAttribute)
+         */
+        public void handle(ExiAttribute event) throws ExiException {
+            // nothing to do
+        }
+
+        /* (non-Javadoc)
+         * @see exi.ExiEventSink#handle(exi.events.ExiNamespaceDeclaration)
+         */
+        public void handle(ExiNamespaceDeclaration event) throws ExiException {
+            // nothing to do
+        }
+
+        /* (non-Javadoc)
+         * @see exi.ExiEventSink#handle(exi.events.ExiCharacters)
+         */
+        public void handle(ExiCharacters event) throws ExiException {
+            this.text.append(event.getData( ));
+        }
+
+        /* (non-Javadoc)
+         * @see exi.ExiEventSink#handle(exi.events.ExiEndElement)
+         */
+        public void handle(ExiEndElement event) throws ExiException {
+            String name = this.path.remove(this.path.size( ) - 1);
+            String parent = this.path.isEmpty( ) ? "" : this.path.get(this.path.size( ) - 1);
+            if (parent.equals("lesscommon") && name.equals("blockSize")) {
+                this.options.setBlockSize(Integer.parseInt(this.text.toString( ).trim( )));
+            } else if (parent.equals("common") && name.equals("schemaId")) {
+                this.options.setSchemaId(this.text.toString( ));
+            }
+            this.text.setLength(0);
+        }
+
+        /* (non-Javadoc)
+         * @see exi.ExiEventSink#handle(exi.events.ExiEndDocument)
+         */
+        public void handle(ExiEndDocument event) throws ExiException {
+            // nothing to do
+        }
+
+        /* (non-Javadoc)
+         * @see exi.ExiEventSink#handle(exi.events.ExiComment)
+         */
+        public void handle(ExiComment event) throws ExiException {
+            // nothing to do
+        }
+    }
+}
@@ -0,0 +1,416 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.InputSource;
+
+import exi.ExiOptions.Alignment;
+import exi.io.ExiHeaderReader;
+import exi.io.ExiInputStream;
+import exi.io.ExiReader;
+import exi.io.ExiWriter;
+
+/**
+ * An EXI codec for a sequence of messages on one logical connection. Unlike
+ * an {@link ExiCodec}, a session keeps the string table and the learned
+ * grammar productions from one message to the next, so the names and values
+ * of repetitive messages are mostly string table hits.
+ * <p>
+ * Each message is sent as a frame: a flags byte, a sequence number as an
+ * unsigned integer with seven bits per byte, and the EXI stream. A frame
+ * with the {@link #RESET} flag starts from scratch and carries the EXI
+ * options in its header, so a receiver can always synchronize on it. Any
+ * other frame continues with the state of the previous frame and omits the
+ * options. A receiver which has missed a frame rejects the following ones
+ * with an {@link ExiSessionException} until the next reset frame arrives.
+ * </p>
+ * <p>
+ * The sender resets after a configurable number of messages, which also
+ * bounds the growth of the string table, after an encoding error and when
+ * asked to by {@link #reset()}, e.g. because the receiver has reported an
+ * error. With compression or pre-compression every frame is a reset frame
+ * since the compressed reader does not keep any state.
+ * </p>
+ * <p>
+ * A session is not thread-safe. Its sending and receiving side are
+ * independent, so one session object may serve both directions of a
+ * connection.
+ * </p>
+ */
+public class ExiSession {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The flag of frames which start from scratch.
+     */
+    public static final int RESET = 0x01;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The default number of messages after which the sender resets.
+     */
+    public static final int DEFAULT_RESET_INTERVAL = 1024;
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The EXI options of all messages sent.
+     */
+    private final ExiOptions options;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The SAX parser used for encoding.
+     */
+    private final SAXParser parser;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The encoder, or <code>null</code> if nothing has been encoded yet.
+     */
+    private ExiEncoder encoder = null;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The SAX handler passing the parsed messages on to the encoder.
+     */
+    private ExiDocumentHandler handler = null;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of messages after which the sender resets or 0 if it only
+     * resets when asked to.
+     */
+    private int resetInterval = DEFAULT_RESET_INTERVAL;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of messages sent since the last reset frame.
+     */
+    private int sent = 0;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * <code>true</code> if the next frame sent must be a reset frame.
+     */
+    private boolean resetPending = true;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The sequence number of the next frame sent.
+     */
+    private int sendSequence = 0;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The decoder, or <code>null</code> if nothing has been decoded yet.
+     */
+    private ExiDecoder decoder = null;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The input stream used for decoding.
+     */
+    private final ExiInputStream input = new ExiInputStream(new byte[0]);
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The EXI options of the last reset frame received or <code>null</code>
+     * if the receiving side is not synchronized.
+     */
+    private ExiOptions received = null;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The sequence number of the next frame expected.
+     */
+    private int receiveSequence = 0;
+
+    // ------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new session which sends messages using the specified options.
+     *
+     * @param options The EXI options for all messages sent. They must not be
+     *        changed during the session.
+     * @throws Exception If the SAX parser can't be created.
+     */
+    public ExiSession(ExiOptions options) throws Exception {
+        this(options, SAXParserFactory.newInstance( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new session which sends messages using the specified options
+     * and parses them with a parser from the specified factory.
+     *
+     * @param options The EXI options for all messages sent. They must not be
+     *        changed during the session.
+     * @param factory The SAX parser factory.
+     * @throws Exception If the SAX parser can't be created.
+     */
+    public ExiSession(ExiOptions options, SAXParserFactory factory) throws Exception {
+        this.options = options;
+        this.parser = factory.newSAXParser( );
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Sets the number of messages after which the sender resets.
+     *
+     * @param resetInterval The number of messages or 0 if the sender should
+     *        only reset when asked to.
+     */
+    public void setResetInterval(int resetInterval) {
+        this.resetInterval = resetInterval;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Makes the next frame sent a reset frame.
+     */
+    public void reset( ) {
+        this.resetPending = true;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the next message read from the specified byte stream.
+     *
+     * @param is The input stream from which the XML message is read.
+     * @return The frame.
+     * @throws Exception If something goes wrong during encoding.
+     */
+    public byte[] encode(InputStream is) throws Exception {
+        return encode(new InputSource(is));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the next message read from the specified input source.
+     *
+     * @param in The input source.
+     * @return The frame.
+     * @throws Exception If something goes wrong during encoding.
+     */
+    public byte[] encode(InputSource in) throws Exception {
+        boolean reset = this.resetPending || !isStateful(this.options)
+                || (this.resetInterval > 0 && this.sent >= this.resetInterval);
+        // a failed message leaves the state unknown, so start over next time
+        this.resetPending = true;
+
+        ExiWriter ew = ExiDocument.createWriter(this.options, reset);
+        try {
+            if (this.encoder == null) {
+                this.encoder = new ExiEncoder(ew, this.options);
+                this.handler = new ExiDocumentHandler(this.encoder);
+            } else {
+                if (reset) {
+                    this.encoder.reset(ew, this.options);
+                } else {
+                    this.encoder.resume(ew, this.options);
+                }
+                this.handler.reset( );
+            }
+            ExiDocument.parse(this.parser, in, this.handler);
+        } catch (Exception e) {
+            this.parser.reset( );
+            throw e;
+        }
+
+        byte[] prefix = new byte[6];
+        prefix[0] = (byte)(reset ? RESET : 0);
+        int length = writeUnsignedInt(prefix, 1, this.sendSequence);
+        byte[] body = ew.toByteArray( );
+        byte[] frame = new byte[length + body.length];
+        System.arraycopy(prefix, 0, frame, 0, length);
+        System.arraycopy(body, 0, frame, length, body.length);
+
+        this.sendSequence = (this.sendSequence + 1) & Integer.MAX_VALUE;
+        this.sent = reset ? 1 : this.sent + 1;
+        this.resetPending = false;
+        return frame;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Decodes the next frame and delivers the message's events to the
+     * specified sink.
+     *
+     * @param frame The frame.
+     * @param sink The event sink.
+     * @throws ExiSessionException If the frame continues a state this session
+     *         does not have, i.e. if a frame has been missed.
+     * @throws Exception If something goes wrong during decoding.
+     */
+    public void decode(byte[] frame, ExiEventSink sink) throws Exception {
+        int[] position = { 1 };
+        int sequence = readUnsignedInt(frame, position);
+        boolean reset = (frame[0] & RESET) != 0;
+        if (!reset) {
+            if (this.received == null) {
+                throw new ExiSessionException(String.format(
+                        "Frame %d dropped while waiting for a reset frame", sequence));
+            }
+            if (sequence != this.receiveSequence) {
+                this.received = null;
+                throw new ExiSessionException(String.format(
+                        "Frame %d received, but frame %d expected", sequence, this.receiveSequence));
+            }
+        }
+
+        ExiOptions options = this.received;
+        this.received = null;
+        this.input.setBuffer(Arrays.copyOfRange(frame, position[0], frame.length));
+        ExiHeaderReader hr = new ExiHeaderReader(this.input);
+        ExiOptions header = ExiOptionsCodec.decodeHeader(hr);
+        if (reset) {
+            options = header;
+        }
+        ExiReader er = ExiDocument.createBodyReader(hr, options);
+        if (this.decoder == null) {
+            this.decoder = new ExiDecoder(sink, er, options);
+        } else if (reset) {
+            this.decoder.reset(sink, er, options);
+        } else {
+            this.decoder.resume(sink, er, options);
+        }
+        this.decoder.decode( );
+
+        this.received = options;
+        this.receiveSequence = (sequence + 1) & Integer.MAX_VALUE;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Decodes the next frame and writes the XML message to the specified
+     * output stream using UTF-8. The output stream is flushed but not
+     * closed.
+     *
+     * @param frame The frame.
+     * @param os The output stream.
+     * @throws Exception If something goes wrong during decoding.
+     * @see #decode(byte[], ExiEventSink)
+     */
+    public void decode(byte[] frame, OutputStream os) throws Exception {
+        decode(frame, new ExiXmlWriterSink(os));
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Specifies whether the state can be kept between messages encoded with
+     * the specified options.
+     *
+     * @param options The EXI options.
+     * @return <code>true</code> unless the options use compression or
+     *         pre-compression.
+     */
+    private static boolean isStateful(ExiOptions options) {
+        return !options.useCompression( ) && options.getAlign( ) != Alignment.PRE_COMPRESSED;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes an unsigned integer with seven bits per byte, least significant
+     * group first.
+     *
+     * @param array The array to write to.
+     * @param offset The offset of the first byte.
+     * @param value The non-negative value.
+     * @return The offset after the last byte.
+     */
+    private static int writeUnsignedInt(byte[] array, int offset, int value) {
+        while ((value & ~0x7f) != 0) {
+            array[offset++] = (byte)((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        array[offset++] = (byte)value;
+        return offset;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reads an unsigned integer written by
+     * {@link #writeUnsignedInt(byte[], int, int)}.
+     *
+     * @param array The array to read from.
+     * @param position The offset of the first byte, which is moved past the
+     *        last byte.
+     * @return The value.
+     * @throws ExiSessionException If the array ends within the integer.
+     */
+    private static int readUnsignedInt(byte[] array, int[] position) throws ExiSessionException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (position[0] >= array.length) {
+                break;
+            }
+            int b = array[position[0]++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new ExiSessionException("Truncated frame header");
+    }
+}
@@ -0,0 +1,943 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A StAX pull parser for EXI streams. Events are decoded only when the
+ * application asks for them using {@link #next()}, so decoding can be stopped
+ * at any point, e.g. after the header of a message has been read.
+ * <p>
+ * The decoder delivers an element's namespace declarations and attributes
+ * after its start tag, so the parser decodes ahead until the start tag is
+ * complete. Apart from that, no event is decoded before it is needed.
+ * Character data is handed out as a view on a buffer which is reused for
+ * every event, so the array returned by {@link #getTextCharacters()} must
+ * not be kept across calls to {@link #next()}.
+ * </p>
+ * <p>
+ * Note that for compressed and pre-compressed streams the block structure is
+ * reconstructed when the stream is opened.
+ * </p>
+ */
+public class ExiStreamReader implements XMLStreamReader {
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The decoder which is driven event by event.
+     */
+    private final ExiDecoder decoder;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The events which have been decoded but not yet been pulled.
+     */
+    private final LinkedList<Event> queue = new LinkedList<Event>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Events which are not in use and can be filled again.
+     */
+    private final LinkedList<Event> free = new LinkedList<Event>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The current event.
+     */
+    private Event current;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The prefixes of all namespace declarations in scope of the current
+     * event.
+     */
+    private final List<String> scopePrefixes = new ArrayList<String>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The URIs of all namespace declarations in scope of the current event.
+     */
+    private final List<String> scopeURIs = new ArrayList<String>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of namespace declarations in scope at the start of each open
+     * element.
+     */
+    private final LinkedList<Integer> scopeMarks = new LinkedList<Integer>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The buffer holding the current event's text.
+     */
+    private char[] text = new char[256];
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * <code>true</code> if the current event's text has been copied to the
+     * text buffer.
+     */
+    private boolean textValid = false;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The namespace context view of this parser.
+     */
+    private final NamespaceContext context = new NamespaceContext( ) {
+
+        public String getNamespaceURI(String prefix) {
+            return ExiStreamReader.this.getNamespaceURI(prefix);
+        }
+
+        public String getPrefix(String namespaceURI) {
+            Iterator<?> it = getPrefixes(namespaceURI);
+            return it.hasNext( ) ? (String)it.next( ) : null;
+        }
+
+        public Iterator<?> getPrefixes(String namespaceURI) {
+            List<String> prefixes = new ArrayList<String>( );
+            for (int i = ExiStreamReader.this.scopePrefixes.size( ) - 1; i >= 0; --i) {
+                String p = ExiStreamReader.this.scopePrefixes.get(i);
+                if (namespaceURI.equals(ExiStreamReader.this.scopeURIs.get(i))
+                        && namespaceURI.equals(ExiStreamReader.this.getNamespaceURI(p))
+                        && !prefixes.contains(p)) {
+                    prefixes.add(p);
+                }
+            }
+            return Collections.unmodifiableList(prefixes).iterator( );
+        }
+    };
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new pull parser for an EXI document stream stored in a byte
+     * array. The header is decoded immediately.
+     *
+     * @param array The byte array.
+     * @throws Exception If something goes wrong during decoding the header.
+     */
+    public ExiStreamReader(byte[] array) throws Exception {
+        this.decoder = ExiDocument.createDecoder(array, new QueueSink( ));
+        fill( );
+        this.current = this.queue.removeFirst( );
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#next()
+     */
+    public int next( ) throws XMLStreamException {
+        if (!hasNext( )) {
+            throw new NoSuchElementException("End of document reached");
+        }
+        if (this.current.type == END_ELEMENT) {
+            int mark = this.scopeMarks.removeLast( );
+            for (int i = this.scopePrefixes.size( ) - 1; i >= mark; --i) {
+                this.scopePrefixes.remove(i);
+                this.scopeURIs.remove(i);
+            }
+        }
+        this.free.add(this.current);
+        this.textValid = false;
+
+        fill( );
+        this.current = this.queue.removeFirst( );
+
+        if (this.current.type == START_ELEMENT) {
+            this.scopeMarks.add(this.scopePrefixes.size( ));
+            for (int i = 0; i < this.current.namespaceCount; ++i) {
+                this.scopePrefixes.add(this.current.namespacePrefixes[i]);
+                this.scopeURIs.add(this.current.namespaceURIs[i]);
+            }
+        }
+        return this.current.type;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Decodes events until at least one event is available.
+     *
+     * @throws XMLStreamException If decoding fails or the stream ends
+     *         unexpectedly.
+     */
+    private void fill( ) throws XMLStreamException {
+        try {
+            while (this.queue.isEmpty( )) {
+                if (!this.decoder.step( ) && this.queue.isEmpty( )) {
+                    throw new XMLStreamException("Unexpected end of EXI stream");
+                }
+            }
+        } catch (ExiException e) {
+            throw new XMLStreamException(e.getMessage( ), e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#hasNext()
+     */
+    public boolean hasNext( ) {
+        return this.current.type != END_DOCUMENT;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#close()
+     */
+    public void close( ) {
+        this.queue.clear( );
+        this.free.clear( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#require(int, java.lang.String, java.lang.String)
+     */
+    public void require(int type, String namespaceURI, String localName) throws XMLStreamException {
+        if (type != this.current.type) {
+            throw new XMLStreamException("Expected event type " + type + " but found " + this.current.type);
+        }
+        if (namespaceURI != null && !namespaceURI.equals(getNamespaceURI( ))) {
+            throw new XMLStreamException("Expected namespace " + namespaceURI);
+        }
+        if (localName != null && !localName.equals(getLocalName( ))) {
+            throw new XMLStreamException("Expected local name " + localName);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getElementText()
+     */
+    public String getElementText( ) throws XMLStreamException {
+        if (this.current.type != START_ELEMENT) {
+            throw new XMLStreamException("Not at a start element");
+        }
+        StringBuilder sb = new StringBuilder( );
+        int type = next( );
+        while (type != END_ELEMENT) {
+            if (type == CHARACTERS) {
+                sb.append(this.current.text);
+            } else if (type != COMMENT) {
+                throw new XMLStreamException("Element contains more than text");
+            }
+            type = next( );
+        }
+        return sb.toString( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#nextTag()
+     */
+    public int nextTag( ) throws XMLStreamException {
+        int type = next( );
+        while ((type == CHARACTERS && isWhiteSpace( )) || type == COMMENT) {
+            type = next( );
+        }
+        if (type != START_ELEMENT && type != END_ELEMENT) {
+            throw new XMLStreamException("Expected a start or end tag");
+        }
+        return type;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getProperty(java.lang.String)
+     */
+    public Object getProperty(String name) {
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getEventType()
+     */
+    public int getEventType( ) {
+        return this.current.type;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#isStartElement()
+     */
+    public boolean isStartElement( ) {
+        return this.current.type == START_ELEMENT;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#isEndElement()
+     */
+    public boolean isEndElement( ) {
+        return this.current.type == END_ELEMENT;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#isCharacters()
+     */
+    public boolean isCharacters( ) {
+        return this.current.type == CHARACTERS;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#isWhiteSpace()
+     */
+    public boolean isWhiteSpace( ) {
+        if (this.current.type != CHARACTERS) {
+            return false;
+        }
+        String s = this.current.text;
+        for (int i = 0; i < s.length( ); ++i) {
+            char c = s.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getName()
+     */
+    public QName getName( ) {
+        checkName( );
+        return this.current.name;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getLocalName()
+     */
+    public String getLocalName( ) {
+        return getName( ).getLocalPart( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#hasName()
+     */
+    public boolean hasName( ) {
+        return this.current.type == START_ELEMENT || this.current.type == END_ELEMENT;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getNamespaceURI()
+     */
+    public String getNamespaceURI( ) {
+        if (!hasName( )) {
+            return null;
+        }
+        String uri = this.current.name.getNamespaceURI( );
+        return uri.length( ) == 0 ? null : uri;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getPrefix()
+     */
+    public String getPrefix( ) {
+        return hasName( ) ? this.current.name.getPrefix( ) : null;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getNamespaceURI(java.lang.String)
+     */
+    public String getNamespaceURI(String prefix) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("Prefix must not be null");
+        }
+        if (prefix.equals(XMLConstants.XML_NS_PREFIX)) {
+            return XMLConstants.XML_NS_URI;
+        }
+        if (prefix.equals(XMLConstants.XMLNS_ATTRIBUTE)) {
+            return XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+        }
+        for (int i = this.scopePrefixes.size( ) - 1; i >= 0; --i) {
+            if (prefix.equals(this.scopePrefixes.get(i))) {
+                String uri = this.scopeURIs.get(i);
+                return uri.length( ) == 0 ? null : uri;
+            }
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getNamespaceContext()
+     */
+    public NamespaceContext getNamespaceContext( ) {
+        return this.context;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getNamespaceCount()
+     */
+    public int getNamespaceCount( ) {
+        checkName( );
+        return this.current.namespaceCount;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getNamespacePrefix(int)
+     */
+    public String getNamespacePrefix(int index) {
+        checkName( );
+        String prefix = this.current.namespacePrefixes[index];
+        return prefix.length( ) == 0 ? null : prefix;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getNamespaceURI(int)
+     */
+    public String getNamespaceURI(int index) {
+        checkName( );
+        return this.current.namespaceURIs[index];
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getAttributeCount()
+     */
+    public int getAttributeCount( ) {
+        checkStartElement( );
+        return this.current.attributeCount;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getAttributeName(int)
+     */
+    public QName getAttributeName(int index) {
+        checkStartElement( );
+        return this.current.attributeNames[index];
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getAttributeNamespace(int)
+     */
+    public String getAttributeNamespace(int index) {
+        String uri = getAttributeName(index).getNamespaceURI( );
+        return uri.length( ) == 0 ? null : uri;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getAttributeLocalName(int)
+     */
+    public String getAttributeLocalName(int index) {
+        return getAttributeName(index).getLocalPart( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getAttributePrefix(int)
+     */
+    public String getAttributePrefix(int index) {
+        return getAttributeName(index).getPrefix( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getAttributeType(int)
+     */
+    public String getAttributeType(int index) {
+        checkStartElement( );
+        return "CDATA";
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getAttributeValue(int)
+     */
+    public String getAttributeValue(int index) {
+        checkStartElement( );
+        return this.current.attributeValues[index];
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getAttributeValue(java.lang.String, java.lang.String)
+     */
+    public String getAttributeValue(String namespaceURI, String localName) {
+        checkStartElement( );
+        for (int i = 0; i < this.current.attributeCount; ++i) {
+            QName a = this.current.attributeNames[i];
+            if (a.getLocalPart( ).equals(localName)
+                    && (namespaceURI == null || namespaceURI.equals(a.getNamespaceURI( )))) {
+                return this.current.attributeValues[i];
+            }
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#isAttributeSpecified(int)
+     */
+    public boolean isAttributeSpecified(int index) {
+        checkStartElement( );
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#hasText()
+     */
+    public boolean hasText( ) {
+        return this.current.type == CHARACTERS || this.current.type == COMMENT;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getText()
+     */
+    public String getText( ) {
+        checkText( );
+        return this.current.text;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getTextCharacters()
+     */
+    public char[] getTextCharacters( ) {
+        checkText( );
+        if (!this.textValid) {
+            String s = this.current.text;
+            if (s.length( ) > this.text.length) {
+                this.text = new char[Math.max(s.length( ), 2 * this.text.length)];
+            }
+            s.getChars(0, s.length( ), this.text, 0);
+            this.textValid = true;
+        }
+        return this.text;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getTextCharacters(int, char[], int, int)
+     */
+    public int getTextCharacters(int sourceStart, char[] target, int targetStart, int length) {
+        checkText( );
+        String s = this.current.text;
+        int n = Math.min(length, s.length( ) - sourceStart);
+        if (n <= 0) {
+            return 0;
+        }
+        s.getChars(sourceStart, sourceStart + n, target, targetStart);
+        return n;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getTextStart()
+     */
+    public int getTextStart( ) {
+        checkText( );
+        return 0;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getTextLength()
+     */
+    public int getTextLength( ) {
+        checkText( );
+        return this.current.text.length( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getLocation()
+     */
+    public Location getLocation( ) {
+        return new Location( ) {
+            public int getLineNumber( ) {
+                return -1;
+            }
+            public int getColumnNumber( ) {
+                return -1;
+            }
+            public int getCharacterOffset( ) {
+                return -1;
+            }
+            public String getPublicId( ) {
+                return null;
+            }
+            public String getSystemId( ) {
+                return null;
+            }
+        };
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getEncoding()
+     */
+    public String getEncoding( ) {
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getVersion()
+     */
+    public String getVersion( ) {
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#isStandalone()
+     */
+    public boolean isStandalone( ) {
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#standaloneSet()
+     */
+    public boolean standaloneSet( ) {
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getCharacterEncodingScheme()
+     */
+    public String getCharacterEncodingScheme( ) {
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getPITarget()
+     */
+    public String getPITarget( ) {
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see javax.xml.stream.XMLStreamReader#getPIData()
+     */
+    public String getPIData( ) {
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Checks whether the current event has a name.
+     */
+    private void checkName( ) {
+        if (!hasName( )) {
+            throw new IllegalStateException("Current event is neither a start nor an end tag");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Checks whether the current event is a start tag.
+     */
+    private void checkStartElement( ) {
+        if (this.current.type != START_ELEMENT) {
+            throw new IllegalStateException("Current event is not a start tag");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Checks whether the current event has text.
+     */
+    private void checkText( ) {
+        if (!hasText( )) {
+            throw new IllegalStateException("Current event has no text");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns an event which can be filled.
+     *
+     * @param type The event type.
+     * @return The event.
+     */
+    private Event obtain(int type) {
+        Event e = this.free.isEmpty( ) ? new Event( ) : this.free.removeFirst( );
+        e.type = type;
+        e.name = null;
+        e.text = null;
+        e.attributeCount = 0;
+        e.namespaceCount = 0;
+        this.queue.add(e);
+        return e;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * A decoded event waiting in the queue. Event objects are reused once
+     * they have been pulled.
+     */
+    private static final class Event {
+
+        /**
+         * The StAX event type.
+         */
+        int type;
+
+        /**
+         * The element name.
+         */
+        QName name;
+
+        /**
+         * The character data or comment text.
+         */
+        String text;
+
+        /**
+         * The number of attributes.
+         */
+        int attributeCount;
+
+        /**
+         * The attribute names.
+         */
+        QName[] attributeNames = new QName[4];
+
+        /**
+         * The attribute values.
+         */
+        String[] attributeValues = new String[4];
+
+        /**
+         * The number of namespace declarations.
+         */
+        int namespaceCount;
+
+        /**
+         * The prefixes of the namespace declarations.
+         */
+        String[] namespacePrefixes = new String[4];
+
+        /**
+         * The URIs of the namespace declarations.
+         */
+        String[] namespaceURIs = new String[4];
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The sink which puts the decoded events into the queue.
+     */
+    private final class QueueSink extends ExiStreamingSink {
+
+        /* (non-Javadoc)
+         * @see exi.ExiStreamingSink#startDocument()
+         */
+        @Override
+        protected void startDocument( ) {
+            obtain(XMLStreamConstants.START_DOCUMENT);
+        }
+
+        /* (non-Javadoc)
+         * @see exi.ExiStreamingSink#startElement(javax.xml.namespace.QName)
+         */
+        @Override
+        protected void startElement(QName element) {
+            Event e = obtain(XMLStreamConstants.START_ELEMENT);
+            e.name = element;
+            copyNamespaces(e);
+
+            int n = getAttributeCount( );
+            if (n > e.attributeNames.length) {
+                e.attributeNames = new QName[n];
+                e.attributeValues = new String[n];
+            }
+            for (int i = 0; i < n; ++i) {
+                e.attributeNames[i] = getAttributeName(i);
+                e.attributeValues[i] = getAttributeValue(i);
+            }
+            e.attributeCount = n;
+        }
+
+        /* (non-Javadoc)
+         * @see exi.ExiStreamingSink#endElement(javax.xml.namespace.QName)
+         */
+        @Override
+        protected void endElement(QName element) {
+            Event e = obtain(XMLStreamConstants.END_ELEMENT);
+            e.name = element;
+
+            // the declarations go out of scope at the end of the element
+            int n = getNamespaceCount( );
+            if (n > e.namespacePrefixes.length) {
+                e.namespacePrefixes = new String[n];
+                e.namespaceURIs = new String[n];
+            }
+            for (int i = 0; i < n; ++i) {
+                e.namespacePrefixes[i] = getNamespacePrefix(i);
+                e.namespaceURIs[i] = getNamespaceURI(i);
+            }
+            e.namespaceCount = n;
+        }
+
+        /**
+         * Copies the innermost element's namespace declarations to an event.
+         *
+         * @param e The event.
+         */
+        private void copyNamespaces(Event e) {
+            int n = getNamespaceCount( );
+            if (n > e.namespacePrefixes.length) {
+                e.namespacePrefixes = new String[n];
+                e.namespaceURIs = new String[n];
+            }
+            for (int i = 0; i < n; ++i) {
+                e.namespacePrefixes[i] = getNamespacePrefix(i);
+                e.namespaceURIs[i] = getNamespaceURI(i);
+            }
+            e.namespaceCount = n;
+        }
+
+        /* (non-Javadoc)
+         * @see exi.ExiStreamingSink#characters(java.lang.String)
+         */
+        @Override
+        protected void characters(String data) {
+            obtain(XMLStreamConstants.CHARACTERS).text = data;
+        }
+
+        /* (non-Javadoc)
+         * @see exi.ExiStreamingSink#comment(java.lang.String)
+         */
+        @Override
+        protected void comment(String text) {
+            obtain(XMLStreamConstants.COMMENT).text = text;
+        }
+
+        /* (non-Javadoc)
+         * @see exi.ExiStreamingSink#endDocument()
+         */
+        @Override
+        protected void endDocument( ) {
+            obtain(XMLStreamConstants.END_DOCUMENT);
+        }
+    }
+}
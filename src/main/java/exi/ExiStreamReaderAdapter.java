@@ -0,0 +1,350 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi;
+
+import java.net.URI;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import exi.events.ExiAttribute;
+import exi.events.ExiCharacters;
+import exi.events.ExiComment;
+import exi.events.ExiEndDocument;
+import exi.events.ExiEndElement;
+import exi.events.ExiNamespaceDeclaration;
+import exi.events.ExiProcessingInstruction;
+import exi.events.ExiStartDocument;
+import exi.events.ExiStartElement;
+import exi.utils.ExiQNamePool;
+
+/**
+ * This class behaves as an adapter between StAX and EXI. Events are pulled
+ * from an {@link XMLStreamReader} using the cursor API and handed to an EXI
+ * encoder directly, so there is no SAX callback layer and no StAX event
+ * object in between.
+ * <p>
+ * Adjacent text events are coalesced into a single Characters (CH) event.
+ * The text is collected from the reader's character array without creating
+ * intermediate strings, and whitespace which the encoder drops according to
+ * the options' whitespace policy never becomes a string at all.
+ * </p>
+ * <p>
+ * The encoder can be driven event by event using {@link #next()}, e.g. while
+ * the reader's input is still arriving over the network, or all at once using
+ * {@link #encode()}.
+ * </p>
+ */
+public class ExiStreamReaderAdapter {
+
+    // ------------------------------------------------------------------------
+    // Static stuff
+    // ------------------------------------------------------------------------
+
+    /**
+     * The shared Start Document (SD) event.
+     */
+    private static final ExiStartDocument START_DOCUMENT = new ExiStartDocument( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The shared End Document (ED) event.
+     */
+    private static final ExiEndDocument END_DOCUMENT = new ExiEndDocument( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The shared End Element (EE) event.
+     */
+    private static final ExiEndElement END_ELEMENT = new ExiEndElement( );
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The StAX reader the events are pulled from.
+     */
+    private final XMLStreamReader reader;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The EXI encoder the events are handed to.
+     */
+    private final ExiEncoder encoder;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The pool of qualified names for elements and attributes.
+     */
+    private final ExiQNamePool names = new ExiQNamePool( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The Start Element (SE) event which is reused for all elements.
+     */
+    private final ExiStartElement startElement = new ExiStartElement( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The Attribute (AT) event which is reused for all attributes.
+     */
+    private final ExiAttribute attribute = new ExiAttribute( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The Characters (CH) event which is reused for all character data.
+     */
+    private final ExiCharacters characters = new ExiCharacters( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The buffer for coalescing adjacent text events.
+     */
+    private char[] text = new char[256];
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of characters in the text buffer.
+     */
+    private int textLength = 0;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * <code>true</code> if the Start Document (SD) event has been handled.
+     */
+    private boolean started = false;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * <code>true</code> if the End Document (ED) event has been handled.
+     */
+    private boolean finished = false;
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new StAX adapter.
+     *
+     * @param reader The StAX reader, positioned at the start of the document
+     *        or at its root element.
+     * @param encoder The EXI encoder.
+     */
+    public ExiStreamReaderAdapter(XMLStreamReader reader, ExiEncoder encoder) {
+        this.reader = reader;
+        this.encoder = encoder;
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes all remaining events of the document.
+     *
+     * @throws XMLStreamException If the reader fails.
+     * @throws ExiException If something goes wrong during encoding.
+     */
+    public void encode( ) throws XMLStreamException, ExiException {
+        while (next( )) {
+            // keep pulling
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Handles the reader's current event and advances the reader. Text is not
+     * handed to the encoder before the next non-text event.
+     *
+     * @return <code>false</code> if the end of the document has been reached,
+     *         else <code>true</code>.
+     * @throws XMLStreamException If the reader fails.
+     * @throws ExiException If something goes wrong during encoding.
+     */
+    public boolean next( ) throws XMLStreamException, ExiException {
+        if (this.finished) {
+            return false;
+        }
+        if (!this.started) {
+            this.encoder.handle(START_DOCUMENT);
+            this.started = true;
+        }
+
+        int type = this.reader.getEventType( );
+        switch (type) {
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+                appendText( );
+                break;
+
+            case XMLStreamConstants.SPACE:
+                // ignorable whitespace is dropped just like in the SAX adapter
+                break;
+
+            case XMLStreamConstants.START_ELEMENT:
+                flushText( );
+                handleStartElement( );
+                break;
+
+            case XMLStreamConstants.END_ELEMENT:
+                flushText( );
+                this.encoder.handle(END_ELEMENT);
+                break;
+
+            case XMLStreamConstants.COMMENT:
+                flushText( );
+                this.encoder.handle(new ExiComment(this.reader.getText( )));
+                break;
+
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                flushText( );
+                String data = this.reader.getPIData( );
+                this.encoder.handle(new ExiProcessingInstruction(this.reader.getPITarget( ), data == null ? "" : data));
+                break;
+
+            case XMLStreamConstants.DTD:
+                this.encoder.handleDocType( );
+                break;
+
+            case XMLStreamConstants.ENTITY_REFERENCE:
+                this.encoder.handleEntityReference( );
+                break;
+
+            case XMLStreamConstants.END_DOCUMENT:
+                flushText( );
+                this.encoder.handle(END_DOCUMENT);
+                this.finished = true;
+                return false;
+        }
+
+        if (this.reader.hasNext( )) {
+            this.reader.next( );
+        } else {
+            flushText( );
+            this.encoder.handle(END_DOCUMENT);
+            this.finished = true;
+        }
+        return !this.finished;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Handles the Start Element (SE) event at the reader's current position
+     * together with its Namespace Declaration (NS) and Attribute (AT) events.
+     *
+     * @throws ExiException If something goes wrong during encoding.
+     */
+    private void handleStartElement( ) throws ExiException {
+        XMLStreamReader r = this.reader;
+        this.startElement.setQualifiedName(generateQName(r.getNamespaceURI( ), r.getLocalName( ), r.getPrefix( )));
+        this.encoder.handle(this.startElement);
+
+        for (int i = 0; i < r.getNamespaceCount( ); ++i) {
+            String prefix = r.getNamespacePrefix(i);
+            this.encoder.handle(new ExiNamespaceDeclaration(prefix == null ? "" : prefix,
+                    URI.create(r.getNamespaceURI(i))));
+        }
+
+        for (int i = 0; i < r.getAttributeCount( ); ++i) {
+            String prefix = r.getAttributePrefix(i);
+            String namespaceURI;
+            if (prefix == null || prefix.length( ) == 0) {
+                // unprefixed attributes are in no namespace, not in the default namespace
+                namespaceURI = "";
+            } else {
+                namespaceURI = r.getAttributeNamespace(i);
+            }
+            QName qname = generateQName(namespaceURI, r.getAttributeLocalName(i), prefix);
+            this.attribute.set(qname, r.getAttributeValue(i));
+            this.encoder.handle(this.attribute);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Appends the reader's current text to the text buffer.
+     */
+    private void appendText( ) {
+        int length = this.reader.getTextLength( );
+        int required = this.textLength + length;
+        if (required > this.text.length) {
+            char[] larger = new char[Math.max(required, 2 * this.text.length)];
+            System.arraycopy(this.text, 0, larger, 0, this.textLength);
+            this.text = larger;
+        }
+        System.arraycopy(this.reader.getTextCharacters( ), this.reader.getTextStart( ),
+                this.text, this.textLength, length);
+        this.textLength = required;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Hands the coalesced text to the encoder and empties the text buffer.
+     *
+     * @throws ExiException If something goes wrong during encoding.
+     */
+    private void flushText( ) throws ExiException {
+        if (this.textLength == 0) {
+            return;
+        }
+        this.characters.setCharacters(this.text, 0, this.textLength);
+        this.textLength = 0;
+        this.encoder.handle(this.characters);
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the pooled QName for the specified parts, mapping
+     * <code>null</code> namespace URIs and prefixes to empty strings.
+     *
+     * @param namespaceURI The namespace URI or <code>null</code>.
+     * @param localPart The local part.
+     * @param prefix The prefix or <code>null</code>.
+     * @return The QName.
+     */
+    private QName generateQName(String namespaceURI, String localPart, String prefix) {
+        return this.names.get(namespaceURI == null ? "" : namespaceURI, localPart, prefix == null ? "" : prefix);
+    }
+}
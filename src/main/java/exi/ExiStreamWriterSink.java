@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Event sink which writes the decoded events to a StAX
+ * {@link XMLStreamWriter}.
+ */
+public class ExiStreamWriterSink extends ExiStreamingSink {
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The StAX writer.
+     */
+    private final XMLStreamWriter writer;
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new sink for a StAX writer.
+     *
+     * @param writer The StAX writer.
+     */
+    public ExiStreamWriterSink(XMLStreamWriter writer) {
+        this.writer = writer;
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiStreamingSink#startDocument()
+     */
+    @Override
+    protected void startDocument( ) throws ExiException {
+        try {
+            this.writer.writeStartDocument( );
+        } catch (XMLStreamException e) {
+            throw new ExiSinkException("StAX writer failed", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiStreamingSink#startElement(javax.xml.namespace.QName)
+     */
+    @Override
+    protected void startElement(QName element) throws ExiException {
+        try {
+            this.writer.writeStartElement(element.getPrefix( ), element.getLocalPart( ),
+                    element.getNamespaceURI( ));
+            for (int i = 0; i < getNamespaceCount( ); ++i) {
+                String prefix = getNamespacePrefix(i);
+                if (prefix.length( ) == 0) {
+                    this.writer.writeDefaultNamespace(getNamespaceURI(i));
+                } else {
+                    this.writer.writeNamespace(prefix, getNamespaceURI(i));
+                }
+            }
+            for (int i = 0; i < getAttributeCount( ); ++i) {
+                QName a = getAttributeName(i);
+                if (a.getNamespaceURI( ).length( ) == 0) {
+                    this.writer.writeAttribute(a.getLocalPart( ), getAttributeValue(i));
+                } else {
+                    this.writer.writeAttribute(a.getPrefix( ), a.getNamespaceURI( ),
+                            a.getLocalPart( ), getAttributeValue(i));
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new ExiSinkException("StAX writer failed", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiStreamingSink#endElement(javax.xml.namespace.QName)
+     */
+    @Override
+    protected void endElement(QName element) throws ExiException {
+        try {
+            this.writer.writeEndElement( );
+        } catch (XMLStreamException e) {
+            throw new ExiSinkException("StAX writer failed", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiStreamingSink#characters(java.lang.String)
+     */
+    @Override
+    protected void characters(String data) throws ExiException {
+        try {
+            this.writer.writeCharacters(data);
+        } catch (XMLStreamException e) {
+            throw new ExiSinkException("StAX writer failed", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiStreamingSink#comment(java.lang.String)
+     */
+    @Override
+    protected void comment(String text) throws ExiException {
+        try {
+            this.writer.writeComment(text);
+        } catch (XMLStreamException e) {
+            throw new ExiSinkException("StAX writer failed", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiStreamingSink#endDocument()
+     */
+    @Override
+    protected void endDocument( ) throws ExiException {
+        try {
+            this.writer.writeEndDocument( );
+            this.writer.flush( );
+        } catch (XMLStreamException e) {
+            throw new ExiSinkException("StAX writer failed", e);
+        }
+    }
+}
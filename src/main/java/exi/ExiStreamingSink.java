@@ -0,0 +1,481 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+import exi.events.ExiAttribute;
+import exi.events.ExiCharacters;
+import exi.events.ExiComment;
+import exi.events.ExiEndDocument;
+import exi.events.ExiEndElement;
+import exi.events.ExiNamespaceDeclaration;
+import exi.events.ExiStartDocument;
+import exi.events.ExiStartElement;
+
+/**
+ * Base class for event sinks which pass the decoded events on to a streaming
+ * XML API instead of building a tree. Only the currently open elements and
+ * their namespace declarations are kept, so the memory needed is proportional
+ * to the nesting depth of the document rather than to its size.
+ * <p>
+ * Streaming APIs expect an element's namespace declarations and attributes
+ * together with its start tag, so the Start Element (SE) event is held back
+ * until the next event which is neither a Namespace Declaration (NS) nor an
+ * Attribute (AT). At that point the prefixes are resolved: Elements and
+ * attributes whose namespace is not bound in the current scope (e.g. because
+ * prefixes are not preserved in the stream) get a declaration of their own.
+ * </p>
+ */
+public abstract class ExiStreamingSink implements ExiEventSink {
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The prefixes of all namespace declarations currently in scope.
+     */
+    private final List<String> scopePrefixes = new ArrayList<String>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The URIs of all namespace declarations currently in scope.
+     */
+    private final List<String> scopeURIs = new ArrayList<String>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The index of the first namespace declaration of every open element.
+     */
+    private int[] scopeMarks = new int[16];
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The open elements with their resolved prefixes.
+     */
+    private final Stack<QName> elements = new Stack<QName>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The element whose start tag has not been passed on yet, or
+     * <code>null</code> if there is none.
+     */
+    private QName pending = null;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The names of the pending element's attributes, or of the current
+     * element's attributes after its prefixes have been resolved.
+     */
+    private final List<QName> attributeNames = new ArrayList<QName>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The values of the pending (or current) element's attributes.
+     */
+    private final List<String> attributeValues = new ArrayList<String>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of prefixes generated so far.
+     */
+    private int generatedPrefixes = 0;
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiEventSink#handle(exi.events.ExiStartDocument)
+     */
+    public void handle(ExiStartDocument event) throws ExiException {
+        startDocument( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiEventSink#handle(exi.events.ExiStartElement)
+     */
+    public void handle(ExiStartElement event) throws ExiException {
+        flushStartTag( );
+        int depth = this.elements.size( );
+        if (depth == this.scopeMarks.length) {
+            int[] larger = new int[2 * depth];
+            System.arraycopy(this.scopeMarks, 0, larger, 0, depth);
+            this.scopeMarks = larger;
+        }
+        this.scopeMarks[depth] = this.scopePrefixes.size( );
+        this.pending = event.getQualifiedName( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiEventSink#handle(exi.events.ExiAttribute)
+     */
+    public void handle(ExiAttribute event) throws ExiException {
+        if (this.pending == null) {
+            throw new ExiSinkException("Attribute outside of a start tag: " + event.getQualifiedName( ));
+        }
+        this.attributeNames.add(event.getQualifiedName( ));
+        this.attributeValues.add(event.getValue( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiEventSink#handle(exi.events.ExiNamespaceDeclaration)
+     */
+    public void handle(ExiNamespaceDeclaration event) throws ExiException {
+        if (this.pending == null) {
+            throw new ExiSinkException("Namespace declaration outside of a start tag: "
+                    + event.getNamespacePrefix( ));
+        }
+        declare(event.getNamespacePrefix( ), event.getNamespaceURI( ).toString( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiEventSink#handle(exi.events.ExiCharacters)
+     */
+    public void handle(ExiCharacters event) throws ExiException {
+        flushStartTag( );
+        characters(event.getData( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiEventSink#handle(exi.events.ExiEndElement)
+     */
+    public void handle(ExiEndElement event) throws ExiException {
+        flushStartTag( );
+        endElement(this.elements.peek( ));
+        this.elements.pop( );
+        int mark = this.scopeMarks[this.elements.size( )];
+        for (int i = this.scopePrefixes.size( ) - 1; i >= mark; --i) {
+            this.scopePrefixes.remove(i);
+            this.scopeURIs.remove(i);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiEventSink#handle(exi.events.ExiEndDocument)
+     */
+    public void handle(ExiEndDocument event) throws ExiException {
+        flushStartTag( );
+        endDocument( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiEventSink#handle(exi.events.ExiComment)
+     */
+    public void handle(ExiComment event) throws ExiException {
+        flushStartTag( );
+        comment(event.getText( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Called at the start of the document.
+     *
+     * @throws ExiException If the event cannot be passed on.
+     */
+    protected abstract void startDocument( ) throws ExiException;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Called at the start of an element. The element's namespace declarations
+     * and attributes are available through {@link #getNamespaceCount()} and
+     * {@link #getAttributeCount()} and the accompanying methods.
+     *
+     * @param element The element's name with its resolved prefix.
+     * @throws ExiException If the event cannot be passed on.
+     */
+    protected abstract void startElement(QName element) throws ExiException;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Called at the end of an element. The element's namespace declarations
+     * are still available through {@link #getNamespaceCount()}.
+     *
+     * @param element The element's name with its resolved prefix.
+     * @throws ExiException If the event cannot be passed on.
+     */
+    protected abstract void endElement(QName element) throws ExiException;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Called for character data.
+     *
+     * @param data The character data.
+     * @throws ExiException If the event cannot be passed on.
+     */
+    protected abstract void characters(String data) throws ExiException;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Called for a comment.
+     *
+     * @param text The comment text.
+     * @throws ExiException If the event cannot be passed on.
+     */
+    protected abstract void comment(String text) throws ExiException;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Called at the end of the document.
+     *
+     * @throws ExiException If the event cannot be passed on.
+     */
+    protected abstract void endDocument( ) throws ExiException;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of namespace declarations of the innermost open
+     * element.
+     *
+     * @return The number of namespace declarations.
+     */
+    protected int getNamespaceCount( ) {
+        return this.scopePrefixes.size( ) - this.scopeMarks[this.elements.size( ) - 1];
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the prefix of a namespace declaration of the innermost open
+     * element.
+     *
+     * @param index The declaration's index.
+     * @return The prefix, which is empty for the default namespace.
+     */
+    protected String getNamespacePrefix(int index) {
+        return this.scopePrefixes.get(this.scopeMarks[this.elements.size( ) - 1] + index);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the URI of a namespace declaration of the innermost open
+     * element.
+     *
+     * @param index The declaration's index.
+     * @return The namespace URI.
+     */
+    protected String getNamespaceURI(int index) {
+        return this.scopeURIs.get(this.scopeMarks[this.elements.size( ) - 1] + index);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of attributes of the element which has just been
+     * started.
+     *
+     * @return The number of attributes.
+     */
+    protected int getAttributeCount( ) {
+        return this.attributeNames.size( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the name of an attribute of the element which has just been
+     * started.
+     *
+     * @param index The attribute's index.
+     * @return The attribute's name with its resolved prefix.
+     */
+    protected QName getAttributeName(int index) {
+        return this.attributeNames.get(index);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the value of an attribute of the element which has just been
+     * started.
+     *
+     * @param index The attribute's index.
+     * @return The attribute's value.
+     */
+    protected String getAttributeValue(int index) {
+        return this.attributeValues.get(index);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Passes the pending start tag on, if there is one.
+     *
+     * @throws ExiException If the event cannot be passed on.
+     */
+    private void flushStartTag( ) throws ExiException {
+        QName e = this.pending;
+        if (e == null) {
+            return;
+        }
+        this.pending = null;
+
+        String uri = e.getNamespaceURI( );
+        QName element = new QName(uri, e.getLocalPart( ), resolvePrefix(uri, e.getPrefix( ), true));
+        for (int i = 0; i < this.attributeNames.size( ); ++i) {
+            QName a = this.attributeNames.get(i);
+            String attUri = a.getNamespaceURI( );
+            if (attUri.length( ) > 0) {
+                this.attributeNames.set(i, new QName(attUri, a.getLocalPart( ), resolvePrefix(attUri, a.getPrefix( ), false)));
+            }
+        }
+        this.elements.push(element);
+
+        startElement(element);
+
+        this.attributeNames.clear( );
+        this.attributeValues.clear( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the prefix bound to the specified namespace URI. If there is
+     * none, then a namespace declaration is added to the pending element.
+     *
+     * @param uri The namespace URI.
+     * @param preferred The preferred prefix, may be empty.
+     * @param element <code>true</code> for element names, <code>false</code>
+     *        for attribute names which cannot use the default namespace.
+     * @return The prefix.
+     */
+    private String resolvePrefix(String uri, String preferred, boolean element) {
+        if (uri.length( ) == 0) {
+            // unqualified elements need the default namespace to be undeclared
+            if (element && lookupURI(XMLConstants.DEFAULT_NS_PREFIX).length( ) > 0) {
+                declare(XMLConstants.DEFAULT_NS_PREFIX, "");
+            }
+            return XMLConstants.DEFAULT_NS_PREFIX;
+        }
+        if (uri.equals(XMLConstants.XML_NS_URI)) {
+            return XMLConstants.XML_NS_PREFIX;
+        }
+
+        for (int i = this.scopeURIs.size( ) - 1; i >= 0; --i) {
+            String p = this.scopePrefixes.get(i);
+            if (uri.equals(this.scopeURIs.get(i)) && (element || p.length( ) > 0)
+                    && uri.equals(lookupURI(p))) {
+                return p;
+            }
+        }
+
+        // a prefix declared on the pending element is bound to another URI
+        String prefix = preferred == null ? "" : preferred;
+        if (!element && prefix.length( ) == 0 || isDeclared(prefix)) {
+            do {
+                prefix = "ns" + (++this.generatedPrefixes);
+            } while (lookupURI(prefix).length( ) > 0);
+        }
+        declare(prefix, uri);
+        return prefix;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the namespace URI bound to the specified prefix.
+     *
+     * @param prefix The prefix.
+     * @return The namespace URI or an empty string if the prefix is unbound.
+     */
+    private String lookupURI(String prefix) {
+        for (int i = this.scopePrefixes.size( ) - 1; i >= 0; --i) {
+            if (prefix.equals(this.scopePrefixes.get(i))) {
+                return this.scopeURIs.get(i);
+            }
+        }
+        return "";
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns whether the specified prefix is declared on the pending element.
+     *
+     * @param prefix The prefix.
+     * @return <code>true</code> if there is a declaration of the prefix.
+     */
+    private boolean isDeclared(String prefix) {
+        for (int i = this.scopeMarks[this.elements.size( )]; i < this.scopePrefixes.size( ); ++i) {
+            if (prefix.equals(this.scopePrefixes.get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds a namespace declaration to the pending element. A declaration of
+     * the same prefix on the pending element is replaced.
+     *
+     * @param prefix The prefix.
+     * @param uri The namespace URI.
+     */
+    private void declare(String prefix, String uri) {
+        for (int i = this.scopeMarks[this.elements.size( )]; i < this.scopePrefixes.size( ); ++i) {
+            if (prefix.equals(this.scopePrefixes.get(i))) {
+                this.scopeURIs.set(i, uri);
+                return;
+            }
+        }
+        this.scopePrefixes.add(prefix);
+        this.scopeURIs.add(uri);
+    }
+}
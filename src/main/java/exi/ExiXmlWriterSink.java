@@ -0,0 +1,453 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.xml.namespace.QName;
+
+/**
+ * Event sink which writes the decoded events as XML text to a byte stream
+ * using UTF-8. Unlike serializing a DOM tree, the document is written while
+ * it is decoded, and unlike a general purpose StAX writer no intermediate
+ * character stream or encoder is involved: Characters are escaped and encoded
+ * straight into a reusable byte buffer, with a fast path for the ASCII range.
+ * <p>
+ * Elements without content are written as empty-element tags. The output
+ * stream is flushed at the end of the document but never closed.
+ * </p>
+ */
+public class ExiXmlWriterSink extends ExiStreamingSink {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The XML declaration.
+     */
+    private static final byte[] DECLARATION = ascii("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The replacements for ASCII characters in character data, or
+     * <code>null</code> for characters which are written as they are.
+     */
+    private static final byte[][] TEXT_ESCAPES = new byte[128][];
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The replacements for ASCII characters in attribute values, or
+     * <code>null</code> for characters which are written as they are.
+     */
+    private static final byte[][] ATTRIBUTE_ESCAPES = new byte[128][];
+
+    // ------------------------------------------------------------------------
+
+    static {
+        TEXT_ESCAPES['<'] = ascii("&lt;");
+        TEXT_ESCAPES['>'] = ascii("&gt;");
+        TEXT_ESCAPES['&'] = ascii("&amp;");
+        TEXT_ESCAPES['\r'] = ascii("&#13;");
+
+        System.arraycopy(TEXT_ESCAPES, 0, ATTRIBUTE_ESCAPES, 0, 128);
+        ATTRIBUTE_ESCAPES['"'] = ascii("&quot;");
+        ATTRIBUTE_ESCAPES['\t'] = ascii("&#9;");
+        ATTRIBUTE_ESCAPES['\n'] = ascii("&#10;");
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The space needed in the buffer for writing a single character, which
+     * is the length of the longest replacement.
+     */
+    private static final int MAX_CHAR_LENGTH = 6;
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The output stream.
+     */
+    private final OutputStream os;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The buffer holding the bytes which have not been written yet.
+     */
+    private final byte[] buffer;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of bytes in the buffer.
+     */
+    private int count = 0;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Specifies whether the last start tag has not been closed yet, i.e.
+     * whether the element may still be written as an empty-element tag.
+     */
+    private boolean startTagOpen = false;
+
+    // ------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new sink for the specified output stream with a buffer size
+     * of 8 KiB.
+     *
+     * @param os The output stream.
+     */
+    public ExiXmlWriterSink(OutputStream os) {
+        this(os, 8192);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new sink for the specified output stream.
+     *
+     * @param os The output stream.
+     * @param bufferSize The size of the buffer in bytes.
+     */
+    public ExiXmlWriterSink(OutputStream os, int bufferSize) {
+        if (bufferSize < MAX_CHAR_LENGTH) {
+            throw new IllegalArgumentException("Buffer size too small: " + bufferSize);
+        }
+        this.os = os;
+        this.buffer = new byte[bufferSize];
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiStreamingSink#startDocument()
+     */
+    @Override
+    protected void startDocument( ) throws ExiException {
+        try {
+            write(DECLARATION);
+        } catch (IOException e) {
+            throw new ExiSinkException("XML writer failed", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiStreamingSink#startElement(javax.xml.namespace.QName)
+     */
+    @Override
+    protected void startElement(QName element) throws ExiException {
+        try {
+            closeStartTag( );
+            write('<');
+            writeName(element);
+            for (int i = 0; i < getNamespaceCount( ); ++i) {
+                String prefix = getNamespacePrefix(i);
+                if (prefix.length( ) == 0) {
+                    writeAscii(" xmlns");
+                } else {
+                    writeAscii(" xmlns:");
+                    writeEscaped(prefix, TEXT_ESCAPES);
+                }
+                writeAscii("=\"");
+                writeEscaped(getNamespaceURI(i), ATTRIBUTE_ESCAPES);
+                write('"');
+            }
+            for (int i = 0; i < getAttributeCount( ); ++i) {
+                write(' ');
+                writeName(getAttributeName(i));
+                writeAscii("=\"");
+                writeEscaped(getAttributeValue(i), ATTRIBUTE_ESCAPES);
+                write('"');
+            }
+            this.startTagOpen = true;
+        } catch (IOException e) {
+            throw new ExiSinkException("XML writer failed", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiStreamingSink#endElement(javax.xml.namespace.QName)
+     */
+    @Override
+    protected void endElement(QName element) throws ExiException {
+        try {
+            if (this.startTagOpen) {
+                this.startTagOpen = false;
+                write('/');
+                write('>');
+            } else {
+                write('<');
+                write('/');
+                writeName(element);
+                write('>');
+            }
+        } catch (IOException e) {
+            throw new ExiSinkException("XML writer failed", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiStreamingSink#characters(java.lang.String)
+     */
+    @Override
+    protected void characters(String data) throws ExiException {
+        try {
+            closeStartTag( );
+            writeEscaped(data, TEXT_ESCAPES);
+        } catch (IOException e) {
+            throw new ExiSinkException("XML writer failed", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiStreamingSink#comment(java.lang.String)
+     */
+    @Override
+    protected void comment(String text) throws ExiException {
+        try {
+            closeStartTag( );
+            writeAscii("<!--");
+            writeEscaped(text, null);
+            writeAscii("-->");
+        } catch (IOException e) {
+            throw new ExiSinkException("XML writer failed", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.ExiStreamingSink#endDocument()
+     */
+    @Override
+    protected void endDocument( ) throws ExiException {
+        try {
+            flushBuffer( );
+            this.os.flush( );
+        } catch (IOException e) {
+            throw new ExiSinkException("XML writer failed", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes the buffered output to the output stream and flushes it, e.g.
+     * after each element of a fragment stream, which has no end before the
+     * stream is closed.
+     *
+     * @throws ExiException If writing to the stream fails.
+     * @see ExiFragmentReader
+     */
+    public void flush( ) throws ExiException {
+        try {
+            flushBuffer( );
+            this.os.flush( );
+        } catch (IOException e) {
+            throw new ExiSinkException("XML writer failed", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Closes the last start tag if it is still open.
+     *
+     * @throws IOException If writing to the stream fails.
+     */
+    private void closeStartTag( ) throws IOException {
+        if (this.startTagOpen) {
+            this.startTagOpen = false;
+            write('>');
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes a qualified name including its prefix, if there is one.
+     *
+     * @param name The qualified name.
+     * @throws IOException If writing to the stream fails.
+     */
+    private void writeName(QName name) throws IOException {
+        String prefix = name.getPrefix( );
+        if (prefix.length( ) > 0) {
+            writeEscaped(prefix, null);
+            write(':');
+        }
+        writeEscaped(name.getLocalPart( ), null);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes the specified string using UTF-8 and replacing ASCII characters
+     * as specified by the escape table.
+     *
+     * @param s The string.
+     * @param escapes The escape table or <code>null</code> if no characters
+     *        are to be replaced.
+     * @throws IOException If writing to the stream fails.
+     */
+    private void writeEscaped(String s, byte[][] escapes) throws IOException {
+        byte[] b = this.buffer;
+        int n = this.count;
+        int length = s.length( );
+        for (int i = 0; i < length; ++i) {
+            if (n + MAX_CHAR_LENGTH > b.length) {
+                this.count = n;
+                flushBuffer( );
+                n = 0;
+            }
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                byte[] escape = escapes == null ? null : escapes[c];
+                if (escape == null) {
+                    b[n++] = (byte)c;
+                } else {
+                    System.arraycopy(escape, 0, b, n, escape.length);
+                    n += escape.length;
+                }
+            } else if (c < 0x800) {
+                b[n++] = (byte)(0xc0 | (c >> 6));
+                b[n++] = (byte)(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                b[n++] = (byte)(0xf0 | (cp >> 18));
+                b[n++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+                b[n++] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+                b[n++] = (byte)(0x80 | (cp & 0x3f));
+            } else {
+                if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                    // unpaired surrogates cannot be encoded
+                    c = '\uFFFD';
+                }
+                b[n++] = (byte)(0xe0 | (c >> 12));
+                b[n++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                b[n++] = (byte)(0x80 | (c & 0x3f));
+            }
+        }
+        this.count = n;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes the specified ASCII string without escaping.
+     *
+     * @param s The ASCII string.
+     * @throws IOException If writing to the stream fails.
+     */
+    private void writeAscii(String s) throws IOException {
+        writeEscaped(s, null);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes a single ASCII character.
+     *
+     * @param c The character.
+     * @throws IOException If writing to the stream fails.
+     */
+    private void write(char c) throws IOException {
+        if (this.count == this.buffer.length) {
+            flushBuffer( );
+        }
+        this.buffer[this.count++] = (byte)c;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes the specified bytes.
+     *
+     * @param bytes The bytes.
+     * @throws IOException If writing to the stream fails.
+     */
+    private void write(byte[] bytes) throws IOException {
+        if (this.count + bytes.length > this.buffer.length) {
+            flushBuffer( );
+            if (bytes.length > this.buffer.length) {
+                this.os.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, this.buffer, this.count, bytes.length);
+        this.count += bytes.length;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes the buffered bytes to the output stream.
+     *
+     * @throws IOException If writing to the stream fails.
+     */
+    private void flushBuffer( ) throws IOException {
+        if (this.count > 0) {
+            this.os.write(this.buffer, 0, this.count);
+            this.count = 0;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the bytes of the specified ASCII string.
+     *
+     * @param s The ASCII string.
+     * @return The bytes.
+     */
+    private static byte[] ascii(String s) {
+        byte[] b = new byte[s.length( )];
+        for (int i = 0; i < b.length; ++i) {
+            b[i] = (byte)s.charAt(i);
+        }
+        return b;
+    }
+}
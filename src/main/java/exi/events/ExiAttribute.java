@@ -39,19 +39,31 @@ public class ExiAttribute extends ExiEvent {
     /**
      * The attribute's qualified name.
      */
-    private final QName qname;
+    private QName qname;
 
     // ------------------------------------------------------------------------
 
     /**
      * The attribute's value.
      */
-    private final String value;
+    private String value;
 
     // ------------------------------------------------------------------------
     // Constructors
     // ------------------------------------------------------------------------
 
+    /**
+     * Creates a new EXI Attribute (AT) event without name and value. This is
+     * meant for event handlers which reuse a single instance for all
+     * attributes, so name and value have to be set before the event is
+     * handled.
+     */
+    public ExiAttribute( ) {
+        super( );
+    }
+
+    // ------------------------------------------------------------------------
+
     /**
      * Creates a new EXI Attribute (AT) event.
      *
@@ -104,6 +116,20 @@ public class ExiAttribute extends ExiEvent {
 
     // --------------------------------------------------------------------
 
+    /**
+     * Sets the attribute's qualified name and value. This allows an event
+     * handler to reuse a single instance for all Attribute (AT) events.
+     *
+     * @param qname The attribute's qualified name.
+     * @param value The attribute's value.
+     */
+    public void set(QName qname, String value) {
+        this.qname = qname;
+        this.value = value;
+    }
+
+    // --------------------------------------------------------------------
+
     /*
      * (non-Javadoc)
      *
@@ -116,6 +142,18 @@ public class ExiAttribute extends ExiEvent {
 
     // --------------------------------------------------------------------
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see exi.events.ExiEvent#getEventName()
+     */
+    @Override
+    public String getEventName( ) {
+        return this.qname.getLocalPart( );
+    }
+
+    // --------------------------------------------------------------------
+
     /*
      * (non-Javadoc)
      *
@@ -123,10 +161,10 @@ public class ExiAttribute extends ExiEvent {
      */
     @Override
     public String getEventTypeString( ) {
-        return String.format(String.format(
+        return String.format(
                 "%s(%s)",
                 getEventType( ).code( ),
                 this.qname.getLocalPart( )
-        ));
+        );
     }
 }
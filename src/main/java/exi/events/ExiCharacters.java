@@ -39,21 +39,54 @@ public class ExiCharacters extends ExiEvent {
     // ------------------------------------------------------------------------
 
     /**
-     * The actual character data.
+     * The actual character data or <code>null</code> if it has not been
+     * created from the character slice yet.
      */
-    private final String data;
+    private String data;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The array holding the character data or <code>null</code> if the data
+     * has been set as a string.
+     */
+    private char[] ch;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The start of the character data in the array.
+     */
+    private int start;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of characters.
+     */
+    private int length;
 
     // --------------------------------------------------------------------
     // Constructors
     // ------------------------------------------------------------------------
 
+    /**
+     * Creates a new EXI characters (CH) event without any data. The data has
+     * to be set before the event is handled.
+     */
+    public ExiCharacters( ) {
+        setData("");
+    }
+
+    // --------------------------------------------------------------------
+
     /**
      * Creates a new EXI characters (CH) event.
      *
      * @param data The character data.
      */
     public ExiCharacters(String data) {
-        this.data = data;
+        setData(data);
     }
 
     // --------------------------------------------------------------------
@@ -65,7 +98,7 @@ public class ExiCharacters extends ExiEvent {
      *        created from.
      */
     public ExiCharacters(Characters chars) {
-        this.data = chars.getData( );
+        setData(chars.getData( ));
     }
 
     // --------------------------------------------------------------------
@@ -73,16 +106,82 @@ public class ExiCharacters extends ExiEvent {
     // --------------------------------------------------------------------
 
     /**
-     * Returns this character event's actual data.
+     * Sets this character event's data.
+     *
+     * @param data The character data.
+     */
+    public void setData(String data) {
+        this.data = data;
+        this.ch = null;
+        this.start = 0;
+        this.length = data.length( );
+    }
+
+    // --------------------------------------------------------------------
+
+    /**
+     * Sets this character event's data as a slice of a character array. The
+     * array is not copied, so it must not be changed as long as the event is
+     * in use.
+     *
+     * @param ch The character array.
+     * @param start The start of the character data in the array.
+     * @param length The number of characters.
+     */
+    public void setCharacters(char[] ch, int start, int length) {
+        this.data = null;
+        this.ch = ch;
+        this.start = start;
+        this.length = length;
+    }
+
+    // --------------------------------------------------------------------
+
+    /**
+     * Returns this character event's actual data. If the data has been set
+     * as a character slice, then the string is created on the first call.
      *
      * @return This character event's actual data.
      */
     public String getData( ) {
+        if (this.data == null) {
+            this.data = new String(this.ch, this.start, this.length);
+        }
         return this.data;
     }
 
     // --------------------------------------------------------------------
 
+    /**
+     * Returns the number of characters in this event.
+     *
+     * @return The number of characters.
+     */
+    public int getLength( ) {
+        return this.length;
+    }
+
+    // --------------------------------------------------------------------
+
+    /**
+     * Returns the character at the specified position of this event's data
+     * without creating a string.
+     *
+     * @param index The position, starting at 0.
+     * @return The character.
+     */
+    public char charAt(int index) {
+        if (index < 0 || index >= this.length) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        if (this.ch != null) {
+            return this.ch[this.start + index];
+        }
+        return this.data.charAt(index);
+    }
+
+    // --------------------------------------------------------------------
+
     /* (non-Javadoc)
      * @see exi.events.ExiEvent#getEventType()
      */
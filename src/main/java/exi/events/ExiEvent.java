@@ -60,6 +60,20 @@ public abstract class ExiEvent {
 
     // ------------------------------------------------------------------------
 
+    /**
+     * Returns the name this event is matched against in grammar rules such as
+     * <code>SE(note)</code>, i.e. the local name for Start Element (SE) and
+     * Attribute (AT) events. Unlike {@link #getEventTypeString()} this does
+     * not create a new string.
+     *
+     * @return The event's name or <code>null</code> if the event has none.
+     */
+    public String getEventName( ) {
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
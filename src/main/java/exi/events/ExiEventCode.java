@@ -154,6 +154,20 @@ public class ExiEventCode {
         this.parts[2] = p3;
     }
 
+    // ------------------------------------------------------------------------
+
+    /**
+     * <p>
+     * Creates a copy of the specified EXI event code.
+     * </p>
+     *
+     * @param code The event code to copy.
+     */
+    public ExiEventCode(ExiEventCode code) {
+        this.length = code.length;
+        System.arraycopy(code.parts, 0, this.parts, 0, this.parts.length);
+    }
+
     // ------------------------------------------------------------------------
     // Setters and getters
     // ------------------------------------------------------------------------
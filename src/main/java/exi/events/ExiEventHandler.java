@@ -35,7 +35,13 @@ import exi.grammar.ExiBuiltInGrammarFactory;
 import exi.grammar.ExiExtensibleGrammar;
 import exi.grammar.ExiGrammar;
 import exi.grammar.ExiGrammarFactory;
+import exi.grammar.ExiGrammarRegistry;
 import exi.grammar.ExiGrammarRule;
+import exi.grammar.ExiProfile;
+import exi.grammar.ExiSchemaGrammarFactory;
+import exi.metrics.ExiMetrics;
+import exi.metrics.ExiMetricsRecorder;
+import exi.metrics.ExiMetrics.Partition;
 import exi.utils.ExiStringTable;
 
 /**
@@ -52,7 +58,7 @@ public abstract class ExiEventHandler {
     /**
      * The EXI logger user for logging stuff.
      */
-    private static Logger log = ExiLogger.getLogger(ExiEventHandler.class);
+    private static final Logger log = ExiLogger.getLogger(ExiEventHandler.class);
 
     // ------------------------------------------------------------------------
     // Member variables
@@ -65,6 +71,13 @@ public abstract class ExiEventHandler {
 
     // ------------------------------------------------------------------------
 
+    /**
+     * The schema ID the grammar factory has been created for.
+     */
+    private String schemaId;
+
+    // ------------------------------------------------------------------------
+
     /**
      * The EXI grammar stack. Grammars remain on the stack until their
      * execution has terminated.
@@ -90,7 +103,15 @@ public abstract class ExiEventHandler {
     /**
      * The EXI options used for handling events.
      */
-    private final ExiOptions options;
+    private ExiOptions options;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The recorder counting events, string table lookups and grammar
+     * extensions or <code>null</code> if nothing is counted.
+     */
+    private ExiMetricsRecorder recorder;
 
     // ------------------------------------------------------------------------
     // Constructor
@@ -106,8 +127,8 @@ public abstract class ExiEventHandler {
     protected ExiEventHandler(ExiOptions options) throws ExiException {
         super( );
         this.options = options;
-        // at least for now...
-        setFactory(new ExiBuiltInGrammarFactory(getOptions( )));
+        setFactory(createFactory(options));
+        getFactory( ).initializeStringTable(getStringTable( ));
         pushDocumentGrammar( );
     }
 
@@ -159,6 +180,18 @@ public abstract class ExiEventHandler {
 
     // ------------------------------------------------------------------------
 
+    /**
+     * Returns the recorder counting events, string table lookups and grammar
+     * extensions.
+     *
+     * @return The recorder or <code>null</code> if nothing is counted.
+     */
+    protected ExiMetricsRecorder getRecorder( ) {
+        return this.recorder;
+    }
+
+    // ------------------------------------------------------------------------
+
     /**
      * Returns the stack of QNames.
      *
@@ -184,24 +217,156 @@ public abstract class ExiEventHandler {
      */
     protected void extendGrammar(ExiGrammar g, ExiGrammarRule rule, ExiEvent e)
             throws ExiException {
-                ((ExiExtensibleGrammar)g).extend(rule.getRightHandSide( ), e.getEventTypeString( ));
-                log.debug(String.format(
-                        "Grammar group %s extended by a leading %s:\n%s",
-                        g.getActiveGroup( ).getName( ),
-                        e.getEventTypeString( ),
-                        g.toString( )
-                ));
+                ((ExiExtensibleGrammar)g).extend(rule.getRightHandSide( ), e);
+                if (this.recorder != null) {
+                    this.recorder.grammarExtended( );
+                }
+                if (ExiLogger.TRACE) {
+                    log.debug(String.format(
+                            "Grammar group %s extended by a leading %s:\n%s",
+                            g.getActiveGroup( ).getName( ),
+                            e.getEventTypeString( ),
+                            g.toString( )
+                    ));
+                }
+            }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Sets up counting according to the metrics of the current options. The
+     * recorder is kept as long as the metrics stay the same, and it is handed
+     * to the string table so that value lookups are counted wherever the
+     * values are resolved.
+     *
+     * @param encoding <code>true</code> if this handler encodes documents,
+     *        <code>false</code> if it decodes them.
+     */
+    protected void initializeMetrics(boolean encoding) {
+        ExiMetrics metrics = getOptions( ).getMetrics( );
+        if (metrics == null) {
+            this.recorder = null;
+        } else if (this.recorder == null || this.recorder.getMetrics( ) != metrics) {
+            this.recorder = new ExiMetricsRecorder(metrics, encoding);
+        }
+        getStringTable( ).setRecorder(this.recorder);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Counts an event if metrics are enabled.
+     *
+     * @param type The event type.
+     */
+    protected void recordEvent(ExiEventType type) {
+        if (this.recorder != null) {
+            this.recorder.event(type);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Counts a string table hit or miss if metrics are enabled.
+     *
+     * @param partition The string table partition.
+     * @param hit <code>true</code> for a hit, <code>false</code> for a miss.
+     */
+    protected void recordLookup(Partition partition, boolean hit) {
+        if (this.recorder != null) {
+            if (hit) {
+                this.recorder.hit(partition);
+            } else {
+                this.recorder.miss(partition);
             }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Resets this handler to the state of a newly created one so that it can
+     * be used for another document. The grammar factory is reset rather than
+     * recreated unless the schema ID has changed, and the string table is
+     * cleared.
+     *
+     * @param options The EXI options to use from now on.
+     * @throws ExiException If something goes wrong during grammar
+     *         initialization.
+     */
+    protected void reset(ExiOptions options) throws ExiException {
+        this.options = options;
+        String id = options.getSchemaId( );
+        if (id == null ? this.schemaId == null : id.equals(this.schemaId)) {
+            getFactory( ).reset(options);
+        } else {
+            setFactory(createFactory(options));
+        }
+        getGrammarStack( ).clear( );
+        getStringTable( ).clear( );
+        getFactory( ).initializeStringTable(getStringTable( ));
+        getQNameStack( ).clear( );
+        pushDocumentGrammar( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Prepares this handler for the next message of a session. Unlike
+     * {@link #reset(ExiOptions)} this keeps the string table and the
+     * grammars with the productions they have learned, so the options must
+     * be the same as for the previous message.
+     *
+     * @param options The EXI options to use from now on.
+     * @throws ExiException If something goes wrong during grammar
+     *         initialization.
+     */
+    protected void resume(ExiOptions options) throws ExiException {
+        this.options = options;
+        getGrammarStack( ).clear( );
+        getQNameStack( ).clear( );
+        pushDocumentGrammar( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates the grammar factory for the specified options: a factory for
+     * built-in grammars primed by a profile if the schema ID selects one, a
+     * factory for schema-informed grammars if another schema ID is set, else
+     * one for plain built-in grammars.
+     *
+     * @param options The EXI options.
+     * @return The new grammar factory.
+     * @throws ExiException If the schema cannot be located or compiled.
+     */
+    private ExiGrammarFactory createFactory(ExiOptions options) throws ExiException {
+        this.schemaId = options.getSchemaId( );
+        if (this.schemaId == null || this.schemaId.length( ) == 0) {
+            return new ExiBuiltInGrammarFactory(options);
+        }
+        if (this.schemaId.startsWith(ExiProfile.SCHEMA_ID_PREFIX)) {
+            String profileId = this.schemaId.substring(ExiProfile.SCHEMA_ID_PREFIX.length( ));
+            return new ExiBuiltInGrammarFactory(options, ExiGrammarRegistry.getProfile(profileId));
+        }
+        return new ExiSchemaGrammarFactory(ExiGrammarRegistry.getSchema(this.schemaId), options);
+    }
 
     // ------------------------------------------------------------------------
 
     /**
-     * Pushes the document grammar on the grammar stack.
+     * Pushes the top-level grammar on the grammar stack: the fragment grammar
+     * if the options use fragments, else the document grammar.
      *
      * @throws ExiException If something goes wrong during grammar creation.
      */
     protected void pushDocumentGrammar( ) throws ExiException {
-        getGrammarStack( ).push(getFactory( ).createDocumentGrammar( ));
+        if (this.options.useFragments( )) {
+            getGrammarStack( ).push(getFactory( ).createFragmentGrammar( ));
+        } else {
+            getGrammarStack( ).push(getFactory( ).createDocumentGrammar( ));
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -211,14 +376,18 @@ public abstract class ExiEventHandler {
      * by the specified QName.
      *
      * @param qname The element's qualified name.
+     * @param rule The rule which matched the element's Start Element (SE)
+     *        event.
      * @throws ExiException If something goes wrong during grammar creation.
      */
-    protected void pushElementGrammar(QName qname) throws ExiException {
-        getGrammarStack( ).push(getFactory( ).createElementGrammar(qname));
-        log.debug(String.format(
-                "Element grammar for \"%s\" pushed on the rule stack.",
-                qname.getLocalPart( )
-        ));
+    protected void pushElementGrammar(QName qname, ExiGrammarRule rule) throws ExiException {
+        getGrammarStack( ).push(getFactory( ).createElementGrammar(qname, rule));
+        if (ExiLogger.TRACE) {
+            log.debug(String.format(
+                    "Element grammar for \"%s\" pushed on the rule stack.",
+                    qname.getLocalPart( )
+            ));
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -228,7 +397,9 @@ public abstract class ExiEventHandler {
      */
     protected void popGrammar( ) {
         getGrammarStack( ).pop( );
-        log.debug("Current rule popped from the rule stack.");
+        if (ExiLogger.TRACE) {
+            log.debug("Current rule popped from the rule stack.");
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -96,6 +96,20 @@ public class ExiNamespaceDeclaration extends ExiAttribute {
 
     // ------------------------------------------------------------------------
 
+    /**
+     * Returns <code>null</code> since Namespace Declaration (NS) events are
+     * matched by their type only, unlike the attributes they are derived
+     * from.
+     *
+     * @see exi.events.ExiAttribute#getEventName()
+     */
+    @Override
+    public String getEventName( ) {
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+
     /* (non-Javadoc)
      * @see exi.events.ExiAttribute#getEventTypeString()
      */
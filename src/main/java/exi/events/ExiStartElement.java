@@ -42,12 +42,23 @@ public class ExiStartElement extends ExiEvent {
     /**
      * The element's qualified name.
      */
-    private final QName qname;
+    private QName qname;
 
     // ------------------------------------------------------------------------
     // Constructors
     // ------------------------------------------------------------------------
 
+    /**
+     * Creates a new EXI Start Element (SE) event without a name. This is
+     * meant for event handlers which reuse a single instance for all
+     * elements, so the name has to be set before the event is handled.
+     */
+    public ExiStartElement( ) {
+        super( );
+    }
+
+    // ------------------------------------------------------------------------
+
     /**
      * Creates a new EXI Start Element (SE) event.
      *
@@ -86,6 +97,18 @@ public class ExiStartElement extends ExiEvent {
 
     // --------------------------------------------------------------------
 
+    /**
+     * Sets the element's qualified name. This allows an event handler to
+     * reuse a single instance for all Start Element (SE) events.
+     *
+     * @param qname The element's qualified name.
+     */
+    public void setQualifiedName(QName qname) {
+        this.qname = qname;
+    }
+
+    // --------------------------------------------------------------------
+
     /*
      * (non-Javadoc)
      *
@@ -98,6 +121,18 @@ public class ExiStartElement extends ExiEvent {
 
     // --------------------------------------------------------------------
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see exi.events.ExiEvent#getEventName()
+     */
+    @Override
+    public String getEventName( ) {
+        return this.qname.getLocalPart( );
+    }
+
+    // --------------------------------------------------------------------
+
     /*
      * (non-Javadoc)
      *
@@ -105,10 +140,10 @@ public class ExiStartElement extends ExiEvent {
      */
     @Override
     public String getEventTypeString( ) {
-        return String.format(String.format(
+        return String.format(
                 "%s(%s)",
                 getEventType( ).code( ),
                 this.qname.getLocalPart( )
-        ));
+        );
     }
 }
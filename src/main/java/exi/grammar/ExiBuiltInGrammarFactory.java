@@ -23,7 +23,10 @@
 package exi.grammar;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.xml.namespace.QName;
 
@@ -33,12 +36,24 @@ import exi.ExiException;
 import exi.ExiLogger;
 import exi.ExiOptions;
 import exi.ExiOptions.FidelityOption;
+import exi.events.ExiEventCode;
 import exi.events.ExiEventCodeGenerator;
+import exi.utils.ExiStringTable;
 
 /**
  * <p>
  * Factory for built-in EXI grammars.
  * </p>
+ * <p>
+ * The productions of built-in element grammars only depend on the fidelity
+ * options, so all element grammars share one immutable skeleton per set of
+ * fidelity options, across all factories. Each element grammar only keeps
+ * the productions it learns while a document is processed.
+ * </p>
+ * <p>
+ * With an {@link ExiProfile} the string table is pre-populated and the
+ * element grammars of the profile's elements start with its productions.
+ * </p>
  *
  * @author Marco Wegner
  */
@@ -51,7 +66,30 @@ public class ExiBuiltInGrammarFactory implements ExiGrammarFactory {
     /**
      * The EXI logger user for logging stuff.
      */
-    private static Logger log = ExiLogger.getLogger(ExiBuiltInGrammarFactory.class);
+    private static final Logger log = ExiLogger.getLogger(ExiBuiltInGrammarFactory.class);
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The shared element grammar skeletons mapped to the fidelity options
+     * they have been built for.
+     */
+    private static final ConcurrentMap<Integer, ExiElementGrammar> skeletons =
+        new ConcurrentHashMap<Integer, ExiElementGrammar>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The name of the start tag group of element grammars.
+     */
+    private static final String START_TAG = "StartTag";
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The name of the content group of element grammars.
+     */
+    private static final String CONTENT = "Element";
 
     // ------------------------------------------------------------------------
     // Member variables
@@ -59,16 +97,40 @@ public class ExiBuiltInGrammarFactory implements ExiGrammarFactory {
 
     /**
      * A store for keeping already generated grammars so that they can be
-     * reused.
+     * reused. Grammars are kept per namespace URI and local name, as the
+     * prefix of an element does not matter.
      */
-    private Map<String, ExiGrammar> store = new HashMap<String, ExiGrammar>( );
+    private final Map<QName, ExiGrammar> store = new HashMap<QName, ExiGrammar>( );
 
     // ------------------------------------------------------------------------
 
     /**
      * The EXI options.
      */
-    private final ExiOptions options;
+    private ExiOptions options;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The shared skeleton for the current options or <code>null</code> if it
+     * has not been looked up yet.
+     */
+    private ExiElementGrammar skeleton = null;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The profile or <code>null</code>.
+     */
+    private final ExiProfile profile;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The profile's shared element grammars for the current options or
+     * <code>null</code> if they have not been looked up yet.
+     */
+    private Map<QName, ExiElementGrammar> templates = null;
 
     // ------------------------------------------------------------------------
     // Methods
@@ -80,7 +142,21 @@ public class ExiBuiltInGrammarFactory implements ExiGrammarFactory {
      * @param options The EXI options used for grammar creation.
      */
     public ExiBuiltInGrammarFactory(ExiOptions options) {
+        this(options, null);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new factory for creating EXI built-in grammars primed by the
+     * specified profile.
+     *
+     * @param options The EXI options used for grammar creation.
+     * @param profile The profile or <code>null</code>.
+     */
+    public ExiBuiltInGrammarFactory(ExiOptions options, ExiProfile profile) {
         this.options = options;
+        this.profile = profile;
     }
 
     // ------------------------------------------------------------------------
@@ -167,6 +243,27 @@ public class ExiBuiltInGrammarFactory implements ExiGrammarFactory {
 
     // ------------------------------------------------------------------------
 
+    /* (non-Javadoc)
+     * @see exi.grammar.ExiGrammarFactory#reset(exi.ExiOptions)
+     */
+    public void reset(ExiOptions options) {
+        this.options = options;
+        this.skeleton = null;
+        this.templates = null;
+        this.store.clear( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.grammar.ExiGrammarFactory#createElementGrammar(javax.xml.namespace.QName, exi.grammar.ExiGrammarRule)
+     */
+    public ExiGrammar createElementGrammar(QName qname, ExiGrammarRule rule) throws ExiException {
+        return createElementGrammar(qname);
+    }
+
+    // ------------------------------------------------------------------------
+
     /**
      * <p>
      * Creates an EXI Built-in Element Grammar.
@@ -177,62 +274,163 @@ public class ExiBuiltInGrammarFactory implements ExiGrammarFactory {
      * {@link <a href="http://www.w3.org/TR/exi/#builtinElemGrammars">Section 9.4.3</a>}
      * of the EXI documentation.
      * </p>
+     *
+     * @param qname The element's QName.
+     * @return The EXI Element Grammar.
+     * @throws ExiException If something goes wrong during grammar manipulation.
      */
     public ExiGrammar createElementGrammar(QName qname) throws ExiException {
 
-        String key = generateMapKey(qname);
-        ExiGrammar eg;
-
-        String qns = qname.toString( );
-        if (this.store.containsKey(key)) {
-            eg = this.store.get(key);
-            log.debug(String.format(
-                    "Element grammar for %s retrieved from the store.", qns));
-        } else {
-            eg = buildElementGrammar(qname);
-            this.store.put(key, eg);
+        ExiGrammar eg = this.store.get(qname);
+        if (eg == null) {
+            eg = new ExiElementGrammar(getTemplate(qname));
+            this.store.put(qname, eg);
+            if (ExiLogger.TRACE) {
+                log.debug(String.format(
+                        "Element grammar for %s added to the store.", qname));
+            }
+        } else if (ExiLogger.TRACE) {
             log.debug(String.format(
-                    "Element grammar for %s added to the store.", qns));
+                    "Element grammar for %s retrieved from the store.", qname));
         }
 
-        eg.setInitialGroup("StartTag" + capitalize(qname.getLocalPart( )));
+        eg.setInitialGroup(START_TAG);
         return eg;
     }
 
     // ------------------------------------------------------------------------
 
+    /**
+     * Adds the profile's strings. Without a profile this does nothing since
+     * built-in grammars know no strings in advance.
+     *
+     * @see exi.grammar.ExiGrammarFactory#initializeStringTable(exi.utils.ExiStringTable)
+     */
+    public void initializeStringTable(ExiStringTable table) {
+        if (this.profile != null) {
+            this.profile.initializeStringTable(table);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the shared grammar which the element grammar for the specified
+     * element is based on: the profile's grammar for the element if there is
+     * one, else the skeleton.
+     *
+     * @param qname The element's QName.
+     * @return The shared grammar.
+     * @throws ExiException If something goes wrong during grammar creation.
+     */
+    private ExiElementGrammar getTemplate(QName qname) throws ExiException {
+        if (this.profile != null) {
+            if (this.templates == null) {
+                int fidelity = getFidelity(this.options);
+                this.templates = this.profile.getTemplates(fidelity);
+                if (this.templates == null) {
+                    this.templates = this.profile.putTemplates(fidelity, buildTemplates( ));
+                }
+            }
+            ExiElementGrammar eg = this.templates.get(qname);
+            if (eg != null) {
+                return eg;
+            }
+        }
+        return getSkeleton( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Builds the element grammars of the profile's elements for the current
+     * options. They start with the profile's productions, most frequent
+     * first.
+     *
+     * @return The element grammars mapped to the elements' QNames.
+     * @throws ExiException If something goes wrong during grammar creation.
+     */
+    private Map<QName, ExiElementGrammar> buildTemplates( ) throws ExiException {
+        Map<QName, ExiElementGrammar> result = new HashMap<QName, ExiElementGrammar>( );
+        for (Map.Entry<QName, List<ExiProfile.Production>> e : this.profile.getProductions( ).entrySet( )) {
+            ExiElementGrammar eg = buildSkeleton(this.options);
+            for (ExiProfile.Production p : e.getValue( )) {
+                eg.setInitialGroup(p.startTag ? START_TAG : CONTENT);
+                ExiEventCode code = new ExiEventCode(0);
+                if (p.qname == null) {
+                    eg.prepend(new ExiGrammarRule("CH", CONTENT, code));
+                } else if (p.attribute) {
+                    eg.prepend(new ExiSchemaRule("AT(" + p.qname.getLocalPart( ) + ")", START_TAG,
+                            code, p.qname, null));
+                } else {
+                    eg.prepend(new ExiSchemaRule("SE(" + p.qname.getLocalPart( ) + ")", CONTENT,
+                            code, p.qname, null));
+                }
+            }
+            result.put(e.getKey( ), eg);
+        }
+        return result;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the shared element grammar skeleton for the current options and
+     * builds it first if no factory has done so yet.
+     *
+     * @return The skeleton.
+     * @throws ExiException If something goes wrong during event code
+     *         generation.
+     */
+    private ExiElementGrammar getSkeleton( ) throws ExiException {
+        if (this.skeleton == null) {
+            Integer key = getFidelity(this.options);
+            this.skeleton = skeletons.get(key);
+            if (this.skeleton == null) {
+                ExiElementGrammar eg = buildSkeleton(this.options);
+                this.skeleton = skeletons.putIfAbsent(key, eg);
+                if (this.skeleton == null) {
+                    this.skeleton = eg;
+                }
+            }
+        }
+        return this.skeleton;
+    }
+
+    // ------------------------------------------------------------------------
+
     /**
      * <p>
-     * Builds a new built-in element grammar.
+     * Builds a new built-in element grammar which is shared by all elements.
      * </p>
      *
-     * @param qname The element's QName.
+     * @param options The EXI options.
      * @return The newly generated element grammar.
      * @throws ExiException If something goes wrong during event code
      *         generation.
      */
-    private ExiGrammar buildElementGrammar(QName qname) throws ExiException {
+    private static ExiElementGrammar buildSkeleton(ExiOptions options) throws ExiException {
 
-        ExiGrammar eg = new ExiElementGrammar( );
+        ExiElementGrammar eg = new ExiElementGrammar( );
         ExiEventCodeGenerator g = new ExiEventCodeGenerator( );
 
-        String start = "StartTag" + capitalize(qname.getLocalPart( ));
-        String content = "Element" + capitalize(qname.getLocalPart( ));
+        String start = START_TAG;
+        String content = CONTENT;
 
         eg.append(start, "", "EE", g.getNextCode(2));
         eg.append(start, start, "AT(*)", g.getNextCode(2));
-        if (this.options.isSet(FidelityOption.PRESERVE_PREFIXES)) {
+        if (options.isSet(FidelityOption.PRESERVE_PREFIXES)) {
             eg.append(start, start, "NS", g.getNextCode(2));
         }
         eg.append(start, content, "SE(*)", g.getNextCode(2));
         eg.append(start, content, "CH", g.getNextCode(2));
-        if (this.options.isSet(FidelityOption.PRESERVE_DTDS)) {
+        if (options.isSet(FidelityOption.PRESERVE_DTDS)) {
             eg.append(start, content, "ER", g.getNextCode(2));
         }
-        if (this.options.isSet(FidelityOption.PRESERVE_COMMENTS)) {
+        if (options.isSet(FidelityOption.PRESERVE_COMMENTS)) {
             eg.append(start, content, "CM", g.getNextCode(3));
         }
-        if (this.options.isSet(FidelityOption.PRESERVE_PROCESSING_INSTRUCTIONS)) {
+        if (options.isSet(FidelityOption.PRESERVE_PROCESSING_INSTRUCTIONS)) {
             eg.append(start, content, "PI", g.getNextCode(3));
         }
 
@@ -241,13 +439,13 @@ public class ExiBuiltInGrammarFactory implements ExiGrammarFactory {
         eg.append(content, "", "EE", g.getNextCode(1));
         eg.append(content, content, "SE(*)", g.getNextCode(2));
         eg.append(content, content, "CH", g.getNextCode(2));
-        if (this.options.isSet(FidelityOption.PRESERVE_DTDS)) {
+        if (options.isSet(FidelityOption.PRESERVE_DTDS)) {
             eg.append(content, content, "ER", g.getNextCode(2));
         }
-        if (this.options.isSet(FidelityOption.PRESERVE_COMMENTS)) {
+        if (options.isSet(FidelityOption.PRESERVE_COMMENTS)) {
             eg.append(content, content, "CM", g.getNextCode(3));
         }
-        if (this.options.isSet(FidelityOption.PRESERVE_PROCESSING_INSTRUCTIONS)) {
+        if (options.isSet(FidelityOption.PRESERVE_PROCESSING_INSTRUCTIONS)) {
             eg.append(content, content, "PI", g.getNextCode(3));
         }
 
@@ -259,35 +457,26 @@ public class ExiBuiltInGrammarFactory implements ExiGrammarFactory {
     // ------------------------------------------------------------------------
 
     /**
-     * <p>
-     * Generates a map key from an element QName. this key is then used to
-     * identify grammars which are stored in a map.
-     * </p>
+     * Returns the fidelity options which influence element grammars as a
+     * bit mask.
      *
-     * @param qname The element's QName.
-     * @return The generated key.
+     * @param options The EXI options.
+     * @return The bit mask.
      */
-    private String generateMapKey(QName qname) {
-        StringBuffer sb = new StringBuffer( );
-        if (!qname.getPrefix( ).isEmpty( )) {
-            sb.append(qname.getPrefix( ));
-            sb.append(":");
+    private static int getFidelity(ExiOptions options) {
+        int result = 0;
+        if (options.isSet(FidelityOption.PRESERVE_PREFIXES)) {
+            result |= 1;
         }
-        sb.append(qname.getLocalPart( ));
-        return sb.toString( );
-    }
-
-    // ------------------------------------------------------------------------
-
-    /**
-     * <p>
-     * Capitalizes the specified string.
-     * </p>
-     *
-     * @param s The string to be capitalized.
-     * @return The capitalized string.
-     */
-    private String capitalize(String s) {
-        return String.valueOf(s.charAt(0)).toUpperCase( ) + s.substring(1);
+        if (options.isSet(FidelityOption.PRESERVE_DTDS)) {
+            result |= 2;
+        }
+        if (options.isSet(FidelityOption.PRESERVE_COMMENTS)) {
+            result |= 4;
+        }
+        if (options.isSet(FidelityOption.PRESERVE_PROCESSING_INSTRUCTIONS)) {
+            result |= 8;
+        }
+        return result;
     }
 }
@@ -25,7 +25,14 @@
  */
 package exi.grammar;
 
+import javax.xml.namespace.QName;
+
 import exi.ExiException;
+import exi.events.ExiAttribute;
+import exi.events.ExiEvent;
+import exi.events.ExiEventCode;
+import exi.events.ExiEventType;
+import exi.events.ExiStartElement;
 
 /**
  * @author Marco Wegner
@@ -39,10 +46,37 @@ public class ExiElementGrammar extends ExiGrammar implements ExiExtensibleGramma
         super( );
     }
 
+    /**
+     * Creates a new element grammar which shares the rules of the specified
+     * grammar. Learned rules are kept by the new grammar only.
+     *
+     * @param template The grammar whose rules are shared.
+     */
+    ExiElementGrammar(ExiElementGrammar template) {
+        super(template);
+    }
+
     /* (non-Javadoc)
      * @see exi.grammar.ExiExtensibleGrammar#extend(exi.events.ExiEvent)
      */
     public void extend(String rightHandSide, String eventType) throws ExiException {
         prepend(rightHandSide, eventType);
     }
+
+    /* (non-Javadoc)
+     * @see exi.grammar.ExiExtensibleGrammar#extend(java.lang.String, exi.events.ExiEvent)
+     */
+    public void extend(String rightHandSide, ExiEvent event) throws ExiException {
+        QName qname;
+        if (event.getEventType( ) == ExiEventType.StartElement) {
+            qname = ((ExiStartElement)event).getQualifiedName( );
+        } else if (event.getEventType( ) == ExiEventType.Attribute) {
+            qname = ((ExiAttribute)event).getQualifiedName( );
+        } else {
+            prepend(rightHandSide, event.getEventTypeString( ));
+            return;
+        }
+        // the local name alone would match elements and attributes of other namespaces
+        prepend(new ExiSchemaRule(event.getEventTypeString( ), rightHandSide, new ExiEventCode(0), qname, null));
+    }
 }
@@ -23,6 +23,7 @@
 package exi.grammar;
 
 import exi.ExiException;
+import exi.events.ExiEvent;
 
 /**
  * This interface signalizes an EXI grammar which can be extended.
@@ -41,4 +42,16 @@ public interface ExiExtensibleGrammar {
      *         or grammar manipulation.
      */
     void extend(String rightHandSide, String eventType) throws ExiException;
+
+    /**
+     * Extends the grammar by a rule for the specified event. Rules for Start
+     * Element (SE) and Attribute (AT) events keep the event's namespace URI,
+     * so they only match events with the same qualified name.
+     *
+     * @param rightHandSide The new rule's right-hand side.
+     * @param event The event the new rule is learned from.
+     * @throws ExiException If something goes wrong during event code generation
+     *         or grammar manipulation.
+     */
+    void extend(String rightHandSide, ExiEvent event) throws ExiException;
 }
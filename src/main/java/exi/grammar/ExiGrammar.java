@@ -47,7 +47,7 @@ public abstract class ExiGrammar {
     /**
      * The EXI logger user for logging stuff.
      */
-    private static Logger log = ExiLogger.getLogger(ExiGrammar.class);
+    private static final Logger log = ExiLogger.getLogger(ExiGrammar.class);
 
     // ------------------------------------------------------------------------
     // Member variables
@@ -66,6 +66,21 @@ public abstract class ExiGrammar {
      */
 	private ExiGrammarGroup activeGroup = null;
 
+    // ------------------------------------------------------------------------
+
+	/**
+     * <code>true</code> if the groups are shared with other grammars.
+     */
+	private final boolean shared;
+
+    // ------------------------------------------------------------------------
+
+	/**
+     * The overlays of shared groups which have been extended, mapped to the
+     * group names, or <code>null</code> if no group has been extended yet.
+     */
+	private Map<String,ExiGrammarGroup> overlays = null;
+
     // ------------------------------------------------------------------------
     // Constructor
     // ------------------------------------------------------------------------
@@ -77,6 +92,25 @@ public abstract class ExiGrammar {
      */
 	public ExiGrammar( ) {
 	    this.groups = new HashMap<String,ExiGrammarGroup>( );
+	    this.shared = false;
+	}
+
+    // ------------------------------------------------------------------------
+
+	/**
+     * <p>
+     * Creates a new EXI grammar which shares the production rules of the
+     * specified grammar and starts in its active group. No rules may be
+     * appended to either grammar any more. Rules prepended to this grammar
+     * go to overlays of the shared groups, which leave the template intact.
+     * </p>
+     *
+     * @param template The grammar whose rules are shared.
+     */
+	protected ExiGrammar(ExiGrammar template) {
+	    this.groups = template.groups;
+	    this.activeGroup = template.activeGroup;
+	    this.shared = true;
 	}
 
     // ------------------------------------------------------------------------
@@ -94,12 +128,26 @@ public abstract class ExiGrammar {
      * @param code The rule's event code.
      */
 	public void append(String leftHandSide, String rightHandSide, String eventType, ExiEventCode code) {
+        append(leftHandSide, new ExiGrammarRule(eventType, rightHandSide, code));
+	}
+
+    // ------------------------------------------------------------------------
+
+	/**
+     * <p>
+     * Adds an already constructed production rule to this grammar.
+     * </p>
+     *
+     * @param leftHandSide The left-hand side of the rule.
+     * @param rule The rule.
+     */
+	void append(String leftHandSide, ExiGrammarRule rule) {
         ExiGrammarGroup group = this.groups.get(leftHandSide);
         if (group == null) {
             group = new ExiGrammarGroup(leftHandSide);
             this.groups.put(leftHandSide, group);
         }
-        group.append(new ExiGrammarRule(eventType, rightHandSide, code));
+        group.append(rule);
 	}
 
     // ------------------------------------------------------------------------
@@ -139,7 +187,28 @@ public abstract class ExiGrammar {
      *         constructed (shouldn't usually happen).
      */
 	public void prepend(String rightHandSide, String eventType) throws ExiException {
-	    ExiGrammarRule rule = new ExiGrammarRule(eventType, rightHandSide, new ExiEventCode(0));
+	    prepend(new ExiGrammarRule(eventType, rightHandSide, new ExiEventCode(0)));
+	}
+
+    // ------------------------------------------------------------------------
+
+	/**
+     * <p>
+     * Prepends an already constructed rule with the event code 0 to the
+     * active grammar group.
+     * </p>
+     *
+     * @param rule The new rule.
+     */
+	void prepend(ExiGrammarRule rule) {
+	    String name = this.activeGroup.getName( );
+	    if (this.shared && (this.overlays == null || !this.overlays.containsKey(name))) {
+	        if (this.overlays == null) {
+	            this.overlays = new HashMap<String,ExiGrammarGroup>(4);
+	        }
+	        this.activeGroup = new ExiGrammarGroup(this.activeGroup);
+	        this.overlays.put(name, this.activeGroup);
+	    }
 	    this.activeGroup.prepend(rule);
 	}
 
@@ -171,7 +240,10 @@ public abstract class ExiGrammar {
      */
 	public void moveToGroup(String name) throws ExiUnknownGroupException {
 
-	    ExiGrammarGroup group = this.groups.get(name);
+	    ExiGrammarGroup group = this.overlays == null ? null : this.overlays.get(name);
+	    if (group == null) {
+	        group = this.groups.get(name);
+	    }
 	    String agn = null; // the active group's name
 	    if (this.activeGroup != null) {
             agn = this.activeGroup.getName( );
@@ -181,7 +253,9 @@ public abstract class ExiGrammar {
         }
 
         if (agn != null && !name.equals(agn)) {
-            log.debug(String.format("Grammar moves on to group %s", name));
+            if (ExiLogger.TRACE) {
+                log.debug(String.format("Grammar moves on to group %s", name));
+            }
         }
 
         this.activeGroup = group;
@@ -202,6 +276,21 @@ public abstract class ExiGrammar {
         return this.activeGroup.getMatchingRule(e);
     }
 
+    // ------------------------------------------------------------------------
+
+	/**
+     * </p>
+     * Returns the matching grammar rule for the specified event or
+     * <code>null</code> if the active group has no such rule.
+     * </p>
+     *
+     * @param e The current EXI event.
+     * @return The matching rule for the event or <code>null</code>.
+     */
+	public ExiGrammarRule findMatchingRule(ExiEvent e) {
+        return this.activeGroup.findMatchingRule(e);
+    }
+
     // ------------------------------------------------------------------------
 
     /**
@@ -228,7 +317,8 @@ public abstract class ExiGrammar {
 	public String toString( ) {
 	    StringBuffer sb = new StringBuffer( );
 	    for (Map.Entry<String,ExiGrammarGroup> e : this.groups.entrySet( )) {
-            sb.append(e.getValue( ).toString( ));
+	        ExiGrammarGroup group = this.overlays == null ? null : this.overlays.get(e.getKey( ));
+            sb.append((group != null ? group : e.getValue( )).toString( ));
         }
 	    return sb.toString( );
 	}
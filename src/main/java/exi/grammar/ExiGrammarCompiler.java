@@ -0,0 +1,528 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.grammar;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+import javax.xml.namespace.QName;
+
+import exi.grammar.ExiSchema.ElementDeclaration;
+import exi.grammar.ExiSchema.TypeDefinition;
+
+/**
+ * Compiles schemas offline into binary grammar artifacts and loads them
+ * again.
+ * <p>
+ * An artifact holds everything the {@link ExiSchemaGrammarFactory} needs:
+ * the names for the pre-populated string table, the element declarations
+ * and, for each type, its attributes and the states of its content model
+ * with the productions in event code order. Loading an artifact therefore
+ * neither parses XML nor builds automata. Artifacts are usually loaded
+ * through the {@link ExiGrammarRegistry}.
+ * </p>
+ * <p>
+ * All numbers are written as unsigned variable-length integers with seven
+ * bits per byte, and all names are written once into a string pool and
+ * referenced by their index.
+ * </p>
+ */
+public class ExiGrammarCompiler {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The magic number at the start of each artifact ("EXIG").
+     */
+    private static final int MAGIC = 0x45584947;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The version of the artifact format.
+     */
+    private static final int VERSION = 1;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The type kind of <code>xs:anyType</code>.
+     */
+    private static final int ANY_TYPE = 0;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The type kind of types with simple content.
+     */
+    private static final int SIMPLE_TYPE = 1;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The type kind of types with complex content.
+     */
+    private static final int COMPLEX_TYPE = 2;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The flag for mixed content.
+     */
+    private static final int MIXED = 1;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The flag for an attribute wildcard.
+     */
+    private static final int ANY_ATTRIBUTE = 2;
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    /**
+     * Private constructor: this class only has static methods.
+     */
+    private ExiGrammarCompiler( ) {
+        super( );
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Compiles the schemas at the class path resources, files or URLs given
+     * on the command line into artifacts. Each artifact is written to the output directory (option
+     * <code>-d</code>, the working directory by default) under the name
+     * which the {@link ExiGrammarRegistry} looks for.
+     *
+     * @param args The command-line arguments.
+     * @throws Exception If a schema cannot be compiled or written.
+     */
+    public static void main(String[] args) throws Exception {
+        File dir = new File(".");
+        int i = 0;
+        if (args.length >= 2 && args[0].equals("-d")) {
+            dir = new File(args[1]);
+            i = 2;
+        }
+        if (i == args.length) {
+            System.err.println("java ExiGrammarCompiler [-d directory] schemaId...");
+            System.exit(-1);
+        }
+        for (; i < args.length; i++) {
+            File file = new File(dir, ExiGrammarRegistry.getArtifactName(args[i]));
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                write(ExiSchema.compileLocation(args[i]), os);
+            } finally {
+                os.close( );
+            }
+            System.out.println(args[i] + " -> " + file.getPath( ) + " (" + file.length( ) + " bytes)");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes the artifact for the specified schema.
+     *
+     * @param schema The compiled schema.
+     * @param os The output stream to write the artifact to.
+     * @throws IOException If writing to the stream fails.
+     */
+    public static void write(ExiSchema schema, OutputStream os) throws IOException {
+        // number all reachable declarations and types
+        Map<ElementDeclaration, Integer> decls = new IdentityHashMap<ElementDeclaration, Integer>( );
+        List<ElementDeclaration> declList = new ArrayList<ElementDeclaration>( );
+        Map<TypeDefinition, Integer> types = new IdentityHashMap<TypeDefinition, Integer>( );
+        List<TypeDefinition> typeList = new ArrayList<TypeDefinition>( );
+        for (ElementDeclaration decl : schema.getElements( )) {
+            number(decl, decls, declList, types, typeList);
+        }
+
+        // collect the string pool
+        Map<String, Integer> pool = new HashMap<String, Integer>( );
+        List<String> strings = new ArrayList<String>( );
+        for (Map.Entry<String, SortedSet<String>> e : schema.getNames( ).entrySet( )) {
+            intern(e.getKey( ), pool, strings);
+            for (String name : e.getValue( )) {
+                intern(name, pool, strings);
+            }
+        }
+        for (ElementDeclaration decl : declList) {
+            intern(decl.name, pool, strings);
+        }
+        for (TypeDefinition type : typeList) {
+            for (QName qname : type.attributes) {
+                intern(qname, pool, strings);
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        writeInt(out, MAGIC);
+        writeUnsigned(out, VERSION);
+
+        writeUnsigned(out, strings.size( ));
+        for (String s : strings) {
+            writeString(out, s);
+        }
+
+        writeUnsigned(out, schema.getNames( ).size( ));
+        for (Map.Entry<String, SortedSet<String>> e : schema.getNames( ).entrySet( )) {
+            writeUnsigned(out, pool.get(e.getKey( )));
+            writeUnsigned(out, e.getValue( ).size( ));
+            for (String name : e.getValue( )) {
+                writeUnsigned(out, pool.get(name));
+            }
+        }
+
+        writeUnsigned(out, typeList.size( ));
+        for (TypeDefinition type : typeList) {
+            writeUnsigned(out, type.simple ? SIMPLE_TYPE : COMPLEX_TYPE);
+            writeUnsigned(out, (type.mixed ? MIXED : 0) | (type.anyAttribute ? ANY_ATTRIBUTE : 0));
+            writeUnsigned(out, type.attributes.size( ));
+            for (QName qname : type.attributes) {
+                writeQName(out, qname, pool);
+            }
+        }
+
+        writeUnsigned(out, declList.size( ));
+        for (ElementDeclaration decl : declList) {
+            writeQName(out, decl.name, pool);
+            writeUnsigned(out, decl.type == null ? 0 : types.get(decl.type) + 1);
+        }
+
+        // the states refer to declarations, so they follow them
+        for (TypeDefinition type : typeList) {
+            if (type.simple) {
+                continue;
+            }
+            writeUnsigned(out, type.states.size( ));
+            for (ExiSchemaAutomaton.State state : type.states) {
+                writeUnsigned(out, state.accepting ? 1 : 0);
+                writeUnsigned(out, state.wildcard + 1);
+                writeUnsigned(out, state.elements.size( ));
+                for (int i = 0; i < state.elements.size( ); i++) {
+                    writeUnsigned(out, decls.get(state.elements.get(i)));
+                    writeUnsigned(out, state.targets.get(i));
+                }
+            }
+        }
+
+        Collection<ElementDeclaration> globals = schema.getElements( );
+        writeUnsigned(out, globals.size( ));
+        for (ElementDeclaration decl : globals) {
+            writeUnsigned(out, decls.get(decl));
+        }
+
+        out.writeTo(os);
+        os.flush( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reads an artifact from the specified buffer, starting at its current
+     * position.
+     *
+     * @param buffer The buffer containing the artifact.
+     * @return The schema read from the artifact.
+     * @throws ExiSchemaException If the buffer does not contain a valid
+     *         artifact.
+     */
+    public static ExiSchema read(ByteBuffer buffer) throws ExiSchemaException {
+        try {
+            if (buffer.getInt( ) != MAGIC) {
+                throw new ExiSchemaException("Not a grammar artifact");
+            }
+            int version = readUnsigned(buffer);
+            if (version != VERSION) {
+                throw new ExiSchemaException("Unsupported grammar artifact version " + version);
+            }
+            ExiSchema schema = new ExiSchema( );
+
+            String[] strings = new String[readUnsigned(buffer)];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readString(buffer);
+            }
+
+            for (int n = readUnsigned(buffer); n > 0; n--) {
+                String uri = strings[readUnsigned(buffer)];
+                for (int m = readUnsigned(buffer); m > 0; m--) {
+                    schema.addName(new QName(uri, strings[readUnsigned(buffer)]));
+                }
+            }
+
+            TypeDefinition[] types = new TypeDefinition[readUnsigned(buffer)];
+            for (int i = 0; i < types.length; i++) {
+                TypeDefinition type = new TypeDefinition( );
+                type.simple = readUnsigned(buffer) == SIMPLE_TYPE;
+                int flags = readUnsigned(buffer);
+                type.mixed = (flags & MIXED) != 0;
+                type.anyAttribute = (flags & ANY_ATTRIBUTE) != 0;
+                for (int n = readUnsigned(buffer); n > 0; n--) {
+                    type.attributes.add(readQName(buffer, strings));
+                }
+                type.complete = true;
+                types[i] = type;
+            }
+
+            ElementDeclaration[] decls = new ElementDeclaration[readUnsigned(buffer)];
+            for (int i = 0; i < decls.length; i++) {
+                decls[i] = new ElementDeclaration(readQName(buffer, strings));
+                int type = readUnsigned(buffer);
+                decls[i].type = type == 0 ? null : types[type - 1];
+            }
+
+            for (TypeDefinition type : types) {
+                if (type.simple) {
+                    continue;
+                }
+                int n = readUnsigned(buffer);
+                type.states = new ArrayList<ExiSchemaAutomaton.State>(n);
+                for (; n > 0; n--) {
+                    ExiSchemaAutomaton.State state = new ExiSchemaAutomaton.State( );
+                    state.accepting = readUnsigned(buffer) != 0;
+                    state.wildcard = readUnsigned(buffer) - 1;
+                    for (int m = readUnsigned(buffer); m > 0; m--) {
+                        state.elements.add(decls[readUnsigned(buffer)]);
+                        state.targets.add(readUnsigned(buffer));
+                    }
+                    type.states.add(state);
+                }
+            }
+
+            for (int n = readUnsigned(buffer); n > 0; n--) {
+                schema.addElement(decls[readUnsigned(buffer)]);
+            }
+            return schema;
+        } catch (BufferUnderflowException e) {
+            throw new ExiSchemaException("Truncated grammar artifact", e);
+        } catch (IndexOutOfBoundsException e) {
+            throw new ExiSchemaException("Corrupt grammar artifact", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Numbers the specified declaration, its type and all declarations
+     * reachable from its content model, depth first.
+     *
+     * @param decl The declaration.
+     * @param decls The numbers of the declarations.
+     * @param declList The declarations in number order.
+     * @param types The numbers of the types.
+     * @param typeList The types in number order.
+     */
+    private static void number(ElementDeclaration decl, Map<ElementDeclaration, Integer> decls,
+            List<ElementDeclaration> declList, Map<TypeDefinition, Integer> types,
+            List<TypeDefinition> typeList) {
+        if (decls.containsKey(decl)) {
+            return;
+        }
+        decls.put(decl, declList.size( ));
+        declList.add(decl);
+        TypeDefinition type = decl.type;
+        if (type == null || types.containsKey(type)) {
+            return;
+        }
+        types.put(type, typeList.size( ));
+        typeList.add(type);
+        if (!type.simple) {
+            for (ExiSchemaAutomaton.State state : type.states) {
+                for (ElementDeclaration child : state.elements) {
+                    number(child, decls, declList, types, typeList);
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds a string to the string pool unless it is already contained.
+     *
+     * @param s The string.
+     * @param pool The indices of the pooled strings.
+     * @param strings The pooled strings in index order.
+     */
+    private static void intern(String s, Map<String, Integer> pool, List<String> strings) {
+        if (!pool.containsKey(s)) {
+            pool.put(s, strings.size( ));
+            strings.add(s);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds the namespace URI and the local name of a QName to the string
+     * pool.
+     *
+     * @param qname The QName.
+     * @param pool The indices of the pooled strings.
+     * @param strings The pooled strings in index order.
+     */
+    private static void intern(QName qname, Map<String, Integer> pool, List<String> strings) {
+        intern(qname.getNamespaceURI( ), pool, strings);
+        intern(qname.getLocalPart( ), pool, strings);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes a QName as the pool indices of its namespace URI and local name.
+     *
+     * @param out The output stream.
+     * @param qname The QName.
+     * @param pool The indices of the pooled strings.
+     */
+    private static void writeQName(ByteArrayOutputStream out, QName qname, Map<String, Integer> pool) {
+        writeUnsigned(out, pool.get(qname.getNamespaceURI( )));
+        writeUnsigned(out, pool.get(qname.getLocalPart( )));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reads a QName written by
+     * {@link #writeQName(ByteArrayOutputStream, QName, Map)}.
+     *
+     * @param buffer The buffer.
+     * @param strings The string pool.
+     * @return The QName.
+     */
+    private static QName readQName(ByteBuffer buffer, String[] strings) {
+        String uri = strings[readUnsigned(buffer)];
+        return new QName(uri, strings[readUnsigned(buffer)]);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes a 32 bit integer in big-endian order.
+     *
+     * @param out The output stream.
+     * @param value The value.
+     */
+    static void writeInt(ByteArrayOutputStream out, int value) {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            out.write(value >>> shift);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes an unsigned variable-length integer.
+     *
+     * @param out The output stream.
+     * @param value The non-negative value.
+     */
+    static void writeUnsigned(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reads an unsigned variable-length integer.
+     *
+     * @param buffer The buffer.
+     * @return The value.
+     */
+    static int readUnsigned(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = buffer.get( );
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes a string as its length in bytes followed by its UTF-8 bytes.
+     *
+     * @param out The output stream.
+     * @param s The string.
+     */
+    static void writeString(ByteArrayOutputStream out, String s) {
+        try {
+            byte[] bytes = s.getBytes("UTF-8");
+            writeUnsigned(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reads a string written by
+     * {@link #writeString(ByteArrayOutputStream, String)}.
+     *
+     * @param buffer The buffer.
+     * @return The string.
+     */
+    static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[readUnsigned(buffer)];
+        buffer.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported", e);
+        }
+    }
+}
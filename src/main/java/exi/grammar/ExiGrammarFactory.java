@@ -25,6 +25,8 @@ package exi.grammar;
 import javax.xml.namespace.QName;
 
 import exi.ExiException;
+import exi.ExiOptions;
+import exi.utils.ExiStringTable;
 
 /**
  * Interface for EXI grammar factories.
@@ -63,8 +65,36 @@ public interface ExiGrammarFactory {
      * </p>
      *
      * @param qname The element's QName.
+     * @param rule The rule which matched the element's Start Element (SE)
+     *        event. Schema-informed factories use it to tell apart local
+     *        elements of the same name.
      * @return The EXI Element Grammar.
      * @throws ExiException If something goes wrong during grammar manipulation.
      */
-    ExiGrammar createElementGrammar(QName qname) throws ExiException;
+    ExiGrammar createElementGrammar(QName qname, ExiGrammarRule rule) throws ExiException;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * <p>
+     * Adds the strings which are known in advance to the specified, freshly
+     * cleared string table.
+     * </p>
+     *
+     * @param table The string table.
+     */
+    void initializeStringTable(ExiStringTable table);
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * <p>
+     * Prepares this factory for another document using the specified
+     * options. Grammars which have been handed out before, and which may have
+     * been extended since, must not be handed out again.
+     * </p>
+     *
+     * @param options The EXI options used for grammar creation.
+     */
+    void reset(ExiOptions options);
 }
@@ -25,7 +25,8 @@
  */
 package exi.grammar;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
 
 import exi.ExiException;
 import exi.events.ExiEvent;
@@ -50,11 +51,12 @@ public class ExiGrammarGroup {
      */
     public class Size {
         /** The part sizes. */
-        private int parts[] = new int[3];
+        private final int parts[] = new int[3];
 
         /** Constructs a new size instance. */
         Size( ) {
-            ExiEventCode eventCode = ExiGrammarGroup.this.rules.getLast( ).getEventCode( );
+            ArrayList<ExiGrammarRule> r = ExiGrammarGroup.this.rules;
+            ExiEventCode eventCode = r.get(r.size( ) - 1).getEventCode( );
             for (int i = 0; i < 3; i++) {
                 this.parts[i] = eventCode.getPart(i) + 1;
             }
@@ -88,7 +90,32 @@ public class ExiGrammarGroup {
     /**
      * The list of rules in this group.
      */
-    private final LinkedList<ExiGrammarRule> rules = new LinkedList<ExiGrammarRule>( );
+    private final ArrayList<ExiGrammarRule> rules;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The shared group which this group overlays or <code>null</code> if
+     * this group owns all of its rules.
+     */
+    private final ExiGrammarGroup base;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * For a shared group: its rules with the event codes shifted as if one,
+     * two, ... rules had been prepended, created on demand and shared by all
+     * overlays.
+     */
+    private List<List<ExiGrammarRule>> shifted = null;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The cached size of this group or <code>null</code> if it has to be
+     * evaluated again because the rules have changed.
+     */
+    private Size size = null;
 
     // ------------------------------------------------------------------------
     // Constructor
@@ -101,6 +128,23 @@ public class ExiGrammarGroup {
      */
     public ExiGrammarGroup(String name) {
         this.name = name;
+        this.rules = new ArrayList<ExiGrammarRule>( );
+        this.base = null;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates an overlay for a shared group which must not be changed. The
+     * overlay only owns the rules prepended to it and refers to shifted
+     * copies of the shared group's rules, which are themselves shared.
+     *
+     * @param base The shared group.
+     */
+    ExiGrammarGroup(ExiGrammarGroup base) {
+        this.name = base.name;
+        this.rules = new ArrayList<ExiGrammarRule>(base.rules);
+        this.base = base;
     }
 
     // ------------------------------------------------------------------------
@@ -125,6 +169,7 @@ public class ExiGrammarGroup {
      */
     public void append(ExiGrammarRule rule) {
         this.rules.add(rule);
+        this.size = null;
     }
 
     // ------------------------------------------------------------------------
@@ -135,10 +180,46 @@ public class ExiGrammarGroup {
      * @param rule The new rule.
      */
     public void prepend(ExiGrammarRule rule) {
-        for (ExiGrammarRule r : this.rules) {
-            r.getEventCode( ).increment(0);
+        if (this.base == null) {
+            for (int i = 0; i < this.rules.size( ); ++i) {
+                this.rules.get(i).getEventCode( ).increment(0);
+            }
+            this.rules.add(0, rule);
+        } else {
+            int learned = this.rules.size( ) - this.base.rules.size( );
+            for (int i = 0; i < learned; ++i) {
+                this.rules.get(i).getEventCode( ).increment(0);
+            }
+            this.rules.add(0, rule);
+            List<ExiGrammarRule> shiftedRules = this.base.getShiftedRules(learned + 1);
+            for (int i = 0; i < shiftedRules.size( ); ++i) {
+                this.rules.set(learned + 1 + i, shiftedRules.get(i));
+            }
         }
-        this.rules.add(0, rule);
+        this.size = null;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns this shared group's rules with the event codes shifted as if
+     * the specified number of rules had been prepended.
+     *
+     * @param n The number of prepended rules (at least 1).
+     * @return The shifted rules.
+     */
+    private synchronized List<ExiGrammarRule> getShiftedRules(int n) {
+        if (this.shifted == null) {
+            this.shifted = new ArrayList<List<ExiGrammarRule>>( );
+        }
+        while (this.shifted.size( ) < n) {
+            List<ExiGrammarRule> list = new ArrayList<ExiGrammarRule>(this.rules.size( ));
+            for (ExiGrammarRule rule : this.rules) {
+                list.add(rule.shift(this.shifted.size( ) + 1));
+            }
+            this.shifted.add(list);
+        }
+        return this.shifted.get(n - 1);
     }
 
     // ------------------------------------------------------------------------
@@ -157,13 +238,7 @@ public class ExiGrammarGroup {
      * @throws ExiException If no matching rule can be found in the grammar.
      */
     public ExiGrammarRule getMatchingRule(ExiEvent e) throws ExiException {
-        ExiGrammarRule result = null;
-        for (ExiGrammarRule rule : this.rules) {
-            if (rule.matches(e)) {
-                result = rule;
-                break;
-            }
-        }
+        ExiGrammarRule result = findMatchingRule(e);
 
         if (result == null) {
             throw new ExiNoMatchingRuleException(e.toString( ));
@@ -174,6 +249,27 @@ public class ExiGrammarGroup {
 
     // ------------------------------------------------------------------------
 
+    /**
+     * Returns the matching grammar rule for the specified event. Unlike
+     * {@link #getMatchingRule(ExiEvent)} this does not consider a missing
+     * rule an error.
+     *
+     * @param e The current EXI event.
+     * @return The matching rule for the event or <code>null</code> if no such
+     *         rule exists.
+     */
+    public ExiGrammarRule findMatchingRule(ExiEvent e) {
+        for (int i = 0; i < this.rules.size( ); ++i) {
+            ExiGrammarRule rule = this.rules.get(i);
+            if (rule.matches(e)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+
     /**
      * Returns the matching rule for the specified EXI event code.
      *
@@ -196,12 +292,46 @@ public class ExiGrammarGroup {
     // ------------------------------------------------------------------------
 
     /**
-     * Returns the group size instance for this EXI grammar group.
+     * Returns the matching rule for the event code with the specified length
+     * and parts. This is the same as {@link #getMatchingRule(ExiEventCode)}
+     * but does not need an event code instance.
+     *
+     * @param length The event code's length (1, 2 or 3).
+     * @param p1 The first part of the event code.
+     * @param p2 The second part of the event code. Ignored if the length is
+     *        less than 2.
+     * @param p3 The third part of the event code. Ignored if the length is
+     *        less than 3.
+     * @return The matching grammar rule or <code>null</code> if no such rule
+     *         exists.
+     */
+    public ExiGrammarRule getMatchingRule(int length, int p1, int p2, int p3) {
+        for (int i = 0; i < this.rules.size( ); ++i) {
+            ExiGrammarRule rule = this.rules.get(i);
+            ExiEventCode code = rule.getEventCode( );
+            if (code.getLength( ) == length
+                    && code.getPart(0) == p1
+                    && (length < 2 || code.getPart(1) == p2)
+                    && (length < 3 || code.getPart(2) == p3)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the group size instance for this EXI grammar group. The
+     * instance is kept until the group's rules change.
      *
      * @return The group size instance.
      */
     public Size getGroupSize( ) {
-        return new Size();
+        if (this.size == null) {
+            this.size = new Size( );
+        }
+        return this.size;
     }
 
     // ------------------------------------------------------------------------
@@ -0,0 +1,433 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.grammar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+import exi.ExiLogger;
+
+/**
+ * The registry which maps schema IDs to compiled schemas.
+ * <p>
+ * Schemas are resolved lazily on first use and then shared read-only by all
+ * threads and codecs. A schema ID is resolved in this order:
+ * </p>
+ * <ol>
+ * <li>a schema or an artifact which has been registered for the ID,</li>
+ * <li>an artifact written by the {@link ExiGrammarCompiler} in one of the
+ * directories of the system property {@value #PATH_PROPERTY},</li>
+ * <li>an artifact next to the schema on the class path, and finally</li>
+ * <li>the XML Schema on the class path, which is then compiled at
+ * runtime.</li>
+ * </ol>
+ * <p>
+ * Schema IDs of decoded streams are untrusted, so they are never resolved
+ * as files or URLs. Such schemas must be registered explicitly, e.g. with
+ * {@link #registerLocation(String)}.
+ * </p>
+ * <p>
+ * Artifacts in files are memory-mapped rather than read through a stream.
+ * </p>
+ * <p>
+ * The registry also holds the {@link ExiProfile}s trained by the
+ * {@link ExiProfileTrainer}. A profile ID is resolved from the registered
+ * profiles, the directories of {@value #PATH_PROPERTY} and the root of the
+ * class path, in this order.
+ * </p>
+ */
+public final class ExiGrammarRegistry {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The system property listing the directories which are searched for
+     * artifacts, separated by the platform's path separator.
+     */
+    public static final String PATH_PROPERTY = "exi.grammar.path";
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The file name extension of artifacts.
+     */
+    public static final String ARTIFACT_EXTENSION = ".exig";
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The file name extension of profiles.
+     */
+    public static final String PROFILE_EXTENSION = ".exip";
+
+    // ------------------------------------------------------------------------
+    // Static stuff
+    // ------------------------------------------------------------------------
+
+    /**
+     * The EXI logger user for logging stuff.
+     */
+    private static final Logger log = ExiLogger.getLogger(ExiGrammarRegistry.class);
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The resolved schemas mapped to their schema IDs.
+     */
+    private static final ConcurrentMap<String, ExiSchema> schemas = new ConcurrentHashMap<String, ExiSchema>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The registered artifacts mapped to their schema IDs.
+     */
+    private static final ConcurrentMap<String, File> artifacts = new ConcurrentHashMap<String, File>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The resolved profiles mapped to their IDs.
+     */
+    private static final ConcurrentMap<String, ExiProfile> profiles = new ConcurrentHashMap<String, ExiProfile>( );
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    /**
+     * Private constructor: this class only has static methods.
+     */
+    private ExiGrammarRegistry( ) {
+        super( );
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the schema for the specified schema ID and resolves it first
+     * if necessary. Concurrent first calls for the same ID may resolve it
+     * more than once, but all of them return the same instance.
+     *
+     * @param schemaId The schema ID.
+     * @return The schema.
+     * @throws ExiSchemaException If the schema cannot be resolved.
+     */
+    public static ExiSchema getSchema(String schemaId) throws ExiSchemaException {
+        ExiSchema schema = schemas.get(schemaId);
+        if (schema == null) {
+            schema = resolve(schemaId);
+            ExiSchema existing = schemas.putIfAbsent(schemaId, schema);
+            if (existing != null) {
+                schema = existing;
+            }
+        }
+        return schema;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Registers a compiled schema under the specified schema ID, replacing
+     * any schema registered or resolved for it before.
+     *
+     * @param schemaId The schema ID.
+     * @param schema The compiled schema.
+     */
+    public static void register(String schemaId, ExiSchema schema) {
+        schemas.put(schemaId, schema);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Registers an artifact under the specified schema ID. The artifact is
+     * not loaded before the schema is requested the first time.
+     *
+     * @param schemaId The schema ID.
+     * @param artifact The artifact file.
+     */
+    public static void register(String schemaId, File artifact) {
+        artifacts.put(schemaId, artifact);
+        schemas.remove(schemaId);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Compiles the XML Schema at the specified class path resource, file or
+     * URL and registers it with the location as schema ID.
+     *
+     * @param location The schema location.
+     * @return The compiled schema.
+     * @throws ExiSchemaException If the schema cannot be located, read or
+     *         compiled.
+     */
+    public static ExiSchema registerLocation(String location) throws ExiSchemaException {
+        ExiSchema schema = ExiSchema.compileLocation(location);
+        register(location, schema);
+        return schema;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the file name of the artifact for the specified schema ID. All
+     * characters but letters, digits, dots, dashes and underscores are
+     * replaced by underscores.
+     *
+     * @param schemaId The schema ID.
+     * @return The file name of the artifact.
+     */
+    public static String getArtifactName(String schemaId) {
+        return getFileName(schemaId, ARTIFACT_EXTENSION);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the file name of the profile with the specified ID. The ID is
+     * sanitized like in {@link #getArtifactName(String)}.
+     *
+     * @param profileId The profile ID.
+     * @return The file name of the profile.
+     */
+    public static String getProfileName(String profileId) {
+        return getFileName(profileId, PROFILE_EXTENSION);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the profile with the specified ID and resolves it first if
+     * necessary.
+     *
+     * @param profileId The profile ID.
+     * @return The profile.
+     * @throws ExiSchemaException If the profile cannot be resolved.
+     */
+    public static ExiProfile getProfile(String profileId) throws ExiSchemaException {
+        ExiProfile profile = profiles.get(profileId);
+        if (profile == null) {
+            profile = resolveProfile(profileId);
+            ExiProfile existing = profiles.putIfAbsent(profileId, profile);
+            if (existing != null) {
+                profile = existing;
+            }
+        }
+        return profile;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Registers a profile under its ID, replacing any profile registered or
+     * resolved for it before.
+     *
+     * @param profile The profile.
+     */
+    public static void register(ExiProfile profile) {
+        profiles.put(profile.getId( ), profile);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Loads the artifact from the specified file by memory-mapping it.
+     *
+     * @param file The artifact file.
+     * @return The schema read from the artifact.
+     * @throws ExiSchemaException If the file cannot be read or does not
+     *         contain a valid artifact.
+     */
+    public static ExiSchema load(File file) throws ExiSchemaException {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel( );
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size( ));
+                return ExiGrammarCompiler.read(buffer);
+            } finally {
+                raf.close( );
+            }
+        } catch (IOException e) {
+            throw new ExiSchemaException("Cannot read grammar artifact " + file, e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Loads the profile from the specified file by memory-mapping it.
+     *
+     * @param file The profile file.
+     * @return The profile.
+     * @throws ExiSchemaException If the file cannot be read or does not
+     *         contain a valid profile.
+     */
+    public static ExiProfile loadProfile(File file) throws ExiSchemaException {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel( );
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size( ));
+                return ExiProfile.read(buffer);
+            } finally {
+                raf.close( );
+            }
+        } catch (IOException e) {
+            throw new ExiSchemaException("Cannot read profile " + file, e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Resolves the schema for the specified schema ID.
+     *
+     * @param schemaId The schema ID.
+     * @return The schema.
+     * @throws ExiSchemaException If the schema cannot be resolved.
+     */
+    private static ExiSchema resolve(String schemaId) throws ExiSchemaException {
+        File file = artifacts.get(schemaId);
+        if (file != null) {
+            return load(file);
+        }
+
+        String path = System.getProperty(PATH_PROPERTY);
+        if (path != null) {
+            for (String dir : path.split(File.pathSeparator)) {
+                file = new File(dir, getArtifactName(schemaId));
+                if (dir.length( ) > 0 && file.isFile( )) {
+                    log.debug("Loading grammar artifact " + file);
+                    return load(file);
+                }
+            }
+        }
+
+        String resource = schemaId.startsWith("/") ? schemaId : "/" + schemaId;
+        int slash = resource.lastIndexOf('/');
+        resource = resource.substring(0, slash + 1) + getArtifactName(resource.substring(slash + 1));
+        if (ExiGrammarRegistry.class.getResource(resource) != null) {
+            log.debug("Loading grammar artifact " + resource + " from the class path");
+            return ExiGrammarCompiler.read(readResource(resource));
+        }
+
+        log.debug("Compiling schema " + schemaId);
+        return ExiSchema.compile(schemaId);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Resolves the profile with the specified ID.
+     *
+     * @param profileId The profile ID.
+     * @return The profile.
+     * @throws ExiSchemaException If the profile cannot be resolved.
+     */
+    private static ExiProfile resolveProfile(String profileId) throws ExiSchemaException {
+        String name = getProfileName(profileId);
+        String path = System.getProperty(PATH_PROPERTY);
+        if (path != null) {
+            for (String dir : path.split(File.pathSeparator)) {
+                File file = new File(dir, name);
+                if (dir.length( ) > 0 && file.isFile( )) {
+                    log.debug("Loading profile " + file);
+                    return loadProfile(file);
+                }
+            }
+        }
+
+        if (ExiGrammarRegistry.class.getResource("/" + name) != null) {
+            log.debug("Loading profile " + name + " from the class path");
+            return ExiProfile.read(readResource("/" + name));
+        }
+        throw new ExiSchemaException("Unknown profile " + profileId);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the sanitized file name for the specified ID: all characters
+     * but letters, digits, dots, dashes and underscores are replaced by
+     * underscores.
+     *
+     * @param id The schema or profile ID.
+     * @param extension The file name extension.
+     * @return The file name.
+     */
+    private static String getFileName(String id, String extension) {
+        StringBuilder sb = new StringBuilder(id.length( ) + extension.length( ));
+        for (int i = 0; i < id.length( ); i++) {
+            char c = id.charAt(i);
+            boolean keep = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '.' || c == '-' || c == '_';
+            sb.append(keep ? c : '_');
+        }
+        return sb.append(extension).toString( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reads a class path resource completely.
+     *
+     * @param resource The resource name.
+     * @return A buffer with the resource's content.
+     * @throws ExiSchemaException If the resource cannot be read.
+     */
+    private static ByteBuffer readResource(String resource) throws ExiSchemaException {
+        InputStream is = ExiGrammarRegistry.class.getResourceAsStream(resource);
+        try {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream( );
+                byte[] buf = new byte[4096];
+                for (int n = is.read(buf); n != -1; n = is.read(buf)) {
+                    out.write(buf, 0, n);
+                }
+                return ByteBuffer.wrap(out.toByteArray( ));
+            } finally {
+                is.close( );
+            }
+        } catch (IOException e) {
+            throw new ExiSchemaException("Cannot read resource " + resource, e);
+        }
+    }
+}
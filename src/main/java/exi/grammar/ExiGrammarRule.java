@@ -24,6 +24,7 @@ package exi.grammar;
 
 import exi.events.ExiEvent;
 import exi.events.ExiEventCode;
+import exi.events.ExiEventType;
 
 /**
  * This class represents a single production rule from an EXI grammar.
@@ -62,6 +63,38 @@ public class ExiGrammarRule {
      */
 	private final ExiEventCode code;
 
+    // --------------------------------------------------------------------
+
+    /**
+     * The event type this rule matches, derived from the event type string,
+     * or <code>null</code> if the event type string is not known.
+     */
+    private final ExiEventType type;
+
+    // --------------------------------------------------------------------
+
+    /**
+     * The name in parentheses from the event type string, e.g.
+     * <code>note</code> for <code>SE(note)</code>, or <code>null</code> if
+     * there is no such name or if the rule is a general one.
+     */
+    private final String name;
+
+    // --------------------------------------------------------------------
+
+    /**
+     * <code>true</code> if the event type string has a name in parentheses,
+     * including the wildcard <code>*</code>.
+     */
+    private final boolean hasName;
+
+    // --------------------------------------------------------------------
+
+    /**
+     * <code>true</code> if this rule is a general one.
+     */
+    private final boolean general;
+
     // --------------------------------------------------------------------
     // Constructor
     // --------------------------------------------------------------------
@@ -80,8 +113,46 @@ public class ExiGrammarRule {
         this.rightHandSide = rightHandSide;
         this.eventType = eventType;
         this.code = code;
+
+        // split the event type string once so that matching is cheap
+        int open = eventType.indexOf('(');
+        String typeCode = open < 0 ? eventType : eventType.substring(0, open);
+        ExiEventType t = null;
+        for (ExiEventType candidate : ExiEventType.values( )) {
+            if (candidate.code( ).equals(typeCode)) {
+                t = candidate;
+                break;
+            }
+        }
+        this.type = t;
+        this.hasName = open >= 0 && eventType.endsWith(")");
+        this.general = eventType.endsWith("(*)");
+        this.name = (this.hasName && !this.general)
+                ? eventType.substring(open + 1, eventType.length( ) - 1)
+                : null;
 	}
 
+    // --------------------------------------------------------------------
+
+    /**
+     * <p>
+     * Creates a copy of the specified rule with another event code.
+     * </p>
+     *
+     * @param rule The rule to copy.
+     * @param code The copy's event code.
+     */
+    private ExiGrammarRule(ExiGrammarRule rule, ExiEventCode code) {
+        super( );
+        this.rightHandSide = rule.rightHandSide;
+        this.eventType = rule.eventType;
+        this.code = code;
+        this.type = rule.type;
+        this.name = rule.name;
+        this.hasName = rule.hasName;
+        this.general = rule.general;
+    }
+
     // --------------------------------------------------------------------
     // Methods
     // --------------------------------------------------------------------
@@ -119,23 +190,90 @@ public class ExiGrammarRule {
         return this.code;
     }
 
+    // --------------------------------------------------------------------
+
+	/**
+     * Returns the name in parentheses from this rule's event type, e.g.
+     * <code>note</code> for <code>SE(note)</code>.
+     *
+     * @return The name or <code>null</code> if there is none or if this rule
+     *         is a general one.
+     */
+    public String getEventName( ) {
+        return this.name;
+    }
+
+    // --------------------------------------------------------------------
+
+	/**
+     * Returns the namespace URI of the name from this rule's event type if
+     * the rule knows it, e.g. because it has been derived from a schema.
+     * Otherwise the namespace URI is implied by the context of the event.
+     *
+     * @return The namespace URI or <code>null</code> if it is not known.
+     */
+    public String getEventNamespaceURI( ) {
+        return null;
+    }
+
+    // --------------------------------------------------------------------
+
+    /**
+     * Returns a copy of this rule whose event code has the first part
+     * incremented by the specified value, as if that many rules had been
+     * prepended to its group.
+     *
+     * @param n The increment.
+     * @return The shifted copy.
+     */
+    ExiGrammarRule shift(int n) {
+        ExiEventCode shifted = new ExiEventCode(this.code);
+        for (int i = 0; i < n; ++i) {
+            shifted.increment(0);
+        }
+        return copy(shifted);
+    }
+
+    // --------------------------------------------------------------------
+
+    /**
+     * Returns a copy of this rule with another event code. Subclasses with
+     * further state override this.
+     *
+     * @param code The copy's event code.
+     * @return The copy.
+     */
+    ExiGrammarRule copy(ExiEventCode code) {
+        return new ExiGrammarRule(this, code);
+    }
+
     // ------------------------------------------------------------------------
 
     /**
      * <p>
      * Specifies whether this rule matches the specified event.
      * </p>
+     * <p>
+     * The event type and name are compared directly, so this neither creates
+     * the event's type string nor any regular expression.
+     * </p>
      *
      * @param e The event.
      * @return <code>true</code> if this rule matches the event, else
      *         <code>false</code>.
      */
     public boolean matches(ExiEvent e) {
-        String s = this.eventType;
-        s = s.replaceAll("\\(", "\\\\(");
-        s = s.replaceAll("\\)", "\\\\)");
-        s = s.replaceAll("\\*", ".*");
-        return e.getEventTypeString( ).matches(s.replace("(*)", "\\(.*\\)"));
+        if (this.type == null || e.getEventType( ) != this.type) {
+            return false;
+        }
+        String eventName = e.getEventName( );
+        if (!this.hasName) {
+            return eventName == null;
+        }
+        if (eventName == null) {
+            return false;
+        }
+        return this.general || this.name.equals(eventName);
     }
 
     // ------------------------------------------------------------------------
@@ -154,6 +292,6 @@ public class ExiGrammarRule {
      *         <code>false</code>.
      */
     public boolean isGeneral( ) {
-        return (this.eventType.endsWith("(*)"));
+        return this.general;
     }
 }
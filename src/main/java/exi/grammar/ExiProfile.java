@@ -0,0 +1,464 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.grammar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.namespace.QName;
+
+import exi.utils.ExiStringTable;
+import exi.utils.StringTablePartition;
+
+/**
+ * A trained profile for schema-less documents of a known kind. It lists
+ * frequent namespace URIs, local names and values, which are put into the
+ * string table before a document is processed, and frequent productions of
+ * element grammars, which the built-in element grammars start with instead
+ * of having to learn them.
+ * <p>
+ * Profiles are created by the {@link ExiProfileTrainer} and selected by the
+ * schema ID <code>profile:</code><i>id</i>, which the header carries like
+ * any other schema ID. They are resolved by the {@link ExiGrammarRegistry}.
+ * Profiles are immutable and shared by all codecs. The element grammars
+ * built from a profile are shared, too, and only extended by overlays.
+ * </p>
+ */
+public final class ExiProfile {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The prefix of schema IDs which select a profile.
+     */
+    public static final String SCHEMA_ID_PREFIX = "profile:";
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The magic number at the start of each profile ("EXIP").
+     */
+    private static final int MAGIC = 0x45584950;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The version of the profile format.
+     */
+    private static final int VERSION = 1;
+
+    // ------------------------------------------------------------------------
+    // Nested types
+    // ------------------------------------------------------------------------
+
+    /**
+     * A production which an element grammar starts with.
+     */
+    static final class Production {
+        /** <code>true</code> for the start tag group, else content group. */
+        final boolean startTag;
+
+        /** The QName of the element or attribute or <code>null</code> for CH. */
+        final QName qname;
+
+        /** <code>true</code> for AT, <code>false</code> for SE. */
+        final boolean attribute;
+
+        /**
+         * Creates a new production.
+         *
+         * @param startTag <code>true</code> for the start tag group.
+         * @param qname The QName of the element or attribute or
+         *        <code>null</code> for CH.
+         * @param attribute <code>true</code> for AT.
+         */
+        Production(boolean startTag, QName qname, boolean attribute) {
+            this.startTag = startTag;
+            this.qname = qname;
+            this.attribute = attribute;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Production)) {
+                return false;
+            }
+            Production p = (Production) obj;
+            return this.startTag == p.startTag && this.attribute == p.attribute
+                    && (this.qname == null ? p.qname == null : this.qname.equals(p.qname));
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode( ) {
+            int hash = this.qname == null ? 0 : this.qname.hashCode( );
+            return 4 * hash + (this.startTag ? 2 : 0) + (this.attribute ? 1 : 0);
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString( ) {
+            String event = this.qname == null ? "CH" : (this.attribute ? "AT(" : "SE(") + this.qname + ")";
+            return (this.startTag ? "StartTag:" : "Element:") + event;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The profile's ID.
+     */
+    private final String id;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The namespace URIs mapped to their local names, both in string table
+     * order.
+     */
+    private final Map<String, List<String>> names;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The values in string table order.
+     */
+    private final List<String> values;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The QNames the values are associated with.
+     */
+    private final List<QName> valueNames;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The productions of element grammars in the order they are prepended,
+     * mapped to the elements' QNames.
+     */
+    private final Map<QName, List<Production>> productions;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The element grammars built from the productions, mapped to the bit
+     * mask of the fidelity options they have been built for.
+     */
+    private final ConcurrentMap<Integer, Map<QName, ExiElementGrammar>> templates =
+        new ConcurrentHashMap<Integer, Map<QName, ExiElementGrammar>>( );
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new profile. The collections must not be changed any more.
+     *
+     * @param id The profile's ID.
+     * @param names The namespace URIs mapped to their local names.
+     * @param values The values.
+     * @param valueNames The QNames the values are associated with.
+     * @param productions The productions of element grammars.
+     */
+    ExiProfile(String id, Map<String, List<String>> names, List<String> values,
+            List<QName> valueNames, Map<QName, List<Production>> productions) {
+        this.id = id;
+        this.names = names;
+        this.values = values;
+        this.valueNames = valueNames;
+        this.productions = productions;
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns this profile's ID.
+     *
+     * @return The ID.
+     */
+    public String getId( ) {
+        return this.id;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the schema ID which selects this profile.
+     *
+     * @return The schema ID.
+     */
+    public String getSchemaId( ) {
+        return SCHEMA_ID_PREFIX + this.id;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of entries this profile adds to the string table
+     * and to element grammars.
+     *
+     * @return The number of URIs, local names, values and productions.
+     */
+    public int getSize( ) {
+        int size = this.names.size( ) + this.values.size( );
+        for (List<String> list : this.names.values( )) {
+            size += list.size( );
+        }
+        for (List<Production> list : this.productions.values( )) {
+            size += list.size( );
+        }
+        return size;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes this profile to the specified stream.
+     *
+     * @param os The output stream.
+     * @throws IOException If writing to the stream fails.
+     */
+    public void write(OutputStream os) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        ExiGrammarCompiler.writeInt(out, MAGIC);
+        ExiGrammarCompiler.writeUnsigned(out, VERSION);
+        ExiGrammarCompiler.writeString(out, this.id);
+
+        ExiGrammarCompiler.writeUnsigned(out, this.names.size( ));
+        for (Map.Entry<String, List<String>> e : this.names.entrySet( )) {
+            ExiGrammarCompiler.writeString(out, e.getKey( ));
+            ExiGrammarCompiler.writeUnsigned(out, e.getValue( ).size( ));
+            for (String name : e.getValue( )) {
+                ExiGrammarCompiler.writeString(out, name);
+            }
+        }
+
+        ExiGrammarCompiler.writeUnsigned(out, this.values.size( ));
+        for (int i = 0; i < this.values.size( ); i++) {
+            writeQName(out, this.valueNames.get(i));
+            ExiGrammarCompiler.writeString(out, this.values.get(i));
+        }
+
+        ExiGrammarCompiler.writeUnsigned(out, this.productions.size( ));
+        for (Map.Entry<QName, List<Production>> e : this.productions.entrySet( )) {
+            writeQName(out, e.getKey( ));
+            ExiGrammarCompiler.writeUnsigned(out, e.getValue( ).size( ));
+            for (Production p : e.getValue( )) {
+                int kind = p.qname == null ? 0 : (p.attribute ? 1 : 2);
+                ExiGrammarCompiler.writeUnsigned(out, (p.startTag ? 4 : 0) | kind);
+                if (p.qname != null) {
+                    writeQName(out, p.qname);
+                }
+            }
+        }
+
+        out.writeTo(os);
+        os.flush( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reads a profile from the specified buffer, starting at its current
+     * position.
+     *
+     * @param buffer The buffer containing the profile.
+     * @return The profile.
+     * @throws ExiSchemaException If the buffer does not contain a valid
+     *         profile.
+     */
+    public static ExiProfile read(ByteBuffer buffer) throws ExiSchemaException {
+        try {
+            if (buffer.getInt( ) != MAGIC) {
+                throw new ExiSchemaException("Not a profile");
+            }
+            int version = ExiGrammarCompiler.readUnsigned(buffer);
+            if (version != VERSION) {
+                throw new ExiSchemaException("Unsupported profile version " + version);
+            }
+            String id = ExiGrammarCompiler.readString(buffer);
+
+            Map<String, List<String>> names = new LinkedHashMap<String, List<String>>( );
+            for (int n = ExiGrammarCompiler.readUnsigned(buffer); n > 0; n--) {
+                String uri = ExiGrammarCompiler.readString(buffer);
+                List<String> list = new ArrayList<String>( );
+                for (int m = ExiGrammarCompiler.readUnsigned(buffer); m > 0; m--) {
+                    list.add(ExiGrammarCompiler.readString(buffer));
+                }
+                names.put(uri, Collections.unmodifiableList(list));
+            }
+
+            List<String> values = new ArrayList<String>( );
+            List<QName> valueNames = new ArrayList<QName>( );
+            for (int n = ExiGrammarCompiler.readUnsigned(buffer); n > 0; n--) {
+                valueNames.add(readQName(buffer));
+                values.add(ExiGrammarCompiler.readString(buffer));
+            }
+
+            Map<QName, List<Production>> productions = new LinkedHashMap<QName, List<Production>>( );
+            for (int n = ExiGrammarCompiler.readUnsigned(buffer); n > 0; n--) {
+                QName element = readQName(buffer);
+                List<Production> list = new ArrayList<Production>( );
+                for (int m = ExiGrammarCompiler.readUnsigned(buffer); m > 0; m--) {
+                    int flags = ExiGrammarCompiler.readUnsigned(buffer);
+                    int kind = flags & 3;
+                    list.add(new Production((flags & 4) != 0, kind == 0 ? null : readQName(buffer), kind == 1));
+                }
+                productions.put(element, Collections.unmodifiableList(list));
+            }
+
+            return new ExiProfile(id, Collections.unmodifiableMap(names), Collections.unmodifiableList(values),
+                    Collections.unmodifiableList(valueNames), Collections.unmodifiableMap(productions));
+        } catch (BufferUnderflowException e) {
+            throw new ExiSchemaException("Truncated profile", e);
+        } catch (IndexOutOfBoundsException e) {
+            throw new ExiSchemaException("Corrupt profile", e);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds the namespace URIs, local names and values to the string table.
+     *
+     * @param table The string table.
+     */
+    void initializeStringTable(ExiStringTable table) {
+        StringTablePartition uris = table.getUriPartition( );
+        for (Map.Entry<String, List<String>> e : this.names.entrySet( )) {
+            if (!uris.lookup(e.getKey( ))) {
+                uris.add(e.getKey( ));
+            }
+            StringTablePartition partition = table.getLocalNamesPartition(e.getKey( ));
+            for (String name : e.getValue( )) {
+                if (!partition.lookup(name)) {
+                    partition.add(name);
+                }
+            }
+        }
+        StringTablePartition global = table.getValuePartition( );
+        for (int i = 0; i < this.values.size( ); i++) {
+            String value = this.values.get(i);
+            StringTablePartition local = table.getValuePartition(this.valueNames.get(i));
+            if (!local.lookup(value)) {
+                local.add(value);
+            }
+            if (!global.lookup(value)) {
+                global.add(value);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the productions of element grammars.
+     *
+     * @return The productions in the order they are prepended, mapped to the
+     *         elements' QNames.
+     */
+    Map<QName, List<Production>> getProductions( ) {
+        return this.productions;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the element grammars built for the specified fidelity options.
+     *
+     * @param fidelity The bit mask of the fidelity options.
+     * @return The element grammars mapped to the elements' QNames or
+     *         <code>null</code> if they have not been built yet.
+     */
+    Map<QName, ExiElementGrammar> getTemplates(int fidelity) {
+        return this.templates.get(fidelity);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Keeps the element grammars built for the specified fidelity options
+     * unless another thread has been faster.
+     *
+     * @param fidelity The bit mask of the fidelity options.
+     * @param grammars The element grammars mapped to the elements' QNames.
+     * @return The element grammars which are kept.
+     */
+    Map<QName, ExiElementGrammar> putTemplates(int fidelity, Map<QName, ExiElementGrammar> grammars) {
+        Map<QName, ExiElementGrammar> existing = this.templates.putIfAbsent(fidelity, grammars);
+        return existing != null ? existing : grammars;
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes a QName as its namespace URI and local name.
+     *
+     * @param out The output stream.
+     * @param qname The QName.
+     */
+    private static void writeQName(ByteArrayOutputStream out, QName qname) {
+        ExiGrammarCompiler.writeString(out, qname.getNamespaceURI( ));
+        ExiGrammarCompiler.writeString(out, qname.getLocalPart( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reads a QName written by {@link #writeQName(ByteArrayOutputStream, QName)}.
+     *
+     * @param buffer The buffer.
+     * @return The QName.
+     */
+    private static QName readQName(ByteBuffer buffer) {
+        String uri = ExiGrammarCompiler.readString(buffer);
+        return new QName(uri, ExiGrammarCompiler.readString(buffer));
+    }
+}
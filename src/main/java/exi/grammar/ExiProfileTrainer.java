@@ -0,0 +1,568 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.grammar;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Creates an {@link ExiProfile} from a corpus of sample documents.
+ * <p>
+ * The trainer counts namespace URIs, local names, attribute values and
+ * character data as well as the productions which the built-in element
+ * grammars would learn. Everything which occurs at least
+ * {@link #setMinCount(int) minCount} times makes it into the profile, the
+ * most frequent first and up to the configured limits.
+ * </p>
+ */
+public class ExiProfileTrainer {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * Orders counted entries by descending count and then by their string
+     * representation so that equal corpora give equal profiles.
+     */
+    private static final Comparator<Map.Entry<?, int[]>> BY_COUNT = new Comparator<Map.Entry<?, int[]>>( ) {
+        public int compare(Map.Entry<?, int[]> e1, Map.Entry<?, int[]> e2) {
+            int c = e2.getValue( )[0] - e1.getValue( )[0];
+            return c != 0 ? c : String.valueOf(e1.getKey( )).compareTo(String.valueOf(e2.getKey( )));
+        }
+    };
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The minimum number of occurrences of an entry.
+     */
+    private int minCount = 2;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The maximum number of local names.
+     */
+    private int maxNames = 1024;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The maximum number of values.
+     */
+    private int maxValues = 1024;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The maximum length of values.
+     */
+    private int maxValueLength = 64;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The counted local names mapped to their namespace URIs.
+     */
+    private final Map<String, Map<String, int[]>> names = new HashMap<String, Map<String, int[]>>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The counted values mapped to the QNames they are associated with.
+     */
+    private final Map<QName, Map<String, int[]>> values = new HashMap<QName, Map<String, int[]>>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The counted productions mapped to the QNames of their elements.
+     */
+    private final Map<QName, Map<ExiProfile.Production, int[]>> productions =
+        new HashMap<QName, Map<ExiProfile.Production, int[]>>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The parser for the sample documents.
+     */
+    private final SAXParser parser;
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new trainer.
+     *
+     * @throws ParserConfigurationException If the SAX parser can't be
+     *         created.
+     * @throws SAXException If the SAX parser can't be created.
+     */
+    public ExiProfileTrainer( ) throws ParserConfigurationException, SAXException {
+        SAXParserFactory factory = SAXParserFactory.newInstance( );
+        factory.setNamespaceAware(true);
+        this.parser = factory.newSAXParser( );
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Trains profiles with the sample documents given on the command line
+     * and writes the profile with the ID given by the option <code>-id</code>
+     * to the output directory (option <code>-d</code>, the working directory
+     * by default) under the name which the {@link ExiGrammarRegistry} looks
+     * for.
+     *
+     * @param args The command-line arguments.
+     * @throws Exception If a document cannot be parsed or the profile cannot
+     *         be written.
+     */
+    public static void main(String[] args) throws Exception {
+        String id = null;
+        File dir = new File(".");
+        int i = 0;
+        for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+            if (args[i].equals("-id")) {
+                id = args[i + 1];
+            } else if (args[i].equals("-d")) {
+                dir = new File(args[i + 1]);
+            }
+        }
+        if (id == null || i == args.length) {
+            System.err.println("java ExiProfileTrainer -id profileId [-d directory] document...");
+            System.exit(-1);
+        }
+
+        ExiProfileTrainer trainer = new ExiProfileTrainer( );
+        for (; i < args.length; i++) {
+            trainer.train(new InputSource(new File(args[i]).toURI( ).toString( )));
+        }
+        ExiProfile profile = trainer.createProfile(id);
+        File file = new File(dir, ExiGrammarRegistry.getProfileName(id));
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            profile.write(os);
+        } finally {
+            os.close( );
+        }
+        System.out.println(profile.getSchemaId( ) + " -> " + file.getPath( ) + " (" + profile.getSize( )
+                + " entries, " + file.length( ) + " bytes)");
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Sets the minimum number of occurrences of an entry in the profile.
+     *
+     * @param minCount The minimum number of occurrences.
+     */
+    public void setMinCount(int minCount) {
+        this.minCount = minCount;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Sets the maximum number of local names in the profile.
+     *
+     * @param maxNames The maximum number of local names.
+     */
+    public void setMaxNames(int maxNames) {
+        this.maxNames = maxNames;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Sets the maximum number of values in the profile.
+     *
+     * @param maxValues The maximum number of values.
+     */
+    public void setMaxValues(int maxValues) {
+        this.maxValues = maxValues;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Sets the maximum length of values in the profile. Longer values are
+     * unlikely to repeat and are left out.
+     *
+     * @param maxValueLength The maximum length of values.
+     */
+    public void setMaxValueLength(int maxValueLength) {
+        this.maxValueLength = maxValueLength;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Counts the entries of a sample document.
+     *
+     * @param source The sample document.
+     * @throws SAXException If the document cannot be parsed.
+     * @throws IOException If the document cannot be read.
+     */
+    public void train(InputSource source) throws SAXException, IOException {
+        this.parser.reset( );
+        this.parser.parse(source, new TrainingHandler( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a profile from the entries counted so far.
+     *
+     * @param id The profile's ID.
+     * @return The new profile.
+     */
+    public ExiProfile createProfile(String id) {
+        Map<String, List<String>> profileNames = new LinkedHashMap<String, List<String>>( );
+        List<Map.Entry<String, int[]>> uris = new ArrayList<Map.Entry<String, int[]>>( );
+        for (Map.Entry<String, Map<String, int[]>> e : this.names.entrySet( )) {
+            int[] sum = new int[1];
+            for (int[] count : e.getValue( ).values( )) {
+                sum[0] += count[0];
+            }
+            uris.add(new Entry<String>(e.getKey( ), sum));
+        }
+        int remaining = this.maxNames;
+        for (Map.Entry<String, int[]> uri : select(uris, Integer.MAX_VALUE)) {
+            List<String> list = new ArrayList<String>( );
+            for (Map.Entry<String, int[]> name : select(this.names.get(uri.getKey( )).entrySet( ), remaining)) {
+                list.add(name.getKey( ));
+            }
+            remaining -= list.size( );
+            profileNames.put(uri.getKey( ), Collections.unmodifiableList(list));
+        }
+
+        List<Map.Entry<Map.Entry<QName, String>, int[]>> candidates =
+            new ArrayList<Map.Entry<Map.Entry<QName, String>, int[]>>( );
+        for (Map.Entry<QName, Map<String, int[]>> e : this.values.entrySet( )) {
+            for (Map.Entry<String, int[]> v : e.getValue( ).entrySet( )) {
+                if (v.getKey( ).length( ) <= this.maxValueLength) {
+                    Map.Entry<QName, String> key = new AbstractMap.SimpleImmutableEntry<QName, String>(
+                            e.getKey( ), v.getKey( ));
+                    candidates.add(new Entry<Map.Entry<QName, String>>(key, v.getValue( )));
+                }
+            }
+        }
+        List<String> profileValues = new ArrayList<String>( );
+        List<QName> valueNames = new ArrayList<QName>( );
+        for (Map.Entry<Map.Entry<QName, String>, int[]> e : select(candidates, this.maxValues)) {
+            valueNames.add(e.getKey( ).getKey( ));
+            profileValues.add(e.getKey( ).getValue( ));
+        }
+
+        Map<QName, List<ExiProfile.Production>> profileProductions =
+            new LinkedHashMap<QName, List<ExiProfile.Production>>( );
+        List<QName> elements = new ArrayList<QName>(this.productions.keySet( ));
+        Collections.sort(elements, new Comparator<QName>( ) {
+            public int compare(QName q1, QName q2) {
+                return q1.toString( ).compareTo(q2.toString( ));
+            }
+        });
+        for (QName element : elements) {
+            List<ExiProfile.Production> list = new ArrayList<ExiProfile.Production>( );
+            for (Map.Entry<ExiProfile.Production, int[]> p : select(
+                    this.productions.get(element).entrySet( ), Integer.MAX_VALUE)) {
+                list.add(p.getKey( ));
+            }
+            if (!list.isEmpty( )) {
+                // the production prepended last gets the shortest event code
+                Collections.reverse(list);
+                profileProductions.put(element, Collections.unmodifiableList(list));
+            }
+        }
+
+        return new ExiProfile(id, Collections.unmodifiableMap(profileNames),
+                Collections.unmodifiableList(profileValues), Collections.unmodifiableList(valueNames),
+                Collections.unmodifiableMap(profileProductions));
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the entries which occurred often enough, the most frequent
+     * first.
+     *
+     * @param entries The counted entries.
+     * @param max The maximum number of entries to return.
+     * @return The selected entries.
+     */
+    private <K> List<Map.Entry<K, int[]>> select(Iterable<? extends Map.Entry<K, int[]>> entries, int max) {
+        List<Map.Entry<K, int[]>> result = new ArrayList<Map.Entry<K, int[]>>( );
+        for (Map.Entry<K, int[]> e : entries) {
+            if (e.getValue( )[0] >= this.minCount) {
+                result.add(e);
+            }
+        }
+        Collections.sort(result, BY_COUNT);
+        return result.size( ) > max ? result.subList(0, max) : result;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Increments the count of the specified key.
+     *
+     * @param map The counts.
+     * @param key The key.
+     */
+    private static <K> void count(Map<K, int[]> map, K key) {
+        int[] count = map.get(key);
+        if (count == null) {
+            map.put(key, new int[] { 1 });
+        } else {
+            count[0]++;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Counts a QName's namespace URI and local name.
+     *
+     * @param qname The QName.
+     */
+    private void countName(QName qname) {
+        Map<String, int[]> map = this.names.get(qname.getNamespaceURI( ));
+        if (map == null) {
+            map = new HashMap<String, int[]>( );
+            this.names.put(qname.getNamespaceURI( ), map);
+        }
+        count(map, qname.getLocalPart( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Counts a value associated with a QName.
+     *
+     * @param qname The QName of the element or attribute.
+     * @param value The value.
+     */
+    private void countValue(QName qname, String value) {
+        Map<String, int[]> map = this.values.get(qname);
+        if (map == null) {
+            map = new HashMap<String, int[]>( );
+            this.values.put(qname, map);
+        }
+        count(map, value);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Counts a production of an open element once per occurrence of the
+     * element.
+     *
+     * @param frame The element's frame.
+     * @param qname The QName of the element or attribute or <code>null</code>
+     *        for CH.
+     * @param attribute <code>true</code> for AT.
+     */
+    private void countProduction(Frame frame, QName qname, boolean attribute) {
+        ExiProfile.Production p = new ExiProfile.Production(frame.startTag, qname, attribute);
+        if (frame.seen.add(p)) {
+            Map<ExiProfile.Production, int[]> map = this.productions.get(frame.qname);
+            if (map == null) {
+                map = new HashMap<ExiProfile.Production, int[]>( );
+                this.productions.put(frame.qname, map);
+            }
+            count(map, p);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Nested types
+    // ------------------------------------------------------------------------
+
+    /**
+     * The state of an element which is currently open.
+     */
+    private static final class Frame {
+        /** The element's QName. */
+        final QName qname;
+
+        /** <code>true</code> as long as the start tag group is active. */
+        boolean startTag = true;
+
+        /** The productions which have been counted for this occurrence. */
+        final Set<ExiProfile.Production> seen = new HashSet<ExiProfile.Production>( );
+
+        /**
+         * Creates a new frame.
+         *
+         * @param qname The element's QName.
+         */
+        Frame(QName qname) {
+            this.qname = qname;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * A simple map entry for sorting.
+     */
+    private static final class Entry<K> implements Map.Entry<K, int[]> {
+        /** The key. */
+        private final K key;
+
+        /** The count. */
+        private final int[] count;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param key The key.
+         * @param count The count.
+         */
+        Entry(K key, int[] count) {
+            this.key = key;
+            this.count = count;
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.Map.Entry#getKey()
+         */
+        public K getKey( ) {
+            return this.key;
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.Map.Entry#getValue()
+         */
+        public int[] getValue( ) {
+            return this.count;
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.Map.Entry#setValue(java.lang.Object)
+         */
+        public int[] setValue(int[] value) {
+            throw new UnsupportedOperationException( );
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The SAX handler which counts the entries of a document.
+     */
+    private final class TrainingHandler extends DefaultHandler {
+        /** The open elements. */
+        private final LinkedList<Frame> stack = new LinkedList<Frame>( );
+
+        /** The text collected since the last tag. */
+        private final StringBuilder text = new StringBuilder( );
+
+        /* (non-Javadoc)
+         * @see org.xml.sax.helpers.DefaultHandler#startElement(java.lang.String, java.lang.String, java.lang.String, org.xml.sax.Attributes)
+         */
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            flushText( );
+            QName qname = new QName(uri, localName);
+            countName(qname);
+            Frame parent = this.stack.peek( );
+            if (parent != null) {
+                countProduction(parent, qname, false);
+                parent.startTag = false;
+            }
+
+            Frame frame = new Frame(qname);
+            for (int i = 0; i < attributes.getLength( ); i++) {
+                QName attribute = new QName(attributes.getURI(i), attributes.getLocalName(i));
+                countName(attribute);
+                countValue(attribute, attributes.getValue(i));
+                countProduction(frame, attribute, true);
+            }
+            this.stack.push(frame);
+        }
+
+        /* (non-Javadoc)
+         * @see org.xml.sax.helpers.DefaultHandler#endElement(java.lang.String, java.lang.String, java.lang.String)
+         */
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            flushText( );
+            this.stack.pop( );
+        }
+
+        /* (non-Javadoc)
+         * @see org.xml.sax.helpers.DefaultHandler#characters(char[], int, int)
+         */
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            this.text.append(ch, start, length);
+        }
+
+        /**
+         * Counts the text collected since the last tag.
+         */
+        private void flushText( ) {
+            Frame frame = this.stack.peek( );
+            if (this.text.length( ) == 0 || frame == null) {
+                return;
+            }
+            countValue(frame.qname, this.text.toString( ));
+            countProduction(frame, null, false);
+            frame.startTag = false;
+            this.text.setLength(0);
+        }
+    }
+}
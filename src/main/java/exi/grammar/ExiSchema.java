@@ -0,0 +1,811 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.grammar;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+
+/**
+ * <p>
+ * An XML Schema compiled into the declarations needed for schema-informed
+ * grammars as described in
+ * {@link <a href="http://www.w3.org/TR/exi/#informedGrammars">Section 8.5</a>}
+ * of the EXI documentation.
+ * </p>
+ * <p>
+ * Only the structure of a schema is kept: element declarations, the content
+ * models of complex types and the attributes they declare. Simple types are
+ * not distinguished, so all values are encoded as strings. The
+ * <code>all</code> compositor is treated like a repeated
+ * <code>choice</code>, and <code>include</code>, <code>import</code> and
+ * <code>redefine</code> are not supported.
+ * </p>
+ * <p>
+ * Compiled schemas are immutable and may be shared between threads. They
+ * are usually obtained from the {@link ExiGrammarRegistry}.
+ * </p>
+ */
+public class ExiSchema {
+
+    // ------------------------------------------------------------------------
+    // Static stuff
+    // ------------------------------------------------------------------------
+
+    /**
+     * The value of <code>maxOccurs</code> for unbounded particles.
+     */
+    static final int UNBOUNDED = -1;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Orders QNames by local name first and by namespace URI second, which
+     * is the order of the productions in schema-informed grammars.
+     */
+    static final Comparator<QName> QNAME_ORDER = new Comparator<QName>( ) {
+        public int compare(QName a, QName b) {
+            int result = a.getLocalPart( ).compareTo(b.getLocalPart( ));
+            if (result == 0) {
+                result = a.getNamespaceURI( ).compareTo(b.getNamespaceURI( ));
+            }
+            return result;
+        }
+    };
+
+    // ------------------------------------------------------------------------
+    // Nested types
+    // ------------------------------------------------------------------------
+
+    /**
+     * A global or local element declaration.
+     */
+    static final class ElementDeclaration {
+        /** The element's QName. */
+        final QName name;
+
+        /**
+         * The element's type or <code>null</code> for
+         * <code>xs:anyType</code>, which is handled by built-in grammars.
+         */
+        TypeDefinition type;
+
+        /**
+         * Creates a new element declaration.
+         *
+         * @param name The element's QName.
+         */
+        ElementDeclaration(QName name) {
+            this.name = name;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * A simple or complex type.
+     */
+    static final class TypeDefinition {
+        /** <code>true</code> if the type has simple content. */
+        boolean simple;
+
+        /** <code>true</code> if the type has mixed content. */
+        boolean mixed;
+
+        /** <code>true</code> if the type has an attribute wildcard. */
+        boolean anyAttribute;
+
+        /** The declared attributes in production order. */
+        final SortedSet<QName> attributes = new TreeSet<QName>(QNAME_ORDER);
+
+        /** The content model or <code>null</code> if it is empty. */
+        Particle content;
+
+        /**
+         * The states of the content model's automaton or <code>null</code>
+         * for simple content.
+         */
+        List<ExiSchemaAutomaton.State> states;
+
+        /** <code>true</code> once the type has been read completely. */
+        boolean complete;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * A particle of a content model.
+     */
+    static final class Particle {
+        /** The particle kinds. */
+        enum Kind {
+            /** An element declaration. */
+            ELEMENT,
+            /** An element wildcard. */
+            WILDCARD,
+            /** A sequence of particles. */
+            SEQUENCE,
+            /** A choice between particles. */
+            CHOICE
+        }
+
+        /** The kind of this particle. */
+        final Kind kind;
+
+        /** The element declaration of an element particle. */
+        final ElementDeclaration element;
+
+        /** The particles of a sequence or choice. */
+        final List<Particle> children = new ArrayList<Particle>( );
+
+        /** The minimum number of occurrences. */
+        int minOccurs = 1;
+
+        /** The maximum number of occurrences or {@link ExiSchema#UNBOUNDED}. */
+        int maxOccurs = 1;
+
+        /**
+         * Creates a new particle.
+         *
+         * @param kind The kind of the particle.
+         * @param element The element declaration of an element particle.
+         */
+        Particle(Kind kind, ElementDeclaration element) {
+            this.kind = kind;
+            this.element = element;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The global element declarations mapped to their QNames.
+     */
+    private final Map<QName, ElementDeclaration> elements = new LinkedHashMap<QName, ElementDeclaration>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The local names of all declared elements and attributes mapped to their
+     * namespace URIs.
+     */
+    private final SortedMap<String, SortedSet<String>> names = new TreeMap<String, SortedSet<String>>( );
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new, empty schema which is filled by {@link Parser} or while
+     * loading a compiled grammar artifact.
+     */
+    ExiSchema( ) {
+        super( );
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Compiles the XML Schema read from the specified source.
+     *
+     * @param source The source of the schema document.
+     * @return The compiled schema.
+     * @throws ExiSchemaException If the schema cannot be read or uses
+     *         unsupported features.
+     */
+    public static ExiSchema compile(InputSource source) throws ExiSchemaException {
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance( );
+        dbf.setNamespaceAware(true);
+        dbf.setExpandEntityReferences(false);
+        Element root;
+        try {
+            // schemas may come from untrusted places, so no DTDs and entities
+            dbf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            dbf.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            root = dbf.newDocumentBuilder( ).parse(source).getDocumentElement( );
+        } catch (ParserConfigurationException e) {
+            throw new ExiSchemaException("Cannot create a parser for schemas", e);
+        } catch (SAXException e) {
+            throw new ExiSchemaException("Cannot parse schema " + source.getSystemId( ), e);
+        } catch (IOException e) {
+            throw new ExiSchemaException("Cannot read schema " + source.getSystemId( ), e);
+        }
+        return new Parser(root).parse( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Compiles the XML Schema with the specified ID, which must name a class
+     * path resource. Schema IDs are read from the header of decoded streams,
+     * so they are never resolved as files or URLs here.
+     *
+     * @param schemaId The schema ID.
+     * @return The compiled schema.
+     * @throws ExiSchemaException If the schema cannot be located, read or
+     *         compiled.
+     */
+    public static ExiSchema compile(String schemaId) throws ExiSchemaException {
+        URL url = ExiSchema.class.getResource(schemaId.startsWith("/") ? schemaId : "/" + schemaId);
+        if (url == null) {
+            throw new ExiSchemaException("Unknown schema " + schemaId);
+        }
+        return compile(new InputSource(url.toString( )));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Compiles the XML Schema at the specified location, which is a class
+     * path resource, a file or a URL, in that order. Only use this for
+     * trusted locations.
+     *
+     * @param location The schema location.
+     * @return The compiled schema.
+     * @throws ExiSchemaException If the schema cannot be located, read or
+     *         compiled.
+     */
+    public static ExiSchema compileLocation(String location) throws ExiSchemaException {
+        URL url = ExiSchema.class.getResource(location.startsWith("/") ? location : "/" + location);
+        try {
+            if (url == null) {
+                File file = new File(location);
+                url = file.isFile( ) ? file.toURI( ).toURL( ) : new URL(location);
+            }
+        } catch (MalformedURLException e) {
+            throw new ExiSchemaException("Cannot locate schema " + location, e);
+        }
+        return compile(new InputSource(url.toString( )));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the global element declaration with the specified QName.
+     *
+     * @param qname The element's QName.
+     * @return The element declaration or <code>null</code> if there is none.
+     */
+    ElementDeclaration getElement(QName qname) {
+        return this.elements.get(qname);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the global element declarations.
+     *
+     * @return The global element declarations.
+     */
+    Collection<ElementDeclaration> getElements( ) {
+        return Collections.unmodifiableCollection(this.elements.values( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the local names of all declared elements and attributes mapped
+     * to their namespace URIs. Both are sorted lexicographically.
+     *
+     * @return The local names mapped to their namespace URIs.
+     */
+    SortedMap<String, SortedSet<String>> getNames( ) {
+        return Collections.unmodifiableSortedMap(this.names);
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds a global element declaration.
+     *
+     * @param decl The element declaration.
+     */
+    void addElement(ElementDeclaration decl) {
+        this.elements.put(decl.name, decl);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds the specified name to the names of declared elements and
+     * attributes.
+     *
+     * @param qname The name.
+     */
+    void addName(QName qname) {
+        SortedSet<String> set = this.names.get(qname.getNamespaceURI( ));
+        if (set == null) {
+            set = new TreeSet<String>( );
+            this.names.put(qname.getNamespaceURI( ), set);
+        }
+        set.add(qname.getLocalPart( ));
+    }
+
+    // ------------------------------------------------------------------------
+    // Nested types
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reads the declarations from a schema document. Named types, groups and
+     * global elements are read when they are referenced for the first time,
+     * so recursive definitions end up as cycles between the declarations.
+     */
+    private static final class Parser {
+        /** The schema being filled. */
+        private final ExiSchema schema = new ExiSchema( );
+
+        /** The schema document's root element. */
+        private final Element root;
+
+        /** The schema's target namespace. */
+        private final String targetNamespace;
+
+        /** <code>true</code> if local elements are qualified by default. */
+        private final boolean elementsQualified;
+
+        /** <code>true</code> if local attributes are qualified by default. */
+        private final boolean attributesQualified;
+
+        /** The global definitions mapped to their kind and their QName. */
+        private final Map<String, Map<QName, Element>> definitions = new HashMap<String, Map<QName, Element>>( );
+
+        /** The named types which have been read so far. */
+        private final Map<QName, TypeDefinition> types = new HashMap<QName, TypeDefinition>( );
+
+        /** All complex types which have been read so far. */
+        private final List<TypeDefinition> complexTypes = new ArrayList<TypeDefinition>( );
+
+        /**
+         * Creates a new parser.
+         *
+         * @param root The schema document's root element.
+         */
+        Parser(Element root) {
+            this.root = root;
+            this.targetNamespace = root.getAttribute("targetNamespace");
+            this.elementsQualified = "qualified".equals(root.getAttribute("elementFormDefault"));
+            this.attributesQualified = "qualified".equals(root.getAttribute("attributeFormDefault"));
+        }
+
+        /**
+         * Reads the schema document.
+         *
+         * @return The compiled schema.
+         * @throws ExiSchemaException If the schema uses unsupported features
+         *         or refers to missing definitions.
+         */
+        ExiSchema parse( ) throws ExiSchemaException {
+            if (!XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(this.root.getNamespaceURI( ))
+                    || !"schema".equals(this.root.getLocalName( ))) {
+                throw new ExiSchemaException("Not a schema document: " + this.root.getTagName( ));
+            }
+            for (Element e : children(this.root)) {
+                String kind = e.getLocalName( );
+                if (kind.equals("include") || kind.equals("import") || kind.equals("redefine")) {
+                    throw new ExiSchemaException("Unsupported schema composition: " + kind);
+                }
+                if (e.hasAttribute("name")) {
+                    Map<QName, Element> map = this.definitions.get(kind);
+                    if (map == null) {
+                        map = new HashMap<QName, Element>( );
+                        this.definitions.put(kind, map);
+                    }
+                    map.put(new QName(this.targetNamespace, e.getAttribute("name")), e);
+                }
+            }
+            for (Element e : children(this.root)) {
+                String kind = e.getLocalName( );
+                QName qname = new QName(this.targetNamespace, e.getAttribute("name"));
+                if (kind.equals("element")) {
+                    getGlobalElement(qname);
+                } else if (kind.equals("attribute")) {
+                    this.schema.addName(qname);
+                } else if (kind.equals("complexType")) {
+                    getType(qname);
+                }
+            }
+            for (TypeDefinition type : this.complexTypes) {
+                if (!type.simple) {
+                    type.states = new ExiSchemaAutomaton(type.content).getStates( );
+                }
+            }
+            return this.schema;
+        }
+
+        /**
+         * Returns the global element declaration with the specified QName and
+         * reads it if necessary.
+         *
+         * @param qname The element's QName.
+         * @return The element declaration.
+         * @throws ExiSchemaException If there is no such element.
+         */
+        private ElementDeclaration getGlobalElement(QName qname) throws ExiSchemaException {
+            ElementDeclaration decl = this.schema.elements.get(qname);
+            if (decl == null) {
+                Element e = getDefinition("element", qname);
+                decl = new ElementDeclaration(qname);
+                this.schema.addElement(decl);
+                this.schema.addName(qname);
+                decl.type = readElementType(e);
+            }
+            return decl;
+        }
+
+        /**
+         * Returns the named type with the specified QName and reads it if
+         * necessary.
+         *
+         * @param qname The type's QName.
+         * @return The type or <code>null</code> for <code>xs:anyType</code>.
+         * @throws ExiSchemaException If there is no such type.
+         */
+        private TypeDefinition getType(QName qname) throws ExiSchemaException {
+            TypeDefinition type = this.types.get(qname);
+            if (type == null) {
+                if (XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(qname.getNamespaceURI( ))) {
+                    if (qname.getLocalPart( ).equals("anyType")) {
+                        return null;
+                    }
+                    type = simpleType( );
+                } else if (getDefinitions("complexType").containsKey(qname)) {
+                    type = new TypeDefinition( );
+                    this.types.put(qname, type);
+                    readComplexType(getDefinition("complexType", qname), type);
+                } else {
+                    getDefinition("simpleType", qname);
+                    type = simpleType( );
+                }
+                this.types.put(qname, type);
+            }
+            return type;
+        }
+
+        /**
+         * Reads the type of an element declaration.
+         *
+         * @param e The element declaration.
+         * @return The type or <code>null</code> for <code>xs:anyType</code>.
+         * @throws ExiSchemaException If the type cannot be read.
+         */
+        private TypeDefinition readElementType(Element e) throws ExiSchemaException {
+            if (e.hasAttribute("type")) {
+                return getType(resolve(e, e.getAttribute("type")));
+            }
+            for (Element c : children(e)) {
+                if (c.getLocalName( ).equals("complexType")) {
+                    TypeDefinition type = new TypeDefinition( );
+                    readComplexType(c, type);
+                    return type;
+                } else if (c.getLocalName( ).equals("simpleType")) {
+                    return simpleType( );
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Reads a complex type definition.
+         *
+         * @param e The complex type definition.
+         * @param type The type to be filled.
+         * @throws ExiSchemaException If the type cannot be read.
+         */
+        private void readComplexType(Element e, TypeDefinition type) throws ExiSchemaException {
+            this.complexTypes.add(type);
+            type.mixed = "true".equals(e.getAttribute("mixed"));
+            for (Element c : children(e)) {
+                String kind = c.getLocalName( );
+                if (kind.equals("simpleContent")) {
+                    type.simple = true;
+                    for (Element d : children(c)) {
+                        readAttributes(d, type);
+                    }
+                } else if (kind.equals("complexContent")) {
+                    if (c.hasAttribute("mixed")) {
+                        type.mixed = "true".equals(c.getAttribute("mixed"));
+                    }
+                    for (Element d : children(c)) {
+                        readDerivation(d, type);
+                    }
+                } else {
+                    readContent(c, type);
+                }
+            }
+            type.complete = true;
+        }
+
+        /**
+         * Reads a derivation of a complex type by extension or restriction.
+         *
+         * @param e The <code>extension</code> or <code>restriction</code>
+         *        element.
+         * @param type The type to be filled.
+         * @throws ExiSchemaException If the type cannot be read.
+         */
+        private void readDerivation(Element e, TypeDefinition type) throws ExiSchemaException {
+            TypeDefinition base = getType(resolve(e, e.getAttribute("base")));
+            if (base != null && !base.complete) {
+                throw new ExiSchemaException("Circular derivation of type " + e.getAttribute("base"));
+            }
+            if (base != null) {
+                type.attributes.addAll(base.attributes);
+                type.anyAttribute |= base.anyAttribute;
+            }
+            Particle inherited = null;
+            if (base != null && e.getLocalName( ).equals("extension")) {
+                type.simple = base.simple;
+                inherited = base.content;
+            }
+            for (Element c : children(e)) {
+                readContent(c, type);
+            }
+            if (inherited != null && type.content != null) {
+                Particle sequence = new Particle(Particle.Kind.SEQUENCE, null);
+                sequence.children.add(inherited);
+                sequence.children.add(type.content);
+                type.content = sequence;
+            } else if (inherited != null) {
+                type.content = inherited;
+            }
+        }
+
+        /**
+         * Reads a content model or attribute declaration of a complex type.
+         *
+         * @param e The content model or attribute declaration.
+         * @param type The type to be filled.
+         * @throws ExiSchemaException If the content cannot be read.
+         */
+        private void readContent(Element e, TypeDefinition type) throws ExiSchemaException {
+            String kind = e.getLocalName( );
+            if (kind.equals("sequence") || kind.equals("choice") || kind.equals("all") || kind.equals("group")) {
+                type.content = readParticle(e);
+            } else {
+                readAttributes(e, type);
+            }
+        }
+
+        /**
+         * Reads an attribute declaration, attribute group reference or
+         * attribute wildcard. Other elements are ignored.
+         *
+         * @param e The element to be read.
+         * @param type The type to be filled.
+         * @throws ExiSchemaException If the attributes cannot be read.
+         */
+        private void readAttributes(Element e, TypeDefinition type) throws ExiSchemaException {
+            String kind = e.getLocalName( );
+            if (kind.equals("attribute")) {
+                QName qname;
+                if (e.hasAttribute("ref")) {
+                    qname = resolve(e, e.getAttribute("ref"));
+                } else {
+                    boolean qualified = e.hasAttribute("form")
+                            ? "qualified".equals(e.getAttribute("form"))
+                            : this.attributesQualified;
+                    qname = new QName(qualified ? this.targetNamespace : "", e.getAttribute("name"));
+                }
+                if ("prohibited".equals(e.getAttribute("use"))) {
+                    type.attributes.remove(qname);
+                } else {
+                    type.attributes.add(qname);
+                    this.schema.addName(qname);
+                }
+            } else if (kind.equals("attributeGroup")) {
+                Element group = getDefinition("attributeGroup", resolve(e, e.getAttribute("ref")));
+                for (Element c : children(group)) {
+                    readAttributes(c, type);
+                }
+            } else if (kind.equals("anyAttribute")) {
+                type.anyAttribute = true;
+            } else if (kind.equals("extension") || kind.equals("restriction")) {
+                TypeDefinition base = getType(resolve(e, e.getAttribute("base")));
+                if (base != null) {
+                    type.attributes.addAll(base.attributes);
+                    type.anyAttribute |= base.anyAttribute;
+                }
+                for (Element c : children(e)) {
+                    readAttributes(c, type);
+                }
+            }
+        }
+
+        /**
+         * Reads a particle.
+         *
+         * @param e The particle's element.
+         * @return The particle or <code>null</code> if it must not occur.
+         * @throws ExiSchemaException If the particle cannot be read.
+         */
+        private Particle readParticle(Element e) throws ExiSchemaException {
+            String kind = e.getLocalName( );
+            Particle particle;
+            if (kind.equals("element")) {
+                particle = new Particle(Particle.Kind.ELEMENT, readLocalElement(e));
+            } else if (kind.equals("any")) {
+                particle = new Particle(Particle.Kind.WILDCARD, null);
+            } else if (kind.equals("group")) {
+                particle = new Particle(Particle.Kind.SEQUENCE, null);
+                Element group = getDefinition("group", resolve(e, e.getAttribute("ref")));
+                for (Element c : children(group)) {
+                    Particle p = readParticle(c);
+                    if (p != null) {
+                        particle.children.add(p);
+                    }
+                }
+            } else if (kind.equals("sequence") || kind.equals("choice") || kind.equals("all")) {
+                particle = new Particle(kind.equals("sequence")
+                        ? Particle.Kind.SEQUENCE
+                        : Particle.Kind.CHOICE, null);
+                for (Element c : children(e)) {
+                    Particle p = readParticle(c);
+                    if (p != null) {
+                        particle.children.add(p);
+                    }
+                }
+            } else {
+                return null;
+            }
+
+            if (e.hasAttribute("minOccurs")) {
+                particle.minOccurs = Integer.parseInt(e.getAttribute("minOccurs"));
+            }
+            if (e.hasAttribute("maxOccurs")) {
+                String max = e.getAttribute("maxOccurs");
+                particle.maxOccurs = max.equals("unbounded") ? UNBOUNDED : Integer.parseInt(max);
+            }
+            if (kind.equals("all")) {
+                // any order: the children may occur in any sequence
+                particle.minOccurs = 0;
+                particle.maxOccurs = UNBOUNDED;
+            }
+            return particle.maxOccurs == 0 ? null : particle;
+        }
+
+        /**
+         * Reads an element particle's declaration, which is either a reference
+         * to a global element or a local element declaration.
+         *
+         * @param e The element particle.
+         * @return The element declaration.
+         * @throws ExiSchemaException If the declaration cannot be read.
+         */
+        private ElementDeclaration readLocalElement(Element e) throws ExiSchemaException {
+            if (e.hasAttribute("ref")) {
+                return getGlobalElement(resolve(e, e.getAttribute("ref")));
+            }
+            boolean qualified = e.hasAttribute("form")
+                    ? "qualified".equals(e.getAttribute("form"))
+                    : this.elementsQualified;
+            QName qname = new QName(qualified ? this.targetNamespace : "", e.getAttribute("name"));
+            ElementDeclaration decl = new ElementDeclaration(qname);
+            this.schema.addName(qname);
+            decl.type = readElementType(e);
+            return decl;
+        }
+
+        /**
+         * Returns the global definitions of the specified kind.
+         *
+         * @param kind The kind of definition, e.g. <code>complexType</code>.
+         * @return The definitions mapped to their QNames.
+         */
+        private Map<QName, Element> getDefinitions(String kind) {
+            Map<QName, Element> map = this.definitions.get(kind);
+            return map != null ? map : Collections.<QName, Element>emptyMap( );
+        }
+
+        /**
+         * Returns the global definition of the specified kind and QName.
+         *
+         * @param kind The kind of definition, e.g. <code>complexType</code>.
+         * @param qname The definition's QName.
+         * @return The definition.
+         * @throws ExiSchemaException If there is no such definition.
+         */
+        private Element getDefinition(String kind, QName qname) throws ExiSchemaException {
+            Element e = getDefinitions(kind).get(qname);
+            if (e == null) {
+                throw new ExiSchemaException(String.format("Unknown %s %s", kind, qname));
+            }
+            return e;
+        }
+
+        /**
+         * Resolves a QName from an attribute value using the namespace
+         * declarations in scope.
+         *
+         * @param context The element carrying the attribute.
+         * @param value The attribute value.
+         * @return The resolved QName.
+         */
+        private static QName resolve(Element context, String value) {
+            int colon = value.indexOf(':');
+            String prefix = colon < 0 ? null : value.substring(0, colon);
+            String uri = context.lookupNamespaceURI(prefix);
+            return new QName(uri == null ? "" : uri, value.substring(colon + 1));
+        }
+
+        /**
+         * Creates a type with simple content and no attributes.
+         *
+         * @return The new type.
+         */
+        private static TypeDefinition simpleType( ) {
+            TypeDefinition type = new TypeDefinition( );
+            type.simple = true;
+            type.complete = true;
+            return type;
+        }
+
+        /**
+         * Returns the child elements from the XML Schema namespace of the
+         * specified element, without annotations.
+         *
+         * @param e The parent element.
+         * @return The child elements.
+         */
+        private static List<Element> children(Element e) {
+            List<Element> result = new ArrayList<Element>( );
+            for (Node n = e.getFirstChild( ); n != null; n = n.getNextSibling( )) {
+                if (n.getNodeType( ) == Node.ELEMENT_NODE
+                        && XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(n.getNamespaceURI( ))
+                        && !"annotation".equals(n.getLocalName( ))) {
+                    result.add((Element) n);
+                }
+            }
+            return result;
+        }
+    }
+}
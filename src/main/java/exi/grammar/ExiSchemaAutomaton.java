@@ -0,0 +1,331 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.grammar;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.namespace.QName;
+
+import exi.grammar.ExiSchema.ElementDeclaration;
+import exi.grammar.ExiSchema.Particle;
+
+/**
+ * <p>
+ * The deterministic automaton accepting the sequences of child elements
+ * allowed by a content model. Each state becomes a group of a
+ * schema-informed element grammar.
+ * </p>
+ * <p>
+ * Every element or wildcard occurring in the content model is a position.
+ * The states are the sets of positions which may have been matched last, so
+ * the initial state is the empty set.
+ * </p>
+ */
+class ExiSchemaAutomaton {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * Occurrence bounds above this value are treated as unbounded. This
+     * accepts slightly more than the schema does but keeps the automata
+     * small.
+     */
+    private static final int MAX_OCCURS = 16;
+
+    // ------------------------------------------------------------------------
+    // Nested types
+    // ------------------------------------------------------------------------
+
+    /**
+     * A state of the automaton.
+     */
+    static final class State {
+        /** The elements accepted next, in production order. */
+        final List<ElementDeclaration> elements = new ArrayList<ElementDeclaration>( );
+
+        /** The states following the elements accepted next. */
+        final List<Integer> targets = new ArrayList<Integer>( );
+
+        /** The state following a wildcard or -1 if there is no wildcard. */
+        int wildcard = -1;
+
+        /** <code>true</code> if the content may end in this state. */
+        boolean accepting;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The first and last positions of a part of the content model and
+     * whether it may be empty.
+     */
+    private static final class Fragment {
+        /** The positions which may be matched first. */
+        final BitSet first = new BitSet( );
+
+        /** The positions which may be matched last. */
+        final BitSet last = new BitSet( );
+
+        /** <code>true</code> if this part may be empty. */
+        boolean nullable;
+    }
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The particles of all positions.
+     */
+    private final List<Particle> positions = new ArrayList<Particle>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The positions which may follow each position.
+     */
+    private final List<BitSet> follow = new ArrayList<BitSet>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The states of this automaton, starting with the initial one.
+     */
+    private final List<State> states = new ArrayList<State>( );
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates the automaton for the specified content model.
+     *
+     * @param content The content model or <code>null</code> if the content
+     *        is empty.
+     */
+    ExiSchemaAutomaton(Particle content) {
+        Fragment model;
+        if (content != null) {
+            model = build(content);
+        } else {
+            model = new Fragment( );
+            model.nullable = true;
+        }
+
+        Map<BitSet, Integer> ids = new HashMap<BitSet, Integer>( );
+        List<BitSet> sets = new ArrayList<BitSet>( );
+        BitSet initial = new BitSet( );
+        ids.put(initial, Integer.valueOf(0));
+        sets.add(initial);
+
+        for (int i = 0; i < sets.size( ); ++i) {
+            BitSet set = sets.get(i);
+            State state = new State( );
+            this.states.add(state);
+
+            BitSet next;
+            if (set.isEmpty( )) {
+                next = model.first;
+                state.accepting = model.nullable;
+            } else {
+                next = new BitSet( );
+                for (int p = set.nextSetBit(0); p >= 0; p = set.nextSetBit(p + 1)) {
+                    next.or(this.follow.get(p));
+                }
+                state.accepting = set.intersects(model.last);
+            }
+
+            // group the next positions by element name
+            TreeMap<QName, BitSet> byName = new TreeMap<QName, BitSet>(ExiSchema.QNAME_ORDER);
+            BitSet wildcards = new BitSet( );
+            for (int p = next.nextSetBit(0); p >= 0; p = next.nextSetBit(p + 1)) {
+                Particle particle = this.positions.get(p);
+                if (particle.element == null) {
+                    wildcards.set(p);
+                } else {
+                    BitSet target = byName.get(particle.element.name);
+                    if (target == null) {
+                        target = new BitSet( );
+                        byName.put(particle.element.name, target);
+                    }
+                    target.set(p);
+                }
+            }
+
+            for (BitSet target : byName.values( )) {
+                state.elements.add(this.positions.get(target.nextSetBit(0)).element);
+                state.targets.add(Integer.valueOf(getState(target, ids, sets)));
+            }
+            if (!wildcards.isEmpty( )) {
+                state.wildcard = getState(wildcards, ids, sets);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the states of this automaton. The first state is the initial
+     * one.
+     *
+     * @return The states.
+     */
+    List<State> getStates( ) {
+        return this.states;
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of the state for the specified set of positions and
+     * adds a new state if necessary.
+     *
+     * @param set The set of positions.
+     * @param ids The state numbers mapped to their sets of positions.
+     * @param sets The sets of positions of all states found so far.
+     * @return The state number.
+     */
+    private static int getState(BitSet set, Map<BitSet, Integer> ids, List<BitSet> sets) {
+        Integer id = ids.get(set);
+        if (id == null) {
+            id = Integer.valueOf(sets.size( ));
+            ids.put(set, id);
+            sets.add(set);
+        }
+        return id.intValue( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Builds the positions for a particle including its occurrences.
+     *
+     * @param particle The particle.
+     * @return The particle's fragment.
+     */
+    private Fragment build(Particle particle) {
+        int min = Math.min(particle.minOccurs, MAX_OCCURS);
+        boolean unbounded = particle.maxOccurs == ExiSchema.UNBOUNDED || particle.maxOccurs > MAX_OCCURS;
+
+        Fragment result = new Fragment( );
+        result.nullable = true;
+        Fragment copy = null;
+        for (int i = 0; i < min; ++i) {
+            copy = buildTerm(particle);
+            result = sequence(result, copy);
+        }
+        if (unbounded) {
+            if (copy == null) {
+                copy = buildTerm(particle);
+                copy.nullable = true;
+                result = sequence(result, copy);
+            }
+            // the last copy may be repeated
+            for (int p = copy.last.nextSetBit(0); p >= 0; p = copy.last.nextSetBit(p + 1)) {
+                this.follow.get(p).or(copy.first);
+            }
+        } else {
+            for (int i = min; i < particle.maxOccurs; ++i) {
+                copy = buildTerm(particle);
+                copy.nullable = true;
+                result = sequence(result, copy);
+            }
+        }
+        return result;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Builds the positions for a single occurrence of a particle.
+     *
+     * @param particle The particle.
+     * @return The fragment of the occurrence.
+     */
+    private Fragment buildTerm(Particle particle) {
+        Fragment result = new Fragment( );
+        switch (particle.kind) {
+            case ELEMENT:
+            case WILDCARD:
+                int p = this.positions.size( );
+                this.positions.add(particle);
+                this.follow.add(new BitSet( ));
+                result.first.set(p);
+                result.last.set(p);
+                break;
+            case SEQUENCE:
+                result.nullable = true;
+                for (Particle child : particle.children) {
+                    result = sequence(result, build(child));
+                }
+                break;
+            case CHOICE:
+                result.nullable = particle.children.isEmpty( );
+                for (Particle child : particle.children) {
+                    Fragment f = build(child);
+                    result.first.or(f.first);
+                    result.last.or(f.last);
+                    result.nullable |= f.nullable;
+                }
+                break;
+        }
+        return result;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Concatenates two fragments.
+     *
+     * @param a The leading fragment.
+     * @param b The trailing fragment.
+     * @return The concatenation.
+     */
+    private Fragment sequence(Fragment a, Fragment b) {
+        for (int p = a.last.nextSetBit(0); p >= 0; p = a.last.nextSetBit(p + 1)) {
+            this.follow.get(p).or(b.first);
+        }
+        Fragment result = new Fragment( );
+        result.first.or(a.first);
+        if (a.nullable) {
+            result.first.or(b.first);
+        }
+        result.last.or(b.last);
+        if (b.nullable) {
+            result.last.or(a.last);
+        }
+        result.nullable = a.nullable && b.nullable;
+        return result;
+    }
+}
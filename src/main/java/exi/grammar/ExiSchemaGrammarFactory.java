@@ -0,0 +1,491 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.grammar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+import javax.xml.namespace.QName;
+
+import org.apache.log4j.Logger;
+
+import exi.ExiException;
+import exi.ExiLogger;
+import exi.ExiOptions;
+import exi.ExiOptions.FidelityOption;
+import exi.events.ExiEventCodeGenerator;
+import exi.grammar.ExiSchema.ElementDeclaration;
+import exi.grammar.ExiSchema.TypeDefinition;
+import exi.utils.ExiStringTable;
+import exi.utils.StringTablePartition;
+
+/**
+ * <p>
+ * Factory for schema-informed EXI grammars as described in
+ * {@link <a href="http://www.w3.org/TR/exi/#informedGrammars">Section 8.5</a>}
+ * of the EXI documentation.
+ * </p>
+ * <p>
+ * Declared elements and attributes are matched by rules which know their
+ * names, so neither names nor learned productions have to be encoded for
+ * them, and the content models restrict the productions to those allowed at
+ * each point. Elements matched by a wildcard and elements of type
+ * <code>xs:anyType</code> use built-in grammars. The grammars are strict in
+ * that undeclared elements and attributes are not accepted elsewhere, with
+ * the exception of whitespace in element-only content which is dropped by the
+ * encoder.
+ * </p>
+ * <p>
+ * Unlike with {@link ExiBuiltInGrammarFactory}, attributes are accepted in
+ * any order since the event sources deliver them in document order.
+ * </p>
+ */
+public class ExiSchemaGrammarFactory implements ExiGrammarFactory {
+
+    // ------------------------------------------------------------------------
+    // Static stuff
+    // ------------------------------------------------------------------------
+
+    /**
+     * The EXI logger user for logging stuff.
+     */
+    private static final Logger log = ExiLogger.getLogger(ExiSchemaGrammarFactory.class);
+
+    // ------------------------------------------------------------------------
+    // Nested types
+    // ------------------------------------------------------------------------
+
+    /**
+     * A production of a group whose event code is assigned when the group is
+     * complete.
+     */
+    private static final class Production {
+        /** The event type. */
+        final String eventType;
+
+        /** The right-hand side. */
+        final String rightHandSide;
+
+        /** The QName of a declared element or attribute. */
+        final QName qname;
+
+        /** The declaration of an element. */
+        final ElementDeclaration declaration;
+
+        /**
+         * Creates a new production.
+         *
+         * @param eventType The event type.
+         * @param rightHandSide The right-hand side.
+         * @param qname The QName of a declared element or attribute or
+         *        <code>null</code>.
+         * @param declaration The declaration of an element or
+         *        <code>null</code>.
+         */
+        Production(String eventType, String rightHandSide, QName qname, ElementDeclaration declaration) {
+            this.eventType = eventType;
+            this.rightHandSide = rightHandSide;
+            this.qname = qname;
+            this.declaration = declaration;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The schema the grammars are built from.
+     */
+    private final ExiSchema schema;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The factory for elements without a schema-informed grammar.
+     */
+    private final ExiBuiltInGrammarFactory builtIn;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The templates of the element grammars mapped to their declarations.
+     */
+    private final Map<ElementDeclaration, ExiSchemaGrammar> templates =
+            new IdentityHashMap<ElementDeclaration, ExiSchemaGrammar>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The template of the document grammar or <code>null</code> if it has not
+     * been built yet.
+     */
+    private ExiSchemaGrammar document;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The template of the fragment grammar or <code>null</code> if it has not
+     * been built yet.
+     */
+    private ExiSchemaGrammar fragment;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The EXI options.
+     */
+    private ExiOptions options;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The fidelity options the templates have been built for.
+     */
+    private int fidelity;
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new factory for creating schema-informed grammars.
+     *
+     * @param schema The schema the grammars are built from.
+     * @param options The EXI options used for grammar creation.
+     */
+    public ExiSchemaGrammarFactory(ExiSchema schema, ExiOptions options) {
+        this.schema = schema;
+        this.builtIn = new ExiBuiltInGrammarFactory(options);
+        this.options = options;
+        this.fidelity = getFidelity(options);
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the schema the grammars are built from.
+     *
+     * @return The schema.
+     */
+    public ExiSchema getSchema( ) {
+        return this.schema;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * <p>
+     * Creates an EXI Schema-informed Document Grammar as described in
+     * {@link <a href="http://www.w3.org/TR/exi/#informedDocGrammars">Section 8.5.1</a>}
+     * of the EXI documentation.
+     * </p>
+     */
+    public ExiGrammar createDocumentGrammar( ) throws ExiException {
+        if (this.document == null) {
+            ExiSchemaGrammar eg = new ExiSchemaGrammar( );
+            List<Production> content = new ArrayList<Production>( );
+
+            appendGroup(eg, "Document", Collections.singletonList(new Production("SD", "DocContent", null, null)), false);
+            addGlobalElements(content, "DocEnd");
+            appendGroup(eg, "DocContent", content, false);
+            appendGroup(eg, "DocEnd", Collections.singletonList(new Production("ED", "", null, null)), false);
+            eg.setInitialGroup("Document");
+
+            this.document = eg;
+        }
+        return new ExiSchemaGrammar(this.document);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * <p>
+     * Creates an EXI Schema-informed Fragment Grammar as described in
+     * {@link <a href="http://www.w3.org/TR/exi/#informedFragGrammars">Section 8.5.2</a>}
+     * of the EXI documentation.
+     * </p>
+     */
+    public ExiGrammar createFragmentGrammar( ) throws ExiException {
+        if (this.fragment == null) {
+            ExiSchemaGrammar eg = new ExiSchemaGrammar( );
+            List<Production> content = new ArrayList<Production>( );
+
+            appendGroup(eg, "Fragment", Collections.singletonList(new Production("SD", "FragmentContent", null, null)), false);
+            addGlobalElements(content, "FragmentContent");
+            content.add(new Production("ED", "", null, null));
+            appendGroup(eg, "FragmentContent", content, false);
+            eg.setInitialGroup("Fragment");
+
+            this.fragment = eg;
+        }
+        return new ExiSchemaGrammar(this.fragment);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * <p>
+     * Creates an EXI Schema-informed Element Grammar as described in
+     * {@link <a href="http://www.w3.org/TR/exi/#informedElementGrammars">Section 8.5.4</a>}
+     * of the EXI documentation for the element declaration known to the
+     * specified rule. For elements matched by a wildcard the global
+     * declaration is used if there is one, otherwise a built-in grammar.
+     * </p>
+     */
+    public ExiGrammar createElementGrammar(QName qname, ExiGrammarRule rule) throws ExiException {
+        ElementDeclaration decl = null;
+        if (rule instanceof ExiSchemaRule) {
+            decl = ((ExiSchemaRule) rule).getDeclaration( );
+        }
+        if (decl == null) {
+            decl = this.schema.getElement(qname);
+        }
+        if (decl == null || decl.type == null) {
+            return this.builtIn.createElementGrammar(qname);
+        }
+
+        ExiSchemaGrammar template = this.templates.get(decl);
+        if (template == null) {
+            template = buildElementGrammar(decl.type);
+            this.templates.put(decl, template);
+            if (ExiLogger.TRACE) {
+                log.debug(String.format("Element grammar for %s built:\n%s", qname, template));
+            }
+        }
+        return new ExiSchemaGrammar(template);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds the namespace URIs and local names of all declared elements and
+     * attributes in lexicographical order.
+     *
+     * @see exi.grammar.ExiGrammarFactory#initializeStringTable(exi.utils.ExiStringTable)
+     */
+    public void initializeStringTable(ExiStringTable table) {
+        StringTablePartition uris = table.getUriPartition( );
+        for (Map.Entry<String, SortedSet<String>> e : this.schema.getNames( ).entrySet( )) {
+            if (!uris.lookup(e.getKey( ))) {
+                uris.add(e.getKey( ));
+            }
+            StringTablePartition names = table.getLocalNamesPartition(e.getKey( ));
+            for (String name : e.getValue( )) {
+                if (!names.lookup(name)) {
+                    names.add(name);
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Prepares this factory for another document. The schema-informed
+     * grammars are never extended, so they are only built again if the
+     * fidelity options have changed.
+     *
+     * @see exi.grammar.ExiGrammarFactory#reset(exi.ExiOptions)
+     */
+    public void reset(ExiOptions options) {
+        this.options = options;
+        this.builtIn.reset(options);
+        int f = getFidelity(options);
+        if (f != this.fidelity) {
+            this.fidelity = f;
+            this.templates.clear( );
+            this.document = null;
+            this.fragment = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Builds the template of a schema-informed element grammar. The content
+     * groups are the states of the content model's automaton; the start tag
+     * group accepts the declared attributes in any order followed by the
+     * productions of the first content group.
+     *
+     * @param type The element's type.
+     * @return The new template.
+     * @throws ExiException If something goes wrong during event code
+     *         generation.
+     */
+    private ExiSchemaGrammar buildElementGrammar(TypeDefinition type) throws ExiException {
+        ExiSchemaGrammar eg = new ExiSchemaGrammar( );
+        String start = "StartTag";
+
+        List<Production> startTag = new ArrayList<Production>( );
+        for (QName attribute : type.attributes) {
+            startTag.add(new Production("AT(" + attribute.getLocalPart( ) + ")", start, attribute, null));
+        }
+        if (type.anyAttribute) {
+            startTag.add(new Production("AT(*)", start, null, null));
+        }
+
+        if (type.simple) {
+            startTag.add(new Production("CH", "Content", null, null));
+            startTag.add(new Production("EE", "", null, null));
+            appendGroup(eg, "Content", Collections.singletonList(new Production("EE", "", null, null)), false);
+        } else {
+            List<ExiSchemaAutomaton.State> states = type.states;
+            for (int i = 0; i < states.size( ); ++i) {
+                List<Production> content = getContent(states.get(i), i, type.mixed);
+                if (i == 0) {
+                    startTag.addAll(content);
+                }
+                appendGroup(eg, "Content" + i, content, false);
+            }
+        }
+
+        appendGroup(eg, start, startTag, true);
+        eg.setInitialGroup(start);
+        return eg;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the productions for a state of a content model's automaton.
+     *
+     * @param state The state.
+     * @param number The state's number.
+     * @param mixed <code>true</code> if the content is mixed.
+     * @return The productions.
+     */
+    private List<Production> getContent(ExiSchemaAutomaton.State state, int number, boolean mixed) {
+        List<Production> result = new ArrayList<Production>( );
+        for (int i = 0; i < state.elements.size( ); ++i) {
+            ElementDeclaration decl = state.elements.get(i);
+            result.add(new Production("SE(" + decl.name.getLocalPart( ) + ")",
+                    "Content" + state.targets.get(i), decl.name, decl));
+        }
+        if (state.wildcard >= 0) {
+            result.add(new Production("SE(*)", "Content" + state.wildcard, null, null));
+        }
+        if (state.accepting) {
+            result.add(new Production("EE", "", null, null));
+        }
+        if (mixed) {
+            result.add(new Production("CH", "Content" + number, null, null));
+        }
+        return result;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds productions for all global elements and for any other element to
+     * the specified list.
+     *
+     * @param productions The list of productions.
+     * @param rightHandSide The right-hand side of the productions.
+     */
+    private void addGlobalElements(List<Production> productions, String rightHandSide) {
+        List<ElementDeclaration> elements = new ArrayList<ElementDeclaration>(this.schema.getElements( ));
+        Collections.sort(elements, new Comparator<ElementDeclaration>( ) {
+            public int compare(ElementDeclaration a, ElementDeclaration b) {
+                return ExiSchema.QNAME_ORDER.compare(a.name, b.name);
+            }
+        });
+        for (ElementDeclaration decl : elements) {
+            productions.add(new Production("SE(" + decl.name.getLocalPart( ) + ")",
+                    rightHandSide, decl.name, decl));
+        }
+        productions.add(new Production("SE(*)", rightHandSide, null, null));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Appends a group to the specified grammar. The productions get event
+     * codes of length 1 in the order given. Comments, processing instructions
+     * and, in start tags, namespace declarations get event codes of length 2
+     * if the fidelity options preserve them; they do not change the group.
+     *
+     * @param eg The grammar.
+     * @param name The group's name.
+     * @param productions The group's productions.
+     * @param startTag <code>true</code> if the group is a start tag group.
+     * @throws ExiException If something goes wrong during event code
+     *         generation.
+     */
+    private void appendGroup(ExiGrammar eg, String name, List<Production> productions, boolean startTag)
+            throws ExiException {
+        ExiEventCodeGenerator g = new ExiEventCodeGenerator( );
+        for (Production p : productions) {
+            if (p.qname != null) {
+                eg.append(name, new ExiSchemaRule(p.eventType, p.rightHandSide, g.getNextCode(1),
+                        p.qname, p.declaration));
+            } else {
+                eg.append(name, p.rightHandSide, p.eventType, g.getNextCode(1));
+            }
+        }
+        if (name.equals("Document")) {
+            return;
+        }
+        if (startTag && this.options.isSet(FidelityOption.PRESERVE_PREFIXES)) {
+            eg.append(name, name, "NS", g.getNextCode(2));
+        }
+        if (this.options.isSet(FidelityOption.PRESERVE_COMMENTS)) {
+            eg.append(name, name, "CM", g.getNextCode(2));
+        }
+        if (this.options.isSet(FidelityOption.PRESERVE_PROCESSING_INSTRUCTIONS)) {
+            eg.append(name, name, "PI", g.getNextCode(2));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the fidelity options which influence the grammars as a bit
+     * mask.
+     *
+     * @param options The EXI options.
+     * @return The bit mask.
+     */
+    private static int getFidelity(ExiOptions options) {
+        int result = 0;
+        if (options.isSet(FidelityOption.PRESERVE_PREFIXES)) {
+            result |= 1;
+        }
+        if (options.isSet(FidelityOption.PRESERVE_COMMENTS)) {
+            result |= 2;
+        }
+        if (options.isSet(FidelityOption.PRESERVE_PROCESSING_INSTRUCTIONS)) {
+            result |= 4;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.grammar;
+
+import javax.xml.namespace.QName;
+
+import exi.events.ExiAttribute;
+import exi.events.ExiEvent;
+import exi.events.ExiEventCode;
+import exi.events.ExiEventType;
+import exi.events.ExiStartElement;
+import exi.grammar.ExiSchema.ElementDeclaration;
+
+/**
+ * A production rule for an element or attribute with a known QName: a rule
+ * of a schema-informed grammar for a declared element or attribute, a
+ * production of a trained {@link ExiProfile} or a rule learned by a built-in
+ * element grammar. Unlike rules which only have a local name it matches the
+ * namespace URI as well, and for declared elements it knows the declaration
+ * whose grammar is used for the element's content.
+ */
+class ExiSchemaRule extends ExiGrammarRule {
+
+    // --------------------------------------------------------------------
+    // Member variables
+    // --------------------------------------------------------------------
+
+    /**
+     * The QName of the declared element or attribute.
+     */
+    private final QName qname;
+
+    // --------------------------------------------------------------------
+
+    /**
+     * The element declaration or <code>null</code> for attributes.
+     */
+    private final ElementDeclaration declaration;
+
+    // --------------------------------------------------------------------
+    // Constructor
+    // --------------------------------------------------------------------
+
+    /**
+     * Creates a new production rule.
+     *
+     * @param eventType This rule's event type.
+     * @param rightHandSide The right-hand side of the rule.
+     * @param code The rule's event code.
+     * @param qname The QName of the declared element or attribute.
+     * @param declaration The element declaration or <code>null</code> for
+     *        attributes, trained productions and learned rules.
+     */
+    ExiSchemaRule(String eventType, String rightHandSide, ExiEventCode code,
+            QName qname, ElementDeclaration declaration) {
+        super(eventType, rightHandSide, code);
+        this.qname = qname;
+        this.declaration = declaration;
+    }
+
+    // --------------------------------------------------------------------
+    // Methods
+    // --------------------------------------------------------------------
+
+    /**
+     * Returns the declaration of the element matched by this rule.
+     *
+     * @return The element declaration or <code>null</code> for attributes.
+     */
+    ElementDeclaration getDeclaration( ) {
+        return this.declaration;
+    }
+
+    // --------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.grammar.ExiGrammarRule#copy(exi.events.ExiEventCode)
+     */
+    @Override
+    ExiGrammarRule copy(ExiEventCode code) {
+        return new ExiSchemaRule(getEventType( ), getRightHandSide( ), code, this.qname, this.declaration);
+    }
+
+    // --------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.grammar.ExiGrammarRule#getEventNamespaceURI()
+     */
+    @Override
+    public String getEventNamespaceURI( ) {
+        return this.qname.getNamespaceURI( );
+    }
+
+    // --------------------------------------------------------------------
+
+    /**
+     * <p>
+     * Specifies whether this rule matches the specified event. In addition to
+     * the local name the namespace URI has to match as well.
+     * </p>
+     */
+    @Override
+    public boolean matches(ExiEvent e) {
+        if (!super.matches(e)) {
+            return false;
+        }
+        QName name = e.getEventType( ) == ExiEventType.StartElement
+                ? ((ExiStartElement) e).getQualifiedName( )
+                : ((ExiAttribute) e).getQualifiedName( );
+        return this.qname.getNamespaceURI( ).equals(name.getNamespaceURI( ));
+    }
+}
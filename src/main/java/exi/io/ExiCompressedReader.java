@@ -25,13 +25,14 @@
  */
 package exi.io;
 
-import java.util.LinkedList;
+import java.util.Iterator;
 
 import javax.xml.namespace.QName;
 
 import exi.ExiOptions;
 import exi.io.compress.ExiBlockSplitter;
 import exi.io.compress.ExiInputBlock;
+import exi.utils.ExiStringTable;
 
 /**
  * EXI reader for compressed streams.
@@ -41,16 +42,16 @@ import exi.io.compress.ExiInputBlock;
 public class ExiCompressedReader extends ExiReader {
     
     /**
-     * The list of blocks.
+     * The iterator over the blocks following the current one.
      */
-    private LinkedList<ExiInputBlock> blocks = new LinkedList<ExiInputBlock>( );
+    private Iterator<ExiInputBlock> blocks;
 
     // ------------------------------------------------------------------------
     
     /**
-     * The index of the currently used block.
+     * The currently used block.
      */
-    private int currentBlockIndex;
+    private ExiInputBlock currentBlock;
 
     // ------------------------------------------------------------------------
     
@@ -97,8 +98,8 @@ public class ExiCompressedReader extends ExiReader {
      */
     private void initialize(ExiOptions options) throws Exception {
         ExiBlockSplitter splitter = new ExiBlockSplitter(getInputStream( ), options);
-        this.blocks = splitter.getBlocks( );
-        this.currentBlockIndex = 0;
+        this.blocks = splitter.getBlocks( ).iterator( );
+        this.currentBlock = this.blocks.hasNext( ) ? this.blocks.next( ) : null;
         this.valuesRead = 0;
     }
 
@@ -110,7 +111,7 @@ public class ExiCompressedReader extends ExiReader {
      * @return The current block
      */
     private ExiInputBlock getCurrentBlock( ) {
-        return this.blocks.get(this.currentBlockIndex);
+        return this.currentBlock;
     }
 
     // ------------------------------------------------------------------------
@@ -140,8 +141,8 @@ public class ExiCompressedReader extends ExiReader {
      */
     @Override
     public int readCompactStringCode(int size) {
-        int bits = (int)Math.ceil(Math.log(size+1)/Math.log(2));
-        return getCurrentBlock( ).getStructureChannel( ).readNBitUnsignedInteger(bits).intValue( );
+        int bits = ExiBits.getWidth(size+1);
+        return getCurrentBlock( ).getStructureChannel( ).readNBitUnsignedInt(bits);
     }
 
     // ------------------------------------------------------------------------
@@ -151,8 +152,8 @@ public class ExiCompressedReader extends ExiReader {
      */
     @Override
     public int readEventCodePart(int partSize) {
-        int bits = (int)Math.ceil(Math.log(partSize)/Math.log(2));
-        return getCurrentBlock( ).getStructureChannel( ).readNBitUnsignedInteger(bits).intValue( );
+        int bits = ExiBits.getWidth(partSize);
+        return getCurrentBlock( ).getStructureChannel( ).readNBitUnsignedInt(bits);
     }
 
     // ------------------------------------------------------------------------
@@ -172,7 +173,7 @@ public class ExiCompressedReader extends ExiReader {
      */
     @Override
     public int readLocalNameCode( ) {
-        return getCurrentBlock( ).getStructureChannel( ).readUnsignedInteger( ).intValue( );
+        return getCurrentBlock( ).getStructureChannel( ).readUnsignedInt( );
     }
 
     // ------------------------------------------------------------------------
@@ -182,53 +183,29 @@ public class ExiCompressedReader extends ExiReader {
      */
     @Override
     public int readLocalNameIndex(int size) {
-        int bits = (int)Math.ceil(Math.log(size)/Math.log(2));
-        return getCurrentBlock( ).getStructureChannel( ).readNBitUnsignedInteger(bits).intValue( );
+        int bits = ExiBits.getWidth(size);
+        return getCurrentBlock( ).getStructureChannel( ).readNBitUnsignedInt(bits);
     }
 
     // ------------------------------------------------------------------------
 
-    /* (non-Javadoc)
-     * @see exi.io.ExiReader#readValueString(int)
-     */
-    @Override
-    public String readValueString(QName qname, int code) {
-        String s = getCurrentBlock( ).getValueChannel(qname).readString(code - 2);
-        this.valuesRead++;
-        return s;
-    }
-
-    // ------------------------------------------------------------------------
-
-    /* (non-Javadoc)
-     * @see exi.io.ExiReader#readValueStringCode()
-     */
-    @Override
-    public int readValueStringCode(QName qname) {
-        checkEndOfBlock( );
-        return getCurrentBlock( ).getValueChannel(qname).readUnsignedInteger( ).intValue( );
-   }
-
-    // ------------------------------------------------------------------------
-
-    /* (non-Javadoc)
-     * @see exi.io.ExiReader#readValueStringIndex(int)
+    /**
+     * Returns the next value from the QName's channel in the current block.
+     * The value has already been resolved against the block splitter's string
+     * table, so the specified table is not used.
+     *
+     * @see exi.io.ExiReader#readValue(javax.xml.namespace.QName, exi.utils.ExiStringTable)
      */
     @Override
-    public int readValueStringIndex(QName qname, int size) {
-        int bits = (int)Math.ceil(Math.log(size)/Math.log(2));
-        int index = getCurrentBlock( ).getValueChannel(qname).readNBitUnsignedInteger(bits).intValue( );
+    public String readValue(QName qname, ExiStringTable table) {
+        ExiInputBlock block = getCurrentBlock( );
+        String s = block.getValueChannel(qname).readValue( );
         this.valuesRead++;
-        return index;
-    }
-
-    /**
-     * 
-     */
-    private void checkEndOfBlock( ) {
-        if (valuesRead == this.blocks.get(this.currentBlockIndex).getSize( )) {
+        if (this.valuesRead == block.getSize( ) && this.blocks.hasNext( )) {
+            // the following events belong to the next block
             this.valuesRead = 0;
-            this.currentBlockIndex++;
+            this.currentBlock = this.blocks.next( );
         }
+        return s;
     }
 }
@@ -26,17 +26,19 @@
 package exi.io;
 
 import java.io.IOException;
-import java.math.BigInteger;
 import java.util.LinkedList;
 
 import javax.xml.namespace.QName;
 
-import exi.ExiConstants;
 import exi.ExiOptions;
 import exi.events.ExiEventCode;
 import exi.grammar.ExiGrammarGroup.Size;
+import exi.io.compress.ExiAdaptiveBlockSizer;
+import exi.io.compress.ExiBlockIndex;
 import exi.io.compress.ExiOutputBlock;
 import exi.io.compress.ExiStructureOutputChannel;
+import exi.metrics.ExiMetrics;
+import exi.utils.ExiStringTable;
 
 /**
  * EXI writer for compressed streams.
@@ -61,6 +63,77 @@ public class ExiCompressedWriter extends ExiWriter {
      */
     private boolean useDeflate;
 
+    // ------------------------------------------------------------------------
+
+    /**
+     * The maximum number of values in a block.
+     */
+    private int blockSize;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The block sizer used for store/deflate decisions, or <code>null</code>
+     * if every stream is to be deflated.
+     */
+    private ExiAdaptiveBlockSizer sizer;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of values in the current block.
+     */
+    private int valuesInBlock = 0;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The string table used for resolving the values of finished blocks.
+     */
+    private ExiStringTable table;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * <code>true</code> if the block index is appended as a trailer.
+     */
+    private boolean useBlockIndex;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of events in each block.
+     */
+    private LinkedList<Integer> blockEvents = new LinkedList<Integer>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The string table snapshots taken at the start of each block.
+     */
+    private LinkedList<int[]> blockTables = new LinkedList<int[]>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of events in the current block.
+     */
+    private int eventsInBlock = 0;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The index of the blocks written by {@link #toByteArray()}.
+     */
+    private ExiBlockIndex blockIndex;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The metrics the written blocks are counted in or <code>null</code>.
+     */
+    private ExiMetrics metrics;
+
     // ------------------------------------------------------------------------
     // Constructors
     // ------------------------------------------------------------------------
@@ -91,6 +164,10 @@ public class ExiCompressedWriter extends ExiWriter {
      */
     private void initialize(ExiOptions options) {
         this.useDeflate = options.useCompression( );
+        this.blockSize = options.getBlockSize( );
+        this.sizer = options.getBlockSizer( );
+        this.useBlockIndex = options.useBlockIndex( );
+        this.metrics = options.getMetrics( );
     }
 
     // ------------------------------------------------------------------------
@@ -106,8 +183,8 @@ public class ExiCompressedWriter extends ExiWriter {
             current = makeNewBlock( );
         } else {
             current = this.blocks.getLast( );
-            // TODO: use actual block size
-            if (current.getSize( ) > ExiConstants.BLOCK_SIZE_DEFAULT) {
+            if (this.valuesInBlock >= this.blockSize) {
+                finishBlock(current);
                 current = makeNewBlock( );
             }
         }
@@ -122,10 +199,11 @@ public class ExiCompressedWriter extends ExiWriter {
     @Override
     public void writeEventCode(ExiEventCode eventCode, Size groupSize) {
         ExiOutputStream os = getCurrentBlock( ).getStructureChannel( );
+        this.eventsInBlock++;
         for (int i = 0; i < eventCode.getLength( ); i++) {
             int value = eventCode.getPart(i);
-            int bits = (int)Math.ceil(Math.log(groupSize.getPartSize(i))/Math.log(2));
-            os.writeNBitUnsignedInteger(BigInteger.valueOf(value), bits);
+            int bits = ExiBits.getWidth(groupSize.getPartSize(i));
+            os.writeNBitUnsignedInteger(value, bits);
         }
     }
 
@@ -136,8 +214,8 @@ public class ExiCompressedWriter extends ExiWriter {
      */
     @Override
     public void writeCompactStringHit(int id, int size) {
-        int bits = (int)Math.ceil(Math.log(size+1)/Math.log(2));
-        getCurrentBlock( ).getStructureChannel( ).writeNBitUnsignedInteger(BigInteger.valueOf(id + 1), bits);
+        int bits = ExiBits.getWidth(size+1);
+        getCurrentBlock( ).getStructureChannel( ).writeNBitUnsignedInteger(id + 1, bits);
     }
 
     // ------------------------------------------------------------------------
@@ -148,7 +226,7 @@ public class ExiCompressedWriter extends ExiWriter {
     @Override
     public void writeCompactStringMiss(String s, int size) {
         ExiOutputStream os = getCurrentBlock( ).getStructureChannel( );
-        os.writeNBitUnsignedInteger(BigInteger.ZERO, (int)Math.ceil(Math.log(size+1)/Math.log(2)));
+        os.writeNBitUnsignedInteger(0, ExiBits.getWidth(size+1));
         os.writeString(s);
     }
 
@@ -160,9 +238,9 @@ public class ExiCompressedWriter extends ExiWriter {
     @Override
     public void writeLocalNameHit(int id, int size) {
         ExiOutputStream os = getCurrentBlock( ).getStructureChannel( );
-        os.writeUnsignedInteger(BigInteger.ZERO);
-        int bits = (int)Math.ceil(Math.log(size)/Math.log(2));
-        os.writeNBitUnsignedInteger(BigInteger.valueOf(id), bits);
+        os.writeUnsignedInteger(0);
+        int bits = ExiBits.getWidth(size);
+        os.writeNBitUnsignedInteger(id, bits);
     }
 
     // ------------------------------------------------------------------------
@@ -183,6 +261,7 @@ public class ExiCompressedWriter extends ExiWriter {
     @Override
     public void writeValueHitLocal(QName qname, int id, int size) {
         getCurrentBlock( ).getValueChannel(qname).addValueHitLocal(id, size);
+        this.valuesInBlock++;
     }
 
     // ------------------------------------------------------------------------
@@ -193,6 +272,7 @@ public class ExiCompressedWriter extends ExiWriter {
     @Override
     public void writeValueHitGlobal(QName qname, int id, int size) {
         getCurrentBlock( ).getValueChannel(qname).addValueHitGlobal(id, size);
+        this.valuesInBlock++;
     }
 
     // ------------------------------------------------------------------------
@@ -203,6 +283,32 @@ public class ExiCompressedWriter extends ExiWriter {
     @Override
     public void writeValueMiss(QName qname, String s) {
         getCurrentBlock( ).getValueChannel(qname).addValueMiss(s);
+        this.valuesInBlock++;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds the value to its channel in the current block. The string table is
+     * not queried before the block is complete because the decoder assigns
+     * compact identifiers in channel order rather than in document order.
+     *
+     * @see exi.io.ExiWriter#writeValue(javax.xml.namespace.QName, java.lang.String, exi.utils.ExiStringTable)
+     */
+    @Override
+    public void writeValue(QName qname, String s, ExiStringTable table) {
+        getCurrentBlock( ).getValueChannel(qname).addValue(s);
+        this.valuesInBlock++;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.io.ExiWriter#setStringTable(exi.utils.ExiStringTable)
+     */
+    @Override
+    public void setStringTable(ExiStringTable table) {
+        this.table = table;
     }
 
     // ------------------------------------------------------------------------
@@ -231,8 +337,29 @@ public class ExiCompressedWriter extends ExiWriter {
      */
     @Override
     public byte[] toByteArray( ) throws IOException {
-        for (ExiOutputBlock b : this.blocks) {
-            b.writeChannels(getOutputStream( ), this.useDeflate);
+        if (!this.blocks.isEmpty( )) {
+            finishBlock(this.blocks.getLast( ));
+            this.blockEvents.add(this.eventsInBlock);
+            if (this.table != null && this.table.getRecorder( ) != null) {
+                // the values of the last block are resolved after the end of the document
+                this.table.getRecorder( ).flush( );
+            }
+        }
+        ExiOutputStream os = getOutputStream( );
+        this.blockIndex = new ExiBlockIndex( );
+        while (!this.blocks.isEmpty( )) {
+            ExiOutputBlock b = this.blocks.removeFirst( );
+            int values = b.getSize( );
+            os.flush( );
+            int offset = os.size( );
+            // the block's segments are given back to their pool
+            b.writeChannels(os, this.useDeflate, this.sizer, this.metrics);
+            this.blockIndex.add(ExiBlockIndex.createEntry(offset, os.size( ) - offset,
+                    this.blockEvents.removeFirst( ), values, this.blockTables.removeFirst( )));
+        }
+        if (this.useBlockIndex) {
+            os.flush( );
+            this.blockIndex.writeTrailer(os);
         }
         return super.toByteArray( );
     }
@@ -240,13 +367,47 @@ public class ExiCompressedWriter extends ExiWriter {
     // ------------------------------------------------------------------------
 
     /**
-     * Creates and adds a new block.
+     * Returns the index of the blocks written by {@link #toByteArray()}, e.g.
+     * for storing it separately from the stream.
+     *
+     * @return The block index or <code>null</code> if the stream has not
+     *         been written yet.
+     */
+    public ExiBlockIndex getBlockIndex( ) {
+        return this.blockIndex;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates and adds a new block. The previous block must have been
+     * finished so that the string table snapshot includes its values.
      *
      * @return The newly created block.
      */
     private ExiOutputBlock makeNewBlock( ) {
+        if (!this.blocks.isEmpty( )) {
+            this.blockEvents.add(this.eventsInBlock);
+        }
         ExiOutputBlock current = new ExiOutputBlock( );
         this.blocks.add(current);
+        this.blockTables.add(ExiBlockIndex.snapshot(this.table));
+        this.valuesInBlock = 0;
+        this.eventsInBlock = 0;
         return current;
     }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Finishes a block by resolving its pending values against the string
+     * table.
+     *
+     * @param block The block.
+     */
+    private void finishBlock(ExiOutputBlock block) {
+        if (this.table != null) {
+            block.resolveValues(this.table);
+        }
+    }
 }
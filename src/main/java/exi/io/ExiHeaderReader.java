@@ -43,6 +43,18 @@ public class ExiHeaderReader extends ExiSimpleReader {
 
     // ------------------------------------------------------------------------
 
+    /**
+     * Creates a new reader for the specified stream, which must be positioned
+     * at the start of the EXI stream.
+     * 
+     * @param other The input stream.
+     */
+    public ExiHeaderReader(ExiInputStream other) {
+        super(other);
+    }
+
+    // ------------------------------------------------------------------------
+
     /**
      * Reads the distinguishing bits from the stream.
      *
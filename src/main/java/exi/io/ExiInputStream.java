@@ -26,19 +26,46 @@
 package exi.io;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigInteger;
+import java.util.Arrays;
 
 /**
  * EXI input stream.
+ * <p>
+ * The stream either reads from a byte array containing the whole EXI stream
+ * or from an underlying input stream, e.g. a socket, which it reads in
+ * chunks while decoding proceeds. In the latter case the reads block until
+ * enough data has arrived, and the bit positions only refer to the first
+ * chunk, which always contains the header.
+ * </p>
  *
  * @author Marco Wegner
  */
 public class ExiInputStream extends ByteArrayInputStream {
 
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The size of the buffer used for reading from an underlying stream.
+     */
+    private static final int CHUNK_SIZE = 8192;
+
     // ------------------------------------------------------------------------
     // Member variables
     // ------------------------------------------------------------------------
 
+    /**
+     * The underlying input stream or <code>null</code> if this stream reads
+     * from an array.
+     */
+    private InputStream source = null;
+
+    // ------------------------------------------------------------------------
+
     /**
      * Specifies whether this stream assumes values aligned to bytes or not.
      */
@@ -74,10 +101,77 @@ public class ExiInputStream extends ByteArrayInputStream {
         this.buffer = read( );
     }
 
+    // ------------------------------------------------------------------------
+
+    /**
+     * Constructs a new EXI stream reader which reads the encoded data from
+     * the specified stream as it is needed. This blocks until the first byte
+     * is available.
+     *
+     * @param source The input stream containing the encoded data.
+     */
+    public ExiInputStream(InputStream source) {
+        super(new byte[CHUNK_SIZE], 0, 0);
+        this.source = source;
+        this.buffer = read( );
+    }
+
     // ------------------------------------------------------------------------
     // Methods
     // ------------------------------------------------------------------------
 
+    /**
+     * Makes this stream read from the specified array instead, starting with
+     * its first byte in bit-packed mode. This allows reusing the stream for
+     * another document.
+     *
+     * @param array The byte array containing the encoded data.
+     */
+    public void setBuffer(byte[] array) {
+        this.source = null;
+        this.buf = array;
+        this.pos = 0;
+        this.mark = 0;
+        this.count = array.length;
+        this.byteAligned = false;
+        this.bitPos = 0;
+        this.buffer = read( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reads the next byte, from the underlying stream if all buffered bytes
+     * have been read.
+     *
+     * @return The next byte or <code>-1</code> at the end of the stream.
+     * @throws IllegalStateException If reading from the underlying stream
+     *         fails.
+     * @see java.io.ByteArrayInputStream#read()
+     */
+    @Override
+    public int read( ) {
+        if (this.pos >= this.count && !fill( )) {
+            return -1;
+        }
+        return this.buf[this.pos++] & 0xFF;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Skips the padding bits up to the next byte boundary in bit-packed mode.
+     * Unlike {@link #skip()}, nothing is skipped if the current byte has not
+     * been read from yet, and the next byte is not read before it is needed.
+     */
+    public void align( ) {
+        if (!this.byteAligned && this.bitPos > 0) {
+            this.bitPos = 8;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
     /**
      * Sets this stream to reading values byte-aligned. This cannot be undone.
      * The current buffer byte is skipped.
@@ -148,6 +242,39 @@ public class ExiInputStream extends ByteArrayInputStream {
 
     // ------------------------------------------------------------------------
 
+    /**
+     * Reads an unsigned integer which is expected to fit into an
+     * <code>int</code> from the stream. This is the same as
+     * {@link #readUnsignedInteger()} but without the detour via
+     * {@link BigInteger}.
+     *
+     * @return The unsigned integer's value.
+     * @throws ArithmeticException If the value does not fit into an
+     *         <code>int</code>.
+     */
+    public int readUnsignedInt( ) {
+        long result = 0;
+        int shift = 0;
+        int current;
+        do {
+            current = readBits(8);
+            if ((current & 0x7F) != 0) {
+                if (shift > 31) {
+                    throw new ArithmeticException("Unsigned integer exceeds the int range");
+                }
+                result |= (long)(current & 0x7F) << shift;
+                if (result > Integer.MAX_VALUE) {
+                    throw new ArithmeticException("Unsigned integer exceeds the int range");
+                }
+            }
+            shift += 7;
+        } while ((current & 0x80) > 0);
+
+        return (int)result;
+    }
+
+    // ------------------------------------------------------------------------
+
     /**
      * Reads an n-bit unsigned integer from the stream.
      *
@@ -158,6 +285,15 @@ public class ExiInputStream extends ByteArrayInputStream {
 
         BigInteger result = BigInteger.ZERO;
 
+        if (this.byteAligned) {
+            // least significant byte first
+            for (int b = 0; b < bits; b += 8) {
+                result = result.or(BigInteger.valueOf(readBits(8)).shiftLeft(b));
+            }
+            return result;
+        }
+
+        // most significant bit first
         int b = bits;
         while (b > 8) {
             result = result.shiftLeft(8);
@@ -172,13 +308,47 @@ public class ExiInputStream extends ByteArrayInputStream {
 
     // ------------------------------------------------------------------------
 
+    /**
+     * Reads an n-bit unsigned integer of at most 31 bits from the stream. This
+     * is the same as {@link #readNBitUnsignedInteger(int)} but without the
+     * detour via {@link BigInteger}.
+     *
+     * @param bits The number of bits this unsigned integer consists of.
+     * @return The unsigned integer's value.
+     */
+    public int readNBitUnsignedInt(int bits) {
+        if (bits < 0 || bits > 31) {
+            throw new IllegalArgumentException("Value for bits must be between 0 and 31!");
+        }
+
+        int result = 0;
+
+        if (this.byteAligned) {
+            // least significant byte first
+            for (int b = 0; b < bits; b += 8) {
+                result |= readBits(8) << b;
+            }
+            return result;
+        }
+
+        // most significant bit first
+        int b = bits;
+        while (b > 8) {
+            result = (result << 8) | readBits(8);
+            b -= 8;
+        }
+        return (result << b) | readBits(b);
+    }
+
+    // ------------------------------------------------------------------------
+
     /**
      * Reads a (length-prefixed) string from the stream.
      *
      * @return The string.
      */
     public String readString( ) {
-        return readString(readUnsignedInteger( ).intValue( ));
+        return readString(readUnsignedInt( ));
     }
 
     // ------------------------------------------------------------------------
@@ -190,9 +360,9 @@ public class ExiInputStream extends ByteArrayInputStream {
      * @return The string.
      */
     public String readString(int len) {
-        StringBuffer sb = new StringBuffer( );
+        StringBuilder sb = new StringBuilder(len);
         for (int i = 0; i < len; ++i) {
-            sb.appendCodePoint(readUnsignedInteger( ).intValue( ));
+            sb.appendCodePoint(readUnsignedInt( ));
         }
         return sb.toString( );
     }
@@ -208,4 +378,105 @@ public class ExiInputStream extends ByteArrayInputStream {
             this.bitPos = 0;
         }
     }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of bits read from this stream so far. This is only
+     * meaningful as long as the stream is in bit-packed mode.
+     *
+     * @return The number of bits read.
+     */
+    public int getBitPosition( ) {
+        return 8 * (this.pos - 1) + this.bitPos;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Moves this stream to the specified bit, counted from the beginning of
+     * the data. The stream must be in bit-packed mode.
+     *
+     * @param position The number of bits to be skipped from the beginning.
+     */
+    public void setBitPosition(int position) {
+        // a byte which has been read completely stays in the buffer, just as
+        // if the bits had been read one by one
+        int index = position > 0 ? (position - 1) / 8 : 0;
+        this.pos = index;
+        this.buffer = read( );
+        this.bitPos = position - 8 * index;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether the data of this stream starts with the specified bits,
+     * regardless of how much has been read so far.
+     *
+     * @param bits The bits, most significant bit first.
+     * @param length The number of bits to be compared.
+     * @return <code>true</code> if the data starts with the bits.
+     */
+    public boolean startsWith(byte[] bits, int length) {
+        if (length > 8 * this.count) {
+            return false;
+        }
+        int bytes = length / 8;
+        for (int i = 0; i < bytes; ++i) {
+            if (this.buf[i] != bits[i]) {
+                return false;
+            }
+        }
+        int rest = length % 8;
+        return rest == 0 || ((this.buf[bytes] ^ bits[bytes]) & (0xFF << (8 - rest)) & 0xFF) == 0;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns a copy of the first bits of this stream's data, regardless of
+     * how much has been read so far. The last byte may contain further bits.
+     *
+     * @param length The number of bits.
+     * @return The bits, most significant bit first.
+     * @see #startsWith(byte[], int)
+     */
+    public byte[] getBits(int length) {
+        return Arrays.copyOf(this.buf, (length + 7) / 8);
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reads the next chunk from the underlying stream. The chunk is appended
+     * to the buffered bytes as long as there is room, so that the header is
+     * kept, else it replaces them.
+     *
+     * @return <code>false</code> if there is no underlying stream or it has
+     *         ended, else <code>true</code>.
+     * @throws IllegalStateException If reading from the underlying stream
+     *         fails.
+     */
+    private boolean fill( ) {
+        if (this.source == null) {
+            return false;
+        }
+        if (this.count == this.buf.length) {
+            this.pos = 0;
+            this.count = 0;
+        }
+        try {
+            int n = this.source.read(this.buf, this.count, this.buf.length - this.count);
+            if (n <= 0) {
+                return false;
+            }
+            this.count += n;
+            return true;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read EXI stream", e);
+        }
+    }
 }
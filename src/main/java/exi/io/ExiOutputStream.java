@@ -29,6 +29,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.Arrays;
 
 import exi.utils.ExiFloat;
 
@@ -88,6 +89,22 @@ public class ExiOutputStream extends ByteArrayOutputStream {
         this.byteAligned = byteAligned;
     }
 
+    // ------------------------------------------------------------------------
+
+    /**
+     * Constructs a new EXI output stream using the specified alignment and
+     * initial buffer size. Subclasses which keep their data elsewhere can use
+     * this to avoid allocating the default buffer.
+     *
+     * @param byteAligned <code>true</code> if this stream is to be initially
+     *        byte-aligned, else <code>false</code>.
+     * @param size The initial buffer size.
+     */
+    protected ExiOutputStream(boolean byteAligned, int size) {
+        super(size);
+        this.byteAligned = byteAligned;
+    }
+
     // ------------------------------------------------------------------------
     // Methods
     // ------------------------------------------------------------------------
@@ -170,7 +187,7 @@ public class ExiOutputStream extends ByteArrayOutputStream {
          * as an Unsigned Integer (see 7.1.6 Unsigned Integer).
          */
 
-        writeUnsignedInteger(BigInteger.valueOf(array.length));
+        writeUnsignedInteger(array.length);
         for (byte b : array) {
             writeBits(b, 8);
         }
@@ -362,12 +379,39 @@ public class ExiOutputStream extends ByteArrayOutputStream {
         BigInteger x7F = BigInteger.valueOf(0x7F);      // 0111 1111
         BigInteger x80 = BigInteger.valueOf(0x80);      // 1000 0000
 
+        if (value.bitLength( ) < 64) {
+            writeUnsignedInteger(value.longValue( ));
+            return;
+        }
+
         BigInteger temp = value;
         while (temp.compareTo(x7F) > 0) {
-            writeBits(temp.and(x7F.or(x80)).byteValue( ), 8);
+            writeBits(temp.and(x7F).or(x80).intValue( ), 8);
             temp = temp.shiftRight(7);
         }
-        writeBits(temp.and(x7F).byteValue( ), 8);
+        writeBits(temp.intValue( ), 8);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes an Unsigned Integer value which fits into a <code>long</code>
+     * to the stream. This is the same encoding as for
+     * {@link #writeUnsignedInteger(BigInteger)} but without the detour via
+     * {@link BigInteger}.
+     *
+     * @param value The value to be written. Must not be negative.
+     */
+    public void writeUnsignedInteger(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Unsigned integer must not be negative: " + value);
+        }
+        long temp = value;
+        while (temp > 0x7F) {
+            writeBits((int)(temp & 0x7F) | 0x80, 8);
+            temp >>>= 7;
+        }
+        writeBits((int)temp, 8);
     }
 
     // ------------------------------------------------------------------------
@@ -397,14 +441,52 @@ public class ExiOutputStream extends ByteArrayOutputStream {
          * ordered with the least significant byte first.
          */
 
-        BigInteger temp = value;
-        int b = bits;
-        while (b > 8) {
-            writeBits(temp.and(BigInteger.valueOf(0xFF)).byteValue( ), 8);
-            temp.shiftRight(8);
-            b -= 8;
+        if (this.byteAligned) {
+            // least significant byte first
+            for (int b = 0; b < bits; b += 8) {
+                writeBits(value.shiftRight(b).intValue( ) & 0xFF, 8);
+            }
+        } else {
+            // most significant bit first
+            int b = bits;
+            while (b > 8) {
+                b -= 8;
+                writeBits(value.shiftRight(b).intValue( ) & 0xFF, 8);
+            }
+            writeBits(value.intValue( ) & ((1 << b) - 1), b);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes an n-bit Unsigned Integer value of at most 31 bits to the
+     * stream. This is the same encoding as for
+     * {@link #writeNBitUnsignedInteger(BigInteger, int)} but without the
+     * detour via {@link BigInteger}.
+     *
+     * @param value The value to be written.
+     * @param bits The number of bits to write.
+     */
+    public void writeNBitUnsignedInteger(int value, int bits) {
+        if (bits < 0 || bits > 31) {
+            throw new IllegalArgumentException("Value for bits must be between 0 and 31!");
+        }
+
+        if (this.byteAligned) {
+            // least significant byte first
+            for (int b = 0; b < bits; b += 8) {
+                writeBits((value >>> b) & 0xFF, 8);
+            }
+        } else {
+            // most significant bit first
+            int b = bits;
+            while (b > 8) {
+                b -= 8;
+                writeBits((value >>> b) & 0xFF, 8);
+            }
+            writeBits(value & ((1 << b) - 1), b);
         }
-        writeBits(temp.byteValue( ), b);
     }
 
     // ------------------------------------------------------------------------
@@ -452,10 +534,66 @@ public class ExiOutputStream extends ByteArrayOutputStream {
      */
     public void writeString(String s, int increment) {
         int len = s.length( );
-        writeUnsignedInteger(BigInteger.valueOf(len + increment));
-        for (int i = 0; i < len; ++i) {
-            writeUnsignedInteger(BigInteger.valueOf(s.codePointAt(i)));
+        // the length is given in code points, not in UTF-16 chars
+        writeUnsignedInteger(s.codePointCount(0, len) + increment);
+        for (int i = 0; i < len; ) {
+            int cp = s.codePointAt(i);
+            writeUnsignedInteger(cp);
+            i += Character.charCount(cp);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes the first bits of the specified array to the stream, most
+     * significant bit first. This is the counterpart to {@link #toBitArray()}.
+     *
+     * @param bits The bits to be written.
+     * @param length The number of bits to be written.
+     */
+    public void writeBits(byte[] bits, int length) {
+        int bytes = length / 8;
+        if (this.bitPos == 0) {
+            write(bits, 0, bytes);
+        } else {
+            for (int i = 0; i < bytes; ++i) {
+                writeBits(bits[i] & 0xFF, 8);
+            }
+        }
+        int rest = length % 8;
+        if (rest > 0) {
+            writeBits((bits[bytes] & 0xFF) >> (8 - rest), rest);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of bits written to this stream so far, including the
+     * ones which are still buffered.
+     *
+     * @return The number of bits written.
+     */
+    public int getBitLength( ) {
+        return 8 * this.count + this.bitPos;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns a copy of the bits written to this stream so far, including the
+     * ones which are still buffered. The last byte is padded with zero bits.
+     *
+     * @return The bits written.
+     * @see #getBitLength()
+     */
+    public byte[] toBitArray( ) {
+        byte[] bits = Arrays.copyOf(this.buf, (getBitLength( ) + 7) / 8);
+        if (this.bitPos > 0) {
+            bits[this.count] = (byte)this.buffer;
         }
+        return bits;
     }
 
     // ------------------------------------------------------------------------
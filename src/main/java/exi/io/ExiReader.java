@@ -27,6 +27,8 @@ package exi.io;
 
 import javax.xml.namespace.QName;
 
+import exi.utils.ExiStringTable;
+
 /**
  * Abstract base class for all EXI readers.
  * 
@@ -129,34 +131,14 @@ public abstract class ExiReader {
     // ------------------------------------------------------------------------
 
     /**
-     * Reads a value string code from the stream.
-     * 
-     * @param qname The qualified name associated to this value code.
-     * @return The value string code.
-     */
-    public abstract int readValueStringCode(QName qname);
-
-    // ------------------------------------------------------------------------
-
-    /**
-     * Reads a value string index from the stream.
-     * 
-     * @param qname The qualified name associated to this value index.
-     * @param size The number of indexes in the string table.
-     * @return The value string index.
-     */
-    public abstract int readValueStringIndex(QName qname, int size);
-
-    // ------------------------------------------------------------------------
-
-    /**
-     * Reads a value string from the stream.
-     * 
+     * Reads a value string from the stream. Values are resolved against the
+     * value string table partitions as far as the stream's layout requires.
+     *
      * @param qname The qualified name associated to this value.
-     * @param code The value code.
+     * @param table The string table.
      * @return The value string.
      */
-    public abstract String readValueString(QName qname, int code);
+    public abstract String readValue(QName qname, ExiStringTable table);
 
     // ------------------------------------------------------------------------
 
@@ -24,6 +24,10 @@ package exi.io;
 
 import javax.xml.namespace.QName;
 
+import exi.metrics.ExiMetricsRecorder;
+import exi.utils.ExiStringTable;
+import exi.utils.ValuePartition;
+
 /**
  * EXI reader for simple stream.
  * 
@@ -54,8 +58,8 @@ public class ExiSimpleReader extends ExiReader {
      */
     @Override
     public int readEventCodePart(int partSize) {
-        int bits = (int)Math.ceil(Math.log(partSize)/Math.log(2));
-        return getInputStream( ).readNBitUnsignedInteger(bits).intValue( );
+        int bits = ExiBits.getWidth(partSize);
+        return getInputStream( ).readNBitUnsignedInt(bits);
     }
 
     // ------------------------------------------------------------------------
@@ -65,8 +69,8 @@ public class ExiSimpleReader extends ExiReader {
      */
     @Override
     public int readCompactStringCode(int size) {
-        int bits = (int)Math.ceil(Math.log(size+1)/Math.log(2));
-        return getInputStream( ).readNBitUnsignedInteger(bits).intValue( );
+        int bits = ExiBits.getWidth(size+1);
+        return getInputStream( ).readNBitUnsignedInt(bits);
     }
 
     // ------------------------------------------------------------------------
@@ -86,7 +90,7 @@ public class ExiSimpleReader extends ExiReader {
      */
     @Override
     public int readLocalNameCode( ) {
-        return getInputStream( ).readUnsignedInteger( ).intValue( );
+        return getInputStream( ).readUnsignedInt( );
     }
 
     // ------------------------------------------------------------------------
@@ -96,8 +100,8 @@ public class ExiSimpleReader extends ExiReader {
      */
     @Override
     public int readLocalNameIndex(int size) {
-        int bits = (int)Math.ceil(Math.log(size)/Math.log(2));
-        return getInputStream( ).readNBitUnsignedInteger(bits).intValue( );
+        int bits = ExiBits.getWidth(size);
+        return getInputStream( ).readNBitUnsignedInt(bits);
     }
 
     // ------------------------------------------------------------------------
@@ -112,42 +116,67 @@ public class ExiSimpleReader extends ExiReader {
 
     // ------------------------------------------------------------------------
 
-    /* (non-Javadoc)
-     * @see exi.io.ExiReader#readValueStringCode()
+    /**
+     * Reads a value string from the stream. This resolves the value
+     * immediately, i.e. in document order, and queries and updates the value
+     * string table partitions in the process.
+     *
+     * @see exi.io.ExiReader#readValue(javax.xml.namespace.QName, exi.utils.ExiStringTable)
      */
     @Override
-    public int readValueStringCode(QName qname ) {
-        return getInputStream( ).readUnsignedInteger( ).intValue( );
+    public String readValue(QName qname, ExiStringTable table) {
+        int code = getInputStream( ).readUnsignedInt( );
+        ExiMetricsRecorder recorder = table.getRecorder( );
+        ValuePartition local = table.getValuePartition(qname);
+        ValuePartition global = table.getValuePartition( );
+
+        if (code == 0) {
+            // value is found in the local table
+            if (recorder != null) {
+                recorder.valueHitLocal( );
+            }
+            return local.getValue(readValueIndex(local.getSize( )));
+        }
+
+        if (code == 1) {
+            // value is found in the global table
+            if (recorder != null) {
+                recorder.valueHitGlobal( );
+            }
+            return global.getValue(readValueIndex(global.getSize( )));
+        }
+
+        if (recorder != null) {
+            recorder.valueMiss( );
+        }
+        String s = getInputStream( ).readString(code - 2);
+        local.add(s);
+        global.add(s);
+        return s;
     }
 
     // ------------------------------------------------------------------------
 
     /* (non-Javadoc)
-     * @see exi.io.ExiReader#readValueStringIndex(int)
+     * @see exi.io.ExiReader#readComment()
      */
     @Override
-    public int readValueStringIndex(QName qname, int size) {
-        int bits = (int)Math.ceil(Math.log(size)/Math.log(2));
-        return getInputStream( ).readNBitUnsignedInteger(bits).intValue( );
+    public String readComment( ) {
+        return getInputStream( ).readString( );
     }
 
     // ------------------------------------------------------------------------
-
-    /* (non-Javadoc)
-     * @see exi.io.ExiReader#readValueString(int)
-     */
-    @Override
-    public String readValueString(QName qname, int code) {
-        return getInputStream( ).readString(code - 2);
-    }
-
+    // Private helpers
     // ------------------------------------------------------------------------
 
-    /* (non-Javadoc)
-     * @see exi.io.ExiReader#readComment()
+    /**
+     * Reads a value string index from the stream.
+     *
+     * @param size The number of values in the string table partition.
+     * @return The value string index.
      */
-    @Override
-    public String readComment( ) {
-        return getInputStream( ).readString( );
+    private int readValueIndex(int size) {
+        int bits = ExiBits.getWidth(size);
+        return getInputStream( ).readNBitUnsignedInt(bits);
     }
 }
@@ -22,7 +22,8 @@
  */
 package exi.io;
 
-import java.math.BigInteger;
+import java.io.IOException;
+import java.io.OutputStream;
 
 import javax.xml.namespace.QName;
 
@@ -52,6 +53,25 @@ public class ExiSimpleWriter extends ExiWriter {
 
     // ------------------------------------------------------------------------
 
+    /**
+     * Pads the stream to the next byte boundary and moves everything written
+     * so far to the specified output stream, which is flushed. Writing then
+     * continues into the emptied buffer, so a long stream can be delivered
+     * piece by piece.
+     *
+     * @param out The output stream.
+     * @throws IOException If writing to the output stream fails.
+     */
+    public void flush(OutputStream out) throws IOException {
+        ExiOutputStream os = getOutputStream( );
+        os.flush( );
+        os.writeTo(out);
+        os.reset( );
+        out.flush( );
+    }
+
+    // ------------------------------------------------------------------------
+
     /* (non-Javadoc)
      * @see exi.io.ExiStreamWriter#writeEventCode(exi.events.ExiEventCode, exi.grammar.ExiGrammarGroup.Size)
      */
@@ -59,8 +79,8 @@ public class ExiSimpleWriter extends ExiWriter {
     public void writeEventCode(ExiEventCode eventCode, ExiGrammarGroup.Size groupSize) {
         for (int i = 0; i < eventCode.getLength( ); i++) {
             int value = eventCode.getPart(i);
-            int bits = (int)Math.ceil(Math.log(groupSize.getPartSize(i))/Math.log(2));
-            getOutputStream( ).writeNBitUnsignedInteger(BigInteger.valueOf(value), bits);
+            int bits = ExiBits.getWidth(groupSize.getPartSize(i));
+            getOutputStream( ).writeNBitUnsignedInteger(value, bits);
         }
     }
 
@@ -71,8 +91,8 @@ public class ExiSimpleWriter extends ExiWriter {
      */
     @Override
     public void writeCompactStringHit(int id, int size) {
-        int bits = (int)Math.ceil(Math.log(size+1)/Math.log(2));
-        getOutputStream( ).writeNBitUnsignedInteger(BigInteger.valueOf(id + 1), bits);
+        int bits = ExiBits.getWidth(size+1);
+        getOutputStream( ).writeNBitUnsignedInteger(id + 1, bits);
     }
 
     // ------------------------------------------------------------------------
@@ -83,7 +103,7 @@ public class ExiSimpleWriter extends ExiWriter {
     @Override
     public void writeCompactStringMiss(String s, int size) {
         ExiOutputStream os = getOutputStream( );
-        os.writeNBitUnsignedInteger(BigInteger.ZERO, (int)Math.ceil(Math.log(size+1)/Math.log(2)));
+        os.writeNBitUnsignedInteger(0, ExiBits.getWidth(size+1));
         os.writeString(s);
     }
 
@@ -95,9 +115,9 @@ public class ExiSimpleWriter extends ExiWriter {
     @Override
     public void writeLocalNameHit(int id, int size) {
         ExiOutputStream os = getOutputStream( );
-        os.writeUnsignedInteger(BigInteger.ZERO);
-        int bits = (int)Math.ceil(Math.log(size)/Math.log(2));
-        os.writeNBitUnsignedInteger(BigInteger.valueOf(id), bits);
+        os.writeUnsignedInteger(0);
+        int bits = ExiBits.getWidth(size);
+        os.writeNBitUnsignedInteger(id, bits);
     }
 
     // ------------------------------------------------------------------------
@@ -163,8 +183,8 @@ public class ExiSimpleWriter extends ExiWriter {
      */
     private void writeValueHit(int id, int size, int flag) {
         ExiOutputStream os = getOutputStream( );
-        os.writeUnsignedInteger(BigInteger.valueOf(flag));
-        int bits = (int)Math.ceil(Math.log(size)/Math.log(2));
-        os.writeNBitUnsignedInteger(BigInteger.valueOf(id), bits);
+        os.writeUnsignedInteger(flag);
+        int bits = ExiBits.getWidth(size);
+        os.writeNBitUnsignedInteger(id, bits);
     }
 }
@@ -31,6 +31,9 @@ import javax.xml.namespace.QName;
 
 import exi.events.ExiEventCode;
 import exi.grammar.ExiGrammarGroup;
+import exi.metrics.ExiMetricsRecorder;
+import exi.utils.ExiStringTable;
+import exi.utils.ValuePartition;
 
 /**
  * Abstract EXI writer.
@@ -151,6 +154,59 @@ public abstract class ExiWriter {
 
     // ------------------------------------------------------------------------
 
+    /**
+     * Writes a value string to the stream. The value string table partitions
+     * are queried and updated in the process.
+     * <p>
+     * This implementation resolves the value immediately, i.e. in document
+     * order. Writers for compressed streams override this in order to resolve
+     * the values in channel order.
+     * </p>
+     *
+     * @param qname The qualified name associated to this value.
+     * @param s The value string.
+     * @param table The string table.
+     */
+    public void writeValue(QName qname, String s, ExiStringTable table) {
+        ExiMetricsRecorder recorder = table.getRecorder( );
+        ValuePartition local = table.getValuePartition(qname);
+        if (local.lookup(s)) {
+            writeValueHitLocal(qname, local.getID(s), local.getSize( ));
+            if (recorder != null) {
+                recorder.valueHitLocal( );
+            }
+        } else {
+            ValuePartition global = table.getValuePartition( );
+            if (global.lookup(s)) {
+                writeValueHitGlobal(qname, global.getID(s), global.getSize( ));
+                if (recorder != null) {
+                    recorder.valueHitGlobal( );
+                }
+            } else {
+                writeValueMiss(qname, s);
+                local.add(s);
+                global.add(s);
+                if (recorder != null) {
+                    recorder.valueMiss( );
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tells the writer which string table the encoder uses. Writers which
+     * need the table independently of value strings override this.
+     *
+     * @param table The string table.
+     */
+    public void setStringTable(ExiStringTable table) {
+        // nothing to do by default
+    }
+
+    // ------------------------------------------------------------------------
+
     /**
      * Writes a comment to the stream.
      * 
@@ -0,0 +1,411 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.io.compress;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import exi.ExiConstants;
+
+/**
+ * Chooses block sizes and per-channel deflate decisions for compressed and
+ * pre-compressed streams based on what has been observed so far.
+ * <p>
+ * The sizer is meant to be shared by all documents of one feed (see
+ * {@link exi.ExiOptions#setBlockSizer(ExiAdaptiveBlockSizer)}). Every written
+ * block reports its raw size, the number of values and the time spent
+ * deflating. From these the sizer estimates how many raw bytes a value
+ * takes and how long deflating a byte takes, and picks the block size for
+ * the next documents so that a block neither exceeds the memory budget nor
+ * the deflate time budget. Data which hardly compresses gains nothing from
+ * large blocks, so the minimum block size is used for it.
+ * </p>
+ * <p>
+ * Channels are tracked individually. Tiny channels and channels which turned
+ * out to be incompressible are stored using deflate's uncompressed blocks.
+ * The result is still a regular deflate stream, so decoders need not know
+ * about this. Incompressible channels are deflated again now and then in
+ * case the data has changed.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public class ExiAdaptiveBlockSizer {
+
+    // ------------------------------------------------------------------------
+    // Static stuff
+    // ------------------------------------------------------------------------
+
+    /**
+     * The default minimum block size.
+     */
+    public static final int MIN_BLOCK_SIZE_DEFAULT = 1000;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The default maximum block size.
+     */
+    public static final int MAX_BLOCK_SIZE_DEFAULT = ExiConstants.BLOCK_SIZE_DEFAULT;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The default block size used before anything has been observed.
+     */
+    public static final int INITIAL_BLOCK_SIZE_DEFAULT = 100000;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The default budget for the raw channel data of a single block in bytes.
+     */
+    public static final long MEMORY_BUDGET_DEFAULT = 4L << 20;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The default budget for deflating a single block in nanoseconds.
+     */
+    public static final long LATENCY_BUDGET_DEFAULT = 20000000L;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Channels smaller than this number of bytes are never deflated.
+     */
+    public static final int SMALL_CHANNEL = 64;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Channels whose compressed size exceeds this fraction of their raw size
+     * are considered incompressible.
+     */
+    public static final double INCOMPRESSIBLE_RATIO = 0.95;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * An incompressible channel is deflated again after being stored this
+     * many times.
+     */
+    private static final int RETRY_INTERVAL = 16;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The maximum number of channels tracked. Value channels are keyed by
+     * QName, so the least recently used ones are forgotten beyond this.
+     */
+    public static final int MAX_CHANNELS = 1024;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The weight of a new observation in the moving averages.
+     */
+    private static final double WEIGHT = 0.25;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Key used for the structure channel.
+     */
+    public static final Object STRUCTURE_CHANNEL = "structure";
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Key used for the combined channels.
+     */
+    public static final Object COMBINED_CHANNEL = "combined";
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Statistics about a single channel.
+     */
+    private static class ChannelStatistics {
+        /**
+         * The moving average of the compression ratio.
+         */
+        double ratio = -1;
+        /**
+         * The number of times the channel has been stored in a row.
+         */
+        int stored = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The smallest block size to be chosen.
+     */
+    private final int minBlockSize;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The largest block size to be chosen.
+     */
+    private final int maxBlockSize;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The raw channel data budget for a single block in bytes.
+     */
+    private final long memoryBudget;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The time budget for deflating a single block in nanoseconds.
+     */
+    private final long latencyBudget;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The currently chosen block size.
+     */
+    private int blockSize;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The moving average of raw bytes per value.
+     */
+    private double bytesPerValue = -1;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The moving average of deflate time per raw byte in nanoseconds.
+     */
+    private double nanosPerByte = -1;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The moving average of the overall compression ratio.
+     */
+    private double ratio = -1;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The statistics for the {@value #MAX_CHANNELS} most recently used
+     * channels.
+     */
+    private final Map<Object, ChannelStatistics> channels =
+            new LinkedHashMap<Object, ChannelStatistics>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object, ChannelStatistics> eldest) {
+                    return size( ) > MAX_CHANNELS;
+                }
+            };
+
+    // ------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new block sizer using the default budgets.
+     */
+    public ExiAdaptiveBlockSizer( ) {
+        this(MIN_BLOCK_SIZE_DEFAULT, MAX_BLOCK_SIZE_DEFAULT, INITIAL_BLOCK_SIZE_DEFAULT,
+                MEMORY_BUDGET_DEFAULT, LATENCY_BUDGET_DEFAULT);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new block sizer.
+     *
+     * @param minBlockSize The smallest block size to be chosen.
+     * @param maxBlockSize The largest block size to be chosen.
+     * @param initialBlockSize The block size to use before anything has been
+     *        observed.
+     * @param memoryBudget The raw channel data budget for a single block in
+     *        bytes.
+     * @param latencyBudget The time budget for deflating a single block in
+     *        nanoseconds.
+     */
+    public ExiAdaptiveBlockSizer(int minBlockSize, int maxBlockSize, int initialBlockSize,
+            long memoryBudget, long latencyBudget) {
+        if (minBlockSize <= 0 || minBlockSize > maxBlockSize) {
+            throw new IllegalArgumentException("Invalid block size range!");
+        }
+        this.minBlockSize = minBlockSize;
+        this.maxBlockSize = maxBlockSize;
+        this.blockSize = clamp(initialBlockSize, minBlockSize, maxBlockSize);
+        this.memoryBudget = memoryBudget;
+        this.latencyBudget = latencyBudget;
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the block size to be used for the next document.
+     *
+     * @return The block size.
+     */
+    public synchronized int nextBlockSize( ) {
+        return this.blockSize;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the moving average of the overall compression ratio, i.e. the
+     * deflated size divided by the raw size.
+     *
+     * @return The compression ratio or <code>-1</code> if nothing has been
+     *         deflated yet.
+     */
+    public synchronized double getCompressionRatio( ) {
+        return this.ratio;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Decides whether a channel is to be deflated or stored.
+     *
+     * @param channel The channel key. This is either the value channel's
+     *        QName, {@link #STRUCTURE_CHANNEL} or {@link #COMBINED_CHANNEL}.
+     * @param rawBytes The channel's raw size in bytes.
+     * @return <code>true</code> if the channel is to be deflated,
+     *         <code>false</code> if it is to be stored.
+     */
+    public synchronized boolean shouldDeflate(Object channel, long rawBytes) {
+        if (rawBytes < SMALL_CHANNEL) {
+            return false;
+        }
+        ChannelStatistics cs = this.channels.get(channel);
+        if (cs == null || cs.ratio < INCOMPRESSIBLE_RATIO) {
+            return true;
+        }
+        if (++cs.stored >= RETRY_INTERVAL) {
+            cs.stored = 0;
+            return true;
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Records the outcome of deflating a channel.
+     *
+     * @param channel The channel key.
+     * @param rawBytes The channel's raw size in bytes.
+     * @param deflatedBytes The channel's deflated size in bytes.
+     */
+    public synchronized void recordChannel(Object channel, long rawBytes, long deflatedBytes) {
+        if (rawBytes <= 0) {
+            return;
+        }
+        ChannelStatistics cs = this.channels.get(channel);
+        if (cs == null) {
+            cs = new ChannelStatistics( );
+            this.channels.put(channel, cs);
+        }
+        double r = (double)deflatedBytes / rawBytes;
+        cs.ratio = average(cs.ratio, r);
+        this.ratio = average(this.ratio, r);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Records a written block and updates the block size accordingly.
+     *
+     * @param values The number of values in the block.
+     * @param rawBytes The block's raw size in bytes.
+     * @param deflatedBytes The number of raw bytes which were deflated.
+     * @param nanos The time spent deflating in nanoseconds.
+     */
+    public synchronized void recordBlock(int values, long rawBytes, long deflatedBytes, long nanos) {
+        if (values <= 0 || rawBytes <= 0) {
+            return;
+        }
+        this.bytesPerValue = average(this.bytesPerValue, (double)rawBytes / values);
+        if (deflatedBytes > 0) {
+            this.nanosPerByte = average(this.nanosPerByte, (double)nanos / deflatedBytes);
+        }
+
+        long target = (long)(this.memoryBudget / this.bytesPerValue);
+        if (this.nanosPerByte > 0) {
+            target = Math.min(target, (long)(this.latencyBudget / (this.nanosPerByte * this.bytesPerValue)));
+        }
+        if (this.ratio >= INCOMPRESSIBLE_RATIO) {
+            // larger blocks would only cost memory
+            target = this.minBlockSize;
+        }
+
+        // change at most by a factor of two at a time to avoid oscillation
+        long lower = Math.max(this.minBlockSize, this.blockSize / 2);
+        long upper = Math.min(this.maxBlockSize, this.blockSize * 2L);
+        this.blockSize = (int)Math.max(lower, Math.min(upper, target));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Updates a moving average.
+     *
+     * @param average The current average or a negative value if there is none.
+     * @param value The new value.
+     * @return The new average.
+     */
+    private static double average(double average, double value) {
+        if (average < 0) {
+            return value;
+        }
+        return average + WEIGHT * (value - average);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Clamps a value to a range.
+     *
+     * @param value The value.
+     * @param min The lower bound.
+     * @param max The upper bound.
+     * @return The clamped value.
+     */
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
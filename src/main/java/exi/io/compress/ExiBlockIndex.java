@@ -0,0 +1,534 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.io.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import exi.utils.ExiStringTable;
+
+/**
+ * An index of the blocks of a compressed or pre-compressed EXI stream.
+ * <p>
+ * For every block the index records the byte offset and length in the
+ * stream, the number of events and values, and the sizes of the string table
+ * partitions at the start of the block. Encoders append the index to the
+ * stream as a trailer if {@link exi.ExiOptions#setBlockIndex(boolean)} is
+ * set, but it can just as well be stored separately. The trailer consists of
+ * the serialized index followed by its length (four bytes, big-endian) and
+ * the {@link #MAGIC} bytes, so that it can be found from the end of the
+ * stream. The header announces the trailer with a user-defined option (see
+ * {@link exi.ExiOptionsCodec#EXTENSION_NAMESPACE}), and only then is it
+ * stripped before inflating: the magic alone might just as well be the end
+ * of a compressed body. Decoders which do not know about the trailer stop
+ * reading at the end of the document and never see it.
+ * </p>
+ * <p>
+ * The index allows to get at the data of block N without inflating the
+ * blocks before it (see {@link #getBlockData(byte[], int, boolean)}). Note
+ * that interpreting that data requires the decoder state at the start of
+ * the block: the string table snapshot tells how many entries each partition
+ * holds at that point, but not their contents.
+ * </p>
+ */
+public class ExiBlockIndex {
+
+    // ------------------------------------------------------------------------
+    // Static stuff
+    // ------------------------------------------------------------------------
+
+    /**
+     * The bytes identifying a block index trailer.
+     */
+    public static final byte[] MAGIC = {'E', 'X', 'I', 'X'};
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The version of the serialized index format.
+     */
+    private static final int VERSION = 1;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The length of the trailer's footer, i.e. the index length and the magic
+     * bytes.
+     */
+    private static final int FOOTER_LENGTH = 4 + MAGIC.length;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The information about a single block.
+     */
+    public static final class Entry {
+
+        /**
+         * The block's byte offset in the stream.
+         */
+        private final long offset;
+
+        /**
+         * The block's length in bytes.
+         */
+        private final long length;
+
+        /**
+         * The number of events in the block.
+         */
+        private final int events;
+
+        /**
+         * The number of values in the block.
+         */
+        private final int values;
+
+        /**
+         * The number of URIs at the start of the block.
+         */
+        private final int uris;
+
+        /**
+         * The number of prefixes at the start of the block.
+         */
+        private final int prefixes;
+
+        /**
+         * The number of local names at the start of the block.
+         */
+        private final int localNames;
+
+        /**
+         * The number of global values at the start of the block.
+         */
+        private final int globalValues;
+
+        /**
+         * Creates a new index entry.
+         *
+         * @param offset The block's byte offset in the stream.
+         * @param length The block's length in bytes.
+         * @param events The number of events in the block.
+         * @param values The number of values in the block.
+         * @param uris The number of URIs at the start of the block.
+         * @param prefixes The number of prefixes at the start of the block.
+         * @param localNames The number of local names at the start of the
+         *        block.
+         * @param globalValues The number of global values at the start of the
+         *        block.
+         */
+        public Entry(long offset, long length, int events, int values,
+                int uris, int prefixes, int localNames, int globalValues) {
+            this.offset = offset;
+            this.length = length;
+            this.events = events;
+            this.values = values;
+            this.uris = uris;
+            this.prefixes = prefixes;
+            this.localNames = localNames;
+            this.globalValues = globalValues;
+        }
+
+        /**
+         * @return The block's byte offset in the stream.
+         */
+        public long getOffset( ) {
+            return this.offset;
+        }
+
+        /**
+         * @return The block's length in bytes.
+         */
+        public long getLength( ) {
+            return this.length;
+        }
+
+        /**
+         * @return The number of events in the block.
+         */
+        public int getEvents( ) {
+            return this.events;
+        }
+
+        /**
+         * @return The number of values in the block.
+         */
+        public int getValues( ) {
+            return this.values;
+        }
+
+        /**
+         * @return The number of URIs at the start of the block.
+         */
+        public int getUris( ) {
+            return this.uris;
+        }
+
+        /**
+         * @return The number of prefixes at the start of the block.
+         */
+        public int getPrefixes( ) {
+            return this.prefixes;
+        }
+
+        /**
+         * @return The number of local names at the start of the block.
+         */
+        public int getLocalNames( ) {
+            return this.localNames;
+        }
+
+        /**
+         * @return The number of global values at the start of the block.
+         */
+        public int getGlobalValues( ) {
+            return this.globalValues;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reads the index from the trailer of the specified stream. The caller
+     * must know that the stream has a trailer, e.g. from its header's
+     * options, since compressed data may end with bytes which look like one.
+     *
+     * @param stream The complete EXI stream.
+     * @return The index or <code>null</code> if the stream has no trailer.
+     */
+    public static ExiBlockIndex readTrailer(byte[] stream) {
+        int length = getTrailerLength(stream, stream.length);
+        if (length == 0) {
+            return null;
+        }
+        return read(stream, stream.length - length, length - FOOTER_LENGTH);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the length of the block index trailer at the end of the
+     * specified data.
+     *
+     * @param data The data.
+     * @param end The end of the data.
+     * @return The trailer length including the footer, or <code>0</code> if
+     *         there is no trailer.
+     */
+    public static int getTrailerLength(byte[] data, int end) {
+        if (end < FOOTER_LENGTH) {
+            return 0;
+        }
+        for (int i = 0; i < MAGIC.length; ++i) {
+            if (data[end - MAGIC.length + i] != MAGIC[i]) {
+                return 0;
+            }
+        }
+        int pos = end - FOOTER_LENGTH;
+        int length = ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16)
+            | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+        if (length < 0 || length > pos) {
+            return 0;
+        }
+        return length + FOOTER_LENGTH;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reads a serialized index.
+     *
+     * @param data The data containing the index.
+     * @param offset The index's offset in the data.
+     * @param length The index's length in bytes, excluding the footer.
+     * @return The index.
+     */
+    public static ExiBlockIndex read(byte[] data, int offset, int length) {
+        int[] pos = {offset};
+        int end = offset + length;
+        if (readUnsigned(data, pos, end) != VERSION) {
+            throw new IllegalArgumentException("Unsupported block index version");
+        }
+        ExiBlockIndex index = new ExiBlockIndex( );
+        long count = readUnsigned(data, pos, end);
+        for (long i = 0; i < count; ++i) {
+            index.add(new Entry(readUnsigned(data, pos, end), readUnsigned(data, pos, end),
+                    (int)readUnsigned(data, pos, end), (int)readUnsigned(data, pos, end),
+                    (int)readUnsigned(data, pos, end), (int)readUnsigned(data, pos, end),
+                    (int)readUnsigned(data, pos, end), (int)readUnsigned(data, pos, end)));
+        }
+        return index;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reads an unsigned integer encoded in 7-bit groups, least significant
+     * group first.
+     *
+     * @param data The data.
+     * @param pos The current position, which is advanced.
+     * @param end The end of the data.
+     * @return The value.
+     */
+    private static long readUnsigned(byte[] data, int[] pos, int end) {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (pos[0] >= end) {
+                throw new IllegalArgumentException("Truncated block index");
+            }
+            b = data[pos[0]++];
+            value |= (long)(b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes an unsigned integer in 7-bit groups, least significant group
+     * first.
+     *
+     * @param out The output stream.
+     * @param value The value.
+     * @throws IOException If writing fails.
+     */
+    private static void writeUnsigned(OutputStream out, long value) throws IOException {
+        long v = value;
+        while (v > 0x7F) {
+            out.write((int)(v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write((int)v);
+    }
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The index entries.
+     */
+    private final List<Entry> entries = new ArrayList<Entry>( );
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds an entry to this index.
+     *
+     * @param entry The entry for the next block.
+     */
+    public void add(Entry entry) {
+        this.entries.add(entry);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of indexed blocks.
+     *
+     * @return The number of blocks.
+     */
+    public int getBlockCount( ) {
+        return this.entries.size( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the entry for the specified block.
+     *
+     * @param n The block number, starting at 0.
+     * @return The block's entry.
+     */
+    public Entry getEntry(int n) {
+        return this.entries.get(n);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns all entries of this index.
+     *
+     * @return The unmodifiable list of entries.
+     */
+    public List<Entry> getEntries( ) {
+        return Collections.unmodifiableList(this.entries);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Seeks to the specified block and returns its channel data. For
+     * compressed streams all deflate streams of the block are inflated, the
+     * blocks before it are not touched.
+     *
+     * @param stream The complete EXI stream.
+     * @param n The block number, starting at 0.
+     * @param compressed <code>true</code> if the stream uses compression,
+     *        <code>false</code> if it is pre-compressed.
+     * @return The block's channel data.
+     * @throws DataFormatException If the block cannot be inflated.
+     */
+    public byte[] getBlockData(byte[] stream, int n, boolean compressed) throws DataFormatException {
+        Entry e = getEntry(n);
+        int offset = (int)e.getOffset( );
+        int length = (int)e.getLength( );
+        if (!compressed) {
+            byte[] data = new byte[length];
+            System.arraycopy(stream, offset, data, 0, length);
+            return data;
+        }
+        return inflate(stream, offset, offset + length);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Inflates a sequence of deflate streams which follow each other
+     * immediately.
+     *
+     * @param data The data.
+     * @param offset The start of the first stream.
+     * @param end The end of the last stream.
+     * @return The inflated data.
+     * @throws DataFormatException If the data is not a sequence of deflate
+     *         streams.
+     */
+    static byte[] inflate(byte[] data, int offset, int end) throws DataFormatException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((end - offset) * 4);
+        byte[] buffer = new byte[4096];
+        Inflater inflater = new Inflater( );
+        try {
+            int pos = offset;
+            while (pos < end) {
+                inflater.reset( );
+                inflater.setInput(data, pos, end - pos);
+                while (!inflater.finished( )) {
+                    int n = inflater.inflate(buffer);
+                    if (n == 0 && (inflater.needsInput( ) || inflater.needsDictionary( ))) {
+                        throw new DataFormatException("Truncated deflate stream");
+                    }
+                    out.write(buffer, 0, n);
+                }
+                pos = end - inflater.getRemaining( );
+            }
+        } finally {
+            inflater.end( );
+        }
+        return out.toByteArray( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes this index followed by the trailer footer.
+     *
+     * @param out The output stream.
+     * @throws IOException If writing fails.
+     */
+    public void writeTrailer(OutputStream out) throws IOException {
+        ByteArrayOutputStream temp = new ByteArrayOutputStream( );
+        writeTo(temp);
+        temp.writeTo(out);
+        int length = temp.size( );
+        out.write(length >>> 24);
+        out.write(length >>> 16);
+        out.write(length >>> 8);
+        out.write(length);
+        out.write(MAGIC);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes this index without footer, e.g. to a separate file.
+     *
+     * @param out The output stream.
+     * @throws IOException If writing fails.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        writeUnsigned(out, VERSION);
+        writeUnsigned(out, this.entries.size( ));
+        for (Entry e : this.entries) {
+            writeUnsigned(out, e.getOffset( ));
+            writeUnsigned(out, e.getLength( ));
+            writeUnsigned(out, e.getEvents( ));
+            writeUnsigned(out, e.getValues( ));
+            writeUnsigned(out, e.getUris( ));
+            writeUnsigned(out, e.getPrefixes( ));
+            writeUnsigned(out, e.getLocalNames( ));
+            writeUnsigned(out, e.getGlobalValues( ));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates an entry using a snapshot of the string table sizes.
+     *
+     * @param offset The block's byte offset in the stream.
+     * @param length The block's length in bytes.
+     * @param events The number of events in the block.
+     * @param values The number of values in the block.
+     * @param table The string table snapshot taken at the start of the
+     *        block, see {@link #snapshot(ExiStringTable)}.
+     * @return The new entry.
+     */
+    public static Entry createEntry(long offset, long length, int events, int values, int[] table) {
+        return new Entry(offset, length, events, values, table[0], table[1], table[2], table[3]);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Takes a snapshot of the string table partition sizes.
+     *
+     * @param table The string table or <code>null</code>.
+     * @return The number of URIs, prefixes, local names and global values, in
+     *         that order.
+     */
+    public static int[] snapshot(ExiStringTable table) {
+        if (table == null) {
+            return new int[4];
+        }
+        return new int[] {
+            table.getUriPartition( ).getSize( ),
+            table.getPrefixPartition( ).getSize( ),
+            table.getLocalNamesCount( ),
+            table.getValuePartition( ).getSize( )
+        };
+    }
+}
@@ -25,32 +25,31 @@
  */
 package exi.io.compress;
 
-import java.io.ByteArrayOutputStream;
-import java.math.BigInteger;
 import java.net.URI;
 import java.util.LinkedList;
-import java.util.zip.InflaterInputStream;
+import java.util.zip.DataFormatException;
 
 import javax.xml.namespace.QName;
 
-import exi.ExiConstants;
 import exi.ExiException;
 import exi.ExiOptions;
 import exi.ExiOptions.FidelityOption;
 import exi.events.ExiAttribute;
 import exi.events.ExiCharacters;
-import exi.events.ExiEventCode;
 import exi.events.ExiEventHandler;
 import exi.events.ExiNamespaceDeclaration;
 import exi.events.ExiStartElement;
-import exi.grammar.ExiBuiltInGrammarFactory;
 import exi.grammar.ExiExtensibleGrammar;
 import exi.grammar.ExiGrammar;
 import exi.grammar.ExiGrammarGroup;
 import exi.grammar.ExiGrammarRule;
 import exi.grammar.ExiGrammarGroup.Size;
+import exi.io.ExiBits;
 import exi.io.ExiInputStream;
+import exi.metrics.ExiMetrics;
+import exi.metrics.ExiMetricsRecorder;
 import exi.utils.ExiNamespaceTable;
+import exi.utils.ExiQNamePool;
 import exi.utils.ExiStringTable;
 import exi.utils.StringTablePartition;
 import exi.utils.ValuePartition;
@@ -96,6 +95,11 @@ public class ExiBlockSplitter extends ExiEventHandler {
      * The namespace map.
      */
     private final ExiNamespaceTable table = new ExiNamespaceTable( );
+
+    /**
+     * The pool of qualified names for elements and attributes.
+     */
+    private final ExiQNamePool names = new ExiQNamePool( );
     
     /**
      * The current block size.
@@ -126,14 +130,13 @@ public class ExiBlockSplitter extends ExiEventHandler {
     public ExiBlockSplitter(ExiInputStream is, ExiOptions options) throws Exception {
         super(options);
         
+        ExiMetrics metrics = options.getMetrics( );
         if (options.useCompression( )) {
-            InflaterInputStream iis = new InflaterInputStream(is);
-            ByteArrayOutputStream temp = new ByteArrayOutputStream( );
-            int b;
-            while ((b = iis.read( )) != -1) {
-                temp.write(b);
+            long start = System.nanoTime( );
+            ExiInputStream eis = new ExiInputStream(inflate(is, options.useBlockIndex( )));
+            if (metrics != null) {
+                metrics.inflated(System.nanoTime( ) - start);
             }
-            ExiInputStream eis = new ExiInputStream(temp.toByteArray( ));
             eis.reset( );
             eis.setByteAligned( );
             this.is = eis;
@@ -141,9 +144,50 @@ public class ExiBlockSplitter extends ExiEventHandler {
             this.is = is;
         }
         
+        /*
+         * the values are resolved here rather than by the decoder, so they
+         * are counted here; everything else is counted by the decoder
+         */
+        ExiMetricsRecorder recorder = metrics != null ? new ExiMetricsRecorder(metrics, false) : null;
+        getStringTable( ).setRecorder(recorder);
+        
         initializeNewBlock( );
         
         decode( );
+        
+        if (recorder != null) {
+            recorder.flush( );
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Inflates the remaining data of the specified stream. Each block consists
+     * of one or more separately deflated streams which follow each other
+     * immediately, so inflating is restarted at the end of every stream until
+     * the data (up to the block index trailer, if the header announces one)
+     * is exhausted.
+     *
+     * @param is The input stream.
+     * @param blockIndex <code>true</code> if the data ends with a block index
+     *        trailer.
+     * @return The inflated data.
+     * @throws DataFormatException If the data is not a sequence of deflated
+     *         streams or lacks the announced trailer.
+     */
+    private static byte[] inflate(ExiInputStream is, boolean blockIndex) throws DataFormatException {
+        byte[] data = new byte[is.available( )];
+        is.read(data, 0, data.length);
+        int end = data.length;
+        if (blockIndex) {
+            int length = ExiBlockIndex.getTrailerLength(data, end);
+            if (length == 0) {
+                throw new DataFormatException("Missing block index trailer");
+            }
+            end -= length;
+        }
+        return ExiBlockIndex.inflate(data, 0, end);
     }
 
     // ------------------------------------------------------------------------
@@ -166,17 +210,13 @@ public class ExiBlockSplitter extends ExiEventHandler {
      * @throws ExiException
      */
     private void decode( ) throws ExiException {
-        // at least for now...
-        setFactory(new ExiBuiltInGrammarFactory(getOptions( )));
-
-        pushDocumentGrammar( );
-
+        // the grammar factory and the document grammar are already set up
         ExiGrammarRule rule;
         do {
             rule = decodeEventCode( );
             handleGrammarRule(rule);
             
-            if (currentBlockSize == ExiConstants.BLOCK_SIZE_DEFAULT) {
+            if (currentBlockSize == getOptions( ).getBlockSize( )) {
                 finishBlock( );
                 initializeNewBlock( );
             }
@@ -224,8 +264,6 @@ public class ExiBlockSplitter extends ExiEventHandler {
      * @throws ExiException If something goes wrong during grammar manipulation.
      */
     private void handleAttribute(ExiGrammarRule rule) throws ExiException {
-        String eventType = rule.getEventType( );
-
         boolean general = rule.isGeneral( );
 
         String uri, localPart;
@@ -233,18 +271,19 @@ public class ExiBlockSplitter extends ExiEventHandler {
             uri = decodeURI( );
             localPart = decodeLocalName(uri);
         } else {
-            uri = "";
-            localPart = eventType.substring(3, eventType.length( ) - 1);
+            uri = rule.getEventNamespaceURI( );
+            if (uri == null) {
+                uri = "";
+            }
+            localPart = rule.getEventName( );
         }
-        QName qname = new QName(uri, localPart);
-
-        // the correct value is still unknown, therefore ""
-        ExiAttribute event = new ExiAttribute(qname, "");
+        QName qname = this.names.get(uri, localPart);
         increaseBlockSize(qname);
 
         ExiGrammar g = getCurrentGrammar( );
         if ((g instanceof ExiExtensibleGrammar) && general) {
-            extendGrammar(g, rule, event);
+            // the correct value is still unknown, therefore ""
+            extendGrammar(g, rule, new ExiAttribute(qname, ""));
         }
 
         g.moveToGroup(rule.getRightHandSide( ));
@@ -259,30 +298,30 @@ public class ExiBlockSplitter extends ExiEventHandler {
      * @throws ExiException If something goes wrong during grammar manipulation.
      */
     private void handleStartElement(ExiGrammarRule rule) throws ExiException {
-        String eventType = rule.getEventType( );
-
         boolean general = rule.isGeneral( );
         String uri, localPart, prefix;
         if (general) {
             uri = decodeURI( );
             localPart = decodeLocalName(uri);
         } else {
-            uri = getCurrentQName( ).getNamespaceURI( );
-            localPart = eventType.substring(3, eventType.length( ) - 1);
+            uri = rule.getEventNamespaceURI( );
+            if (uri == null) {
+                uri = getCurrentQName( ).getNamespaceURI( );
+            }
+            localPart = rule.getEventName( );
         }
-        prefix = this.table.getNamespacePrefix(URI.create(uri));
-        QName qname = new QName(uri, localPart, prefix);
+        prefix = this.table.getNamespacePrefix(uri);
+        QName qname = this.names.get(uri, localPart, prefix);
 
         pushQName(qname);
-        ExiStartElement event = new ExiStartElement(qname);
 
         ExiGrammar g = getCurrentGrammar( );
         if ((g instanceof ExiExtensibleGrammar) && general) {
-            extendGrammar(g, rule, event);
+            extendGrammar(g, rule, new ExiStartElement(qname));
         }
 
         g.moveToGroup(rule.getRightHandSide( ));
-        pushElementGrammar(qname);
+        pushElementGrammar(qname, rule);
     }
 
     // ------------------------------------------------------------------------
@@ -396,13 +435,13 @@ public class ExiBlockSplitter extends ExiEventHandler {
         ExiGrammarRule rule;
         
         int p1 = readPart(groupSize.getPartSize(0));
-        rule = activeGroup.getMatchingRule(new ExiEventCode(p1));
+        rule = activeGroup.getMatchingRule(1, p1, 0, 0);
         if (rule == null) {
             int p2 = readPart(groupSize.getPartSize(1));
-            rule = activeGroup.getMatchingRule(new ExiEventCode(p1, p2));
+            rule = activeGroup.getMatchingRule(2, p1, p2, 0);
             if (rule == null) {
                 int p3 = readPart(groupSize.getPartSize(2));
-                rule = activeGroup.getMatchingRule(new ExiEventCode(p1, p2, p3));
+                rule = activeGroup.getMatchingRule(3, p1, p2, p3);
             }
         }
 
@@ -418,10 +457,10 @@ public class ExiBlockSplitter extends ExiEventHandler {
      * @return The EXI event code part.
      */
     private int readPart(int partSize) {
-        int bits = (int)Math.ceil(Math.log(partSize)/Math.log(2));
-        BigInteger temp = this.is.readNBitUnsignedInteger(bits);
-        currentStructure.writeNBitUnsignedInteger(temp, bits);
-        return temp.intValue( );
+        int bits = ExiBits.getWidth(partSize);
+        int part = this.is.readNBitUnsignedInt(bits);
+        currentStructure.writeNBitUnsignedInteger(part, bits);
+        return part;
     }
 
     // ------------------------------------------------------------------------
@@ -447,12 +486,9 @@ public class ExiBlockSplitter extends ExiEventHandler {
      * @return The decoded string.
      */
     private String decodeOptimizedForHits(StringTablePartition part, String msg) {
-        BigInteger temp;
-        
-        int bits = (int)Math.ceil(Math.log(part.getSize( )+1)/Math.log(2));
-        temp = this.is.readNBitUnsignedInteger(bits);
-        int code = temp.intValue( );
-        currentStructure.writeNBitUnsignedInteger(temp, bits);
+        int bits = ExiBits.getWidth(part.getSize( )+1);
+        int code = this.is.readNBitUnsignedInt(bits);
+        currentStructure.writeNBitUnsignedInteger(code, bits);
         
         if (code == 0) {
             String s = this.is.readString( );
@@ -476,18 +512,14 @@ public class ExiBlockSplitter extends ExiEventHandler {
      * @return The decoded local name.
      */
     private String decodeLocalName(String namespaceURI) {
-        BigInteger temp;
-        
         StringTablePartition part = getStringTable( ).getLocalNamesPartition(namespaceURI);
-        temp = this.is.readUnsignedInteger( );
-        int code = temp.intValue( );
-        
+        int code = this.is.readUnsignedInt( );
+
         if (code == 0) {
-            currentStructure.writeUnsignedInteger(temp);
-            int bits = (int)Math.ceil(Math.log(part.getSize( ))/Math.log(2));
-            temp = this.is.readNBitUnsignedInteger(bits);
-            currentStructure.writeNBitUnsignedInteger(temp, bits);
-            int index = temp.intValue( );
+            currentStructure.writeUnsignedInteger(code);
+            int bits = ExiBits.getWidth(part.getSize( ));
+            int index = this.is.readNBitUnsignedInt(bits);
+            currentStructure.writeNBitUnsignedInteger(index, bits);
             return part.getValue(index);
         }
 
@@ -531,6 +563,7 @@ public class ExiBlockSplitter extends ExiEventHandler {
      */
     private void finishBlock( ) {
         currentBlock.setStructureChannel(new ExiStructureInputChannel(currentStructure.toByteArray( )));
+        currentStructure.release( );
         
         if (currentBlockSize <= 100) {
             for (ValueChannelInfo vci : currentChannelInfos) {
@@ -555,47 +588,51 @@ public class ExiBlockSplitter extends ExiEventHandler {
     // ------------------------------------------------------------------------
 
     /**
-     * Copies a value channel from the in put stream to the curren block.
+     * Copies a value channel from the input stream to the current block. The
+     * values are resolved against the string table on the way because the
+     * compact identifiers have been assigned in channel order.
      * 
      * @param vci Information containing the qualified name associated to this
      *        value channel and the number of values contained.
      */
     private void copyValueChannel(ValueChannelInfo vci) {
         
-        ExiValueOutputChannel evo = new ExiValueOutputChannel(vci.qname);
+        ExiValueInputChannel vc = new ExiValueInputChannel(vci.qname);
+        
+        ExiStringTable table = getStringTable( );
+        ExiMetricsRecorder recorder = table.getRecorder( );
+        ValuePartition local = table.getValuePartition(vci.qname);
+        ValuePartition global = table.getValuePartition( );
         
         for (int i = 0; i < vci.size; ++i) {
             
-            ExiStringTable table = getStringTable( );
-            ValuePartition local = table.getValuePartition(vci.qname);
-            ValuePartition global = table.getValuePartition( );
-            
-            BigInteger temp = this.is.readUnsignedInteger( );
-            
-            int code = temp.intValue( );
+            int code = this.is.readUnsignedInt( );
             if (code == 0) {
-                evo.writeUnsignedInteger(temp);
                 // value is found in the local table
-                int bits = (int)Math.ceil(Math.log(local.getSize( ))/Math.log(2));
-                temp = this.is.readNBitUnsignedInteger(bits);
-                evo.writeNBitUnsignedInteger(temp, bits);
+                int bits = ExiBits.getWidth(local.getSize( ));
+                vc.addValue(local.getValue(this.is.readNBitUnsignedInt(bits)));
+                if (recorder != null) {
+                    recorder.valueHitLocal( );
+                }
             } else if (code == 1) {
-                evo.writeUnsignedInteger(temp);
                 // value is found in the global table
-                int bits = (int)Math.ceil(Math.log(global.getSize( ))/Math.log(2));
-                temp = this.is.readNBitUnsignedInteger(bits);
-                evo.writeNBitUnsignedInteger(temp, bits);
+                int bits = ExiBits.getWidth(global.getSize( ));
+                vc.addValue(global.getValue(this.is.readNBitUnsignedInt(bits)));
+                if (recorder != null) {
+                    recorder.valueHitGlobal( );
+                }
             } else {
                 // value is neither found in the local nor the global table
                 String s = this.is.readString(code - 2);
-                evo.writeString(s, 2);
+                vc.addValue(s);
                 local.add(s);
                 global.add(s);
+                if (recorder != null) {
+                    recorder.valueMiss( );
+                }
             }
         }
         
-        ExiValueInputChannel vc = new ExiValueInputChannel(vci.qname, evo.toByteArray( ));
-        vc.setSize(vci.size);
         currentBlock.addValueChannel(vc);
     }
 
@@ -22,6 +22,7 @@
  */
 package exi.io.compress;
 
+import java.util.HashMap;
 import java.util.LinkedList;
 
 import javax.xml.namespace.QName;
@@ -42,6 +43,16 @@ public class ExiInputBlock {
      * The list of value channels.
      */
     private final LinkedList<ExiValueInputChannel> chValue = new LinkedList<ExiValueInputChannel>( );
+
+    /**
+     * The value channels mapped to their QNames.
+     */
+    private final HashMap<QName, ExiValueInputChannel> chValueMap = new HashMap<QName, ExiValueInputChannel>( );
+
+    /**
+     * The number of values in this block.
+     */
+    private int size = 0;
     
     /**
      * 
@@ -77,6 +88,8 @@ public class ExiInputBlock {
     public void addValueChannel(ExiValueInputChannel vc) {
         vc.reset( );
         chValue.add(vc);
+        chValueMap.put(vc.getQualifiedName( ), vc);
+        size += vc.getSize( );
     }
     
     /**
@@ -86,13 +99,7 @@ public class ExiInputBlock {
      * @return The value channel.
      */
     public ExiValueInputChannel getValueChannel(QName qname) {
-        ExiValueInputChannel ch = null;
-        for (ExiValueInputChannel vc : chValue) {
-            if (vc.getQualifiedName( ).equals(qname)) {
-                ch = vc;
-            }
-        }
-        return ch;
+        return chValueMap.get(qname);
     }
 
     // ------------------------------------------------------------------------
@@ -115,10 +122,6 @@ public class ExiInputBlock {
      * @return This block's size.
      */
     public int getSize( ) {
-        int size = 0;
-        for (ExiValueInputChannel vc : this.chValue) {
-            size += vc.getSize( );
-        }
-        return size;
+        return this.size;
     }
 }
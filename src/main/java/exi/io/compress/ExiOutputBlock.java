@@ -22,14 +22,20 @@
  */
 package exi.io.compress;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 
 import javax.xml.namespace.QName;
 
 import exi.io.ExiOutputStream;
+import exi.metrics.ExiMetrics;
+import exi.utils.ExiStringTable;
 
 /**
  * This class represents a single block of EXI events used in EXI compression.
@@ -54,6 +60,13 @@ public class ExiOutputBlock {
      */
     private final LinkedList<ExiValueOutputChannel> chValue = new LinkedList<ExiValueOutputChannel>( );
 
+    // ------------------------------------------------------------------------
+
+    /**
+     * This block's value channels mapped to their QNames.
+     */
+    private final HashMap<QName, ExiValueOutputChannel> chValueMap = new HashMap<QName, ExiValueOutputChannel>( );
+
     // ------------------------------------------------------------------------
     // Constructors
     // ------------------------------------------------------------------------
@@ -88,15 +101,11 @@ public class ExiOutputBlock {
      * @return The value channel for the qualified name.
      */
     public ExiValueOutputChannel getValueChannel(QName qname) {
-        ExiValueOutputChannel ch = null;
-        for (ExiValueOutputChannel vc : this.chValue) {
-            if (vc.getQualifiedName( ).equals(qname)) {
-                ch = vc;
-            }
-        }
+        ExiValueOutputChannel ch = this.chValueMap.get(qname);
         if (ch == null) {
             ch = new ExiValueOutputChannel(qname);
             this.chValue.add(ch);
+            this.chValueMap.put(qname, ch);
         }
         return ch;
     }
@@ -120,83 +129,300 @@ public class ExiOutputBlock {
     // ------------------------------------------------------------------------
 
     /**
-     * @param os
-     * @param useDeflate
-     * @throws IOException
+     * Returns this block's value channels in the order in which they appear
+     * in the stream: If there are at most 100 values, then this is the order
+     * of the channels' creation. Otherwise the channels with no more than 100
+     * values come first, followed by the larger channels.
+     *
+     * @return The value channels in stream order.
      */
-    public void writeChannels(ExiOutputStream os, boolean useDeflate) throws IOException {
+    private List<ExiValueOutputChannel> getChannelOrder( ) {
         if (getSize( ) <= 100) {
-            /*
-             * if there are at most 100 values, then the block will contain only
-             * stream containing the structure channel followed by all the value
-             * channels
-             */ 
-            writeSingleChannel(os, useDeflate);
-        } else {
-            // write structure channel first and not combined with other channels
-            writeCombinedChannel(getStructureChannel( ), os, useDeflate);
-
-            // combine value channels with no more than 100 values
-            ByteArrayOutputStream temp = new ByteArrayOutputStream( );
-            boolean isCombined = false;
-            for (ExiValueOutputChannel c : this.chValue) {
-                if (c.getSize( ) <= 100) {
-                    temp.write(c.toByteArray( ));
-                    isCombined = true;
-                }
+            return this.chValue;
+        }
+        List<ExiValueOutputChannel> order = new ArrayList<ExiValueOutputChannel>(this.chValue.size( ));
+        for (ExiValueOutputChannel c : this.chValue) {
+            if (c.getSize( ) <= 100) {
+                order.add(c);
             }
-            if (isCombined) {
-                writeCombinedChannel(temp, os, useDeflate);
+        }
+        for (ExiValueOutputChannel c : this.chValue) {
+            if (c.getSize( ) > 100) {
+                order.add(c);
             }
+        }
+        return order;
+    }
+
+    // ------------------------------------------------------------------------
 
-            // finally write uncombined channels consisting of more than 100 values
-            for (ExiValueOutputChannel c : this.chValue) {
-                if (c.getSize( ) > 100) {
-                    writeCombinedChannel(c, os, useDeflate);
+    /**
+     * Resolves the values of all channels against the string table. This is
+     * done in stream order so that the compact identifiers match the ones the
+     * decoder assigns when reading the channels.
+     *
+     * @param table The string table.
+     */
+    public void resolveValues(ExiStringTable table) {
+        for (ExiValueOutputChannel c : getChannelOrder( )) {
+            c.resolve(table);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes this block's channels to the specified stream, deflating them if
+     * requested.
+     *
+     * @param os The output stream.
+     * @param useDeflate <code>true</code> if the channels are to be deflated.
+     * @throws IOException If something goes wrong during writing.
+     * @see #writeChannels(ExiOutputStream, boolean, ExiAdaptiveBlockSizer, ExiMetrics)
+     */
+    public void writeChannels(ExiOutputStream os, boolean useDeflate) throws IOException {
+        writeChannels(os, useDeflate, null, null);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes this block's channels to the specified stream, deflating them if
+     * requested. The channel segments are handed to the stream (or deflater)
+     * directly and are given back to their pool afterwards, so the block must
+     * not be used any more once this method returns.
+     * <p>
+     * If a block sizer is given, then it decides for each stream whether it
+     * is deflated or stored, and it is told about the outcome.
+     * </p>
+     *
+     * @param os The output stream.
+     * @param useDeflate <code>true</code> if the channels are to be deflated.
+     * @param sizer The block sizer or <code>null</code> if every stream is to
+     *        be deflated.
+     * @throws IOException If something goes wrong during writing.
+     * @see #writeChannels(ExiOutputStream, boolean, ExiAdaptiveBlockSizer, ExiMetrics)
+     */
+    public void writeChannels(ExiOutputStream os, boolean useDeflate, ExiAdaptiveBlockSizer sizer) throws IOException {
+        writeChannels(os, useDeflate, sizer, null);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes this block's channels to the specified stream, deflating them if
+     * requested. The channel segments are handed to the stream (or deflater)
+     * directly and are given back to their pool afterwards, so the block must
+     * not be used any more once this method returns.
+     * <p>
+     * If a block sizer is given, then it decides for each stream whether it
+     * is deflated or stored, and it is told about the outcome. If metrics are
+     * given, then the bytes of each stream and of the block as well as the
+     * time spent deflating are counted in them.
+     * </p>
+     *
+     * @param os The output stream.
+     * @param useDeflate <code>true</code> if the channels are to be deflated.
+     * @param sizer The block sizer or <code>null</code> if every stream is to
+     *        be deflated.
+     * @param metrics The metrics or <code>null</code>.
+     * @throws IOException If something goes wrong during writing.
+     */
+    public void writeChannels(ExiOutputStream os, boolean useDeflate, ExiAdaptiveBlockSizer sizer, ExiMetrics metrics)
+            throws IOException {
+        StreamWriter out = new StreamWriter(os, useDeflate, sizer, metrics);
+        try {
+            if (getSize( ) <= 100) {
+                /*
+                 * if there are at most 100 values, then the block will contain
+                 * only stream containing the structure channel followed by all
+                 * the value channels
+                 */
+                List<ExiOutputChannel> all = new ArrayList<ExiOutputChannel>(this.chValue.size( ) + 1);
+                all.add(this.chStruct);
+                all.addAll(this.chValue);
+                out.writeStream(ExiAdaptiveBlockSizer.COMBINED_CHANNEL, all);
+            } else {
+                // write structure channel first and not combined with other channels
+                out.writeStream(ExiAdaptiveBlockSizer.STRUCTURE_CHANNEL, this.chStruct);
+
+                // combine value channels with no more than 100 values
+                List<ExiOutputChannel> combined = new ArrayList<ExiOutputChannel>( );
+                for (ExiValueOutputChannel c : this.chValue) {
+                    if (c.getSize( ) <= 100) {
+                        combined.add(c);
+                    }
                 }
+                if (!combined.isEmpty( )) {
+                    out.writeStream(ExiAdaptiveBlockSizer.COMBINED_CHANNEL, combined);
+                }
+
+                // finally write uncombined channels consisting of more than 100 values
+                for (ExiValueOutputChannel c : this.chValue) {
+                    if (c.getSize( ) > 100) {
+                        out.writeStream(c.getQualifiedName( ), c);
+                    }
+                }
+            }
+            if (sizer != null) {
+                sizer.recordBlock(getSize( ), out.rawBytes, out.deflatedBytes, out.nanos);
+            }
+            if (metrics != null) {
+                metrics.blockWritten(out.rawBytes, out.deflaterNanos);
             }
+        } finally {
+            out.end( );
+            release( );
         }
     }
 
     // ------------------------------------------------------------------------
 
     /**
-     * @param os
-     * @param useDeflate
-     * @throws IOException
+     * Gives the segments of all channels back to their pool.
      */
-    private void writeSingleChannel(ExiOutputStream os, boolean useDeflate) throws IOException {
-
-        // combine all the channels
-        ByteArrayOutputStream temp = new ByteArrayOutputStream( );
-        temp.write(getStructureChannel( ).toByteArray( ));
+    public void release( ) {
+        this.chStruct.release( );
         for (ExiValueOutputChannel c : this.chValue) {
-            temp.write(c.toByteArray( ));
+            c.release( );
         }
-
-        writeCombinedChannel(temp, os, useDeflate);
     }
 
     // ------------------------------------------------------------------------
 
     /**
-     * @param stream
-     * @param os
-     * @param useDeflate
-     * @throws IOException
+     * Writes the streams of a block, i.e. single or combined channels which
+     * are deflated independently of each other.
      */
-    private void writeCombinedChannel(ByteArrayOutputStream stream, ExiOutputStream os, boolean useDeflate) throws IOException {
-        if (useDeflate) {
-            // write the channel with deflating beforehand
-            ByteArrayOutputStream bout = new ByteArrayOutputStream( );
-            DeflaterOutputStream dos = new DeflaterOutputStream(bout);
-            stream.writeTo(dos);
+    private static class StreamWriter {
+
+        /**
+         * The output stream.
+         */
+        private final ExiOutputStream os;
+
+        /**
+         * The deflater or <code>null</code> if streams are not deflated.
+         */
+        private final Deflater deflater;
+
+        /**
+         * The block sizer or <code>null</code>.
+         */
+        private final ExiAdaptiveBlockSizer sizer;
+
+        /**
+         * The metrics or <code>null</code>.
+         */
+        private final ExiMetrics metrics;
+
+        /**
+         * The number of raw bytes written.
+         */
+        long rawBytes = 0;
+
+        /**
+         * The number of raw bytes which have been deflated.
+         */
+        long deflatedBytes = 0;
+
+        /**
+         * The time spent deflating in nanoseconds.
+         */
+        long nanos = 0;
+
+        /**
+         * The time spent in the deflater in nanoseconds, including streams
+         * which are stored.
+         */
+        long deflaterNanos = 0;
+
+        /**
+         * Creates a new stream writer.
+         *
+         * @param os The output stream.
+         * @param useDeflate <code>true</code> if the streams are to be
+         *        deflated.
+         * @param sizer The block sizer or <code>null</code>.
+         * @param metrics The metrics or <code>null</code>.
+         */
+        StreamWriter(ExiOutputStream os, boolean useDeflate, ExiAdaptiveBlockSizer sizer, ExiMetrics metrics) {
+            this.os = os;
+            this.deflater = useDeflate ? new Deflater( ) : null;
+            this.sizer = sizer;
+            this.metrics = metrics;
+        }
+
+        /**
+         * Writes a stream consisting of a single channel.
+         *
+         * @param key The channel key used by the block sizer.
+         * @param channel The channel.
+         * @throws IOException If something goes wrong during writing.
+         */
+        void writeStream(Object key, ExiOutputChannel channel) throws IOException {
+            List<ExiOutputChannel> list = new ArrayList<ExiOutputChannel>(1);
+            list.add(channel);
+            writeStream(key, list);
+        }
+
+        /**
+         * Writes a stream consisting of the specified channels.
+         *
+         * @param key The channel key used by the block sizer.
+         * @param channels The channels.
+         * @throws IOException If something goes wrong during writing.
+         */
+        void writeStream(Object key, List<? extends ExiOutputChannel> channels) throws IOException {
+            long raw = 0;
+            for (ExiOutputChannel c : channels) {
+                raw += c.size( );
+            }
+            this.rawBytes += raw;
+
+            if (this.deflater == null) {
+                for (ExiOutputChannel c : channels) {
+                    c.writeTo(this.os);
+                }
+                if (this.metrics != null) {
+                    this.metrics.channelWritten(key.toString( ), raw, raw);
+                }
+                return;
+            }
+
+            boolean deflate = this.sizer == null || this.sizer.shouldDeflate(key, raw);
+            this.deflater.reset( );
+            this.deflater.setLevel(deflate ? Deflater.DEFAULT_COMPRESSION : Deflater.NO_COMPRESSION);
+
+            long start = System.nanoTime( );
+            int before = this.os.size( );
+            DeflaterOutputStream dos = new DeflaterOutputStream(this.os, this.deflater);
+            for (ExiOutputChannel c : channels) {
+                c.writeTo(dos);
+            }
             dos.finish( );
-            dos.close( );
-            os.write(bout.toByteArray( ));
-        } else {
-            // write the channel without deflating
-            os.write(stream.toByteArray( ));
+            long elapsed = System.nanoTime( ) - start;
+            this.deflaterNanos += elapsed;
+
+            if (this.metrics != null) {
+                this.metrics.channelWritten(key.toString( ), raw, this.os.size( ) - before);
+            }
+            if (deflate) {
+                this.nanos += elapsed;
+                this.deflatedBytes += raw;
+                if (this.sizer != null) {
+                    this.sizer.recordChannel(key, raw, this.os.size( ) - before);
+                }
+            }
+        }
+
+        /**
+         * Releases the deflater's resources.
+         */
+        void end( ) {
+            if (this.deflater != null) {
+                this.deflater.end( );
+            }
         }
     }
 }
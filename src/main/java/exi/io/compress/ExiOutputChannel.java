@@ -25,19 +25,190 @@
  */
 package exi.io.compress;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
 import exi.io.ExiOutputStream;
 
 /**
  * Represents a channel in an EXI compressed stream's output block.
+ * <p>
+ * Channel data is not kept in a single growing array but in a chain of fixed
+ * size segments taken from an {@link ExiSegmentPool}. Writing the channel
+ * hands the segments to the target stream directly, and {@link #release()}
+ * returns them to the pool once the channel is no longer needed.
+ * </p>
  * 
  * @author Marco Wegner
  */
 public abstract class ExiOutputChannel extends ExiOutputStream {
 
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The pool the segments are taken from.
+     */
+    private final ExiSegmentPool pool;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The segments containing this channel's data. All segments but the last
+     * one are completely filled.
+     */
+    private final ArrayList<byte[]> segments = new ArrayList<byte[]>(4);
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The segment currently written to, or <code>null</code> if none has been
+     * acquired yet.
+     */
+    private byte[] current;
+
+    // ------------------------------------------------------------------------
+
     /**
-     * 
+     * The write position in the current segment.
+     */
+    private int currentPos;
+
+    // ------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new channel using the shared segment pool.
      */
     public ExiOutputChannel( ) {
-        super(true);
+        this(ExiSegmentPool.getSharedPool( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new channel using the specified segment pool.
+     *
+     * @param pool The segment pool.
+     */
+    public ExiOutputChannel(ExiSegmentPool pool) {
+        super(true, 0);
+        this.pool = pool;
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see java.io.ByteArrayOutputStream#write(int)
+     */
+    @Override
+    public void write(int b) {
+        if (this.current == null || this.currentPos == this.current.length) {
+            nextSegment( );
+        }
+        this.current[this.currentPos++] = (byte)b;
+        this.count++;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see java.io.ByteArrayOutputStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte[] b, int off, int len) {
+        int offset = off;
+        int remaining = len;
+        while (remaining > 0) {
+            if (this.current == null || this.currentPos == this.current.length) {
+                nextSegment( );
+            }
+            int n = Math.min(remaining, this.current.length - this.currentPos);
+            System.arraycopy(b, offset, this.current, this.currentPos, n);
+            this.currentPos += n;
+            this.count += n;
+            offset += n;
+            remaining -= n;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see java.io.ByteArrayOutputStream#writeTo(java.io.OutputStream)
+     */
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        int last = this.segments.size( ) - 1;
+        for (int i = 0; i < last; ++i) {
+            byte[] segment = this.segments.get(i);
+            out.write(segment, 0, segment.length);
+        }
+        if (last >= 0) {
+            out.write(this.current, 0, this.currentPos);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see java.io.ByteArrayOutputStream#toByteArray()
+     */
+    @Override
+    public byte[] toByteArray( ) {
+        byte[] array = new byte[this.count];
+        int pos = 0;
+        int last = this.segments.size( ) - 1;
+        for (int i = 0; i < last; ++i) {
+            byte[] segment = this.segments.get(i);
+            System.arraycopy(segment, 0, array, pos, segment.length);
+            pos += segment.length;
+        }
+        if (last >= 0) {
+            System.arraycopy(this.current, 0, array, pos, this.currentPos);
+        }
+        return array;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see java.io.ByteArrayOutputStream#reset()
+     */
+    @Override
+    public void reset( ) {
+        release( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Gives all segments back to the pool and empties this channel. The
+     * channel can be written to again afterwards.
+     */
+    public void release( ) {
+        for (byte[] segment : this.segments) {
+            this.pool.release(segment);
+        }
+        this.segments.clear( );
+        this.current = null;
+        this.currentPos = 0;
+        this.count = 0;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Appends a new segment to this channel.
+     */
+    private void nextSegment( ) {
+        this.current = this.pool.acquire( );
+        this.currentPos = 0;
+        this.segments.add(this.current);
     }
 }
@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.io.compress;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A simple slab allocator handing out fixed-size byte segments. Channels of
+ * compressed and pre-compressed streams store their data in chains of such
+ * segments and give them back once the block has been written, so that
+ * encoding many documents does not keep producing short-lived buffers.
+ * <p>
+ * This class is thread-safe. One pool is usually shared by all channels of a
+ * process (see {@link #getSharedPool()}).
+ * </p>
+ */
+public final class ExiSegmentPool {
+
+    // ------------------------------------------------------------------------
+    // Static stuff
+    // ------------------------------------------------------------------------
+
+    /**
+     * The default size of a single segment in bytes.
+     */
+    public static final int SEGMENT_SIZE_DEFAULT = 1024;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The default number of free segments retained by a pool.
+     */
+    public static final int MAX_RETAINED_DEFAULT = 4096;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The pool shared by all channels which are not given a pool explicitly.
+     */
+    private static final ExiSegmentPool sharedPool =
+        new ExiSegmentPool(SEGMENT_SIZE_DEFAULT, MAX_RETAINED_DEFAULT);
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the pool shared by all channels of this process.
+     *
+     * @return The shared segment pool.
+     */
+    public static ExiSegmentPool getSharedPool( ) {
+        return sharedPool;
+    }
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The size of each segment handed out by this pool.
+     */
+    private final int segmentSize;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The maximum number of free segments kept for reuse.
+     */
+    private final int maxRetained;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The free segments.
+     */
+    private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<byte[]>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of segments currently in the free list. This is tracked
+     * separately because the queue's size is not a constant time operation.
+     */
+    private final AtomicInteger freeCount = new AtomicInteger( );
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new segment pool.
+     *
+     * @param segmentSize The size of each segment in bytes.
+     * @param maxRetained The maximum number of free segments kept for reuse.
+     *        Segments released beyond that number are left to the garbage
+     *        collector.
+     */
+    public ExiSegmentPool(int segmentSize, int maxRetained) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive!");
+        }
+        this.segmentSize = segmentSize;
+        this.maxRetained = maxRetained;
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the size of the segments handed out by this pool.
+     *
+     * @return The segment size in bytes.
+     */
+    public int getSegmentSize( ) {
+        return this.segmentSize;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of free segments currently retained by this pool.
+     *
+     * @return The number of free segments.
+     */
+    public int getFreeSegments( ) {
+        return this.freeCount.get( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Hands out a segment. Its contents are undefined.
+     *
+     * @return The segment.
+     */
+    public byte[] acquire( ) {
+        byte[] segment = this.free.poll( );
+        if (segment == null) {
+            return new byte[this.segmentSize];
+        }
+        this.freeCount.decrementAndGet( );
+        return segment;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Gives a segment back to the pool. The caller must not use the segment
+     * afterwards.
+     *
+     * @param segment The segment which was obtained from {@link #acquire()}.
+     */
+    public void release(byte[] segment) {
+        if (segment.length != this.segmentSize) {
+            throw new IllegalArgumentException("Segment does not belong to this pool!");
+        }
+        if (this.freeCount.incrementAndGet( ) > this.maxRetained) {
+            this.freeCount.decrementAndGet( );
+            return;
+        }
+        this.free.offer(segment);
+    }
+}
@@ -38,4 +38,13 @@ public class ExiStructureOutputChannel extends ExiOutputChannel {
     public ExiStructureOutputChannel( ) {
         super( );
     }
+
+    /**
+     * Creates a new structure channel using the specified segment pool.
+     *
+     * @param pool The segment pool.
+     */
+    public ExiStructureOutputChannel(ExiSegmentPool pool) {
+        super(pool);
+    }
 }
@@ -22,12 +22,19 @@
  */
 package exi.io.compress;
 
+import java.util.ArrayList;
+
 import javax.xml.namespace.QName;
 
 /**
+ * Represents a value channel in an input stream's block. Unlike the structure
+ * channel, a value channel does not keep the encoded data: Its values are
+ * resolved against the string table while the block is split because the
+ * compact identifiers are assigned in channel order.
+ *
  * @author Marco Wegner
  */
-public class ExiValueInputChannel extends ExiInputChannel {
+public class ExiValueInputChannel {
 
     // ------------------------------------------------------------------------
     // Member variables
@@ -37,25 +44,36 @@ public class ExiValueInputChannel extends ExiInputChannel {
      * This channel's qualified name.
      */
     private final QName qname;
-    
+
+    // ------------------------------------------------------------------------
+
     /**
-     * The channel size.
+     * The channel's values.
      */
-    private int size;
+    private final ArrayList<String> values = new ArrayList<String>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The index of the next value to be read.
+     */
+    private int position = 0;
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
 
     /**
      * @param qname This channel's qualified name.
-     * @param array The byte array containing this channel's data.
      */
-    public ExiValueInputChannel(QName qname, byte[] array) {
-        super(array);
+    public ExiValueInputChannel(QName qname) {
         this.qname = qname;
     }
 
     // ------------------------------------------------------------------------
     // Methods
     // ------------------------------------------------------------------------
-    
+
     /**
      * Returns this value channel's QName.
      *
@@ -64,18 +82,44 @@ public class ExiValueInputChannel extends ExiInputChannel {
     public QName getQualifiedName( ) {
         return this.qname;
     }
-    
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds a resolved value to this channel.
+     *
+     * @param value The value.
+     */
+    public void addValue(String value) {
+        this.values.add(value);
+    }
+
+    // ------------------------------------------------------------------------
+
     /**
-     * @param size
+     * Returns the next value from this channel.
+     *
+     * @return The value.
      */
-    public void setSize(int size) {
-        this.size = size;
+    public String readValue( ) {
+        return this.values.get(this.position++);
     }
-    
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Resets this channel so that the first value is read next.
+     */
+    public void reset( ) {
+        this.position = 0;
+    }
+
+    // ------------------------------------------------------------------------
+
     /**
      * @return This channel's size.
      */
     public int getSize( ) {
-        return this.size;
+        return this.values.size( );
     }
 }
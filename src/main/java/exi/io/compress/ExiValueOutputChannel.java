@@ -25,10 +25,15 @@
  */
 package exi.io.compress;
 
-import java.math.BigInteger;
+import java.util.ArrayList;
 
 import javax.xml.namespace.QName;
 
+import exi.io.ExiBits;
+import exi.metrics.ExiMetricsRecorder;
+import exi.utils.ExiStringTable;
+import exi.utils.ValuePartition;
+
 /**
  * @author Marco Wegner
  *
@@ -51,6 +56,14 @@ public class ExiValueOutputChannel extends ExiOutputChannel {
      */
     private int size = 0;
 
+    // ------------------------------------------------------------------------
+
+    /**
+     * The values added to this channel which have not been resolved against
+     * the string table yet.
+     */
+    private final ArrayList<String> pending = new ArrayList<String>( );
+
     // ------------------------------------------------------------------------
     // Constructors
     // ------------------------------------------------------------------------
@@ -102,11 +115,20 @@ public class ExiValueOutputChannel extends ExiOutputChannel {
      * @param flag
      */
     private void addValueHit(int id, int size, int flag) {
-        writeUnsignedInteger(BigInteger.valueOf(flag));
-        int bits = (int)Math.ceil(Math.log(size)/Math.log(2));
-        writeNBitUnsignedInteger(BigInteger.valueOf(id), bits);
+        writeValueHit(id, size, flag);
         this.size++;
     }
+
+    /**
+     * @param id
+     * @param size
+     * @param flag
+     */
+    private void writeValueHit(int id, int size, int flag) {
+        writeUnsignedInteger(flag);
+        int bits = ExiBits.getWidth(size);
+        writeNBitUnsignedInteger(id, bits);
+    }
     
     /**
      * Adds a value to this channel.
@@ -120,6 +142,54 @@ public class ExiValueOutputChannel extends ExiOutputChannel {
 
     // ------------------------------------------------------------------------
 
+    /**
+     * Adds a value to this channel without resolving it against the string
+     * table. Pending values are written by {@link #resolve(ExiStringTable)}.
+     *
+     * @param value The value.
+     */
+    public void addValue(String value) {
+        this.pending.add(value);
+        this.size++;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Resolves the pending values against the string table and writes them
+     * to this channel. The string table is updated in the process.
+     *
+     * @param table The string table.
+     */
+    public void resolve(ExiStringTable table) {
+        ExiMetricsRecorder recorder = table.getRecorder( );
+        ValuePartition local = table.getValuePartition(this.qname);
+        ValuePartition global = table.getValuePartition( );
+        for (String s : this.pending) {
+            if (local.lookup(s)) {
+                writeValueHit(local.getID(s), local.getSize( ), 0);
+                if (recorder != null) {
+                    recorder.valueHitLocal( );
+                }
+            } else if (global.lookup(s)) {
+                writeValueHit(global.getID(s), global.getSize( ), 1);
+                if (recorder != null) {
+                    recorder.valueHitGlobal( );
+                }
+            } else {
+                writeString(s, 2);
+                local.add(s);
+                global.add(s);
+                if (recorder != null) {
+                    recorder.valueMiss( );
+                }
+            }
+        }
+        this.pending.clear( );
+    }
+
+    // ------------------------------------------------------------------------
+
     /**
      * Returns this value channel's size. This size determined by the amount of
      * values in this channel.
@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values using power-of-two buckets. Bucket 0
+ * counts the value 0, and bucket <i>i</i> &gt; 0 counts the values from
+ * 2<sup><i>i</i>-1</sup> up to 2<sup><i>i</i></sup>-1. This is coarse, but
+ * recording a value is just an increment and the histogram has a fixed size
+ * no matter what is recorded.
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public class ExiHistogram {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of buckets, enough for any non-negative long value.
+     */
+    private static final int BUCKETS = 64;
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The bucket counts.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The sum of all recorded values.
+     */
+    private final AtomicLong sum = new AtomicLong( );
+
+    // ------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new empty histogram.
+     */
+    public ExiHistogram( ) {
+        super( );
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value The value.
+     */
+    public void record(long value) {
+        long v = Math.max(value, 0);
+        this.buckets.incrementAndGet(getBucket(v));
+        this.sum.addAndGet(v);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return The number of recorded values.
+     */
+    public long getCount( ) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            count += this.buckets.get(i);
+        }
+        return count;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the sum of all recorded values.
+     *
+     * @return The sum of all recorded values.
+     */
+    public long getSum( ) {
+        return this.sum.get( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the bucket counts up to the highest non-empty bucket. See the
+     * class description for the bucket bounds.
+     *
+     * @return The bucket counts.
+     */
+    public long[] getBuckets( ) {
+        int length = BUCKETS;
+        while (length > 0 && this.buckets.get(length - 1) == 0) {
+            length--;
+        }
+        long[] result = new long[length];
+        for (int i = 0; i < length; ++i) {
+            result[i] = this.buckets.get(i);
+        }
+        return result;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns an upper bound for the specified percentile, i.e. the upper
+     * bound of the bucket which contains it.
+     *
+     * @param percentile The percentile between 0 and 100.
+     * @return The upper bound for the percentile or 0 if nothing has been
+     *         recorded.
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = getBuckets( );
+        long count = 0;
+        for (long c : counts) {
+            count += c;
+        }
+        long rank = (long)Math.ceil(count * Math.min(Math.max(percentile, 0), 100) / 100);
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return getUpperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Resets all buckets.
+     */
+    public void reset( ) {
+        for (int i = 0; i < BUCKETS; ++i) {
+            this.buckets.set(i, 0);
+        }
+        this.sum.set(0);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString( ) {
+        long count = getCount( );
+        return String.format("count=%d, mean=%d, p50<=%d, p99<=%d",
+                count, count > 0 ? getSum( ) / count : 0, getPercentile(50), getPercentile(99));
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the bucket of the specified non-negative value.
+     *
+     * @param value The value.
+     * @return The bucket index.
+     */
+    private static int getBucket(long value) {
+        return Math.min(64 - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the largest value counted by the specified bucket.
+     *
+     * @param bucket The bucket index.
+     * @return The bucket's upper bound.
+     */
+    private static long getUpperBound(int bucket) {
+        return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
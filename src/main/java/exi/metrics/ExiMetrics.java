@@ -0,0 +1,672 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import exi.events.ExiEventType;
+
+/**
+ * Collects metrics of the documents encoded and decoded with one set of
+ * options, e.g. all documents of one feed. Instances are attached to the
+ * options (see {@link exi.ExiOptions#setMetrics(ExiMetrics)}) and can be
+ * queried directly or registered as an MXBean with the platform MBean server.
+ * <p>
+ * Counted are documents, events by type, string table hits and misses by
+ * partition, grammar extensions and, for compressed and pre-compressed
+ * streams, the bytes per channel and per block as well as the time spent
+ * deflating and inflating. Encoders and decoders count into an
+ * {@link ExiMetricsRecorder} of their own and add the counts to the metrics
+ * once per document, so the shared counters are not touched per event.
+ * </p>
+ * <p>
+ * The latency of a document is the time between its Start Document (SD) and
+ * End Document (ED) events as seen by the encoder or decoder. Deflating and
+ * inflating happen outside this interval and are recorded separately.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public class ExiMetrics implements ExiMetricsMXBean {
+
+    // ------------------------------------------------------------------------
+    // Nested types
+    // ------------------------------------------------------------------------
+
+    /**
+     * The string table partitions. Value strings are first looked up in the
+     * local partition of their QName, and only local misses are looked up in
+     * the global partition.
+     */
+    public enum Partition {
+        /**
+         * The URI partition.
+         */
+        URI,
+        /**
+         * The prefix partitions.
+         */
+        PREFIX,
+        /**
+         * The local name partitions.
+         */
+        LOCAL_NAME,
+        /**
+         * The local value partitions.
+         */
+        LOCAL_VALUE,
+        /**
+         * The global value partition.
+         */
+        GLOBAL_VALUE
+    }
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The maximum number of channels which are tracked individually.
+     */
+    public static final int MAX_CHANNELS = 256;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The name under which the channels beyond {@link #MAX_CHANNELS} are
+     * summed up.
+     */
+    public static final String OTHER_CHANNELS = "other";
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of encoded documents.
+     */
+    private final AtomicLong documentsEncoded = new AtomicLong( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of decoded documents.
+     */
+    private final AtomicLong documentsDecoded = new AtomicLong( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The event counts indexed by event type ordinal.
+     */
+    private final AtomicLongArray events = new AtomicLongArray(ExiEventType.values( ).length);
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The string table hits indexed by partition ordinal.
+     */
+    private final AtomicLongArray hits = new AtomicLongArray(Partition.values( ).length);
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The string table misses indexed by partition ordinal.
+     */
+    private final AtomicLongArray misses = new AtomicLongArray(Partition.values( ).length);
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of grammar extensions.
+     */
+    private final AtomicLong grammarExtensions = new AtomicLong( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of written blocks.
+     */
+    private final AtomicLong blocksWritten = new AtomicLong( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The raw and written bytes mapped to the channel names.
+     */
+    private final ConcurrentHashMap<String, AtomicLong[]> channels = new ConcurrentHashMap<String, AtomicLong[]>( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The raw block sizes in bytes.
+     */
+    private final ExiHistogram blockSizes = new ExiHistogram( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The time spent deflating in nanoseconds.
+     */
+    private final AtomicLong deflateNanos = new AtomicLong( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The time spent inflating in nanoseconds.
+     */
+    private final AtomicLong inflateNanos = new AtomicLong( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The encoding latencies in microseconds.
+     */
+    private final ExiHistogram encodeLatency = new ExiHistogram( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The decoding latencies in microseconds.
+     */
+    private final ExiHistogram decodeLatency = new ExiHistogram( );
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The name under which this instance is registered or <code>null</code>.
+     */
+    private ObjectName objectName;
+
+    // ------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new instance with all counters set to zero.
+     */
+    public ExiMetrics( ) {
+        super( );
+    }
+
+    // ------------------------------------------------------------------------
+    // Registration
+    // ------------------------------------------------------------------------
+
+    /**
+     * Registers this instance with the platform MBean server under the name
+     * <code>exi:type=ExiMetrics,name=</code><i>name</i>.
+     *
+     * @param name The name, e.g. the name of the feed.
+     * @return The object name this instance has been registered under.
+     * @throws JMException If the registration fails, e.g. because the name
+     *         is already in use.
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        unregister( );
+        ObjectName on = new ObjectName("exi:type=ExiMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer( ).registerMBean(this, on);
+        this.objectName = on;
+        return on;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Unregisters this instance from the platform MBean server. Nothing
+     * happens if it has not been registered.
+     *
+     * @throws JMException If the unregistration fails.
+     */
+    public synchronized void unregister( ) throws JMException {
+        if (this.objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer( );
+            if (server.isRegistered(this.objectName)) {
+                server.unregisterMBean(this.objectName);
+            }
+            this.objectName = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Recording
+    // ------------------------------------------------------------------------
+
+    /**
+     * Records a written block of a compressed or pre-compressed stream.
+     *
+     * @param rawBytes The number of bytes before deflating.
+     * @param nanos The time spent deflating the block in nanoseconds.
+     */
+    public void blockWritten(long rawBytes, long nanos) {
+        this.blocksWritten.incrementAndGet( );
+        this.blockSizes.record(rawBytes);
+        this.deflateNanos.addAndGet(nanos);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Records a written channel (or set of combined channels) of a compressed
+     * or pre-compressed stream. Only the first {@link #MAX_CHANNELS} channel
+     * names are tracked individually, the others are summed up under
+     * {@link #OTHER_CHANNELS}.
+     *
+     * @param channel The channel name.
+     * @param rawBytes The number of bytes before deflating.
+     * @param writtenBytes The number of bytes written to the stream.
+     */
+    public void channelWritten(String channel, long rawBytes, long writtenBytes) {
+        AtomicLong[] counts = this.channels.get(channel);
+        if (counts == null) {
+            String name = this.channels.size( ) < MAX_CHANNELS ? channel : OTHER_CHANNELS;
+            counts = new AtomicLong[] { new AtomicLong( ), new AtomicLong( ) };
+            AtomicLong[] existing = this.channels.putIfAbsent(name, counts);
+            if (existing != null) {
+                counts = existing;
+            }
+        }
+        counts[0].addAndGet(rawBytes);
+        counts[1].addAndGet(writtenBytes);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Records the time spent inflating a compressed stream.
+     *
+     * @param nanos The time spent inflating in nanoseconds.
+     */
+    public void inflated(long nanos) {
+        this.inflateNanos.addAndGet(nanos);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds the counts of a recorder.
+     *
+     * @param eventCounts The event counts indexed by event type ordinal.
+     * @param hitCounts The hits indexed by partition ordinal.
+     * @param missCounts The misses indexed by partition ordinal.
+     * @param extensions The number of grammar extensions.
+     */
+    void add(long[] eventCounts, long[] hitCounts, long[] missCounts, long extensions) {
+        addAll(this.events, eventCounts);
+        addAll(this.hits, hitCounts);
+        addAll(this.misses, missCounts);
+        if (extensions != 0) {
+            this.grammarExtensions.addAndGet(extensions);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Records a finished document.
+     *
+     * @param encoded <code>true</code> if the document has been encoded,
+     *        <code>false</code> if it has been decoded.
+     * @param nanos The document's latency in nanoseconds.
+     */
+    void documentFinished(boolean encoded, long nanos) {
+        if (encoded) {
+            this.documentsEncoded.incrementAndGet( );
+            this.encodeLatency.record(nanos / 1000);
+        } else {
+            this.documentsDecoded.incrementAndGet( );
+            this.decodeLatency.record(nanos / 1000);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Queries
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.metrics.ExiMetricsMXBean#getDocumentsEncoded()
+     */
+    public long getDocumentsEncoded( ) {
+        return this.documentsEncoded.get( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.metrics.ExiMetricsMXBean#getDocumentsDecoded()
+     */
+    public long getDocumentsDecoded( ) {
+        return this.documentsDecoded.get( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.metrics.ExiMetricsMXBean#getEvents()
+     */
+    public Map<String, Long> getEvents( ) {
+        Map<String, Long> result = new LinkedHashMap<String, Long>( );
+        for (ExiEventType type : ExiEventType.values( )) {
+            result.put(type.toString( ), this.events.get(type.ordinal( )));
+        }
+        return result;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of events of the specified type.
+     *
+     * @param type The event type.
+     * @return The number of events.
+     */
+    public long getEvents(ExiEventType type) {
+        return this.events.get(type.ordinal( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.metrics.ExiMetricsMXBean#getStringTableHits()
+     */
+    public Map<String, Long> getStringTableHits( ) {
+        return toMap(this.hits);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the string table hits of the specified partition.
+     *
+     * @param partition The partition.
+     * @return The number of hits.
+     */
+    public long getHits(Partition partition) {
+        return this.hits.get(partition.ordinal( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.metrics.ExiMetricsMXBean#getStringTableMisses()
+     */
+    public Map<String, Long> getStringTableMisses( ) {
+        return toMap(this.misses);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the string table misses of the specified partition.
+     *
+     * @param partition The partition.
+     * @return The number of misses.
+     */
+    public long getMisses(Partition partition) {
+        return this.misses.get(partition.ordinal( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.metrics.ExiMetricsMXBean#getGrammarExtensions()
+     */
+    public long getGrammarExtensions( ) {
+        return this.grammarExtensions.get( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.metrics.ExiMetricsMXBean#getBlocksWritten()
+     */
+    public long getBlocksWritten( ) {
+        return this.blocksWritten.get( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.metrics.ExiMetricsMXBean#getChannelRawBytes()
+     */
+    public Map<String, Long> getChannelRawBytes( ) {
+        return getChannelBytes(0);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.metrics.ExiMetricsMXBean#getChannelWrittenBytes()
+     */
+    public Map<String, Long> getChannelWrittenBytes( ) {
+        return getChannelBytes(1);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.metrics.ExiMetricsMXBean#getBlockSizeHistogram()
+     */
+    public long[] getBlockSizeHistogram( ) {
+        return this.blockSizes.getBuckets( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the histogram of raw block sizes in bytes.
+     *
+     * @return The block size histogram.
+     */
+    public ExiHistogram getBlockSizes( ) {
+        return this.blockSizes;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.metrics.ExiMetricsMXBean#getDeflateNanos()
+     */
+    public long getDeflateNanos( ) {
+        return this.deflateNanos.get( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.metrics.ExiMetricsMXBean#getInflateNanos()
+     */
+    public long getInflateNanos( ) {
+        return this.inflateNanos.get( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.metrics.ExiMetricsMXBean#getEncodeLatencyHistogram()
+     */
+    public long[] getEncodeLatencyHistogram( ) {
+        return this.encodeLatency.getBuckets( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.metrics.ExiMetricsMXBean#getDecodeLatencyHistogram()
+     */
+    public long[] getDecodeLatencyHistogram( ) {
+        return this.decodeLatency.getBuckets( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.metrics.ExiMetricsMXBean#getEncodeLatency99thPercentile()
+     */
+    public long getEncodeLatency99thPercentile( ) {
+        return this.encodeLatency.getPercentile(99);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.metrics.ExiMetricsMXBean#getDecodeLatency99thPercentile()
+     */
+    public long getDecodeLatency99thPercentile( ) {
+        return this.decodeLatency.getPercentile(99);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the histogram of encoding latencies in microseconds.
+     *
+     * @return The encoding latency histogram.
+     */
+    public ExiHistogram getEncodeLatency( ) {
+        return this.encodeLatency;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the histogram of decoding latencies in microseconds.
+     *
+     * @return The decoding latency histogram.
+     */
+    public ExiHistogram getDecodeLatency( ) {
+        return this.decodeLatency;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see exi.metrics.ExiMetricsMXBean#reset()
+     */
+    public void reset( ) {
+        this.documentsEncoded.set(0);
+        this.documentsDecoded.set(0);
+        resetAll(this.events);
+        resetAll(this.hits);
+        resetAll(this.misses);
+        this.grammarExtensions.set(0);
+        this.blocksWritten.set(0);
+        this.channels.clear( );
+        this.blockSizes.reset( );
+        this.deflateNanos.set(0);
+        this.inflateNanos.set(0);
+        this.encodeLatency.reset( );
+        this.decodeLatency.reset( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString( ) {
+        return String.format(
+                "documents: encoded=%d, decoded=%d; events=%s; hits=%s; misses=%s; "
+                + "grammar extensions=%d; blocks=%d; deflate=%dus; inflate=%dus; "
+                + "encode latency (us): %s; decode latency (us): %s",
+                getDocumentsEncoded( ), getDocumentsDecoded( ), getEvents( ),
+                getStringTableHits( ), getStringTableMisses( ), getGrammarExtensions( ),
+                getBlocksWritten( ), getDeflateNanos( ) / 1000, getInflateNanos( ) / 1000,
+                this.encodeLatency, this.decodeLatency);
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the raw or written bytes of all channels.
+     *
+     * @param index 0 for the raw bytes, 1 for the written bytes.
+     * @return The bytes mapped to the channel names.
+     */
+    private Map<String, Long> getChannelBytes(int index) {
+        Map<String, Long> result = new TreeMap<String, Long>( );
+        for (Map.Entry<String, AtomicLong[]> e : this.channels.entrySet( )) {
+            result.put(e.getKey( ), e.getValue( )[index].get( ));
+        }
+        return result;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the counts of all partitions.
+     *
+     * @param counts The counts indexed by partition ordinal.
+     * @return The counts mapped to the partition names.
+     */
+    private static Map<String, Long> toMap(AtomicLongArray counts) {
+        Map<String, Long> result = new LinkedHashMap<String, Long>( );
+        for (Partition p : Partition.values( )) {
+            result.put(p.toString( ), counts.get(p.ordinal( )));
+        }
+        return result;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds the specified values to an array of counters.
+     *
+     * @param counters The counters.
+     * @param values The values.
+     */
+    private static void addAll(AtomicLongArray counters, long[] values) {
+        for (int i = 0; i < values.length; ++i) {
+            if (values[i] != 0) {
+                counters.addAndGet(i, values[i]);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Sets all counters of an array to zero.
+     *
+     * @param counters The counters.
+     */
+    private static void resetAll(AtomicLongArray counters) {
+        for (int i = 0; i < counters.length( ); ++i) {
+            counters.set(i, 0);
+        }
+    }
+}
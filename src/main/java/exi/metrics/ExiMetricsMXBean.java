@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.metrics;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link ExiMetrics}. Maps are exposed as open
+ * tabular data by the platform MBean server, so any JMX console can display
+ * all attributes without having the EXI classes on its class path.
+ */
+public interface ExiMetricsMXBean {
+
+    /**
+     * Returns the number of encoded documents.
+     *
+     * @return The number of encoded documents.
+     */
+    long getDocumentsEncoded( );
+
+    /**
+     * Returns the number of decoded documents.
+     *
+     * @return The number of decoded documents.
+     */
+    long getDocumentsDecoded( );
+
+    /**
+     * Returns the number of events by event type.
+     *
+     * @return The event counts mapped to the event type names.
+     */
+    Map<String, Long> getEvents( );
+
+    /**
+     * Returns the string table hits by partition.
+     *
+     * @return The hits mapped to the partition names.
+     */
+    Map<String, Long> getStringTableHits( );
+
+    /**
+     * Returns the string table misses by partition.
+     *
+     * @return The misses mapped to the partition names.
+     */
+    Map<String, Long> getStringTableMisses( );
+
+    /**
+     * Returns the number of grammar extensions.
+     *
+     * @return The number of grammar extensions.
+     */
+    long getGrammarExtensions( );
+
+    /**
+     * Returns the number of written blocks of compressed and pre-compressed
+     * streams.
+     *
+     * @return The number of written blocks.
+     */
+    long getBlocksWritten( );
+
+    /**
+     * Returns the number of raw bytes per channel of compressed and
+     * pre-compressed streams.
+     *
+     * @return The raw bytes mapped to the channel names.
+     */
+    Map<String, Long> getChannelRawBytes( );
+
+    /**
+     * Returns the number of written bytes per channel of compressed and
+     * pre-compressed streams.
+     *
+     * @return The written bytes mapped to the channel names.
+     */
+    Map<String, Long> getChannelWrittenBytes( );
+
+    /**
+     * Returns the histogram of raw block sizes in bytes.
+     *
+     * @return The bucket counts of the block size histogram.
+     */
+    long[] getBlockSizeHistogram( );
+
+    /**
+     * Returns the time spent deflating in nanoseconds.
+     *
+     * @return The time spent deflating.
+     */
+    long getDeflateNanos( );
+
+    /**
+     * Returns the time spent inflating in nanoseconds.
+     *
+     * @return The time spent inflating.
+     */
+    long getInflateNanos( );
+
+    /**
+     * Returns the histogram of encoding latencies in microseconds.
+     *
+     * @return The bucket counts of the encoding latency histogram.
+     */
+    long[] getEncodeLatencyHistogram( );
+
+    /**
+     * Returns the histogram of decoding latencies in microseconds.
+     *
+     * @return The bucket counts of the decoding latency histogram.
+     */
+    long[] getDecodeLatencyHistogram( );
+
+    /**
+     * Returns an upper bound of the 99th percentile of the encoding latency
+     * in microseconds.
+     *
+     * @return The 99th percentile of the encoding latency.
+     */
+    long getEncodeLatency99thPercentile( );
+
+    /**
+     * Returns an upper bound of the 99th percentile of the decoding latency
+     * in microseconds.
+     *
+     * @return The 99th percentile of the decoding latency.
+     */
+    long getDecodeLatency99thPercentile( );
+
+    /**
+     * Resets all counters and histograms.
+     */
+    void reset( );
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.metrics;
+
+import java.util.Arrays;
+
+import exi.events.ExiEventType;
+import exi.metrics.ExiMetrics.Partition;
+
+/**
+ * Counts the events, string table lookups and grammar extensions of the
+ * documents handled by a single encoder or decoder and adds them to the
+ * shared {@link ExiMetrics} at the end of each document.
+ * <p>
+ * This class is not thread-safe. Each encoder and decoder uses its own
+ * instance.
+ * </p>
+ */
+public class ExiMetricsRecorder {
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The metrics the counts are added to.
+     */
+    private final ExiMetrics metrics;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * <code>true</code> if documents are encoded, <code>false</code> if they
+     * are decoded.
+     */
+    private final boolean encoding;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The event counts indexed by event type ordinal.
+     */
+    private final long[] events = new long[ExiEventType.values( ).length];
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The string table hits indexed by partition ordinal.
+     */
+    private final long[] hits = new long[Partition.values( ).length];
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The string table misses indexed by partition ordinal.
+     */
+    private final long[] misses = new long[Partition.values( ).length];
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of grammar extensions.
+     */
+    private long extensions = 0;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * The time the current document has been started at.
+     */
+    private long start = 0;
+
+    // ------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new recorder.
+     *
+     * @param metrics The metrics the counts are added to.
+     * @param encoding <code>true</code> if documents are encoded,
+     *        <code>false</code> if they are decoded.
+     */
+    public ExiMetricsRecorder(ExiMetrics metrics, boolean encoding) {
+        this.metrics = metrics;
+        this.encoding = encoding;
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the metrics the counts are added to.
+     *
+     * @return The metrics.
+     */
+    public ExiMetrics getMetrics( ) {
+        return this.metrics;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Counts an event. A Start Document (SD) event starts the latency
+     * measurement and an End Document (ED) event finishes the document.
+     *
+     * @param type The event type.
+     */
+    public void event(ExiEventType type) {
+        this.events[type.ordinal( )]++;
+        if (type == ExiEventType.StartDocument) {
+            this.start = System.nanoTime( );
+        } else if (type == ExiEventType.EndDocument) {
+            this.metrics.documentFinished(this.encoding, System.nanoTime( ) - this.start);
+            flush( );
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Counts a string table hit.
+     *
+     * @param partition The partition.
+     */
+    public void hit(Partition partition) {
+        this.hits[partition.ordinal( )]++;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Counts a string table miss.
+     *
+     * @param partition The partition.
+     */
+    public void miss(Partition partition) {
+        this.misses[partition.ordinal( )]++;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Counts a value found in the local value partition.
+     */
+    public void valueHitLocal( ) {
+        this.hits[Partition.LOCAL_VALUE.ordinal( )]++;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Counts a value missed in the local but found in the global value
+     * partition.
+     */
+    public void valueHitGlobal( ) {
+        this.misses[Partition.LOCAL_VALUE.ordinal( )]++;
+        this.hits[Partition.GLOBAL_VALUE.ordinal( )]++;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Counts a value missed in both the local and the global value partition.
+     */
+    public void valueMiss( ) {
+        this.misses[Partition.LOCAL_VALUE.ordinal( )]++;
+        this.misses[Partition.GLOBAL_VALUE.ordinal( )]++;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Counts a grammar extension.
+     */
+    public void grammarExtended( ) {
+        this.extensions++;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds the counts so far to the metrics and starts counting from zero.
+     * This is done automatically at the end of each document, but counts
+     * made after that (e.g. values of the last block of a compressed stream,
+     * which are resolved when the stream is finished) need an explicit flush.
+     */
+    public void flush( ) {
+        this.metrics.add(this.events, this.hits, this.misses, this.extensions);
+        Arrays.fill(this.events, 0);
+        Arrays.fill(this.hits, 0);
+        Arrays.fill(this.misses, 0);
+        this.extensions = 0;
+    }
+}
@@ -42,6 +42,13 @@ public class ExiNamespaceTable {
      */
     private Map<String, URI> nsMap = new HashMap<String, URI>( );
 
+    // ------------------------------------------------------------------------
+
+    /**
+     * The prefixes mapped to the string form of their namespace URIs.
+     */
+    private Map<String, String> prefixMap = new HashMap<String, String>( );
+
     // ------------------------------------------------------------------------
     // Constructor
     // ------------------------------------------------------------------------
@@ -52,7 +59,7 @@ public class ExiNamespaceTable {
      * @throws Exception If something goes wrong.
      */
     public ExiNamespaceTable( ) throws Exception {
-        this.nsMap.put("", URI.create(""));
+        put("", URI.create(""));
     }
 
     // ------------------------------------------------------------------------
@@ -66,7 +73,17 @@ public class ExiNamespaceTable {
      * @param uri The namespace URI.
      */
     public void put(String prefix, URI uri) {
-        this.nsMap.put(prefix, uri);
+        URI previous = this.nsMap.put(prefix, uri);
+        if (previous != null && prefix.equals(this.prefixMap.get(previous.toString( )))) {
+            // the old URI may still be bound to another prefix
+            this.prefixMap.remove(previous.toString( ));
+            for (Map.Entry<String, URI> entry : this.nsMap.entrySet( )) {
+                if (entry.getValue( ).equals(previous)) {
+                    this.prefixMap.put(previous.toString( ), entry.getKey( ));
+                }
+            }
+        }
+        this.prefixMap.put(uri.toString( ), prefix);
     }
 
     // ------------------------------------------------------------------------
@@ -96,12 +113,32 @@ public class ExiNamespaceTable {
      *         is no such URI in the map.
      */
     public String getNamespacePrefix(URI uri) {
-        String prefix = "";
-        for (Map.Entry<String, URI> entry : this.nsMap.entrySet( )) {
-            if (entry.getValue( ).equals(uri)) {
-                prefix = entry.getKey( );
-            }
-        }
-        return prefix;
+        return getNamespacePrefix(uri.toString( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the prefix belonging to the specified namespace URI. Unlike
+     * {@link #getNamespacePrefix(URI)} this needs no {@link URI} instance.
+     *
+     * @param uri The URI string.
+     * @return The prefix to the namespace URI or an empty string if there is
+     *         no such URI in the map.
+     */
+    public String getNamespacePrefix(String uri) {
+        String prefix = this.prefixMap.get(uri);
+        return prefix == null ? "" : prefix;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Removes all entries except for the initial binding of the empty prefix.
+     */
+    public void clear( ) {
+        this.nsMap.clear( );
+        this.prefixMap.clear( );
+        put("", URI.create(""));
     }
 }
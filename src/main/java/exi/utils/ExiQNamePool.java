@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package exi.utils;
+
+import java.util.HashMap;
+
+import javax.xml.namespace.QName;
+
+/**
+ * A pool of qualified names. Handing out the same {@link QName} instance for
+ * the same namespace URI, local part and prefix lets encoders and decoders
+ * avoid creating a new QName for every element and attribute.
+ */
+public class ExiQNamePool {
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The pooled names, mapped by namespace URI, local part and prefix.
+     */
+    private final HashMap<String, HashMap<String, HashMap<String, QName>>> names =
+            new HashMap<String, HashMap<String, HashMap<String, QName>>>( );
+
+    // ------------------------------------------------------------------------
+    // Constructor
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a new, empty pool of qualified names.
+     */
+    public ExiQNamePool( ) {
+        super( );
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the pooled qualified name for the specified parts. If there is
+     * no such name yet, then it is created and added to the pool.
+     *
+     * @param namespaceURI The namespace URI.
+     * @param localPart The local part.
+     * @param prefix The prefix.
+     * @return The qualified name.
+     */
+    public QName get(String namespaceURI, String localPart, String prefix) {
+        HashMap<String, HashMap<String, QName>> locals = this.names.get(namespaceURI);
+        if (locals == null) {
+            locals = new HashMap<String, HashMap<String, QName>>( );
+            this.names.put(namespaceURI, locals);
+        }
+        HashMap<String, QName> prefixes = locals.get(localPart);
+        if (prefixes == null) {
+            prefixes = new HashMap<String, QName>(4);
+            locals.put(localPart, prefixes);
+        }
+        QName qname = prefixes.get(prefix);
+        if (qname == null) {
+            qname = new QName(namespaceURI, localPart, prefix);
+            prefixes.put(prefix, qname);
+        }
+        return qname;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the pooled qualified name for the specified namespace URI and
+     * local part with an empty prefix.
+     *
+     * @param namespaceURI The namespace URI.
+     * @param localPart The local part.
+     * @return The qualified name.
+     */
+    public QName get(String namespaceURI, String localPart) {
+        return get(namespaceURI, localPart, "");
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Removes all names from this pool.
+     */
+    public void clear( ) {
+        this.names.clear( );
+    }
+}
@@ -26,6 +26,8 @@ import java.util.HashMap;
 
 import javax.xml.namespace.QName;
 
+import exi.metrics.ExiMetricsRecorder;
+
 /**
  * The EXI string table consisting of several string table partitions.
  *
@@ -63,6 +65,13 @@ public class ExiStringTable {
      */
     private HashMap<QName, ValuePartition> values;
 
+    // ------------------------------------------------------------------------
+
+    /**
+     * The recorder counting the value lookups or <code>null</code>.
+     */
+    private ExiMetricsRecorder recorder;
+
     // ------------------------------------------------------------------------
     // Constructor
     // ------------------------------------------------------------------------
@@ -169,4 +178,57 @@ public class ExiStringTable {
 
         return result;
     }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Sets the recorder counting the value lookups. Values are not always
+     * resolved by the encoder or decoder itself (compressed streams resolve
+     * them per channel), so whoever resolves them finds the recorder here.
+     *
+     * @param recorder The recorder or <code>null</code> if nothing is to be
+     *        counted.
+     */
+    public void setRecorder(ExiMetricsRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the recorder counting the value lookups.
+     *
+     * @return The recorder or <code>null</code> if there is none.
+     */
+    public ExiMetricsRecorder getRecorder( ) {
+        return this.recorder;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Resets this string table to its initial state, i.e. only the default
+     * URIs remain. This allows reusing the table for another document.
+     */
+    public void clear( ) {
+        this.uris.clear( );
+        this.prefixes.clear( );
+        this.localNames.clear( );
+        this.values.clear( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of local names in all local names partitions.
+     *
+     * @return The overall number of local names.
+     */
+    public int getLocalNamesCount( ) {
+        int count = 0;
+        for (LocalNamesPartition part : this.localNames.values( )) {
+            count += part.getSize( );
+        }
+        return count;
+    }
 }
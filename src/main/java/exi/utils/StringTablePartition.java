@@ -23,6 +23,7 @@
 package exi.utils;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * This clas represents a partition in a string table.
@@ -40,6 +41,15 @@ public abstract class StringTablePartition {
      */
     private final ArrayList<String> list;
 
+    // ------------------------------------------------------------------------
+
+    /**
+     * The compact identifiers of the strings in the list. If a string has
+     * been added more than once, then this is its first identifier, just like
+     * {@link ArrayList#indexOf(Object)} would return it.
+     */
+    private final HashMap<String, Integer> index;
+
     // ------------------------------------------------------------------------
     // Constructor
     // ------------------------------------------------------------------------
@@ -49,6 +59,7 @@ public abstract class StringTablePartition {
      */
     protected StringTablePartition( ) {
         this.list = new ArrayList<String>( );
+        this.index = new HashMap<String, Integer>( );
     }
 
     // ------------------------------------------------------------------------
@@ -63,7 +74,7 @@ public abstract class StringTablePartition {
      *         table, else <code>false</code>.
      */
     public boolean lookup(String s) {
-        return this.list.contains(s);
+        return this.index.containsKey(s);
     }
 
     // ------------------------------------------------------------------------
@@ -73,10 +84,12 @@ public abstract class StringTablePartition {
      * table.
      *
      * @param s The string to be looked up.
-     * @return The string's compact identifier.
+     * @return The string's compact identifier or -1 if the string is not
+     *         contained in this partition.
      */
     public int getID(String s) {
-        return this.list.indexOf(s);
+        Integer id = this.index.get(s);
+        return id == null ? -1 : id.intValue( );
     }
 
     // ------------------------------------------------------------------------
@@ -87,6 +100,9 @@ public abstract class StringTablePartition {
      * @param s The string to be added.
      */
     public void add(String s) {
+        if (!this.index.containsKey(s)) {
+            this.index.put(s, Integer.valueOf(this.list.size( )));
+        }
         this.list.add(s);
     }
 
@@ -103,6 +119,16 @@ public abstract class StringTablePartition {
 
     // ------------------------------------------------------------------------
 
+    /**
+     * Removes all strings from this partition.
+     */
+    public void clear( ) {
+        this.list.clear( );
+        this.index.clear( );
+    }
+
+    // ------------------------------------------------------------------------
+
     /**
      * Returns the string value for the specified index from this string table
      * partition.
@@ -40,8 +40,30 @@ public class UriPartition extends StringTablePartition {
      */
     public UriPartition( ) {
         super( );
+        addDefaults( );
+    }
+
+    // ------------------------------------------------------------------------
+    // Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Removes all strings from this partition except for the default URIs.
+     *
+     * @see exi.utils.StringTablePartition#clear()
+     */
+    @Override
+    public void clear( ) {
+        super.clear( );
+        addDefaults( );
+    }
+
+    // ------------------------------------------------------------------------
 
-        // add default values
+    /**
+     * Adds the URIs every URI partition initially contains.
+     */
+    private void addDefaults( ) {
         add(XMLConstants.DEFAULT_NS_PREFIX);
         add(XMLConstants.XML_NS_URI);
         add(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI);
@@ -0,0 +1,446 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package exi;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import exi.ExiOptions.Alignment;
+import exi.events.ExiAttribute;
+import exi.events.ExiCharacters;
+import exi.events.ExiComment;
+import exi.events.ExiEndDocument;
+import exi.events.ExiEndElement;
+import exi.events.ExiEvent;
+import exi.events.ExiNamespaceDeclaration;
+import exi.events.ExiStartDocument;
+import exi.events.ExiStartElement;
+import exi.io.ExiWriter;
+
+/**
+ * Allocation budget tests for the hot path. Representative documents are
+ * encoded and decoded repeatedly, and the bytes allocated by the current
+ * thread are divided by the number of events. The encoder is fed recorded
+ * events and the decoder feeds a sink that keeps nothing, so that only the
+ * codec itself is measured. A failing test means that a change introduced
+ * garbage per event.
+ * <p>
+ * The writers and the block splitter can't be run without the encoder or the
+ * decoder. Their budgets therefore apply to the alignment that uses them and
+ * include the encoder or decoder. All budgets include what the string tables
+ * need for new values, which is why the documents have a fixed mix of
+ * recurring and unique values.
+ * </p>
+ */
+public class ExiAllocationTest {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of documents processed before measuring.
+     */
+    private static final int WARMUP = 200;
+
+    /**
+     * The number of documents measured.
+     */
+    private static final int ITERATIONS = 100;
+
+    // ------------------------------------------------------------------------
+    // Member variables
+    // ------------------------------------------------------------------------
+
+    /**
+     * The thread management bean, if it supports allocation measurement.
+     */
+    private static com.sun.management.ThreadMXBean threads;
+
+    /**
+     * The test documents.
+     */
+    private static List<byte[]> documents = new ArrayList<byte[]>( );
+
+    // ------------------------------------------------------------------------
+    // Set-up
+    // ------------------------------------------------------------------------
+
+    /**
+     * Looks up the thread management bean and generates the documents.
+     */
+    @BeforeClass
+    public static void setUpClass( ) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean( );
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean) bean;
+            if (b.isThreadAllocatedMemorySupported( )) {
+                b.setThreadAllocatedMemoryEnabled(true);
+                threads = b;
+            }
+        }
+        documents.add(feed(400, 0.9));
+        documents.add(feed(400, 0.2));
+    }
+
+    // ------------------------------------------------------------------------
+    // Test methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests the encoder with bit-packed alignment, which writes directly to
+     * the output stream.
+     */
+    @Test
+    public void testEncoder( ) throws Exception {
+        assertEncodeBudget("ExiEncoder", Alignment.BIT_PACKED, false, 72);
+    }
+
+    /**
+     * Tests the encoder with the simple writer.
+     */
+    @Test
+    public void testSimpleWriter( ) throws Exception {
+        assertEncodeBudget("ExiSimpleWriter", Alignment.BYTE_ALIGNED, false, 72);
+    }
+
+    /**
+     * Tests the encoder with the compressed writer, without and with
+     * compression.
+     */
+    @Test
+    public void testCompressedWriter( ) throws Exception {
+        assertEncodeBudget("ExiCompressedWriter", Alignment.PRE_COMPRESSED, false, 24);
+        assertEncodeBudget("ExiCompressedWriter+compression", Alignment.BIT_PACKED, true, 24);
+    }
+
+    /**
+     * Tests the decoder with bit-packed alignment.
+     */
+    @Test
+    public void testDecoder( ) throws Exception {
+        assertDecodeBudget("ExiDecoder", Alignment.BIT_PACKED, false, 96);
+    }
+
+    /**
+     * Tests the decoder with the block splitter, without and with
+     * compression.
+     */
+    @Test
+    public void testBlockSplitter( ) throws Exception {
+        assertDecodeBudget("ExiBlockSplitter", Alignment.PRE_COMPRESSED, false, 136);
+        assertDecodeBudget("ExiBlockSplitter+compression", Alignment.BIT_PACKED, true, 136);
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Asserts that encoding the recorded events of every document allocates
+     * no more than the budget per event.
+     *
+     * @param name The name of the measured component.
+     * @param align The alignment.
+     * @param compression Whether to use compression.
+     * @param budget The budget in bytes per event.
+     * @throws Exception If encoding fails.
+     */
+    private static void assertEncodeBudget(String name, Alignment align, boolean compression,
+            long budget) throws Exception {
+        assumeTrue(threads != null);
+        for (byte[] xml : documents) {
+            ExiOptions options = new ExiOptions( );
+            options.setAlign(align);
+            options.setCompression(compression);
+            List<ExiEvent> events = record(xml, options);
+
+            ExiEncoder encoder = null;
+            long allocated = 0;
+            for (int i = 0; i < WARMUP + ITERATIONS; ++i) {
+                long before = allocatedBytes( );
+                ExiWriter ew = ExiDocument.createWriter(options, true);
+                if (encoder == null) {
+                    encoder = new ExiEncoder(ew, options);
+                } else {
+                    encoder.reset(ew, options);
+                }
+                replay(events, encoder);
+                long after = allocatedBytes( );
+                if (i >= WARMUP) {
+                    allocated += after - before;
+                }
+            }
+            assertBudget(name, allocated, (long) events.size( ) * ITERATIONS, budget);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Asserts that decoding every document allocates no more than the budget
+     * per event.
+     *
+     * @param name The name of the measured component.
+     * @param align The alignment.
+     * @param compression Whether to use compression.
+     * @param budget The budget in bytes per event.
+     * @throws Exception If encoding or decoding fails.
+     */
+    private static void assertDecodeBudget(String name, Alignment align, boolean compression,
+            long budget) throws Exception {
+        assumeTrue(threads != null);
+        for (byte[] xml : documents) {
+            ExiOptions options = new ExiOptions( );
+            options.setAlign(align);
+            options.setCompression(compression);
+            ExiCodec codec = new ExiCodec( );
+            byte[] exi = codec.encode(new ByteArrayInputStream(xml), options);
+
+            CountingSink sink = new CountingSink( );
+            long allocated = 0;
+            for (int i = 0; i < WARMUP + ITERATIONS; ++i) {
+                if (i == WARMUP) {
+                    sink.events = 0;
+                }
+                long before = allocatedBytes( );
+                codec.decode(exi, sink);
+                long after = allocatedBytes( );
+                if (i >= WARMUP) {
+                    allocated += after - before;
+                }
+            }
+            assertBudget(name, allocated, sink.events, budget);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Asserts that the allocated bytes per event are within the budget.
+     *
+     * @param name The name of the measured component.
+     * @param allocated The allocated bytes.
+     * @param events The number of events.
+     * @param budget The budget in bytes per event.
+     */
+    private static void assertBudget(String name, long allocated, long events, long budget) {
+        double perEvent = (double) allocated / events;
+        assertTrue(String.format("%s allocates %.1f bytes per event, the budget is %d",
+                name, perEvent, budget), perEvent <= budget);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the bytes allocated by the current thread so far.
+     *
+     * @return The allocated bytes.
+     */
+    private static long allocatedBytes( ) {
+        return threads.getThreadAllocatedBytes(Thread.currentThread( ).getId( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Records the events of a document. The decoder reuses its event
+     * instances, so copies are recorded.
+     *
+     * @param xml The document.
+     * @param options The options.
+     * @return The events.
+     * @throws Exception If encoding or decoding fails.
+     */
+    private static List<ExiEvent> record(byte[] xml, ExiOptions options) throws Exception {
+        final List<ExiEvent> events = new ArrayList<ExiEvent>( );
+        ExiCodec codec = new ExiCodec( );
+        codec.decode(codec.encode(new ByteArrayInputStream(xml), new ExiOptions(options)), new ExiEventSink( ) {
+            public void handle(ExiStartDocument event) {
+                events.add(new ExiStartDocument( ));
+            }
+
+            public void handle(ExiStartElement event) {
+                events.add(new ExiStartElement(event.getQualifiedName( )));
+            }
+
+            public void handle(ExiAttribute event) {
+                events.add(new ExiAttribute(event.getQualifiedName( ), event.getValue( )));
+            }
+
+            public void handle(ExiNamespaceDeclaration event) {
+                events.add(event);
+            }
+
+            public void handle(ExiCharacters event) {
+                events.add(new ExiCharacters(event.getData( )));
+            }
+
+            public void handle(ExiEndElement event) {
+                events.add(new ExiEndElement( ));
+            }
+
+            public void handle(ExiEndDocument event) {
+                events.add(new ExiEndDocument( ));
+            }
+
+            public void handle(ExiComment event) {
+                events.add(new ExiComment(event.getText( )));
+            }
+        });
+        return events;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Replays recorded events to a sink.
+     *
+     * @param events The events.
+     * @param sink The sink.
+     * @throws ExiException If the sink fails.
+     */
+    private static void replay(List<ExiEvent> events, ExiEventSink sink) throws ExiException {
+        for (int i = 0, n = events.size( ); i < n; ++i) {
+            ExiEvent e = events.get(i);
+            if (e instanceof ExiStartElement) {
+                sink.handle((ExiStartElement) e);
+            } else if (e instanceof ExiNamespaceDeclaration) {
+                sink.handle((ExiNamespaceDeclaration) e);
+            } else if (e instanceof ExiAttribute) {
+                sink.handle((ExiAttribute) e);
+            } else if (e instanceof ExiCharacters) {
+                sink.handle((ExiCharacters) e);
+            } else if (e instanceof ExiEndElement) {
+                sink.handle((ExiEndElement) e);
+            } else if (e instanceof ExiStartDocument) {
+                sink.handle((ExiStartDocument) e);
+            } else if (e instanceof ExiEndDocument) {
+                sink.handle((ExiEndDocument) e);
+            } else if (e instanceof ExiComment) {
+                sink.handle((ExiComment) e);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Generates a feed document.
+     *
+     * @param entries The number of entries.
+     * @param repetition The probability of a recurring value.
+     * @return The document.
+     */
+    private static byte[] feed(int entries, double repetition) {
+        Random random = new Random(entries);
+        StringBuilder sb = new StringBuilder( );
+        sb.append("<feed xmlns=\"urn:example:feed\">");
+        for (int i = 0; i < entries; ++i) {
+            sb.append("<entry id=\"").append(i).append("\" kind=\"k").append(random.nextInt(8)).append("\">");
+            sb.append("<name>").append(value(random, repetition, i)).append("</name>");
+            sb.append("<value unit=\"").append(random.nextBoolean( ) ? "C" : "%").append("\">");
+            sb.append(value(random, repetition, i)).append("</value>");
+            sb.append("<time>").append(1262304000L + 60L * i).append("</time>");
+            sb.append("</entry>");
+        }
+        sb.append("</feed>");
+        return sb.toString( ).getBytes( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns either a recurring or a unique value.
+     *
+     * @param random The random generator.
+     * @param repetition The probability of a recurring value.
+     * @param entry The entry index.
+     * @return The value.
+     */
+    private static String value(Random random, double repetition, int entry) {
+        if (random.nextDouble( ) < repetition) {
+            return "recurring value " + random.nextInt(32);
+        }
+        return "unique value " + entry + "." + random.nextInt(1000);
+    }
+
+    // ------------------------------------------------------------------------
+    // Nested types
+    // ------------------------------------------------------------------------
+
+    /**
+     * An event sink which only counts the events.
+     */
+    private static class CountingSink implements ExiEventSink {
+
+        /**
+         * The number of events.
+         */
+        long events;
+
+        public void handle(ExiStartDocument event) {
+            ++this.events;
+        }
+
+        public void handle(ExiStartElement event) {
+            ++this.events;
+        }
+
+        public void handle(ExiAttribute event) {
+            ++this.events;
+        }
+
+        public void handle(ExiNamespaceDeclaration event) {
+            ++this.events;
+        }
+
+        public void handle(ExiCharacters event) {
+            ++this.events;
+        }
+
+        public void handle(ExiEndElement event) {
+            ++this.events;
+        }
+
+        public void handle(ExiEndDocument event) {
+            ++this.events;
+        }
+
+        public void handle(ExiComment event) {
+            ++this.events;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package exi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import exi.ExiOptions.Alignment;
+
+/**
+ * Test class for {@link ExiCodecPool}.
+ */
+public class ExiCodecPoolTest {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The XML files used for testing.
+     */
+    private static final String[] FILES = {
+        "src/main/resources/exi-notebook.xml",
+        "src/main/resources/exi-example.xml",
+    };
+
+    // ------------------------------------------------------------------------
+    // Test methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether more threads than codecs get the same results as the
+     * static methods of {@link ExiDocument}.
+     */
+    @Test
+    public void testConcurrent( ) throws Exception {
+        ExiOptions options = new ExiOptions( );
+        options.setCompression(true);
+        final ExiCodecPool pool = new ExiCodecPool(options, 3);
+
+        final byte[][] xml = new byte[FILES.length][];
+        final byte[][] exi = new byte[FILES.length][];
+        final byte[][] decoded = new byte[FILES.length][];
+        for (int i = 0; i < FILES.length; ++i) {
+            xml[i] = read(FILES[i]);
+            exi[i] = ExiDocument.encode(FILES[i], options);
+            ByteArrayOutputStream os = new ByteArrayOutputStream( );
+            ExiDocument.decode(exi[i], os);
+            decoded[i] = os.toByteArray( );
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>( );
+            for (int t = 0; t < 8; ++t) {
+                results.add(executor.submit(new Callable<Object>( ) {
+                    public Object call( ) throws Exception {
+                        for (int n = 0; n < 20; ++n) {
+                            int i = n % FILES.length;
+                            assertArrayEquals(exi[i], pool.encode(new ByteArrayInputStream(xml[i])));
+                            ByteArrayOutputStream os = new ByteArrayOutputStream( );
+                            pool.decode(exi[i], os);
+                            assertArrayEquals(decoded[i], os.toByteArray( ));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> f : results) {
+                f.get( );
+            }
+        } finally {
+            executor.shutdown( );
+        }
+
+        ExiCodecPool.Statistics stats = pool.getStatistics( );
+        assertTrue(stats.getCreated( ) <= 3);
+        assertEquals(0, stats.getActive( ));
+        assertEquals(8 * 20 * 2, stats.getDocuments( ));
+        assertEquals(stats.getDocuments( ), stats.getBorrowed( ));
+        assertEquals(0, stats.getFailures( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether borrowing from an exhausted pool times out and whether
+     * the pool is usable again once the codec has been released.
+     */
+    @Test
+    public void testTimeout( ) throws Exception {
+        ExiCodecPool pool = new ExiCodecPool(new ExiOptions( ), 1, 10);
+        ExiCodec codec = pool.borrow( );
+        try {
+            pool.borrow( );
+            fail("Borrowed from an exhausted pool");
+        } catch (ExiPoolTimeoutException e) {
+            // expected
+        }
+        pool.release(codec);
+        assertEquals(codec, pool.borrow( ));
+
+        ExiCodecPool.Statistics stats = pool.getStatistics( );
+        assertEquals(1, stats.getTimeouts( ));
+        assertEquals(1, stats.getWaits( ));
+        assertEquals(1, stats.getActive( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether codecs which are released twice or come from elsewhere
+     * are rejected rather than letting the pool grow.
+     */
+    @Test
+    public void testInvalidRelease( ) throws Exception {
+        ExiCodecPool pool = new ExiCodecPool(new ExiOptions( ), 1, 10);
+        ExiCodec codec = pool.borrow( );
+        pool.release(codec);
+        try {
+            pool.release(codec);
+            fail("Released a codec twice");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            pool.release(new ExiCodec( ));
+            fail("Released a foreign codec");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        assertEquals(codec, pool.borrow( ));
+        try {
+            pool.borrow( );
+            fail("Pool grew past its maximum size");
+        } catch (ExiPoolTimeoutException e) {
+            // expected
+        }
+        assertEquals(1, pool.getStatistics( ).getActive( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether changing the options after creating a pool does not
+     * affect the pool.
+     */
+    @Test
+    public void testOptionsCopied( ) throws Exception {
+        ExiOptions options = new ExiOptions( );
+        byte[] xml = read(FILES[0]);
+        byte[] exi = ExiDocument.encode(FILES[0], options);
+
+        ExiCodecPool pool = new ExiCodecPool(options, 1);
+        options.setAlign(Alignment.BYTE_ALIGNED);
+        pool.getOptions( ).setCompression(true);
+        assertArrayEquals(exi, pool.encode(new ByteArrayInputStream(xml)));
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reads the specified file into memory.
+     *
+     * @param file The file name.
+     * @return The file's content.
+     */
+    private static byte[] read(String file) throws Exception {
+        FileInputStream is = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream( );
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                os.write(buffer, 0, n);
+            }
+            return os.toByteArray( );
+        } finally {
+            is.close( );
+        }
+    }
+}
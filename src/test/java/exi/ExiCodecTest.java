@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package exi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import exi.ExiOptions.Alignment;
+import exi.ExiOptions.FidelityOption;
+
+/**
+ * Test class for {@link ExiCodec}.
+ */
+public class ExiCodecTest {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The XML files used for testing.
+     */
+    private static final String[] FILES = {
+        "src/main/resources/exi-notebook.xml",
+        "src/main/resources/exi-example.xml",
+        "src/main/resources/exi-notebook.xml",
+    };
+
+    // ------------------------------------------------------------------------
+    // Test methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether a codec which is reused for several documents and options
+     * gives the same results as the static methods of {@link ExiDocument}.
+     */
+    @Test
+    public void testReuse( ) throws Exception {
+        ExiCodec codec = new ExiCodec( );
+        for (int i = 0; i < 4; ++i) {
+            for (String file : FILES) {
+                byte[] exi = ExiDocument.encode(file, createOptions(i));
+                assertArrayEquals(exi, codec.encode(read(file), createOptions(i)));
+
+                ByteArrayOutputStream expected = new ByteArrayOutputStream( );
+                ExiDocument.decode(exi, expected);
+                ByteArrayOutputStream actual = new ByteArrayOutputStream( );
+                codec.decode(exi, actual);
+                assertArrayEquals(expected.toByteArray( ), actual.toByteArray( ));
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether a codec can still be used after a malformed document.
+     */
+    @Test
+    public void testRecovery( ) throws Exception {
+        ExiCodec codec = new ExiCodec( );
+        try {
+            codec.encode(new ByteArrayInputStream("<a><b></a>".getBytes("UTF-8")), new ExiOptions( ));
+            fail("Malformed document encoded");
+        } catch (Exception e) {
+            // expected
+        }
+        byte[] exi = ExiDocument.encode(FILES[0], new ExiOptions( ));
+        assertArrayEquals(exi, codec.encode(read(FILES[0]), new ExiOptions( )));
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates one of several option sets.
+     *
+     * @param variant The variant.
+     * @return The options.
+     */
+    private static ExiOptions createOptions(int variant) {
+        ExiOptions options = new ExiOptions( );
+        switch (variant) {
+            case 1:
+                options.setAlign(Alignment.BYTE_ALIGNED);
+                break;
+            case 2:
+                options.setCompression(true);
+                break;
+            case 3:
+                options.set(FidelityOption.PRESERVE_PREFIXES, true);
+                break;
+            default:
+                break;
+        }
+        return options;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reads the specified file into memory.
+     *
+     * @param file The file name.
+     * @return A stream over the file's content.
+     */
+    private static InputStream read(String file) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                bos.write(buffer, 0, n);
+            }
+        } finally {
+            is.close( );
+        }
+        return new ByteArrayInputStream(bos.toByteArray( ));
+    }
+}
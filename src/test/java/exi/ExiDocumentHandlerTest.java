@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package exi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.junit.After;
+import org.junit.Test;
+
+import exi.ExiOptions.WhitespacePolicy;
+
+/**
+ * Test class for the character data and attribute handling in
+ * {@link ExiDocumentHandler}.
+ */
+public class ExiDocumentHandlerTest {
+
+    // ------------------------------------------------------------------------
+    // JUnit stuff
+    // ------------------------------------------------------------------------
+
+    /**
+     * The temporary XML file.
+     */
+    private File file;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Deletes the temporary XML file.
+     */
+    @After
+    public void tearDown( ) {
+        if (this.file != null) {
+            this.file.delete( );
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Test methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether text split by entity references is encoded as a single
+     * value.
+     *
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void testCoalescing( ) throws Exception {
+        List<String> text = decodeText("<r><a>x &amp; y &lt; z</a></r>", new ExiOptions( ));
+        assertEquals(1, text.size( ));
+        assertEquals("x & y < z", text.get(0));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests the whitespace policies.
+     *
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void testWhitespacePolicy( ) throws Exception {
+        String xml = "<r>\n  <a> </a>\n</r>";
+
+        ExiOptions options = new ExiOptions( );
+        assertEquals(WhitespacePolicy.DROP_INDENTATION, options.getWhitespacePolicy( ));
+        assertEquals(1, decodeText(xml, options).size( ));
+
+        options.setWhitespacePolicy(WhitespacePolicy.DROP_WHITESPACE);
+        assertEquals(0, decodeText(xml, options).size( ));
+
+        options.setWhitespacePolicy(WhitespacePolicy.PRESERVE);
+        assertEquals(3, decodeText(xml, options).size( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether unprefixed attributes are in no namespace even if there
+     * is a default namespace, also when they are matched by a learned rule.
+     *
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void testAttributeNamespace( ) throws Exception {
+        String xml = "<r xmlns='urn:r'><a id='1'/><a id='2'/></r>";
+        XMLStreamReader reader = ExiDocument.createStreamReader(
+                ExiDocument.encode(createFile(xml), new ExiOptions( )));
+        List<String> ids = new ArrayList<String>( );
+        while (reader.hasNext( )) {
+            if (reader.next( ) == XMLStreamConstants.START_ELEMENT && reader.getLocalName( ).equals("a")) {
+                assertEquals("urn:r", reader.getNamespaceURI( ));
+                assertEquals(1, reader.getAttributeCount( ));
+                assertEquals("", reader.getAttributeNamespace(0) == null ? "" : reader.getAttributeNamespace(0));
+                assertEquals("id", reader.getAttributeLocalName(0));
+                ids.add(reader.getAttributeValue(0));
+            }
+        }
+        reader.close( );
+        assertEquals(Arrays.asList("1", "2"), ids);
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Writes the specified document to the temporary XML file.
+     *
+     * @param xml The XML document.
+     * @return The file's path.
+     * @throws Exception If something goes wrong.
+     */
+    private String createFile(String xml) throws Exception {
+        this.file = File.createTempFile("exi", ".xml");
+        OutputStream os = new FileOutputStream(this.file);
+        try {
+            os.write(xml.getBytes("UTF-8"));
+        } finally {
+            os.close( );
+        }
+        return this.file.getPath( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the specified document and returns the character data of the
+     * decoded stream, one entry per Characters (CH) event.
+     *
+     * @param xml The XML document.
+     * @param options The options used for encoding.
+     * @return The decoded character data.
+     * @throws Exception If something goes wrong.
+     */
+    private List<String> decodeText(String xml, ExiOptions options) throws Exception {
+        XMLStreamReader reader = ExiDocument.createStreamReader(ExiDocument.encode(createFile(xml), options));
+        List<String> text = new ArrayList<String>( );
+        while (reader.hasNext( )) {
+            if (reader.next( ) == XMLStreamConstants.CHARACTERS) {
+                text.add(reader.getText( ));
+            }
+        }
+        reader.close( );
+        return text;
+    }
+}
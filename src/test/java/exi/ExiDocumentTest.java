@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package exi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import exi.grammar.ExiSchemaException;
+import exi.io.compress.ExiAdaptiveBlockSizer;
+
+/**
+ * Test class for the stream based methods of {@link ExiDocument}.
+ */
+public class ExiDocumentTest {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The XML file used for testing.
+     */
+    private static final String FILE = "src/main/resources/exi-notebook.xml";
+
+    // ------------------------------------------------------------------------
+    // Test methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether encoding from byte and character streams gives the same
+     * result as encoding the file.
+     */
+    @Test
+    public void testEncodeStreams( ) throws Exception {
+        byte[] exi = ExiDocument.encode(FILE, new ExiOptions( ));
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        InputStream is = new FileInputStream(FILE);
+        try {
+            ExiDocument.encode(is, bos, new ExiOptions( ));
+        } finally {
+            is.close( );
+        }
+        assertArrayEquals(exi, bos.toByteArray( ));
+
+        bos.reset( );
+        Reader r = new InputStreamReader(new FileInputStream(FILE), "UTF-8");
+        try {
+            ExiDocument.encode(r, bos, new ExiOptions( ));
+        } finally {
+            r.close( );
+        }
+        assertArrayEquals(exi, bos.toByteArray( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether a document decoded to a byte stream is encoded to the
+     * original EXI stream again.
+     */
+    @Test
+    public void testDecodeStream( ) throws Exception {
+        ExiOptions options = new ExiOptions( );
+        options.setCompression(true);
+        byte[] exi = ExiDocument.encode(FILE, options);
+
+        ByteArrayOutputStream xml = new ByteArrayOutputStream( );
+        ExiDocument.decode(new ByteArrayInputStream(exi), xml);
+
+        ByteArrayOutputStream again = new ByteArrayOutputStream( );
+        ExiOptions againOptions = new ExiOptions( );
+        againOptions.setCompression(true);
+        ExiDocument.encode(new ByteArrayInputStream(xml.toByteArray( )), again, againOptions);
+        assertArrayEquals(exi, again.toByteArray( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests encoding from a DOM source and decoding to a DOM result.
+     */
+    @Test
+    public void testDom( ) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance( );
+        factory.setNamespaceAware(true);
+        Document document = factory.newDocumentBuilder( ).parse(FILE);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        ExiDocument.encode(new DOMSource(document), bos, new ExiOptions( ));
+
+        DOMResult result = new DOMResult( );
+        ExiDocument.decode(bos.toByteArray( ), result);
+        Document decoded = (Document)result.getNode( );
+        assertEquals("notebook", decoded.getDocumentElement( ).getLocalName( ));
+        assertEquals(document.getElementsByTagName("note").getLength( ),
+                decoded.getElementsByTagName("note").getLength( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether Namespace Declaration (NS) events are encoded if prefixes
+     * are preserved.
+     */
+    @Test
+    public void testPreservePrefixes( ) throws Exception {
+        ExiOptions options = new ExiOptions( );
+        options.set(ExiOptions.FidelityOption.PRESERVE_PREFIXES, true);
+        byte[] exi = ExiDocument.encode("src/main/resources/exi-example.xml", options);
+
+        Document decoded = ExiDocument.decode(exi);
+        assertEquals("urn:foo", decoded.getDocumentElement( ).getNamespaceURI( ));
+        assertEquals("personnel", decoded.getDocumentElement( ).getLocalName( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether the block size chosen by a block sizer is encoded without
+     * changing the caller's options.
+     */
+    @Test
+    public void testBlockSizer( ) throws Exception {
+        ExiOptions options = new ExiOptions( );
+        options.setCompression(true);
+        options.setBlockSizer(new ExiAdaptiveBlockSizer(100, 100000, 500, Long.MAX_VALUE, Long.MAX_VALUE));
+        byte[] exi = ExiDocument.encode(FILE, options);
+        assertEquals(ExiConstants.BLOCK_SIZE_DEFAULT, options.getBlockSize( ));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream( );
+        ExiDocument.decode(ExiDocument.encode(FILE, new ExiOptions( )), expected);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream( );
+        ExiDocument.decode(exi, actual);
+        assertArrayEquals(expected.toByteArray( ), actual.toByteArray( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether schema IDs of decoded headers are not resolved as files
+     * or URLs, even if the file exists and contains a valid schema.
+     */
+    @Test
+    public void testUntrustedSchemaId( ) throws Exception {
+        File file = File.createTempFile("exi-notebook", ".xsd");
+        file.deleteOnExit( );
+        OutputStream os = new FileOutputStream(file);
+        try {
+            InputStream is = ExiDocumentTest.class.getResourceAsStream("/exi-notebook.xsd");
+            try {
+                byte[] buf = new byte[4096];
+                for (int n = is.read(buf); n != -1; n = is.read(buf)) {
+                    os.write(buf, 0, n);
+                }
+            } finally {
+                is.close( );
+            }
+        } finally {
+            os.close( );
+        }
+
+        String[] ids = { "file:///etc/passwd", "http://localhost:1/exi-notebook.xsd",
+                file.getAbsolutePath( ), file.toURI( ).toString( ) };
+        for (String id : ids) {
+            ExiOptions options = new ExiOptions( );
+            options.setSchemaId(id);
+            byte[] header = ExiDocument.createWriter(options, true).toByteArray( );
+            try {
+                ExiDocument.decode(header, new ByteArrayOutputStream( ));
+                fail("Schema " + id + " has been resolved");
+            } catch (ExiSchemaException e) {
+                assertTrue(e.getMessage( ), e.getMessage( ).startsWith("Unknown schema"));
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether a missing file is reported by an exception.
+     */
+    @Test(expected = FileNotFoundException.class)
+    public void testMissingFile( ) throws Exception {
+        ExiDocument.encode("no-such-file.xml", new ExiOptions( ));
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package exi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import exi.ExiOptions.Alignment;
+
+/**
+ * Test class for {@link ExiFragmentWriter} and {@link ExiFragmentReader}.
+ */
+public class ExiFragmentTest {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The XML declaration written by the XML writer sink.
+     */
+    private static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+
+    // ------------------------------------------------------------------------
+    // Test methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether each record is decoded as soon as it has been written,
+     * like a separately encoded document, while the whole fragment is much
+     * smaller than the separate documents.
+     */
+    @Test
+    public void testRoundTrip( ) throws Exception {
+        ExiCodec codec = new ExiCodec( );
+        for (Alignment align : new Alignment[] { Alignment.BIT_PACKED, Alignment.BYTE_ALIGNED }) {
+            ExiOptions options = new ExiOptions( );
+            options.setAlign(align);
+            Channel channel = new Channel( );
+            ExiFragmentWriter writer = new ExiFragmentWriter(channel, options);
+            ByteArrayOutputStream xml = new ByteArrayOutputStream( );
+            ExiFragmentReader reader = new ExiFragmentReader(channel.getInputStream( ), xml);
+
+            StringBuilder expected = new StringBuilder(DECLARATION);
+            int separate = 0;
+            for (int i = 0; i < 10; ++i) {
+                writer.write(new ByteArrayInputStream(message(i)));
+                assertTrue(reader.read( ));
+
+                byte[] exi = codec.encode(new ByteArrayInputStream(message(i)), options);
+                separate += exi.length;
+                ByteArrayOutputStream os = new ByteArrayOutputStream( );
+                codec.decode(exi, os);
+                expected.append(os.toString("UTF-8").substring(DECLARATION.length( )));
+                assertEquals(expected.toString( ), xml.toString("UTF-8"));
+            }
+            writer.close( );
+            assertFalse(reader.read( ));
+            assertTrue(2 * channel.size( ) < separate);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether documents encoded as fragments decode like documents in
+     * all alignments.
+     */
+    @Test
+    public void testFragmentOption( ) throws Exception {
+        ExiCodec codec = new ExiCodec( );
+        for (Alignment align : Alignment.values( )) {
+            ExiOptions options = new ExiOptions( );
+            options.setAlign(align);
+            byte[] document = codec.encode(new ByteArrayInputStream(message(0)), options);
+            options.setFragments(true);
+            byte[] fragment = codec.encode(new ByteArrayInputStream(message(0)), options);
+
+            ByteArrayOutputStream expected = new ByteArrayOutputStream( );
+            codec.decode(document, expected);
+            ByteArrayOutputStream actual = new ByteArrayOutputStream( );
+            codec.decode(fragment, actual);
+            assertEquals(expected.toString("UTF-8"), actual.toString("UTF-8"));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether compressed fragment streams are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompression( ) throws Exception {
+        ExiOptions options = new ExiOptions( );
+        options.setCompression(true);
+        new ExiFragmentWriter(new ByteArrayOutputStream( ), options);
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates one of a sequence of similar records.
+     *
+     * @param i The number of the record.
+     * @return The record.
+     */
+    private static byte[] message(int i) throws Exception {
+        return String.format("<reading xmlns='urn:sensors'><sensor id='s%d' unit='C'>temperature</sensor>"
+                + "<value>%d</value><time>%d</time></reading>", i % 3, 20 + i % 4, 1000 + i).getBytes("UTF-8");
+    }
+
+    // ------------------------------------------------------------------------
+    // Nested types
+    // ------------------------------------------------------------------------
+
+    /**
+     * A connection whose receiving end fails instead of blocking when no
+     * data is available, so that data which has not been flushed is noticed.
+     */
+    private static final class Channel extends ByteArrayOutputStream {
+
+        /**
+         * <code>true</code> if the sending end has been closed.
+         */
+        private boolean closed = false;
+
+        /**
+         * The number of bytes received.
+         */
+        private int received = 0;
+
+        /* (non-Javadoc)
+         * @see java.io.ByteArrayOutputStream#close()
+         */
+        @Override
+        public void close( ) {
+            this.closed = true;
+        }
+
+        /**
+         * Returns the receiving end.
+         *
+         * @return The input stream.
+         */
+        InputStream getInputStream( ) {
+            return new InputStream( ) {
+                @Override
+                public int read( ) throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int available = Channel.this.count - Channel.this.received;
+                    if (available == 0) {
+                        if (Channel.this.closed) {
+                            return -1;
+                        }
+                        throw new IOException("Reading would block");
+                    }
+                    int n = Math.min(len, available);
+                    System.arraycopy(Channel.this.buf, Channel.this.received, b, off, n);
+                    Channel.this.received += n;
+                    return n;
+                }
+            };
+        }
+    }
+}
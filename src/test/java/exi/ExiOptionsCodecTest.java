@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package exi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import exi.ExiOptions.Alignment;
+import exi.ExiOptions.FidelityOption;
+import exi.io.ExiHeaderReader;
+import exi.io.ExiHeaderWriter;
+
+/**
+ * Test class for {@link ExiOptionsCodec}.
+ */
+public class ExiOptionsCodecTest {
+
+    // ------------------------------------------------------------------------
+    // Test methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether decoding an encoded header gives the same options, both
+     * when the header is decoded for the first time and when it is known.
+     */
+    @Test
+    public void testRoundTrip( ) throws Exception {
+        FidelityOption[] fidelity = FidelityOption.values( );
+        for (Alignment align : Alignment.values( )) {
+            for (int i = 0; i < 1 << fidelity.length; ++i) {
+                ExiOptions options = new ExiOptions( );
+                options.setAlign(align);
+                options.setCompression(i % 2 == 0 && align != Alignment.PRE_COMPRESSED);
+                options.setFragments(i % 3 == 0);
+                options.setBlockSize(i % 4 == 0 ? ExiConstants.BLOCK_SIZE_DEFAULT : 100 + i);
+                options.setSchemaId(i % 5 == 0 ? "urn:example:" + i : null);
+                for (int f = 0; f < fidelity.length; ++f) {
+                    options.set(fidelity[f], (i & 1 << f) != 0);
+                }
+
+                byte[] header = encodeHeader(options);
+                assertEquals(options.toXML( ), decodeHeader(header).toXML( ));
+                assertEquals(options.toXML( ), decodeHeader(header).toXML( ));
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether a header is read up to its last bit only, so that the
+     * body which follows is not affected.
+     */
+    @Test
+    public void testBodyFollows( ) throws Exception {
+        ExiOptions options = new ExiOptions( );
+        options.set(FidelityOption.PRESERVE_COMMENTS, true);
+
+        ExiHeaderWriter w = new ExiHeaderWriter( );
+        ExiOptionsCodec.encodeHeader(w, options, true);
+        w.getOutputStream( ).writeBits(0x5, 3);
+        byte[] stream = w.toByteArray( );
+
+        for (int i = 0; i < 2; ++i) {
+            ExiHeaderReader r = new ExiHeaderReader(stream);
+            ExiOptionsCodec.decodeHeader(r);
+            assertEquals(0x5, r.getInputStream( ).readBits(3));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether a header without options gives the default options.
+     */
+    @Test
+    public void testNoOptions( ) throws Exception {
+        ExiOptions options = new ExiOptions( );
+        options.setCompression(true);
+
+        ExiHeaderWriter w = new ExiHeaderWriter( );
+        ExiOptionsCodec.encodeHeader(w, options, false);
+        assertFalse(decodeHeader(w.toByteArray( )).useCompression( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether the header announces a block index trailer for
+     * compressed streams only.
+     */
+    @Test
+    public void testBlockIndex( ) throws Exception {
+        ExiOptions options = new ExiOptions( );
+        options.setCompression(true);
+        byte[] plain = encodeHeader(options);
+        options.setBlockIndex(true);
+        byte[] header = encodeHeader(options);
+
+        assertFalse(Arrays.equals(plain, header));
+        assertFalse(decodeHeader(plain).useBlockIndex( ));
+        for (int i = 0; i < 2; ++i) {
+            ExiOptions decoded = decodeHeader(header);
+            assertTrue(decoded.useBlockIndex( ));
+            assertTrue(decoded.useCompression( ));
+        }
+        assertTrue(options.toXML( ).contains(ExiOptionsCodec.EXTENSION_NAMESPACE));
+
+        // bit-packed streams never have a trailer
+        options.setCompression(false);
+        assertFalse(decodeHeader(encodeHeader(options)).useBlockIndex( ));
+        assertArrayEquals(encodeHeader(new ExiOptions( )), encodeHeader(options));
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the header for the specified options.
+     *
+     * @param options The options.
+     * @return The encoded header.
+     */
+    private static byte[] encodeHeader(ExiOptions options) throws Exception {
+        ExiHeaderWriter w = new ExiHeaderWriter( );
+        ExiOptionsCodec.encodeHeader(w, options, true);
+        return w.toByteArray( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Decodes the specified header.
+     *
+     * @param header The encoded header.
+     * @return The decoded options.
+     */
+    private static ExiOptions decodeHeader(byte[] header) throws Exception {
+        return ExiOptionsCodec.decodeHeader(new ExiHeaderReader(header));
+    }
+}
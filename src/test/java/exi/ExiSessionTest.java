@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package exi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import exi.ExiOptions.Alignment;
+
+/**
+ * Test class for {@link ExiSession}.
+ */
+public class ExiSessionTest {
+
+    // ------------------------------------------------------------------------
+    // Test methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether messages are decoded like separately encoded documents
+     * while continuation frames are much smaller, in both uncompressed
+     * alignments.
+     */
+    @Test
+    public void testRoundTrip( ) throws Exception {
+        for (Alignment align : new Alignment[] { Alignment.BIT_PACKED, Alignment.BYTE_ALIGNED }) {
+            ExiOptions options = new ExiOptions( );
+            options.setAlign(align);
+            ExiSession sender = new ExiSession(options);
+            ExiSession receiver = new ExiSession(options);
+            ExiCodec codec = new ExiCodec( );
+
+            for (int i = 0; i < 10; ++i) {
+                byte[] frame = sender.encode(new ByteArrayInputStream(message(i)));
+                byte[] exi = codec.encode(new ByteArrayInputStream(message(i)), options);
+                assertEquals(i == 0 ? ExiSession.RESET : 0, frame[0]);
+                if (i > 0) {
+                    assertTrue(2 * frame.length < exi.length);
+                }
+                assertEquals(decode(codec, exi), decode(receiver, frame));
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether a receiver which has missed a frame rejects frames until
+     * the sender resets.
+     */
+    @Test
+    public void testResync( ) throws Exception {
+        ExiSession sender = new ExiSession(new ExiOptions( ));
+        ExiSession receiver = new ExiSession(new ExiOptions( ));
+        decode(receiver, sender.encode(new ByteArrayInputStream(message(0))));
+        sender.encode(new ByteArrayInputStream(message(1)));
+
+        for (int i = 2; i < 4; ++i) {
+            try {
+                decode(receiver, sender.encode(new ByteArrayInputStream(message(i))));
+                fail("Missed frame not detected");
+            } catch (ExiSessionException e) {
+                // expected
+            }
+        }
+
+        sender.reset( );
+        byte[] frame = sender.encode(new ByteArrayInputStream(message(4)));
+        assertEquals(ExiSession.RESET, frame[0]);
+        assertEquals(decode(new ExiCodec( ), new ExiCodec( ).encode(
+                new ByteArrayInputStream(message(4)), new ExiOptions( ))), decode(receiver, frame));
+        decode(receiver, sender.encode(new ByteArrayInputStream(message(5))));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether learned elements and attributes keep their namespace in
+     * later messages if the same local name is used in several namespaces.
+     */
+    @Test
+    public void testNamespaces( ) throws Exception {
+        ExiSession sender = new ExiSession(new ExiOptions( ));
+        ExiSession receiver = new ExiSession(new ExiOptions( ));
+        for (int i = 0; i < 4; ++i) {
+            String xml = String.format("<reading xmlns='urn:sensors' xmlns:m='urn:meta'><value>%d</value>"
+                    + "<m:value m:unit='C' unit='K'>%d</m:value><m:location>lab %d</m:location></reading>",
+                    i, i + 1, i % 2);
+            byte[] frame = sender.encode(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+            assertEquals(i == 0 ? ExiSession.RESET : 0, frame[0]);
+            Element root = parse(decode(receiver, frame));
+
+            NodeList values = root.getElementsByTagNameNS("*", "value");
+            assertEquals(2, values.getLength( ));
+            assertEquals("urn:sensors", values.item(0).getNamespaceURI( ));
+            assertEquals(String.valueOf(i), values.item(0).getTextContent( ));
+            Element meta = (Element)values.item(1);
+            assertEquals("urn:meta", meta.getNamespaceURI( ));
+            assertEquals(String.valueOf(i + 1), meta.getTextContent( ));
+            assertEquals("C", meta.getAttributeNS("urn:meta", "unit"));
+            assertEquals("K", meta.getAttributeNS(null, "unit"));
+
+            NodeList locations = root.getElementsByTagNameNS("urn:meta", "location");
+            assertEquals(1, locations.getLength( ));
+            assertEquals("lab " + (i % 2), locations.item(0).getTextContent( ));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether a learned prefixed element which is not in its parent's
+     * namespace decodes correctly in later messages.
+     */
+    @Test
+    public void testForeignChildNamespace( ) throws Exception {
+        ExiSession sender = new ExiSession(new ExiOptions( ));
+        ExiSession receiver = new ExiSession(new ExiOptions( ));
+        for (int i = 0; i < 2; ++i) {
+            String xml = "<m xmlns:p='urn:p'><p:v p:a='" + i + "'>1</p:v><p:v>x</p:v></m>";
+            Element root = parse(decode(receiver, sender.encode(new ByteArrayInputStream(xml.getBytes("UTF-8")))));
+            NodeList v = root.getElementsByTagNameNS("urn:p", "v");
+            assertEquals(2, v.getLength( ));
+            assertEquals(String.valueOf(i), ((Element)v.item(0)).getAttributeNS("urn:p", "a"));
+            assertEquals("1", v.item(0).getTextContent( ));
+            assertEquals("x", v.item(1).getTextContent( ));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Parses a decoded message with namespaces.
+     *
+     * @param xml The decoded XML message.
+     * @return The root element.
+     */
+    private static Element parse(String xml) throws Exception {
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance( );
+        dbf.setNamespaceAware(true);
+        return dbf.newDocumentBuilder( ).parse(new InputSource(new StringReader(xml))).getDocumentElement( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates one of a sequence of similar messages.
+     *
+     * @param i The number of the message.
+     * @return The message.
+     */
+    private static byte[] message(int i) throws Exception {
+        return String.format("<reading xmlns='urn:sensors'><sensor id='s%d' unit='C'>temperature</sensor>"
+                + "<value>%d</value><time>%d</time></reading>", i % 3, 20 + i % 4, 1000 + i).getBytes("UTF-8");
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Decodes a frame to a string.
+     *
+     * @param session The session.
+     * @param frame The frame.
+     * @return The decoded XML message.
+     */
+    private static String decode(ExiSession session, byte[] frame) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream( );
+        session.decode(frame, os);
+        return os.toString("UTF-8");
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Decodes an EXI stream to a string.
+     *
+     * @param codec The codec.
+     * @param exi The EXI stream.
+     * @return The decoded XML document.
+     */
+    private static String decode(ExiCodec codec, byte[] exi) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream( );
+        codec.decode(exi, os);
+        return os.toString("UTF-8");
+    }
+}
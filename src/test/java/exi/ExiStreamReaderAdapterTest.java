@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package exi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.junit.Test;
+
+import exi.ExiOptions.Alignment;
+
+/**
+ * Test class for {@link ExiStreamReaderAdapter}.
+ */
+public class ExiStreamReaderAdapterTest {
+
+    // ------------------------------------------------------------------------
+    // Test methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether encoding via StAX gives the same stream as encoding via
+     * SAX.
+     */
+    @Test
+    public void testSameAsSax( ) throws Exception {
+        String file = "src/main/resources/exi-notebook.xml";
+        for (Alignment align : Alignment.values( )) {
+            ExiOptions options = new ExiOptions( );
+            options.setAlign(align);
+            byte[] sax = ExiDocument.encode(file, options);
+
+            InputStream is = new FileInputStream(file);
+            try {
+                XMLStreamReader reader = XMLInputFactory.newInstance( ).createXMLStreamReader(is);
+                assertArrayEquals(sax, ExiDocument.encode(reader, options));
+            } finally {
+                is.close( );
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether unprefixed attributes are in no namespace even if there
+     * is a default namespace, like in the SAX front-end.
+     */
+    @Test
+    public void testAttributeNamespace( ) throws Exception {
+        String xml = "<r xmlns='urn:r'><a id='1'/><a id='2'/></r>";
+        ExiOptions options = new ExiOptions( );
+        ByteArrayOutputStream sax = new ByteArrayOutputStream( );
+        ExiDocument.encode(new StringReader(xml), sax, options);
+        byte[] stax = ExiDocument.encode(
+                XMLInputFactory.newInstance( ).createXMLStreamReader(new StringReader(xml)), options);
+        assertArrayEquals(sax.toByteArray( ), stax);
+
+        XMLStreamReader reader = ExiDocument.createStreamReader(stax);
+        List<String> ids = new ArrayList<String>( );
+        while (reader.hasNext( )) {
+            if (reader.next( ) == XMLStreamConstants.START_ELEMENT && reader.getLocalName( ).equals("a")) {
+                String uri = reader.getAttributeNamespace(0);
+                assertEquals("", uri == null ? "" : uri);
+                ids.add(reader.getAttributeValue(0));
+            }
+        }
+        reader.close( );
+        assertEquals(Arrays.asList("1", "2"), ids);
+    }
+}
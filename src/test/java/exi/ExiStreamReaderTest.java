@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package exi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.junit.Test;
+
+/**
+ * Test class for {@link ExiStreamReader}.
+ */
+public class ExiStreamReaderTest {
+
+    // ------------------------------------------------------------------------
+    // Test methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether the head of a document can be pulled without decoding
+     * the rest.
+     */
+    @Test
+    public void testPullHead( ) throws Exception {
+        byte[] exi = ExiDocument.encode("src/main/resources/exi-notebook.xml", new ExiOptions( ));
+        XMLStreamReader reader = ExiDocument.createStreamReader(exi);
+        assertEquals(XMLStreamConstants.START_DOCUMENT, reader.getEventType( ));
+
+        assertEquals(XMLStreamConstants.START_ELEMENT, reader.nextTag( ));
+        assertEquals("notebook", reader.getLocalName( ));
+        assertEquals(XMLStreamConstants.START_ELEMENT, reader.nextTag( ));
+        assertEquals("note", reader.getLocalName( ));
+        assertEquals("EXI", reader.getAttributeValue(null, "category"));
+        reader.close( );
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether pulling a whole document and encoding it again gives the
+     * original stream.
+     */
+    @Test
+    public void testRoundTrip( ) throws Exception {
+        ExiOptions options = new ExiOptions( );
+        options.setCompression(true);
+        byte[] exi = ExiDocument.encode("src/main/resources/exi-notebook.xml", options);
+
+        ExiOptions again = new ExiOptions( );
+        again.setCompression(true);
+        assertArrayEquals(exi, ExiDocument.encode(ExiDocument.createStreamReader(exi), again));
+    }
+}
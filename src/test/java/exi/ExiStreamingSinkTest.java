@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package exi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+
+import javax.xml.namespace.QName;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import exi.events.ExiAttribute;
+import exi.events.ExiCharacters;
+import exi.events.ExiEndDocument;
+import exi.events.ExiEndElement;
+import exi.events.ExiNamespaceDeclaration;
+import exi.events.ExiStartDocument;
+import exi.events.ExiStartElement;
+
+/**
+ * Test class for {@link ExiContentHandlerSink}, {@link ExiStreamWriterSink}
+ * and {@link ExiXmlWriterSink}.
+ */
+public class ExiStreamingSinkTest {
+
+    // ------------------------------------------------------------------------
+    // Test methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether the SAX and the StAX sink produce the same document and
+     * whether namespaces survive although prefixes are not preserved.
+     */
+    @Test
+    public void testSameDocument( ) throws Exception {
+        byte[] exi = ExiDocument.encode("src/main/resources/exi-example.xml", new ExiOptions( ));
+
+        StringWriter stax = new StringWriter( );
+        ExiDocument.decode(exi, new ExiStreamWriterSink(XMLOutputFactory.newInstance( ).createXMLStreamWriter(stax)));
+
+        StringWriter sax = new StringWriter( );
+        SAXTransformerFactory tf = (SAXTransformerFactory)TransformerFactory.newInstance( );
+        TransformerHandler handler = tf.newTransformerHandler( );
+        handler.setResult(new StreamResult(sax));
+        ExiDocument.decode(exi, new ExiContentHandlerSink(handler));
+
+        Document d1 = parse(stax.toString( ));
+        Document d2 = parse(sax.toString( ));
+        assertEquals("urn:foo", d1.getDocumentElement( ).getNamespaceURI( ));
+        assertTrue(d1.isEqualNode(d2));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether the XML writer sink produces the same document as the
+     * StAX sink.
+     */
+    @Test
+    public void testXmlWriterSameDocument( ) throws Exception {
+        byte[] exi = ExiDocument.encode("src/main/resources/exi-notebook.xml", new ExiOptions( ));
+
+        StringWriter stax = new StringWriter( );
+        ExiDocument.decode(exi, new ExiStreamWriterSink(XMLOutputFactory.newInstance( ).createXMLStreamWriter(stax)));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( );
+        ExiDocument.decode(exi, new ExiXmlWriterSink(bytes, 16));
+
+        assertTrue(parse(stax.toString( )).isEqualNode(parse(bytes.toString("UTF-8"))));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests the escaping and encoding of the XML writer sink, using a buffer
+     * which is smaller than the document.
+     */
+    @Test
+    public void testXmlWriterEscaping( ) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( );
+        ExiXmlWriterSink sink = new ExiXmlWriterSink(bytes, 8);
+        sink.handle(new ExiStartDocument( ));
+        sink.handle(new ExiStartElement(new QName("r")));
+        sink.handle(new ExiAttribute(new QName("a"), "\"<&>\t"));
+        sink.handle(new ExiCharacters("x < y & \u00e9\u20ac\ud83d\ude00\r"));
+        sink.handle(new ExiStartElement(new QName("e")));
+        sink.handle(new ExiEndElement( ));
+        sink.handle(new ExiEndElement( ));
+        sink.handle(new ExiEndDocument( ));
+
+        String expected = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<r a=\"&quot;&lt;&amp;&gt;&#9;\">x &lt; y &amp; \u00e9\u20ac\ud83d\ude00&#13;<e/></r>";
+        assertEquals(expected, bytes.toString("UTF-8"));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether names keep their namespaces if their preferred prefix is
+     * already declared for another URI on the same start tag.
+     */
+    @Test
+    public void testPrefixConflict( ) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( );
+        ExiXmlWriterSink sink = new ExiXmlWriterSink(bytes, 64);
+        sink.handle(new ExiStartDocument( ));
+        sink.handle(new ExiStartElement(new QName("urn:a", "r", "p")));
+        sink.handle(new ExiNamespaceDeclaration("p", URI.create("urn:b")));
+        sink.handle(new ExiAttribute(new QName("urn:c", "x", "p"), "1"));
+        sink.handle(new ExiAttribute(new QName("urn:b", "y", "p"), "2"));
+        sink.handle(new ExiEndElement( ));
+        sink.handle(new ExiEndDocument( ));
+
+        Element r = parse(bytes.toString("UTF-8")).getDocumentElement( );
+        assertEquals("urn:a", r.getNamespaceURI( ));
+        assertEquals("urn:b", r.lookupNamespaceURI("p"));
+        assertEquals("1", r.getAttributeNS("urn:c", "x"));
+        assertEquals("2", r.getAttributeNS("urn:b", "y"));
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Parses a document from a string.
+     *
+     * @param xml The document.
+     * @return The DOM document.
+     */
+    private static Document parse(String xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance( );
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder( ).parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package exi.grammar;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.xml.namespace.QName;
+
+import org.junit.Test;
+
+import exi.ExiOptions;
+import exi.events.ExiAttribute;
+import exi.events.ExiEventCode;
+
+/**
+ * Test class for {@link ExiBuiltInGrammarFactory}.
+ */
+public class ExiBuiltInGrammarFactoryTest {
+
+    // ------------------------------------------------------------------------
+    // Test methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether productions learned by the element grammar of one
+     * factory leave the grammars of other factories untouched although they
+     * share their skeleton.
+     */
+    @Test
+    public void testLearnedProductions( ) throws Exception {
+        ExiAttribute a = new ExiAttribute(new QName("a"), "1");
+        ExiAttribute b = new ExiAttribute(new QName("b"), "2");
+
+        ExiGrammar first = new ExiBuiltInGrammarFactory(new ExiOptions( )).createElementGrammar(new QName("item"));
+        ((ExiExtensibleGrammar)first).extend("StartTag", a.getEventTypeString( ));
+        ((ExiExtensibleGrammar)first).extend("StartTag", b.getEventTypeString( ));
+
+        ExiGrammar second = new ExiBuiltInGrammarFactory(new ExiOptions( )).createElementGrammar(new QName("item"));
+        ((ExiExtensibleGrammar)second).extend("StartTag", a.getEventTypeString( ));
+
+        assertEquals(new ExiEventCode(0), first.getMatchingRule(b).getEventCode( ));
+        assertEquals(new ExiEventCode(1), first.getMatchingRule(a).getEventCode( ));
+        assertEquals(new ExiEventCode(2, 1), first.getActiveGroup( ).getMatchingRule(2, 2, 1, 0).getEventCode( ));
+        assertEquals(new ExiEventCode(0), second.getMatchingRule(a).getEventCode( ));
+        assertEquals(new ExiEventCode(1, 1), second.getMatchingRule(b).getEventCode( ));
+        assertEquals(3, first.getActiveGroup( ).getGroupSize( ).getPartSize(0));
+        assertEquals(2, second.getActiveGroup( ).getGroupSize( ).getPartSize(0));
+
+        ExiGrammar third = new ExiBuiltInGrammarFactory(new ExiOptions( )).createElementGrammar(new QName("item"));
+        assertEquals(new ExiEventCode(0, 1), third.getMatchingRule(a).getEventCode( ));
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package exi.grammar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import exi.ExiDocument;
+import exi.ExiOptions;
+import exi.ExiOptions.Alignment;
+
+/**
+ * Test class for {@link ExiGrammarCompiler} and {@link ExiGrammarRegistry}.
+ */
+public class ExiGrammarCompilerTest {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The XML file used for testing.
+     */
+    private static final String FILE = "src/main/resources/exi-notebook.xml";
+
+    // ------------------------------------------------------------------------
+    // Test methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether a schema loaded from a memory-mapped artifact encodes
+     * documents like the schema compiled from XML Schema. The streams only
+     * differ in the schema ID of the header, which has the same length.
+     */
+    @Test
+    public void testArtifact( ) throws Exception {
+        File file = File.createTempFile("exi-notebook", ExiGrammarRegistry.ARTIFACT_EXTENSION);
+        file.deleteOnExit( );
+        OutputStream os = new FileOutputStream(file);
+        try {
+            ExiGrammarCompiler.write(ExiSchema.compile("exi-notebook.xsd"), os);
+        } finally {
+            os.close( );
+        }
+        ExiGrammarRegistry.register("test:artifact", file);
+        ExiSchema schema = ExiGrammarRegistry.getSchema("test:artifact");
+        assertSame(schema, ExiGrammarRegistry.getSchema("test:artifact"));
+        ExiGrammarRegistry.register("test:compiled", ExiSchema.compile("exi-notebook.xsd"));
+
+        for (Alignment align : Alignment.values( )) {
+            ExiOptions options = new ExiOptions( );
+            options.setAlign(align);
+            options.setSchemaId("test:compiled");
+            byte[] expected = ExiDocument.encode(FILE, options);
+            options.setSchemaId("test:artifact");
+            byte[] actual = ExiDocument.encode(FILE, options);
+            assertEquals(expected.length, actual.length);
+
+            ByteArrayOutputStream expectedXml = new ByteArrayOutputStream( );
+            ExiDocument.decode(expected, expectedXml);
+            ByteArrayOutputStream actualXml = new ByteArrayOutputStream( );
+            ExiDocument.decode(actual, actualXml);
+            assertArrayEquals(expectedXml.toByteArray( ), actualXml.toByteArray( ));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether writing a loaded artifact again yields the same bytes.
+     */
+    @Test
+    public void testStable( ) throws Exception {
+        ByteArrayOutputStream first = new ByteArrayOutputStream( );
+        ExiGrammarCompiler.write(ExiSchema.compile("exi-header.xsd"), first);
+        ExiSchema schema = ExiGrammarCompiler.read(ByteBuffer.wrap(first.toByteArray( )));
+        ByteArrayOutputStream second = new ByteArrayOutputStream( );
+        ExiGrammarCompiler.write(schema, second);
+        assertArrayEquals(first.toByteArray( ), second.toByteArray( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether a corrupt artifact is reported by an exception.
+     */
+    @Test(expected = ExiSchemaException.class)
+    public void testCorrupt( ) throws Exception {
+        ExiGrammarCompiler.read(ByteBuffer.wrap(new byte[] { 'E', 'X', 'I', 'G', 1, 5 }));
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package exi.grammar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+import exi.ExiCodec;
+import exi.ExiOptions;
+import exi.ExiOptions.Alignment;
+
+/**
+ * Test class for {@link ExiProfile} and {@link ExiProfileTrainer}.
+ */
+public class ExiProfileTest {
+
+    // ------------------------------------------------------------------------
+    // Test methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether messages encoded with a trained profile decode like
+     * messages encoded with plain built-in grammars while being smaller,
+     * also if they contain elements and values the profile doesn't know.
+     */
+    @Test
+    public void testRoundTrip( ) throws Exception {
+        ExiProfileTrainer trainer = new ExiProfileTrainer( );
+        for (int i = 0; i < 20; ++i) {
+            trainer.train(new InputSource(new ByteArrayInputStream(message(i, false))));
+        }
+        ExiGrammarRegistry.register(trainer.createProfile("test"));
+
+        ExiCodec codec = new ExiCodec( );
+        for (Alignment align : Alignment.values( )) {
+            for (int i = 20; i < 24; ++i) {
+                byte[] xml = message(i, i % 2 == 1);
+                ExiOptions options = new ExiOptions( );
+                options.setAlign(align);
+                byte[] expected = codec.encode(new ByteArrayInputStream(xml), options);
+                options.setSchemaId(ExiProfile.SCHEMA_ID_PREFIX + "test");
+                byte[] actual = codec.encode(new ByteArrayInputStream(xml), options);
+                if (align != Alignment.PRE_COMPRESSED) {
+                    assertTrue(4 * actual.length < 3 * expected.length);
+                }
+                assertEquals(decode(codec, expected), decode(codec, actual));
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether writing a loaded profile again yields the same bytes.
+     */
+    @Test
+    public void testStable( ) throws Exception {
+        ExiProfileTrainer trainer = new ExiProfileTrainer( );
+        for (int i = 0; i < 5; ++i) {
+            trainer.train(new InputSource(new ByteArrayInputStream(message(i, false))));
+        }
+        ByteArrayOutputStream first = new ByteArrayOutputStream( );
+        trainer.createProfile("stable").write(first);
+        ExiProfile profile = ExiProfile.read(ByteBuffer.wrap(first.toByteArray( )));
+        assertEquals("stable", profile.getId( ));
+        ByteArrayOutputStream second = new ByteArrayOutputStream( );
+        profile.write(second);
+        assertArrayEquals(first.toByteArray( ), second.toByteArray( ));
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates one of a sequence of similar messages.
+     *
+     * @param i The number of the message.
+     * @param extra <code>true</code> to add an element which the training
+     *        messages don't contain.
+     * @return The message.
+     */
+    private static byte[] message(int i, boolean extra) throws Exception {
+        return String.format("<reading xmlns='urn:sensors' xmlns:m='urn:meta'><sensor id='s%d' unit='C'>"
+                + "temperature</sensor><value>%d</value><time>%d</time>%s<m:location>room %d</m:location>"
+                + "</reading>", i % 3, 20 + i % 4, 1000 + i, extra ? "<status>ok</status>" : "", i % 2)
+                .getBytes("UTF-8");
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Decodes an EXI stream to a string.
+     *
+     * @param codec The codec.
+     * @param exi The EXI stream.
+     * @return The decoded XML message.
+     */
+    private static String decode(ExiCodec codec, byte[] exi) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream( );
+        codec.decode(exi, os);
+        return os.toString("UTF-8");
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package exi.grammar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import exi.ExiCodec;
+import exi.ExiDocument;
+import exi.ExiOptions;
+import exi.ExiOptions.Alignment;
+import exi.ExiOptions.FidelityOption;
+import exi.utils.ExiStringTable;
+import exi.utils.LocalNamesPartition;
+
+/**
+ * Test class for {@link ExiSchemaGrammarFactory}.
+ */
+public class ExiSchemaGrammarFactoryTest {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The XML file used for testing.
+     */
+    private static final String FILE = "src/main/resources/exi-notebook.xml";
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * A header with elements matched by wildcards.
+     */
+    private static final String HEADER =
+        "<header xmlns='http://www.w3.org/2007/07/exi'><lesscommon><uncommon>"
+        + "<x:foo xmlns:x='urn:x' a='1'>bar<x:baz/></x:foo><x:foo xmlns:x='urn:x'/>"
+        + "<alignment><byte/></alignment></uncommon><preserve><comments/></preserve>"
+        + "</lesscommon><common><schemaId>abc</schemaId></common><strict/></header>";
+
+    // ------------------------------------------------------------------------
+    // Test methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether a document encoded with schema-informed grammars is
+     * decoded to the same document as with built-in grammars and whether it
+     * is smaller, in all alignments.
+     */
+    @Test
+    public void testRoundTrip( ) throws Exception {
+        for (int i = 0; i < 3; ++i) {
+            byte[] builtIn = ExiDocument.encode(FILE, createOptions(i, null));
+            byte[] informed = ExiDocument.encode(FILE, createOptions(i, "exi-notebook.xsd"));
+            assertTrue(informed.length < builtIn.length);
+
+            ByteArrayOutputStream expected = new ByteArrayOutputStream( );
+            ExiDocument.decode(builtIn, expected);
+            ByteArrayOutputStream actual = new ByteArrayOutputStream( );
+            ExiDocument.decode(informed, actual);
+            assertArrayEquals(expected.toByteArray( ), actual.toByteArray( ));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests elements in a target namespace and elements matched by wildcards,
+     * which use built-in grammars.
+     */
+    @Test
+    public void testWildcards( ) throws Exception {
+        ExiOptions options = createOptions(0, "exi-header.xsd");
+        options.set(FidelityOption.PRESERVE_PREFIXES, true);
+        byte[] exi = encode(new ByteArrayInputStream(HEADER.getBytes("UTF-8")), options);
+
+        ByteArrayOutputStream xml = new ByteArrayOutputStream( );
+        ExiDocument.decode(exi, xml);
+        assertArrayEquals(exi, encode(new ByteArrayInputStream(xml.toByteArray( )), options));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether a codec switches between schema-informed and built-in
+     * grammars when the schema ID changes.
+     */
+    @Test
+    public void testReuse( ) throws Exception {
+        ExiCodec codec = new ExiCodec( );
+        for (int i = 0; i < 4; ++i) {
+            String schemaId = i % 2 == 0 ? "exi-notebook.xsd" : null;
+            byte[] exi = ExiDocument.encode(FILE, createOptions(0, schemaId));
+            InputStream is = new FileInputStream(FILE);
+            try {
+                assertArrayEquals(exi, codec.encode(is, createOptions(0, schemaId)));
+            } finally {
+                is.close( );
+            }
+
+            ByteArrayOutputStream expected = new ByteArrayOutputStream( );
+            ExiDocument.decode(exi, expected);
+            ByteArrayOutputStream actual = new ByteArrayOutputStream( );
+            codec.decode(exi, actual);
+            assertArrayEquals(expected.toByteArray( ), actual.toByteArray( ));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether the string table is pre-populated with the declared names
+     * in lexicographical order.
+     */
+    @Test
+    public void testStringTable( ) throws Exception {
+        ExiSchemaGrammarFactory factory = new ExiSchemaGrammarFactory(
+                ExiGrammarRegistry.getSchema("exi-notebook.xsd"), new ExiOptions( ));
+        ExiStringTable table = new ExiStringTable( );
+        factory.initializeStringTable(table);
+
+        LocalNamesPartition names = table.getLocalNamesPartition( );
+        String[] expected = { "body", "category", "date", "note", "notebook", "subject" };
+        assertEquals(expected.length, names.getSize( ));
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(expected[i], names.getValue(i));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether an unknown schema ID is reported by an exception.
+     */
+    @Test(expected = ExiSchemaException.class)
+    public void testUnknownSchema( ) throws Exception {
+        ExiDocument.encode(FILE, createOptions(0, "no-such-schema.xsd"));
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates one of several option sets.
+     *
+     * @param variant The variant.
+     * @param schemaId The schema ID or <code>null</code>.
+     * @return The options.
+     */
+    private static ExiOptions createOptions(int variant, String schemaId) {
+        ExiOptions options = new ExiOptions( );
+        options.setSchemaId(schemaId);
+        if (variant == 1) {
+            options.setAlign(Alignment.BYTE_ALIGNED);
+        } else if (variant == 2) {
+            options.setCompression(true);
+        }
+        return options;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Encodes the document from the specified stream.
+     *
+     * @param is The stream.
+     * @param options The EXI options.
+     * @return The EXI stream.
+     */
+    private static byte[] encode(InputStream is, ExiOptions options) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( );
+        ExiDocument.encode(is, bos, options);
+        return bos.toByteArray( );
+    }
+}
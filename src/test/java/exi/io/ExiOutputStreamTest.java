@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package exi.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+/**
+ * Test class for the integer and string encodings of {@link ExiOutputStream}
+ * and {@link ExiInputStream}.
+ */
+public class ExiOutputStreamTest {
+
+    // ------------------------------------------------------------------------
+    // Test data
+    // ------------------------------------------------------------------------
+
+    /**
+     * Values around the 7-bit group boundaries of Unsigned Integers.
+     */
+    private static final int[] VALUES = new int[] {
+        0, 1, 127, 128, 255, 256, 0x151, 16383, 16384, 2097151, Integer.MAX_VALUE
+    };
+
+    // ------------------------------------------------------------------------
+    // Test methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether the <code>int</code>/<code>long</code> and the
+     * {@link BigInteger} variants of Unsigned Integers write the same bytes
+     * and whether the values can be read back.
+     *
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void testUnsignedInteger( ) throws Exception {
+        for (int value : VALUES) {
+            ExiOutputStream a = new ExiOutputStream( );
+            a.writeUnsignedInteger(value);
+            a.flush( );
+            ExiOutputStream b = new ExiOutputStream( );
+            b.writeUnsignedInteger(BigInteger.valueOf(value));
+            b.flush( );
+            assertArrayEquals(String.valueOf(value), a.toByteArray( ), b.toByteArray( ));
+
+            assertEquals(value, new ExiInputStream(a.toByteArray( )).readUnsignedInt( ));
+            assertEquals(BigInteger.valueOf(value), new ExiInputStream(a.toByteArray( )).readUnsignedInteger( ));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether the <code>int</code> and the {@link BigInteger} variants
+     * of n-bit Unsigned Integers write the same bits in both alignments.
+     *
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void testNBitUnsignedInteger( ) throws Exception {
+        for (int aligned = 0; aligned < 2; ++aligned) {
+            for (int value : VALUES) {
+                int bits = 32 - Integer.numberOfLeadingZeros(value);
+                ExiOutputStream a = new ExiOutputStream( );
+                ExiOutputStream b = new ExiOutputStream( );
+                a.writeBits(1, 3);
+                b.writeBits(1, 3);
+                if (aligned == 1) {
+                    a.setByteAligned( );
+                    b.setByteAligned( );
+                }
+                a.writeNBitUnsignedInteger(value, bits);
+                a.flush( );
+                b.writeNBitUnsignedInteger(BigInteger.valueOf(value), bits);
+                b.flush( );
+                assertArrayEquals(String.valueOf(value), a.toByteArray( ), b.toByteArray( ));
+
+                ExiInputStream is = new ExiInputStream(a.toByteArray( ));
+                assertEquals(1, is.readBits(3));
+                if (aligned == 1) {
+                    is.setByteAligned( );
+                }
+                assertEquals(value, is.readNBitUnsignedInt(bits));
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether strings outside the Basic Multilingual Plane are written
+     * as code points and are read back unchanged.
+     *
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void testString( ) throws Exception {
+        String s = "a\u0151\u4E2D\uD83D\uDE00z";
+        ExiOutputStream os = new ExiOutputStream( );
+        os.writeString(s);
+        os.flush( );
+
+        ExiInputStream is = new ExiInputStream(os.toByteArray( ));
+        assertEquals(5, is.readUnsignedInt( ));
+        is = new ExiInputStream(os.toByteArray( ));
+        assertEquals(s, is.readString( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests the bit widths for n-bit Unsigned Integers.
+     */
+    @Test
+    public void testWidth( ) {
+        assertEquals(0, ExiBits.getWidth(1));
+        assertEquals(1, ExiBits.getWidth(2));
+        assertEquals(2, ExiBits.getWidth(3));
+        assertEquals(2, ExiBits.getWidth(4));
+        assertEquals(3, ExiBits.getWidth(5));
+        assertEquals(10, ExiBits.getWidth(1024));
+        assertEquals(11, ExiBits.getWidth(1025));
+        assertEquals(31, ExiBits.getWidth(Integer.MAX_VALUE));
+    }
+}
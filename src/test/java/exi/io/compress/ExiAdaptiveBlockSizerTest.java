@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package exi.io.compress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test class for {@link ExiAdaptiveBlockSizer}.
+ */
+public class ExiAdaptiveBlockSizerTest {
+
+    // ------------------------------------------------------------------------
+    // Test methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether the memory budget limits the block size and whether the
+     * block size changes by at most a factor of two at a time.
+     */
+    @Test
+    public void testMemoryBudget( ) {
+        // 10 bytes per value and a budget of 10000 bytes allow 1000 values
+        ExiAdaptiveBlockSizer sizer = new ExiAdaptiveBlockSizer(100, 100000, 10000, 10000, Long.MAX_VALUE);
+        assertEquals(10000, sizer.nextBlockSize( ));
+
+        sizer.recordBlock(10000, 100000, 0, 0);
+        assertEquals(5000, sizer.nextBlockSize( ));
+        sizer.recordBlock(5000, 50000, 0, 0);
+        assertEquals(2500, sizer.nextBlockSize( ));
+        sizer.recordBlock(2500, 25000, 0, 0);
+        sizer.recordBlock(1250, 12500, 0, 0);
+        assertEquals(1000, sizer.nextBlockSize( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether the latency budget limits the block size.
+     */
+    @Test
+    public void testLatencyBudget( ) {
+        // 10 bytes per value at 10ns per byte and a budget of 1ms allow 10000 values
+        ExiAdaptiveBlockSizer sizer = new ExiAdaptiveBlockSizer(100, 100000, 10000, Long.MAX_VALUE, 1000000);
+        sizer.recordBlock(10000, 100000, 100000, 1000000);
+        assertEquals(10000, sizer.nextBlockSize( ));
+        // deflating gets slower
+        sizer.recordBlock(10000, 100000, 100000, 4000000);
+        int size = sizer.nextBlockSize( );
+        assertTrue(size >= 5000 && size < 10000);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests the store/deflate decision for small and incompressible channels.
+     */
+    @Test
+    public void testStoreDecision( ) {
+        ExiAdaptiveBlockSizer sizer = new ExiAdaptiveBlockSizer( );
+        String channel = "channel";
+
+        assertFalse(sizer.shouldDeflate(channel, ExiAdaptiveBlockSizer.SMALL_CHANNEL - 1));
+        assertTrue(sizer.shouldDeflate(channel, 1000));
+
+        sizer.recordChannel(channel, 1000, 1005);
+        assertFalse(sizer.shouldDeflate(channel, 1000));
+        assertTrue(sizer.shouldDeflate(ExiAdaptiveBlockSizer.STRUCTURE_CHANNEL, 1000));
+
+        // incompressible data does not need large blocks
+        sizer.recordBlock(1000, 10000, 10000, 1000);
+        assertEquals(ExiAdaptiveBlockSizer.INITIAL_BLOCK_SIZE_DEFAULT / 2, sizer.nextBlockSize( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether only the most recently used channels are remembered.
+     */
+    @Test
+    public void testChannelLimit( ) {
+        ExiAdaptiveBlockSizer sizer = new ExiAdaptiveBlockSizer( );
+        sizer.recordChannel("first", 1000, 1005);
+        sizer.recordChannel("second", 1000, 1005);
+        assertFalse(sizer.shouldDeflate("first", 1000));
+
+        for (int i = 0; i < ExiAdaptiveBlockSizer.MAX_CHANNELS - 1; i++) {
+            sizer.recordChannel("channel" + i, 1000, 100);
+        }
+        // "second" has been used least recently and is forgotten
+        assertFalse(sizer.shouldDeflate("first", 1000));
+        assertTrue(sizer.shouldDeflate("second", 1000));
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package exi.io.compress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+
+import org.junit.Test;
+
+import exi.ExiDocument;
+import exi.ExiOptions;
+
+/**
+ * Test class for {@link ExiBlockIndex}.
+ */
+public class ExiBlockIndexTest {
+
+    // ------------------------------------------------------------------------
+    // Test methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether an index survives being written as a trailer and read
+     * back from the end of a stream.
+     */
+    @Test
+    public void testTrailer( ) throws Exception {
+        ExiBlockIndex index = new ExiBlockIndex( );
+        index.add(new ExiBlockIndex.Entry(12, 300, 40, 7, 4, 5, 46, 0));
+        index.add(new ExiBlockIndex.Entry(312, 100000, 1, 100000, 5, 5, 50, 7));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        out.write(new byte[] {1, 2, 3});
+        index.writeTrailer(out);
+        byte[] stream = out.toByteArray( );
+
+        ExiBlockIndex read = ExiBlockIndex.readTrailer(stream);
+        assertNotNull(read);
+        assertEquals(2, read.getBlockCount( ));
+        ExiBlockIndex.Entry e = read.getEntry(1);
+        assertEquals(312, e.getOffset( ));
+        assertEquals(100000, e.getLength( ));
+        assertEquals(1, e.getEvents( ));
+        assertEquals(100000, e.getValues( ));
+        assertEquals(50, e.getLocalNames( ));
+        assertEquals(7, e.getGlobalValues( ));
+        assertEquals(stream.length - 3, ExiBlockIndex.getTrailerLength(stream, stream.length));
+
+        assertNull(ExiBlockIndex.readTrailer(new byte[] {1, 2, 3}));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether compressed streams get a trailer describing their blocks
+     * and whether the last block can be read on its own.
+     */
+    @Test
+    public void testCompressedStream( ) throws Exception {
+        ExiOptions options = new ExiOptions( );
+        options.setCompression(true);
+        options.setBlockSize(5);
+        options.setBlockIndex(true);
+        byte[] stream = ExiDocument.encode("src/main/resources/exi-notebook.xml", options);
+
+        ExiBlockIndex index = ExiBlockIndex.readTrailer(stream);
+        assertNotNull(index);
+        assertTrue(index.getBlockCount( ) > 1);
+
+        int last = index.getBlockCount( ) - 1;
+        ExiBlockIndex.Entry first = index.getEntry(0);
+        ExiBlockIndex.Entry e = index.getEntry(last);
+        assertTrue(e.getGlobalValues( ) > first.getGlobalValues( ));
+        assertEquals(stream.length - ExiBlockIndex.getTrailerLength(stream, stream.length),
+                e.getOffset( ) + e.getLength( ));
+        assertTrue(index.getBlockData(stream, last, true).length > 0);
+
+        options.setBlockIndex(false);
+        byte[] plain = ExiDocument.encode("src/main/resources/exi-notebook.xml", options);
+        assertEquals(decode(plain), decode(stream));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether a trailer is only stripped if the header announces it,
+     * rather than whenever the stream happens to end like one.
+     */
+    @Test
+    public void testUnannouncedTrailer( ) throws Exception {
+        ExiOptions options = new ExiOptions( );
+        options.setCompression(true);
+        byte[] plain = ExiDocument.encode("src/main/resources/exi-notebook.xml", options);
+        assertNull(ExiBlockIndex.readTrailer(plain));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        out.write(plain);
+        new ExiBlockIndex( ).writeTrailer(out);
+        try {
+            decode(out.toByteArray( ));
+            fail("Unannounced trailer was stripped");
+        } catch (DataFormatException e) {
+            // expected, the trailer is taken for compressed data
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Private helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Decodes the specified stream to XML.
+     *
+     * @param stream The EXI stream.
+     * @return The XML document.
+     */
+    private static String decode(byte[] stream) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        ExiDocument.decode(stream, out);
+        return out.toString("UTF-8");
+    }
+}
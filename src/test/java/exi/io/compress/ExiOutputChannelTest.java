@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package exi.io.compress;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link ExiOutputChannel}.
+ */
+public class ExiOutputChannelTest {
+
+    // ------------------------------------------------------------------------
+    // JUnit stuff
+    // ------------------------------------------------------------------------
+
+    /**
+     * A small pool so that channels span several segments quickly.
+     */
+    private ExiSegmentPool pool;
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * @throws Exception If something goes wrong.
+     */
+    @Before
+    public void setUp( ) throws Exception {
+        this.pool = new ExiSegmentPool(8, 16);
+    }
+
+    // ------------------------------------------------------------------------
+    // Test methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether data spanning several segments is returned unchanged by
+     * {@link ExiOutputChannel#toByteArray()} and
+     * {@link ExiOutputChannel#writeTo(java.io.OutputStream)}.
+     *
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void testSegmentedData( ) throws Exception {
+        byte[] expected = new byte[29];
+        for (int i = 0; i < expected.length; ++i) {
+            expected[i] = (byte)(i * 7);
+        }
+
+        ExiOutputChannel channel = new ExiStructureOutputChannel(this.pool);
+        channel.write(expected[0]);
+        channel.write(expected, 1, 12);
+        channel.write(expected, 13, expected.length - 13);
+
+        assertEquals(expected.length, channel.size( ));
+        assertArrayEquals(expected, channel.toByteArray( ));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        channel.writeTo(out);
+        assertArrayEquals(expected, out.toByteArray( ));
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether released segments are handed out again.
+     */
+    @Test
+    public void testRelease( ) {
+        ExiOutputChannel channel = new ExiStructureOutputChannel(this.pool);
+        channel.write(new byte[20], 0, 20);
+        channel.release( );
+
+        assertEquals(0, channel.size( ));
+        assertEquals(3, this.pool.getFreeSegments( ));
+
+        channel.write(1);
+        assertEquals(2, this.pool.getFreeSegments( ));
+        assertArrayEquals(new byte[] {1}, channel.toByteArray( ));
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2010, Marco Wegner and Dennis Pfisterer, Institute of Telematics, University of Luebeck
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 	- Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * 	  disclaimer.
+ * 	- Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * 	  following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 	- Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ * 	  products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ *
+ */
+package exi.metrics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import exi.ExiCodec;
+import exi.ExiDocument;
+import exi.ExiOptions;
+import exi.ExiOptions.Alignment;
+import exi.events.ExiEventType;
+import exi.metrics.ExiMetrics.Partition;
+
+/**
+ * Test class for {@link ExiMetrics}.
+ */
+public class ExiMetricsTest {
+
+    // ------------------------------------------------------------------------
+    // Constants
+    // ------------------------------------------------------------------------
+
+    /**
+     * The XML files used for testing.
+     */
+    private static final String[] FILES = {
+        "src/main/resources/exi-notebook.xml",
+        "src/main/resources/exi-example.xml",
+    };
+
+    // ------------------------------------------------------------------------
+    // Test methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests whether encoding and decoding count the same events and string
+     * table lookups in all alignments, although compressed streams resolve
+     * their values per channel.
+     */
+    @Test
+    public void testEncodeDecode( ) throws Exception {
+        for (Alignment align : Alignment.values( )) {
+            for (boolean compression : new boolean[] { false, true }) {
+                if (compression && align != Alignment.BIT_PACKED) {
+                    continue;
+                }
+                ExiMetrics encoded = new ExiMetrics( );
+                ExiMetrics decoded = new ExiMetrics( );
+                ExiCodec codec = new ExiCodec( );
+                codec.setMetrics(decoded);
+                for (String file : FILES) {
+                    ExiOptions options = new ExiOptions( );
+                    options.setAlign(align);
+                    options.setCompression(compression);
+                    options.setBlockSize(50);
+                    options.setMetrics(encoded);
+                    codec.decode(ExiDocument.encode(file, options), new ByteArrayOutputStream( ));
+                }
+
+                String mode = align + (compression ? "+compression" : "");
+                assertEquals(mode, FILES.length, encoded.getDocumentsEncoded( ));
+                assertEquals(mode, FILES.length, decoded.getDocumentsDecoded( ));
+                assertEquals(mode, FILES.length, encoded.getEvents(ExiEventType.EndDocument));
+                assertTrue(mode, encoded.getEvents(ExiEventType.StartElement) > 0);
+                assertTrue(mode, encoded.getMisses(Partition.GLOBAL_VALUE) > 0);
+                assertTrue(mode, encoded.getGrammarExtensions( ) > 0);
+                assertEquals(mode, encoded.getEvents( ), decoded.getEvents( ));
+                assertEquals(mode, encoded.getStringTableHits( ), decoded.getStringTableHits( ));
+                assertEquals(mode, encoded.getStringTableMisses( ), decoded.getStringTableMisses( ));
+                assertEquals(mode, encoded.getGrammarExtensions( ), decoded.getGrammarExtensions( ));
+                assertEquals(mode, FILES.length, encoded.getEncodeLatency( ).getCount( ));
+
+                if (align != Alignment.PRE_COMPRESSED && !compression) {
+                    assertEquals(mode, 0, encoded.getBlocksWritten( ));
+                    assertTrue(mode, encoded.getChannelRawBytes( ).isEmpty( ));
+                } else {
+                    assertTrue(mode, encoded.getBlocksWritten( ) >= FILES.length);
+                    assertTrue(mode, encoded.getChannelRawBytes( ).containsKey("combined"));
+                    assertEquals(mode, compression, encoded.getDeflateNanos( ) > 0);
+                    assertEquals(mode, compression, decoded.getInflateNanos( ) > 0);
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests the histogram's buckets and percentiles.
+     */
+    @Test
+    public void testHistogram( ) {
+        ExiHistogram h = new ExiHistogram( );
+        assertEquals(0, h.getPercentile(99));
+        h.record(0);
+        h.record(1);
+        h.record(5);
+        h.record(5);
+        h.record(1000);
+        assertArrayEquals(new long[] { 1, 1, 0, 2, 0, 0, 0, 0, 0, 0, 1 }, h.getBuckets( ));
+        assertEquals(5, h.getCount( ));
+        assertEquals(1011, h.getSum( ));
+        assertEquals(7, h.getPercentile(50));
+        assertEquals(1023, h.getPercentile(99));
+        h.reset( );
+        assertEquals(0, h.getBuckets( ).length);
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Tests registering the metrics with the platform MBean server.
+     */
+    @Test
+    public void testRegister( ) throws Exception {
+        ExiMetrics metrics = new ExiMetrics( );
+        ExiOptions options = new ExiOptions( );
+        options.setMetrics(metrics);
+        ExiDocument.encode(FILES[0], options);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer( );
+        ObjectName name = metrics.register("test");
+        try {
+            assertEquals(1L, server.getAttribute(name, "DocumentsEncoded"));
+            assertTrue(server.getAttribute(name, "StringTableHits") != null);
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "DocumentsEncoded"));
+        } finally {
+            metrics.unregister( );
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}